@@ -0,0 +1,85 @@
+package com.sangupta.jerry.db.benchmark;
+
+import java.io.Serializable;
+
+import org.springframework.data.annotation.Id;
+
+/**
+ * Entity stored in the benchmarks. It is {@link Serializable} so that the
+ * default serializers of the Redis template can store it.
+ * 
+ * @author sangupta
+ *
+ */
+public class BenchmarkEntity implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    private String id;
+
+    private String name;
+
+    private long value;
+
+    private long created;
+
+    public BenchmarkEntity() {
+        // for serializers
+    }
+
+    public BenchmarkEntity(String id, long value) {
+        this.id = id;
+        this.name = "entity-" + value;
+        this.value = value;
+        this.created = System.currentTimeMillis();
+    }
+
+    /**
+     * Return the primary key for the given index. Keys are hex strings that are
+     * also valid MongoDB <code>ObjectId</code> values, so the same keys work
+     * across all stores.
+     * 
+     * @param index the index of the entity
+     * 
+     * @return the primary key
+     */
+    public static String id(long index) {
+        return String.format("%024x", index);
+    }
+
+    // Usual accessors follow
+
+    public String getId() {
+        return this.id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getValue() {
+        return this.value;
+    }
+
+    public void setValue(long value) {
+        this.value = value;
+    }
+
+    public long getCreated() {
+        return this.created;
+    }
+
+    public void setCreated(long created) {
+        this.created = created;
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.sangupta.jerry.db.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for each thread count, with the GC profiler
+ * attached so that the allocation rate per operation is reported along with
+ * the throughput.
+ * 
+ * The first argument, if any, is a regular expression to select the
+ * benchmarks to run. The thread counts are read from the
+ * <code>benchmark.threads</code> system property as a comma separated list,
+ * and default to {@link #DEFAULT_THREADS}.
+ * 
+ * @author sangupta
+ *
+ */
+public class BenchmarkRunner {
+
+    public static final String DEFAULT_THREADS = "1,4,8";
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackageName() + ".*";
+        String threads = System.getProperty("benchmark.threads", DEFAULT_THREADS);
+
+        for (String count : threads.split(",")) {
+            Options options = new OptionsBuilder().include(include)
+                                                  .threads(Integer.parseInt(count.trim()))
+                                                  .addProfiler(GCProfiler.class)
+                                                  .build();
+
+            new Runner(options).run();
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+package com.sangupta.jerry.db.benchmark;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import com.github.fppt.jedismock.RedisServer;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.impl.DiskBackedInMemoryDataStoreServiceImpl;
+import com.sangupta.jerry.db.impl.DiskBackedInMemoryDataStoreServiceImpl.DurabilityMode;
+import com.sangupta.jerry.db.impl.DiskBackedInMemoryDataStoreServiceImpl.SnapshotFormat;
+import com.sangupta.jerry.db.impl.InMemoryDataStoreServiceImpl;
+import com.sangupta.jerry.db.impl.MongoDbDataStoreServiceImpl;
+import com.sangupta.jerry.db.impl.RedisDataStoreServiceImpl;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+/**
+ * A {@link DataStoreService} under benchmark, along with the resources it
+ * runs on. Redis and MongoDB run as in-process servers that speak the wire
+ * protocol, so that the numbers include serialization and the network round
+ * trip but do not depend on an external installation.
+ * 
+ * @author sangupta
+ *
+ */
+public class BenchmarkStore implements Closeable {
+
+    /**
+     * The kind of stores that can be benchmarked
+     */
+    public enum Kind {
+
+        IN_MEMORY,
+
+        IN_MEMORY_ORDERED,
+
+        DISK_BACKED,
+
+        DISK_BACKED_WAL,
+
+        REDIS,
+
+        MONGO;
+
+    }
+
+    public final DataStoreService<BenchmarkEntity, String> service;
+
+    private final Closeable resources;
+
+    private BenchmarkStore(DataStoreService<BenchmarkEntity, String> service, Closeable resources) {
+        this.service = service;
+        this.resources = resources;
+    }
+
+    /**
+     * Create an empty store of the given kind.
+     * 
+     * @param kind the kind of store
+     * 
+     * @return the store, never <code>null</code>
+     * 
+     * @throws IOException if the store cannot be started
+     */
+    public static BenchmarkStore create(Kind kind) throws IOException {
+        switch (kind) {
+            case IN_MEMORY:
+                return new BenchmarkStore(new InMemoryDataStoreServiceImpl<BenchmarkEntity, String>() {}, () -> {});
+
+            case IN_MEMORY_ORDERED:
+                return new BenchmarkStore(new InMemoryDataStoreServiceImpl<BenchmarkEntity, String>(true) {}, () -> {});
+
+            case DISK_BACKED:
+                return diskBacked(SnapshotFormat.BINARY, DurabilityMode.ON_FLUSH);
+
+            case DISK_BACKED_WAL:
+                return diskBacked(SnapshotFormat.BINARY, DurabilityMode.WRITE_AHEAD_LOG);
+
+            case REDIS:
+                return redis();
+
+            case MONGO:
+                return mongo();
+
+            default:
+                throw new IllegalArgumentException("Unknown store kind: " + kind);
+        }
+    }
+
+    /**
+     * Create a disk-backed store in a fresh temporary folder, which is removed
+     * when the store is closed.
+     * 
+     * @param format     the snapshot format to flush with
+     * 
+     * @param durability the durability mode
+     * 
+     * @return the store
+     * 
+     * @throws IOException if the folder cannot be created
+     */
+    public static BenchmarkStore diskBacked(SnapshotFormat format, DurabilityMode durability) throws IOException {
+        final Path folder = Files.createTempDirectory("jerry-benchmark");
+        File dbPath = folder.resolve("entities.db").toFile();
+
+        return new BenchmarkStore(new DiskBackedInMemoryDataStoreServiceImpl<BenchmarkEntity, String>(dbPath, format, durability) {}, () -> {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        });
+    }
+
+    private static BenchmarkStore redis() throws IOException {
+        final RedisServer server = RedisServer.newRedisServer();
+        server.start();
+
+        final JedisConnectionFactory factory = new JedisConnectionFactory(new RedisStandaloneConfiguration(server.getHost(), server.getBindPort()));
+        factory.afterPropertiesSet();
+
+        final RedisTemplate<String, Object> template = new RedisTemplate<>();
+        template.setConnectionFactory(factory);
+        template.setKeySerializer(StringRedisSerializer.UTF_8);
+        template.setHashKeySerializer(StringRedisSerializer.UTF_8);
+        template.afterPropertiesSet();
+
+        RedisDataStoreServiceImpl<BenchmarkEntity, String> service = new RedisDataStoreServiceImpl<BenchmarkEntity, String>() {
+            {
+                this.redisTemplate = template;
+            }
+        };
+
+        return new BenchmarkStore(service, () -> {
+            factory.destroy();
+            server.stop();
+        });
+    }
+
+    private static BenchmarkStore mongo() {
+        final MongoServer server = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = server.bind();
+
+        final MongoClient client = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+        MongoDbDataStoreServiceImpl<BenchmarkEntity, String> service = new MongoDbDataStoreServiceImpl<BenchmarkEntity, String>(client.getDatabase("benchmark")) {};
+
+        return new BenchmarkStore(service, () -> {
+            client.close();
+            server.shutdownNow();
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.service.close();
+        } finally {
+            this.resources.close();
+        }
+    }
+
+}
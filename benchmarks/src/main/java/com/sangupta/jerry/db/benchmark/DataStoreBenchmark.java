@@ -0,0 +1,144 @@
+package com.sangupta.jerry.db.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sangupta.jerry.db.DataStoreService;
+
+/**
+ * Benchmarks the common operations of each {@link DataStoreService}
+ * implementation, against a store pre-loaded with {@link #entityCount}
+ * entities. The store is shared by all benchmark threads; run with different
+ * thread counts using {@link BenchmarkRunner}, or the <code>-t</code> option
+ * of JMH.
+ * 
+ * Inserted entities always use fresh keys, thus the store grows over the
+ * course of the {@link #insert()} benchmark.
+ * 
+ * @author sangupta
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataStoreBenchmark {
+
+    /**
+     * Number of entities written per call when loading the store
+     */
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    @Param({ "IN_MEMORY", "IN_MEMORY_ORDERED", "DISK_BACKED", "DISK_BACKED_WAL", "REDIS", "MONGO" })
+    public BenchmarkStore.Kind store;
+
+    @Param({ "1000", "100000" })
+    public int entityCount;
+
+    /**
+     * Number of entities read by {@link #getMultiple()} and
+     * {@link #getAllPage()}
+     */
+    @Param({ "100" })
+    public int batchSize;
+
+    private BenchmarkStore benchmarkStore;
+
+    private DataStoreService<BenchmarkEntity, String> service;
+
+    private String[] ids;
+
+    private final AtomicLong nextIndex = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.benchmarkStore = BenchmarkStore.create(this.store);
+        this.service = this.benchmarkStore.service;
+
+        this.ids = new String[this.entityCount];
+        List<BenchmarkEntity> batch = new ArrayList<>(LOAD_BATCH_SIZE);
+        for (int index = 0; index < this.entityCount; index++) {
+            this.ids[index] = BenchmarkEntity.id(index);
+            batch.add(new BenchmarkEntity(this.ids[index], index));
+
+            if (batch.size() == LOAD_BATCH_SIZE) {
+                this.service.insertMultiple(batch);
+                batch.clear();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            this.service.insertMultiple(batch);
+        }
+
+        this.nextIndex.set(this.entityCount);
+
+        // a store that reads nothing would be measured as very fast
+        if (this.getMultiple().isEmpty() || this.getAllPage().isEmpty()) {
+            throw new IllegalStateException("Store " + this.store + " returned no entities for a loaded batch");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.benchmarkStore.close();
+    }
+
+    @Benchmark
+    public BenchmarkEntity get() {
+        return this.service.get(this.randomID());
+    }
+
+    @Benchmark
+    public List<BenchmarkEntity> getMultiple() {
+        String[] batch = new String[this.batchSize];
+        for (int index = 0; index < batch.length; index++) {
+            batch[index] = this.randomID();
+        }
+
+        return this.service.getMultiple(batch);
+    }
+
+    @Benchmark
+    public BenchmarkEntity insert() {
+        long index = this.nextIndex.getAndIncrement();
+        return this.service.insert(new BenchmarkEntity(BenchmarkEntity.id(index), index));
+    }
+
+    @Benchmark
+    public BenchmarkEntity upsert() {
+        int index = ThreadLocalRandom.current().nextInt(this.ids.length);
+        return this.service.upsert(new BenchmarkEntity(this.ids[index], index));
+    }
+
+    @Benchmark
+    public List<BenchmarkEntity> getAllPage() {
+        int pages = Math.max(1, this.entityCount / this.batchSize);
+        return this.service.getAll(ThreadLocalRandom.current().nextInt(pages), this.batchSize);
+    }
+
+    private String randomID() {
+        return this.ids[ThreadLocalRandom.current().nextInt(this.ids.length)];
+    }
+
+}
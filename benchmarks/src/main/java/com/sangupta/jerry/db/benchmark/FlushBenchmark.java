@@ -0,0 +1,76 @@
+package com.sangupta.jerry.db.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sangupta.jerry.db.impl.DiskBackedInMemoryDataStoreServiceImpl;
+import com.sangupta.jerry.db.impl.DiskBackedInMemoryDataStoreServiceImpl.DurabilityMode;
+import com.sangupta.jerry.db.impl.DiskBackedInMemoryDataStoreServiceImpl.SnapshotFormat;
+
+/**
+ * Benchmarks {@link DiskBackedInMemoryDataStoreServiceImpl#flush()} for each
+ * snapshot format. Flushes are serialized by the store, thus this benchmark is
+ * meant to be run with a single thread.
+ * 
+ * @author sangupta
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlushBenchmark {
+
+    @Param({ "JSON", "BINARY" })
+    public SnapshotFormat format;
+
+    @Param({ "1000", "100000" })
+    public int entityCount;
+
+    private BenchmarkStore benchmarkStore;
+
+    private DiskBackedInMemoryDataStoreServiceImpl<BenchmarkEntity, String> service;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws IOException {
+        this.benchmarkStore = BenchmarkStore.diskBacked(this.format, DurabilityMode.ON_FLUSH);
+        this.service = (DiskBackedInMemoryDataStoreServiceImpl<BenchmarkEntity, String>) this.benchmarkStore.service;
+
+        List<BenchmarkEntity> entities = new ArrayList<>(this.entityCount);
+        for (int index = 0; index < this.entityCount; index++) {
+            entities.add(new BenchmarkEntity(BenchmarkEntity.id(index), index));
+        }
+
+        this.service.insertMultiple(entities);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.benchmarkStore.close();
+    }
+
+    @Benchmark
+    public void flush() {
+        this.service.flush();
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.sangupta.jerry.db;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous counterpart of {@link DataStoreService}. Each method returns
+ * immediately with a {@link CompletableFuture} that completes with the same
+ * value the corresponding {@link DataStoreService} method would return, or
+ * completes exceptionally with the exception it would throw.
+ *
+ * This allows a caller to fan out many independent operations, and compose
+ * their results, without blocking a thread for each one of them.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ *
+ * @param <X> The primary ID key for this entity object
+ */
+public interface AsyncDataStoreService<T, X> {
+
+    /**
+     * Retrieve the entity object with the given primary key.
+     *
+     * @param primaryID the primary key for which to look for the object
+     *
+     * @return future for the object stored against the primary key
+     *
+     * @see DataStoreService#get(Object)
+     */
+    public CompletableFuture<T> get(X primaryID);
+
+    /**
+     * Retrieve all entities that match the given primary identifiers.
+     *
+     * @param ids the primary key identifiers for which we need to fetch the
+     *            objects
+     *
+     * @return future for the list of objects found
+     *
+     * @see DataStoreService#getMultiple(Collection)
+     */
+    public CompletableFuture<List<T>> getMultiple(Collection<X> ids);
+
+    /**
+     * Insert a new entity object into the data store.
+     *
+     * @param entity the entity that needs to be saved
+     *
+     * @return future for the entity if it was inserted, <code>null</code>
+     *         otherwise
+     *
+     * @see DataStoreService#insert(Object)
+     */
+    public CompletableFuture<T> insert(T entity);
+
+    /**
+     * Update the entity object in the data store.
+     *
+     * @param entity the entity to be updated
+     *
+     * @return future for the entity if it was updated, <code>null</code>
+     *         otherwise
+     *
+     * @see DataStoreService#update(Object)
+     */
+    public CompletableFuture<T> update(T entity);
+
+    /**
+     * Add or update the entity object in the data store.
+     *
+     * @param entity the entity to be persisted or updated
+     *
+     * @return future for the entity if it was upserted, <code>null</code>
+     *         otherwise
+     *
+     * @see DataStoreService#upsert(Object)
+     */
+    public CompletableFuture<T> upsert(T entity);
+
+    /**
+     * Delete the given entity from the data store.
+     *
+     * @param entity the object to be removed
+     *
+     * @return future for the entity if it was deleted, <code>null</code>
+     *         otherwise
+     *
+     * @see DataStoreService#delete(Object)
+     */
+    public CompletableFuture<T> delete(T entity);
+
+    /**
+     * Delete the entity with the given primary key.
+     *
+     * @param primaryID the primary key of the object to be removed
+     *
+     * @return future for the entity if it was deleted, <code>null</code>
+     *         otherwise
+     *
+     * @see DataStoreService#deleteForID(Object)
+     */
+    public CompletableFuture<T> deleteForID(X primaryID);
+
+    /**
+     * Delete all entities with the given primary keys.
+     *
+     * @param ids primary IDs for which entities are to be removed
+     *
+     * @return future for the list of entities that were removed
+     *
+     * @see DataStoreService#deleteMultiple(Collection)
+     */
+    public CompletableFuture<List<T>> deleteMultiple(Collection<X> ids);
+
+}
@@ -0,0 +1,28 @@
+package com.sangupta.jerry.db;
+
+/**
+ * Source of the current time used to stamp entities on write. A coarse clock,
+ * such as {@link com.sangupta.jerry.db.impl.CoarseDataStoreClock}, may be
+ * plugged in where reading the system clock on every write is too costly and
+ * millisecond precision is not needed.
+ * 
+ * @author sangupta
+ *
+ * @since 2.0.0
+ */
+@FunctionalInterface
+public interface DataStoreClock {
+
+    /**
+     * Clock that reads {@link System#currentTimeMillis()} on every call
+     */
+    public static final DataStoreClock SYSTEM = System::currentTimeMillis;
+
+    /**
+     * Return the current time.
+     * 
+     * @return the current time in milliseconds since the epoch
+     */
+    public long currentTimeMillis();
+
+}
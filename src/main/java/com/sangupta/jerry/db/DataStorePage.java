@@ -0,0 +1,57 @@
+package com.sangupta.jerry.db;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single page of entities as returned by
+ * {@link DataStoreService#getPage(String, int)}, along with the opaque token
+ * to fetch the next page.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ */
+public class DataStorePage<T> {
+
+    private final List<T> entities;
+
+    private final String nextToken;
+
+    public DataStorePage(List<T> entities, String nextToken) {
+        this.entities = entities != null ? Collections.unmodifiableList(entities) : Collections.emptyList();
+        this.nextToken = nextToken;
+    }
+
+    /**
+     * Return the entities in this page.
+     *
+     * @return the entities, never <code>null</code>
+     */
+    public List<T> getEntities() {
+        return this.entities;
+    }
+
+    /**
+     * Return the token to pass to {@link DataStoreService#getPage(String, int)}
+     * to fetch the next page.
+     *
+     * @return the token, or <code>null</code> if this is the last page
+     */
+    public String getNextToken() {
+        return this.nextToken;
+    }
+
+    /**
+     * Check if there are more pages after this one.
+     *
+     * @return <code>true</code> if there is a next page, <code>false</code>
+     *         otherwise
+     */
+    public boolean hasNext() {
+        return this.nextToken != null;
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.sangupta.jerry.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A partial update to a single entity of a {@link DataStoreService}, as
+ * accepted by {@link DataStoreService#patch(Object, DataStorePatch)}. A patch
+ * is a list of changes to the fields of the entity, applied in order.
+ *
+ * <pre>
+ * DataStorePatch patch = new DataStorePatch().set("status", "active").inc("visits", 1);
+ * boolean patched = service.patch(id, patch);
+ * </pre>
+ *
+ * Fields are named as in the entity class. Stores translate the patch to a
+ * native partial update of the underlying store wherever they can, so that
+ * only the changed fields are sent and written, instead of the whole entity.
+ * The changes to apply may also be worked out from the fields changed since an
+ * entity was read, using a {@link DataStoreTracker}.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ */
+public class DataStorePatch {
+
+    /**
+     * The operator of a {@link Change}
+     */
+    public static enum Operator {
+
+        /**
+         * Set the field to the value, or clear it if the value is
+         * <code>null</code>
+         */
+        SET,
+
+        /**
+         * Add the value to the numeric field, a field without a value counting
+         * as zero
+         */
+        INC;
+
+    }
+
+    /**
+     * A single change to a field of the entity.
+     */
+    public static class Change {
+
+        private final String field;
+
+        private final Operator operator;
+
+        private final Object value;
+
+        Change(String field, Operator operator, Object value) {
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        public String getField() {
+            return this.field;
+        }
+
+        public Operator getOperator() {
+            return this.operator;
+        }
+
+        /**
+         * Return the value to set, or to add to the field.
+         *
+         * @return the value, a {@link Number} for {@link Operator#INC}
+         */
+        public Object getValue() {
+            return this.value;
+        }
+
+        @Override
+        public String toString() {
+            return this.field + " " + this.operator + " " + this.value;
+        }
+
+    }
+
+    private final List<Change> changes = new ArrayList<>();
+
+    /**
+     * Set the field to the value.
+     *
+     * @param field the name of the field
+     *
+     * @param value the value, <code>null</code> to clear the field
+     *
+     * @return this patch
+     */
+    public DataStorePatch set(String field, Object value) {
+        return this.add(field, Operator.SET, value);
+    }
+
+    /**
+     * Add the value to the numeric field. Use a negative value to decrement.
+     *
+     * @param field the name of the field
+     *
+     * @param value the value to add, never <code>null</code>
+     *
+     * @return this patch
+     */
+    public DataStorePatch inc(String field, Number value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null");
+        }
+
+        return this.add(field, Operator.INC, value);
+    }
+
+    /**
+     * Return the changes, in the order they are applied.
+     *
+     * @return the changes, never <code>null</code>
+     */
+    public List<Change> getChanges() {
+        return Collections.unmodifiableList(this.changes);
+    }
+
+    /**
+     * Check if the patch has no changes.
+     *
+     * @return <code>true</code> if there are no changes
+     */
+    public boolean isEmpty() {
+        return this.changes.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "DataStorePatch [changes=" + this.changes + "]";
+    }
+
+    private DataStorePatch add(String field, Operator operator, Object value) {
+        if (field == null || field.isEmpty()) {
+            throw new IllegalArgumentException("Field cannot be empty");
+        }
+
+        this.changes.add(new Change(field, operator, value));
+        return this;
+    }
+
+}
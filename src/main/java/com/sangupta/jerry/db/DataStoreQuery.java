@@ -0,0 +1,346 @@
+package com.sangupta.jerry.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A backend-neutral query over the entities of a {@link DataStoreService}, as
+ * accepted by {@link DataStoreService#find(DataStoreQuery)}. A query is a list
+ * of criteria on the fields of the entity that must all match, an optional
+ * list of fields to sort on, and an optional limit on the number of entities.
+ *
+ * <pre>
+ * DataStoreQuery query = new DataStoreQuery().eq("status", "active").gte("age", 18).sortBy("age", false).limit(10);
+ * List&lt;MyEntity&gt; entities = service.find(query);
+ * </pre>
+ *
+ * Fields are named as in the entity class. Stores translate the query to the
+ * native query language of the underlying store wherever they can, so that
+ * only matching entities leave the store, and evaluate it over the entities
+ * otherwise.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ */
+public class DataStoreQuery {
+
+    /**
+     * The operator of a {@link Criterion}
+     */
+    public static enum Operator {
+
+        /**
+         * Field equals the value, or is <code>null</code> if the value is
+         * <code>null</code>
+         */
+        EQ,
+
+        /**
+         * Field is greater than the value
+         */
+        GT,
+
+        /**
+         * Field is greater than or equal to the value
+         */
+        GTE,
+
+        /**
+         * Field is less than the value
+         */
+        LT,
+
+        /**
+         * Field is less than or equal to the value
+         */
+        LTE,
+
+        /**
+         * Field equals one of the values in the collection
+         */
+        IN;
+
+    }
+
+    /**
+     * A single condition on a field of the entity.
+     */
+    public static class Criterion {
+
+        private final String field;
+
+        private final Operator operator;
+
+        private final Object value;
+
+        Criterion(String field, Operator operator, Object value) {
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        public String getField() {
+            return this.field;
+        }
+
+        public Operator getOperator() {
+            return this.operator;
+        }
+
+        /**
+         * Return the value to compare the field with.
+         *
+         * @return the value, a {@link Collection} for {@link Operator#IN}
+         */
+        public Object getValue() {
+            return this.value;
+        }
+
+        @Override
+        public String toString() {
+            return this.field + " " + this.operator + " " + this.value;
+        }
+
+    }
+
+    /**
+     * A field to sort the entities on.
+     */
+    public static class Sort {
+
+        private final String field;
+
+        private final boolean ascending;
+
+        Sort(String field, boolean ascending) {
+            this.field = field;
+            this.ascending = ascending;
+        }
+
+        public String getField() {
+            return this.field;
+        }
+
+        public boolean isAscending() {
+            return this.ascending;
+        }
+
+        @Override
+        public String toString() {
+            return this.field + (this.ascending ? " ASC" : " DESC");
+        }
+
+    }
+
+    private final List<Criterion> criteria = new ArrayList<>();
+
+    private final List<Sort> sorts = new ArrayList<>();
+
+    private int limit;
+
+    /**
+     * Match entities where the field equals the value. A <code>null</code>
+     * value matches entities where the field is <code>null</code>.
+     *
+     * @param field the name of the field
+     *
+     * @param value the value
+     *
+     * @return this query
+     */
+    public DataStoreQuery eq(String field, Object value) {
+        return this.add(field, Operator.EQ, value);
+    }
+
+    /**
+     * Match entities where the field is greater than the value.
+     *
+     * @param field the name of the field
+     *
+     * @param value the value, never <code>null</code>
+     *
+     * @return this query
+     */
+    public DataStoreQuery gt(String field, Object value) {
+        return this.add(field, Operator.GT, requireValue(value));
+    }
+
+    /**
+     * Match entities where the field is greater than or equal to the value.
+     *
+     * @param field the name of the field
+     *
+     * @param value the value, never <code>null</code>
+     *
+     * @return this query
+     */
+    public DataStoreQuery gte(String field, Object value) {
+        return this.add(field, Operator.GTE, requireValue(value));
+    }
+
+    /**
+     * Match entities where the field is less than the value.
+     *
+     * @param field the name of the field
+     *
+     * @param value the value, never <code>null</code>
+     *
+     * @return this query
+     */
+    public DataStoreQuery lt(String field, Object value) {
+        return this.add(field, Operator.LT, requireValue(value));
+    }
+
+    /**
+     * Match entities where the field is less than or equal to the value.
+     *
+     * @param field the name of the field
+     *
+     * @param value the value, never <code>null</code>
+     *
+     * @return this query
+     */
+    public DataStoreQuery lte(String field, Object value) {
+        return this.add(field, Operator.LTE, requireValue(value));
+    }
+
+    /**
+     * Match entities where the field is in the range, the lower end inclusive
+     * and the upper end exclusive.
+     *
+     * @param field the name of the field
+     *
+     * @param from  the lowest value, never <code>null</code>
+     *
+     * @param to    the value to stop before, never <code>null</code>
+     *
+     * @return this query
+     */
+    public DataStoreQuery range(String field, Object from, Object to) {
+        return this.gte(field, from).lt(field, to);
+    }
+
+    /**
+     * Match entities where the field equals one of the values.
+     *
+     * @param field  the name of the field
+     *
+     * @param values the values, never <code>null</code>
+     *
+     * @return this query
+     */
+    public DataStoreQuery in(String field, Collection<?> values) {
+        if (values == null) {
+            throw new IllegalArgumentException("Values cannot be null");
+        }
+
+        return this.add(field, Operator.IN, Collections.unmodifiableList(new ArrayList<>(values)));
+    }
+
+    /**
+     * Match entities where the field equals one of the values.
+     *
+     * @param field  the name of the field
+     *
+     * @param values the values, never <code>null</code>
+     *
+     * @return this query
+     */
+    public DataStoreQuery in(String field, Object... values) {
+        if (values == null) {
+            throw new IllegalArgumentException("Values cannot be null");
+        }
+
+        return this.in(field, Arrays.asList(values));
+    }
+
+    /**
+     * Sort the entities on the field. Sorts are applied in the order they are
+     * added, <code>null</code> values sort before all other values.
+     *
+     * @param field     the name of the field
+     *
+     * @param ascending <code>true</code> to sort in ascending order,
+     *                  <code>false</code> for descending
+     *
+     * @return this query
+     */
+    public DataStoreQuery sortBy(String field, boolean ascending) {
+        this.sorts.add(new Sort(requireField(field), ascending));
+        return this;
+    }
+
+    /**
+     * Return at most the given number of entities.
+     *
+     * @param limit the maximum number of entities, <code>0</code> for no limit
+     *
+     * @return this query
+     */
+    public DataStoreQuery limit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit cannot be negative");
+        }
+
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Return the criteria, all of which must match.
+     *
+     * @return the criteria, never <code>null</code>
+     */
+    public List<Criterion> getCriteria() {
+        return Collections.unmodifiableList(this.criteria);
+    }
+
+    /**
+     * Return the fields to sort on, in order.
+     *
+     * @return the sorts, never <code>null</code>
+     */
+    public List<Sort> getSorts() {
+        return Collections.unmodifiableList(this.sorts);
+    }
+
+    /**
+     * Return the maximum number of entities to return.
+     *
+     * @return the limit, <code>0</code> if there is no limit
+     */
+    public int getLimit() {
+        return this.limit;
+    }
+
+    @Override
+    public String toString() {
+        return "DataStoreQuery [criteria=" + this.criteria + ", sorts=" + this.sorts + ", limit=" + this.limit + "]";
+    }
+
+    private DataStoreQuery add(String field, Operator operator, Object value) {
+        this.criteria.add(new Criterion(requireField(field), operator, value));
+        return this;
+    }
+
+    private static String requireField(String field) {
+        if (field == null || field.isEmpty()) {
+            throw new IllegalArgumentException("Field cannot be empty");
+        }
+
+        return field;
+    }
+
+    private static Object requireValue(Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null");
+        }
+
+        return value;
+    }
+
+}
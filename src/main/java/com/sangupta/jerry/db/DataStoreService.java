@@ -2,8 +2,11 @@ package com.sangupta.jerry.db;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 import com.sangupta.jerry.db.impl.AbstractDataStoreServiceImpl;
+import com.sangupta.jerry.entity.UpdateTimeStampedEntity;
+import com.sangupta.jerry.entity.UserOwnedEntity;
 
 /**
  * Provides an interface to connect to various persistence/in-memory data stores
@@ -72,6 +75,46 @@ public interface DataStoreService<T, X> {
      */
     public List<T> getMultiple(X[] ids);
 
+    /**
+     * Retrieve the entity object with the given primary key, reading only the
+     * given fields from the data store. This saves reading and mapping large
+     * fields that are not needed. The returned entity always has the primary ID
+     * and the given fields set. Stores that can read partial entities leave all
+     * other fields at their default values, while others may return the full
+     * entity, thus the returned entity should not be written back to the store.
+     * 
+     * @param primaryID the primary key for which to look for the object
+     * 
+     * @param fields    the names of the fields to read, as in the entity class
+     * 
+     * @return the partially populated entity, <code>null</code> if none exists
+     * 
+     * @throws IllegalArgumentException if the fields are <code>null</code>, or
+     *                                  name a field that the entity does not
+     *                                  persist
+     */
+    public T get(X primaryID, Collection<String> fields);
+
+    /**
+     * Retrieves a list of all entities in the datastore that match the list of
+     * given primary identifiers, reading only the given fields from the data
+     * store. See {@link #get(Object, Collection)} for how the entities are
+     * populated.
+     * 
+     * @param ids    the primary key identifiers for which we need to fetch the
+     *               objects.
+     * 
+     * @param fields the names of the fields to read, as in the entity class
+     * 
+     * @return list of partially populated objects as fetched for the given
+     *         identifiers.
+     * 
+     * @throws IllegalArgumentException if the fields are <code>null</code>, or
+     *                                  name a field that the entity does not
+     *                                  persist
+     */
+    public List<T> getMultiple(Collection<X> ids, Collection<String> fields);
+
     /**
      * Retrieves a list of all entities in the datastore.
      * 
@@ -80,7 +123,7 @@ public interface DataStoreService<T, X> {
      * only by developers at discretion.
      * 
      * It is recommended not to use this method in production instances. Rather, use
-     * the method {@link #getAll(int, int)}.
+     * the method {@link #stream(int)} or {@link #getAll(int, int)}.
      * 
      * @return all the objects in the data store. Never returns a <code>null</code>.
      *         If there are no objects in the data store, it should return an empty
@@ -89,6 +132,33 @@ public interface DataStoreService<T, X> {
      */
     public List<T> getAll();
 
+    /**
+     * Stream all entities in the datastore, using the default fetch size of the
+     * implementation. See {@link #stream(int)}.
+     * 
+     * @return a lazy stream over all entities, that must be closed after use
+     */
+    public Stream<T> stream();
+
+    /**
+     * Stream all entities in the datastore. Entities are read lazily from the
+     * underlying store, at most <code>fetchSize</code> at a time, so that a full
+     * scan runs in constant memory. The stream holds a cursor in the underlying
+     * store and must be closed after use, preferably using a
+     * <code>try-with-resources</code> block.
+     * 
+     * Entities added or removed while the stream is being consumed may or may not
+     * be seen by the stream.
+     * 
+     * @param fetchSize the number of entities to fetch from the store in one go
+     * 
+     * @return a lazy stream over all entities, that must be closed after use
+     * 
+     * @throws IllegalArgumentException if the fetch size is less than or equal to
+     *                                  zero
+     */
+    public Stream<T> stream(int fetchSize);
+
     /**
      * Retrieves a list of entities for the given page number with the give page
      * size. The page numbering starts from 1.
@@ -105,6 +175,48 @@ public interface DataStoreService<T, X> {
      */
     public List<T> getAll(int page, int pageSize);
 
+    /**
+     * Retrieves a page of entities, continuing from where the page that returned
+     * the given token ended. Unlike {@link #getAll(int, int)}, the cost of
+     * fetching a page does not depend on how deep the page is, and entities added
+     * or removed between two calls do not shift the entities across pages.
+     * 
+     * <pre>
+     * DataStorePage<MyEntity> page = service.getPage(null, 100);
+     * while (page.hasNext()) {
+     *     page = service.getPage(page.getNextToken(), 100);
+     * }
+     * </pre>
+     * 
+     * @param token    the token as returned in {@link DataStorePage#getNextToken()}
+     *                 of the previous page, or <code>null</code> to fetch the first
+     *                 page
+     * 
+     * @param pageSize the maximum number of entities to return. If the value is
+     *                 less than or equal to zero, returns <code>null</code>
+     * 
+     * @return the page of entities
+     * 
+     * @throws IllegalArgumentException if the token is not a valid token for this
+     *                                  data store
+     */
+    public DataStorePage<T> getPage(String token, int pageSize);
+
+    /**
+     * Retrieves all entities that match the given query, sorted and limited as
+     * asked by the query. The query is run natively by the underlying store where
+     * possible, so that only matching entities are read from the store.
+     * 
+     * @param query the query to run
+     * 
+     * @return the matching entities. Never returns a <code>null</code>
+     * 
+     * @throws IllegalArgumentException if the query is <code>null</code>, or
+     *                                  refers to a field that the entity does
+     *                                  not persist
+     */
+    public List<T> find(DataStoreQuery query);
+
     /**
      * Insert a new entity object into the data store
      * 
@@ -125,7 +237,12 @@ public interface DataStoreService<T, X> {
      * @return the entity if it was updated successfully, <code>null</code>
      *         otherwise
      * 
-     * @throws IllegalArgumentException if the entity is <code>null</code>
+     * @throws IllegalArgumentException          if the entity is
+     *                                           <code>null</code>
+     * 
+     * @throws DataStoreVersionConflictException if the entity is versioned, and
+     *                                           the store holds another
+     *                                           version of it
      */
     public T update(T entity);
 
@@ -137,9 +254,92 @@ public interface DataStoreService<T, X> {
      * 
      * @return the entity if it was upserted successfully, <code>null</code>
      *         otherwise
+     * 
+     * @throws DataStoreVersionConflictException if the entity is versioned, and
+     *                                           the store holds another
+     *                                           version of it
      */
     public T upsert(T entity);
 
+    /**
+     * Change only the given fields of the entity with the given primary key,
+     * without reading or writing the rest of the entity where the underlying
+     * store supports it. Fields of {@link UpdateTimeStampedEntity} and
+     * {@link UserOwnedEntity} are not set by a patch, and should be part of the
+     * patch if needed. A {@link UserOwnedEntity} may only be patched by its
+     * owner, the same as it may only be updated by its owner. The version of a
+     * versioned entity is incremented.
+     *
+     * @param primaryID the primary ID of the entity to change
+     *
+     * @param patch     the changes to apply
+     *
+     * @return <code>true</code> if the entity exists and was patched,
+     *         <code>false</code> otherwise
+     *
+     * @throws IllegalArgumentException if the primary ID or the patch is
+     *                                  <code>null</code>, or the patch changes
+     *                                  the primary field, a field that the entity
+     *                                  does not persist, the version field, or has
+     *                                  a value that does not fit the type of the
+     *                                  field
+     *
+     * @throws SecurityException        if the entity is owned by a user other
+     *                                  than the current one
+     */
+    public boolean patch(X primaryID, DataStorePatch patch);
+
+    /**
+     * Insert all given entities into the data store, in as few round trips to
+     * the underlying store as possible. Entities whose primary ID already exists
+     * in the store are skipped.
+     * 
+     * @param entities the entities to be inserted
+     * 
+     * @return the list of entities that were inserted, <code>null</code> if no
+     *         entities were supplied
+     * 
+     * @throws IllegalArgumentException if any of the entities is <code>null</code>
+     */
+    public List<T> insertMultiple(Collection<T> entities);
+
+    /**
+     * Update all given entities in the data store, in as few round trips to the
+     * underlying store as possible. Entities whose primary ID does not exist in
+     * the store are skipped.
+     * 
+     * @param entities the entities to be updated
+     * 
+     * @return the list of entities that were updated, <code>null</code> if no
+     *         entities were supplied
+     * 
+     * @throws IllegalArgumentException          if any of the entities is
+     *                                           <code>null</code>
+     * 
+     * @throws DataStoreVersionConflictException if the entities are versioned,
+     *                                           and the store holds another
+     *                                           version of any of them
+     */
+    public List<T> updateMultiple(Collection<T> entities);
+
+    /**
+     * Add or update all given entities in the data store, in as few round trips
+     * to the underlying store as possible.
+     * 
+     * @param entities the entities to be persisted or updated
+     * 
+     * @return the list of entities that were upserted, <code>null</code> if no
+     *         entities were supplied
+     * 
+     * @throws IllegalArgumentException          if any of the entities is
+     *                                           <code>null</code>
+     * 
+     * @throws DataStoreVersionConflictException if the entities are versioned,
+     *                                           and the store holds another
+     *                                           version of any of them
+     */
+    public List<T> upsertMultiple(Collection<T> entities);
+
     /**
      * Delete the given entity from the data store.
      * 
@@ -0,0 +1,167 @@
+package com.sangupta.jerry.db;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import com.sangupta.jerry.db.EntityScanner.EntityDetails;
+import com.sangupta.jerry.util.GsonUtils;
+
+/**
+ * Tracks the fields of an entity changed since it was read from a
+ * {@link DataStoreService}, so that only those fields are written back using
+ * {@link DataStoreService#patch(Object, DataStorePatch)}.
+ *
+ * <pre>
+ * MyEntity entity = service.get(id);
+ * DataStoreTracker&lt;MyEntity&gt; tracker = DataStoreTracker.track(entity);
+ * entity.setStatus("active");
+ *
+ * if (tracker.isDirty() &amp;&amp; service.patch(id, tracker.getChanges())) {
+ *     tracker.reset();
+ * }
+ * </pre>
+ *
+ * The values of the persisted fields are copied when tracking starts. Values
+ * that are not immutable, such as collections, are copied as their JSON tree,
+ * so that changes made to them in place are also seen. The primary field is
+ * never reported as changed.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ */
+public class DataStoreTracker<T> {
+
+    private final T entity;
+
+    private final List<FieldAccessor> accessors;
+
+    private final Object[] snapshot;
+
+    private DataStoreTracker(T entity) {
+        EntityDetails details = EntityScanner.getDetails(entity.getClass());
+
+        this.entity = entity;
+        this.accessors = new ArrayList<>();
+        for (FieldAccessor accessor : details.getFieldAccessors()) {
+            if (!accessor.getField().getName().equals(details.idFieldName)) {
+                this.accessors.add(accessor);
+            }
+        }
+
+        this.snapshot = new Object[this.accessors.size()];
+        this.reset();
+    }
+
+    /**
+     * Start tracking the changes made to the entity from now on.
+     *
+     * @param entity the entity, usually as just read from the store
+     *
+     * @return the tracker
+     *
+     * @throws IllegalArgumentException if the entity is <code>null</code>
+     */
+    public static <T> DataStoreTracker<T> track(T entity) {
+        if (entity == null) {
+            throw new IllegalArgumentException("Entity cannot be null");
+        }
+
+        return new DataStoreTracker<>(entity);
+    }
+
+    /**
+     * Return the entity being tracked.
+     *
+     * @return the entity
+     */
+    public T getEntity() {
+        return this.entity;
+    }
+
+    /**
+     * Check if any field has changed since tracking started, or since the last
+     * {@link #reset()}.
+     *
+     * @return <code>true</code> if a field has changed
+     */
+    public boolean isDirty() {
+        for (int index = 0; index < this.snapshot.length; index++) {
+            if (this.isDirty(index)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the names of the fields changed since tracking started, or since
+     * the last {@link #reset()}.
+     *
+     * @return the names of the changed fields, never <code>null</code>
+     */
+    public List<String> getDirtyFields() {
+        List<String> fields = new ArrayList<>();
+        for (int index = 0; index < this.snapshot.length; index++) {
+            if (this.isDirty(index)) {
+                fields.add(this.accessors.get(index).getField().getName());
+            }
+        }
+
+        return fields;
+    }
+
+    /**
+     * Return a patch that sets all changed fields to their current values.
+     *
+     * @return the patch, empty if no field has changed
+     */
+    public DataStorePatch getChanges() {
+        DataStorePatch patch = new DataStorePatch();
+        for (int index = 0; index < this.snapshot.length; index++) {
+            if (this.isDirty(index)) {
+                FieldAccessor accessor = this.accessors.get(index);
+                patch.set(accessor.getField().getName(), accessor.get(this.entity));
+            }
+        }
+
+        return patch;
+    }
+
+    /**
+     * Consider the current values of all fields as unchanged, usually once the
+     * changes have been written to the store.
+     */
+    public void reset() {
+        for (int index = 0; index < this.snapshot.length; index++) {
+            this.snapshot[index] = copyOf(this.accessors.get(index).get(this.entity));
+        }
+    }
+
+    private boolean isDirty(int index) {
+        return !Objects.equals(this.snapshot[index], copyOf(this.accessors.get(index).get(this.entity)));
+    }
+
+    /**
+     * Return a copy of the value that does not change when the value is changed
+     * in place.
+     */
+    private static Object copyOf(Object value) {
+        if (value == null || isImmutable(value)) {
+            return value;
+        }
+
+        return GsonUtils.getGson().toJsonTree(value);
+    }
+
+    private static boolean isImmutable(Object value) {
+        return value instanceof String || value instanceof Integer || value instanceof Long || value instanceof Double || value instanceof Float || value instanceof Short || value instanceof Byte || value instanceof Boolean || value instanceof Character || value instanceof Enum || value instanceof BigDecimal || value instanceof BigInteger;
+    }
+
+}
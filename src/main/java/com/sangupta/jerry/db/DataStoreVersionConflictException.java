@@ -0,0 +1,46 @@
+package com.sangupta.jerry.db;
+
+/**
+ * Thrown when a versioned entity, see {@link Version}, is written to a
+ * {@link DataStoreService} but the store holds a different version of the
+ * entity than the one being written. The entity was changed by someone else
+ * since it was read, and should be read again before retrying the write.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ */
+public class DataStoreVersionConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object primaryID;
+
+    private final long expectedVersion;
+
+    public DataStoreVersionConflictException(Object primaryID, long expectedVersion) {
+        super("Entity " + primaryID + " is no longer at version " + expectedVersion);
+
+        this.primaryID = primaryID;
+        this.expectedVersion = expectedVersion;
+    }
+
+    /**
+     * Return the primary ID of the entity.
+     *
+     * @return the primary ID
+     */
+    public Object getPrimaryID() {
+        return this.primaryID;
+    }
+
+    /**
+     * Return the version the entity being written was read at.
+     *
+     * @return the expected version
+     */
+    public long getExpectedVersion() {
+        return this.expectedVersion;
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.sangupta.jerry.db;
+
+import java.util.List;
+
+/**
+ * Metadata of an entity class, generated at build time by
+ * {@link com.sangupta.jerry.db.processor.EntityMetadataProcessor} for every
+ * class with an <code>@Id</code> annotated field. When present,
+ * {@link EntityScanner} uses it instead of scanning the entity class at
+ * runtime.
+ *
+ * The generated class is named after the entity, with nested class names
+ * joined using an underscore, and a suffix of {@link #CLASS_SUFFIX}. It lives
+ * in the same package as the entity, so it reads the primary key directly.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ *
+ * @param <X> The primary ID key for this entity object
+ */
+public interface EntityMetadata<T, X> {
+
+    /**
+     * Suffix added to the entity class name to get the metadata class name
+     */
+    public static final String CLASS_SUFFIX = "_EntityMetadata";
+
+    public Class<T> getEntityClass();
+
+    /**
+     * Return the class of the primary key, boxed if the field is primitive.
+     *
+     * @return the primary key class
+     */
+    public Class<X> getPrimaryIDClass();
+
+    public String getIdFieldName();
+
+    /**
+     * Read the primary key of the entity.
+     *
+     * @param entity the entity, never <code>null</code>
+     *
+     * @return the primary key
+     */
+    public X getPrimaryID(T entity);
+
+    public boolean isSoftDelete();
+
+    public boolean isReadOnly();
+
+    public boolean isCreateTimeStamped();
+
+    public boolean isUpdateTimeStamped();
+
+    public boolean isDeleteTimeStamped();
+
+    public boolean isUserOwned();
+
+    /**
+     * Return the name of the field annotated with {@link Version}.
+     *
+     * @return the field name, or <code>null</code> if the entity is not
+     *         versioned
+     */
+    public String getVersionFieldName();
+
+    /**
+     * Return the names of the persisted fields annotated with {@link Indexed},
+     * in declaration order, starting with the entity class.
+     *
+     * @return the field names, never <code>null</code>
+     */
+    public List<String> getIndexedFieldNames();
+
+}
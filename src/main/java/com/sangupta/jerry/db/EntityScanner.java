@@ -1,18 +1,35 @@
 package com.sangupta.jerry.db;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 
+import com.sangupta.jerry.entity.CreateTimeStampedEntity;
+import com.sangupta.jerry.entity.DeleteTimeStampedEntity;
 import com.sangupta.jerry.entity.ReadOnlyEntity;
 import com.sangupta.jerry.entity.SoftDeleteEntity;
+import com.sangupta.jerry.entity.UpdateTimeStampedEntity;
+import com.sangupta.jerry.entity.UserOwnedEntity;
 import com.sangupta.jerry.util.AssertUtils;
 
 /**
+ * Finds the primary key, persisted fields, indexed fields, the version field
+ * and entity flags of entity classes.
+ * Metadata generated at build time by the
+ * {@link com.sangupta.jerry.db.processor.EntityMetadataProcessor} is used when
+ * present, and the class is scanned using reflection otherwise.
  * 
  * @author sangupta
  *
@@ -24,31 +41,158 @@ public class EntityScanner {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(EntityScanner.class);
     
-    public static final Map<Class<?>, EntityDetails> MAP = new HashMap<>();
+    /**
+     * Details of each entity class. A class is scanned only once even if many
+     * threads ask for it at the same time, and the details are dropped along
+     * with the class when its class loader goes away.
+     */
+    private static final ClassValue<EntityDetails> DETAILS = new ClassValue<EntityDetails>() {
+        
+        @Override
+        protected EntityDetails computeValue(Class<?> clazz) {
+            EntityMetadata<?, ?> metadata = loadMetadata(clazz);
+            if(metadata != null) {
+                return new EntityDetails(clazz, metadata);
+            }
+            
+            return scanEntity(clazz);
+        }
+        
+    };
+    
+    /**
+     * Details set through {@link #MAP}, used in place of the scanned details
+     */
+    private static final Map<Class<?>, EntityDetails> OVERRIDES = new ConcurrentHashMap<>();
+    
+    /**
+     * View of the details of entity classes. Reads return the same details as
+     * {@link #getDetails(Class)}, and details put in the map are returned by it
+     * from then on.
+     * 
+     * @deprecated use {@link #getDetails(Class)}, details are no longer kept in
+     *             a map
+     */
+    @Deprecated
+    public static final Map<Class<?>, EntityDetails> MAP = new AbstractMap<Class<?>, EntityDetails>() {
+        
+        @Override
+        public EntityDetails get(Object key) {
+            return key instanceof Class ? getDetails((Class<?>) key) : null;
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Class;
+        }
+        
+        @Override
+        public EntityDetails put(Class<?> key, EntityDetails value) {
+            if(key == null || value == null) {
+                throw new IllegalArgumentException("Class and details cannot be null");
+            }
+            
+            return OVERRIDES.put(key, value);
+        }
+        
+        @Override
+        public EntityDetails remove(Object key) {
+            return OVERRIDES.remove(key);
+        }
+        
+        @Override
+        public Set<Map.Entry<Class<?>, EntityDetails>> entrySet() {
+            return OVERRIDES.entrySet();
+        }
+        
+    };
     
     public static EntityDetails getDetails(Class<?> clazz) {
         if(clazz == null) {
             throw new IllegalArgumentException("Class cannot be null");
         }
         
-        EntityDetails details = MAP.get(clazz);
-        if(details != null) {
-            return details;
+        if(!OVERRIDES.isEmpty()) {
+            EntityDetails details = OVERRIDES.get(clazz);
+            if(details != null) {
+                return details;
+            }
         }
         
-        details = scanEntity(clazz);
-        MAP.put(clazz, details);
-        
-        return details;
+        return DETAILS.get(clazz);
     }
     
     protected static EntityDetails scanEntity(Class<?> clazz) {
-        EntityDetails details = populatePrimaryField(clazz);
+        return populatePrimaryField(clazz);
+    }
+    
+    /**
+     * Load the {@link EntityMetadata} generated at build time for the class, if
+     * any.
+     * 
+     * @param clazz the entity class
+     * 
+     * @return the metadata, or <code>null</code> if none was generated
+     */
+    protected static EntityMetadata<?, ?> loadMetadata(Class<?> clazz) {
+        String packageName = clazz.getPackageName();
+        String simpleName = packageName.isEmpty() ? clazz.getName() : clazz.getName().substring(packageName.length() + 1);
+        String metadataName = simpleName.replace('$', '_') + EntityMetadata.CLASS_SUFFIX;
+        if(!packageName.isEmpty()) {
+            metadataName = packageName + "." + metadataName;
+        }
         
-        details.softDelete = clazz.isAssignableFrom(SoftDeleteEntity.class);
-        details.readOnly = clazz.isAssignableFrom(ReadOnlyEntity.class);
+        try {
+            Class<?> metadataClass = Class.forName(metadataName, true, clazz.getClassLoader());
+            if(!EntityMetadata.class.isAssignableFrom(metadataClass)) {
+                return null;
+            }
+            
+            EntityMetadata<?, ?> metadata = (EntityMetadata<?, ?>) metadataClass.getDeclaredConstructor().newInstance();
+            if(metadata.getEntityClass() != clazz) {
+                return null;
+            }
+            
+            return metadata;
+        } catch(ClassNotFoundException e) {
+            return null;
+        } catch(ReflectiveOperationException | LinkageError | RuntimeException e) {
+            LOGGER.warn("Unable to load generated metadata for entity: {}", clazz, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Find all fields of the class, and its super-classes, that are persisted.
+     * Static, transient and fields marked with {@link Transient} are skipped.
+     * 
+     * @param clazz the entity class
+     * 
+     * @return an unmodifiable list of fields, made accessible
+     */
+    protected static List<Field> populatePersistentFields(Class<?> clazz) {
+        List<Field> list = new ArrayList<>();
+        
+        Class<?> current = clazz;
+        while(current != null && current != Object.class) {
+            for(Field field : current.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if(Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                
+                if(field.getAnnotation(Transient.class) != null) {
+                    continue;
+                }
+                
+                field.setAccessible(true);
+                list.add(field);
+            }
+            
+            current = current.getSuperclass();
+        }
         
-        return details;
+        return Collections.unmodifiableList(list);
     }
     
     protected static EntityDetails populatePrimaryField(Class<?> clazz) {
@@ -69,35 +213,378 @@ public class EntityScanner {
             }
         }
 
-        return new EntityDetails(primaryField);
+        return new EntityDetails(clazz, primaryField);
     }
     
     public static class EntityDetails {
         
-        public final Field idField;
+        public final Class<?> entityClass;
         
         public final String idFieldName;
         
-        private boolean softDelete;
+        /**
+         * The primary field, <code>null</code> if there is none
+         * 
+         * @deprecated use {@link #getIdField()}, or {@link #idAccessor} to read
+         *             and write the primary key
+         */
+        @Deprecated
+        public final Field idField;
         
-        private boolean readOnly;
+        /**
+         * Accessor for the primary field, <code>null</code> if there is none
+         */
+        public final FieldAccessor idAccessor;
         
-        public boolean isSoftDelete() {
-            return this.softDelete;
-        }
+        private final EntityMetadata<?, ?> metadata;
         
-        public boolean isReadOnly() {
-            return this.readOnly;
-        }
+        private final boolean softDelete;
         
+        private final boolean readOnly;
+        
+        private final boolean createTimeStamped;
+        
+        private final boolean updateTimeStamped;
+        
+        private final boolean deleteTimeStamped;
+        
+        private final boolean userOwned;
+        
+        private volatile List<Field> fields;
+        
+        private volatile List<FieldAccessor> accessors;
+        
+        private volatile List<FieldAccessor> indexedAccessors;
+        
+        private volatile Map<String, FieldAccessor> accessorsByName;
+        
+        private volatile boolean versionScanned;
+        
+        private volatile FieldAccessor versionAccessor;
+        
+        /**
+         * Create details for the class declaring the given primary field.
+         * 
+         * @param primaryField the primary field, or <code>null</code> if there is
+         *                     none
+         * 
+         * @deprecated use {@link EntityScanner#getDetails(Class)}, or
+         *             {@link #EntityDetails(Class, Field)} to also give the
+         *             entity class
+         */
+        @Deprecated
         public EntityDetails(Field primaryField) {
+            this(primaryField != null ? primaryField.getDeclaringClass() : Object.class, primaryField);
+        }
+        
+        public EntityDetails(Class<?> entityClass, Field primaryField) {
+            this.entityClass = entityClass;
+            this.metadata = null;
             this.idField = primaryField;
             if(primaryField != null) {
                 this.idFieldName = primaryField.getName();
                 this.idField.setAccessible(true);
+                this.idAccessor = FieldAccessor.of(primaryField);
             } else {
                 this.idFieldName = null;
+                this.idAccessor = null;
+            }
+            
+            this.softDelete = SoftDeleteEntity.class.isAssignableFrom(entityClass);
+            this.readOnly = ReadOnlyEntity.class.isAssignableFrom(entityClass);
+            this.createTimeStamped = CreateTimeStampedEntity.class.isAssignableFrom(entityClass);
+            this.updateTimeStamped = UpdateTimeStampedEntity.class.isAssignableFrom(entityClass);
+            this.deleteTimeStamped = DeleteTimeStampedEntity.class.isAssignableFrom(entityClass);
+            this.userOwned = UserOwnedEntity.class.isAssignableFrom(entityClass);
+        }
+        
+        /**
+         * Create details from metadata generated at build time. Only the primary
+         * field is looked up, other fields of the entity are not until needed.
+         * 
+         * @param entityClass the entity class
+         * 
+         * @param metadata    the generated metadata
+         */
+        EntityDetails(Class<?> entityClass, EntityMetadata<?, ?> metadata) {
+            this.entityClass = entityClass;
+            this.metadata = metadata;
+            this.idFieldName = metadata.getIdFieldName();
+            this.idField = findField(entityClass, this.idFieldName);
+            this.idAccessor = new MetadataIdAccessor(this, metadata);
+            
+            this.softDelete = metadata.isSoftDelete();
+            this.readOnly = metadata.isReadOnly();
+            this.createTimeStamped = metadata.isCreateTimeStamped();
+            this.updateTimeStamped = metadata.isUpdateTimeStamped();
+            this.deleteTimeStamped = metadata.isDeleteTimeStamped();
+            this.userOwned = metadata.isUserOwned();
+        }
+        
+        /**
+         * Return the metadata generated at build time for the entity.
+         * 
+         * @return the metadata, or <code>null</code> if the entity was scanned at
+         *         runtime
+         */
+        public EntityMetadata<?, ?> getMetadata() {
+            return this.metadata;
+        }
+        
+        /**
+         * Return the field annotated with <code>@Id</code>.
+         * 
+         * @return the primary field, or <code>null</code> if there is none
+         */
+        public Field getIdField() {
+            return this.idField;
+        }
+        
+        public boolean isSoftDelete() {
+            return this.softDelete;
+        }
+        
+        public boolean isReadOnly() {
+            return this.readOnly;
+        }
+        
+        public boolean isCreateTimeStamped() {
+            return this.createTimeStamped;
+        }
+        
+        public boolean isUpdateTimeStamped() {
+            return this.updateTimeStamped;
+        }
+        
+        public boolean isDeleteTimeStamped() {
+            return this.deleteTimeStamped;
+        }
+        
+        public boolean isUserOwned() {
+            return this.userOwned;
+        }
+        
+        /**
+         * Return all persisted fields of the entity, including the primary field.
+         * Fields are scanned on first use.
+         * 
+         * @return the fields, never <code>null</code>
+         */
+        public List<Field> getFields() {
+            List<Field> list = this.fields;
+            if(list == null) {
+                list = populatePersistentFields(this.entityClass);
+                this.fields = list;
+            }
+            
+            return list;
+        }
+        
+        /**
+         * Return accessors for all persisted fields of the entity, in the same
+         * order as {@link #getFields()}.
+         * 
+         * @return the accessors, never <code>null</code>
+         */
+        public List<FieldAccessor> getFieldAccessors() {
+            List<FieldAccessor> list = this.accessors;
+            if(list == null) {
+                Field primaryField = this.getIdField();
+                
+                List<FieldAccessor> accessors = new ArrayList<>();
+                for(Field field : this.getFields()) {
+                    accessors.add(field.equals(primaryField) ? this.idAccessor : FieldAccessor.of(field));
+                }
+                
+                list = Collections.unmodifiableList(accessors);
+                this.accessors = list;
+            }
+            
+            return list;
+        }
+        
+        /**
+         * Return accessors for all persisted fields of the entity that are
+         * annotated with {@link Indexed}, in the same order as
+         * {@link #getFields()}.
+         * 
+         * @return the accessors, never <code>null</code>
+         */
+        public List<FieldAccessor> getIndexedFieldAccessors() {
+            List<FieldAccessor> list = this.indexedAccessors;
+            if(list == null) {
+                List<FieldAccessor> accessors = new ArrayList<>();
+                if(this.metadata != null) {
+                    // look up only the fields named in the metadata
+                    for(String name : this.metadata.getIndexedFieldNames()) {
+                        accessors.add(this.findFieldAccessor(name));
+                    }
+                } else {
+                    for(FieldAccessor accessor : this.getFieldAccessors()) {
+                        if(accessor.getField().getAnnotation(Indexed.class) != null) {
+                            accessors.add(accessor);
+                        }
+                    }
+                }
+                
+                list = Collections.unmodifiableList(accessors);
+                this.indexedAccessors = list;
+            }
+            
+            return list;
+        }
+        
+        /**
+         * Return the accessor for the persisted field annotated with
+         * {@link Version}.
+         * 
+         * @return the accessor, or <code>null</code> if the entity is not
+         *         versioned
+         * 
+         * @throws IllegalArgumentException if more than one field is annotated,
+         *                                  or the field is not an
+         *                                  <code>int</code> or <code>long</code>
+         */
+        public FieldAccessor getVersionAccessor() {
+            if(this.versionScanned) {
+                return this.versionAccessor;
+            }
+            
+            if(this.metadata != null) {
+                String name = this.metadata.getVersionFieldName();
+                this.versionAccessor = name != null ? this.findFieldAccessor(name) : null;
+                this.versionScanned = true;
+                return this.versionAccessor;
+            }
+            
+            FieldAccessor found = null;
+            for(FieldAccessor accessor : this.getFieldAccessors()) {
+                Field field = accessor.getField();
+                if(field.getAnnotation(Version.class) == null) {
+                    continue;
+                }
+                
+                if(found != null) {
+                    throw new IllegalArgumentException("Entity has more than one version field: " + this.entityClass.getName());
+                }
+                
+                Class<?> type = field.getType();
+                if(type != long.class && type != Long.class && type != int.class && type != Integer.class) {
+                    throw new IllegalArgumentException("Version field must be an int or a long: " + field.getName());
+                }
+                
+                found = accessor;
+            }
+            
+            this.versionAccessor = found;
+            this.versionScanned = true;
+            return found;
+        }
+        
+        /**
+         * Check if the entity has a field annotated with {@link Version}.
+         * 
+         * @return <code>true</code> if the entity is versioned
+         */
+        public boolean isVersioned() {
+            return this.getVersionAccessor() != null;
+        }
+        
+        /**
+         * Return the accessor for the persisted field with the given name.
+         * 
+         * @param name the name of the field
+         * 
+         * @return the accessor, or <code>null</code> if there is no persisted
+         *         field by that name
+         */
+        public FieldAccessor getFieldAccessor(String name) {
+            Map<String, FieldAccessor> map = this.accessorsByName;
+            if(map == null) {
+                map = new HashMap<>();
+                for(FieldAccessor accessor : this.getFieldAccessors()) {
+                    map.put(accessor.getField().getName(), accessor);
+                }
+                
+                this.accessorsByName = map;
+            }
+            
+            return map.get(name);
+        }
+        
+        /**
+         * Look up a single persisted field by name, in the entity class and its
+         * super-classes, without scanning all fields.
+         */
+        private FieldAccessor findFieldAccessor(String name) {
+            if(name.equals(this.idFieldName)) {
+                return this.idAccessor;
+            }
+            
+            return FieldAccessor.of(findField(this.entityClass, name));
+        }
+        
+    }
+    
+    /**
+     * Look up a single field by name, in the class and its super-classes, and
+     * make it accessible.
+     * 
+     * @throws IllegalStateException if there is no such field
+     */
+    private static Field findField(Class<?> clazz, String name) {
+        Class<?> current = clazz;
+        while(current != null && current != Object.class) {
+            try {
+                Field field = current.getDeclaredField(name);
+                field.setAccessible(true);
+                return field;
+            } catch(NoSuchFieldException e) {
+                current = current.getSuperclass();
+            }
+        }
+        
+        throw new IllegalStateException("Field not found: " + name);
+    }
+    
+    /**
+     * Reads the primary key through the generated metadata, and falls back to a
+     * regular accessor for anything else.
+     */
+    private static final class MetadataIdAccessor implements FieldAccessor {
+        
+        private final EntityDetails details;
+        
+        @SuppressWarnings("rawtypes")
+        private final EntityMetadata metadata;
+        
+        private volatile FieldAccessor fieldAccessor;
+        
+        MetadataIdAccessor(EntityDetails details, EntityMetadata<?, ?> metadata) {
+            this.details = details;
+            this.metadata = metadata;
+        }
+        
+        @Override
+        public Field getField() {
+            return this.details.getIdField();
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object get(Object entity) {
+            return this.metadata.getPrimaryID(entity);
+        }
+        
+        @Override
+        public void set(Object entity, Object value) {
+            FieldAccessor accessor = this.fieldAccessor;
+            if(accessor == null) {
+                accessor = FieldAccessor.of(this.getField());
+                this.fieldAccessor = accessor;
             }
+            
+            accessor.set(entity, value);
         }
         
     }
@@ -0,0 +1,34 @@
+package com.sangupta.jerry.db;
+
+/**
+ * Converts entities to and from bytes, for {@link DataStoreService}
+ * implementations that persist entities as opaque values, like embedded
+ * key-value stores.
+ * 
+ * @author sangupta
+ * 
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ */
+public interface EntitySerializer<T> {
+
+    /**
+     * Serialize the entity to bytes.
+     * 
+     * @param entity the entity to serialize, never <code>null</code>
+     * 
+     * @return the serialized bytes
+     */
+    public byte[] serialize(T entity);
+
+    /**
+     * Deserialize an entity from bytes.
+     * 
+     * @param bytes the bytes as produced by {@link #serialize(Object)}
+     * 
+     * @return the entity
+     */
+    public T deserialize(byte[] bytes);
+
+}
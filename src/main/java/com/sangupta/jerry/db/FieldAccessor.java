@@ -0,0 +1,53 @@
+package com.sangupta.jerry.db;
+
+import java.lang.reflect.Field;
+
+/**
+ * Reads and writes one field of an entity without going through reflection on
+ * every call. Accessors are generated once per entity class by
+ * {@link EntityScanner}, and are available from
+ * {@link EntityScanner.EntityDetails}.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ */
+public interface FieldAccessor {
+
+    /**
+     * Return the field this accessor reads and writes.
+     *
+     * @return the field
+     */
+    public Field getField();
+
+    /**
+     * Read the value of the field, boxing primitive values.
+     *
+     * @param entity the entity to read from, never <code>null</code>
+     *
+     * @return the value of the field
+     */
+    public Object get(Object entity);
+
+    /**
+     * Write the value of the field, unboxing it for primitive fields.
+     *
+     * @param entity the entity to write to, never <code>null</code>
+     *
+     * @param value  the value to set
+     */
+    public void set(Object entity, Object value);
+
+    /**
+     * Create an accessor for the given field.
+     *
+     * @param field the field
+     *
+     * @return the accessor
+     */
+    public static FieldAccessor of(Field field) {
+        return FieldAccessors.create(field);
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.sangupta.jerry.db;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates {@link FieldAccessor} instances.
+ *
+ * Reads and writes go through {@link MethodHandle}s resolved once for the
+ * field. Getters and setters of the entity are never called, so that values
+ * are read and written exactly as Gson does. Plain reflection is only used if
+ * the handles cannot be created, for example when a security manager denies
+ * private access.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ */
+final class FieldAccessors {
+
+    /**
+     * logger instance
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(FieldAccessors.class);
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private FieldAccessors() {
+        // cannot be instantiated
+    }
+
+    static FieldAccessor create(Field field) {
+        if (field == null) {
+            throw new IllegalArgumentException("Field cannot be null");
+        }
+
+        if (Modifier.isStatic(field.getModifiers())) {
+            throw new IllegalArgumentException("Static fields are not supported: " + field);
+        }
+
+        field.setAccessible(true);
+
+        final MethodHandles.Lookup lookup;
+        try {
+            lookup = MethodHandles.privateLookupIn(field.getDeclaringClass(), MethodHandles.lookup());
+        } catch (IllegalAccessException | RuntimeException e) {
+            LOGGER.debug("Unable to get private lookup for {}, using reflection", field, e);
+            return new ReflectionFieldAccessor(field);
+        }
+
+        MethodHandle getter;
+        MethodHandle setter;
+        try {
+            getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+            setter = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            LOGGER.debug("Unable to create method handles for {}, using reflection", field, e);
+            return new ReflectionFieldAccessor(field);
+        }
+
+        return new HandleFieldAccessor(field, getter, setter);
+    }
+
+    /**
+     * Accessor backed by method handles.
+     */
+    private static final class HandleFieldAccessor implements FieldAccessor {
+
+        private final Field field;
+
+        private final MethodHandle getter;
+
+        private final MethodHandle setter;
+
+        HandleFieldAccessor(Field field, MethodHandle getter, MethodHandle setter) {
+            this.field = field;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        @Override
+        public Field getField() {
+            return this.field;
+        }
+
+        @Override
+        public Object get(Object entity) {
+            try {
+                return (Object) this.getter.invokeExact(entity);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void set(Object entity, Object value) {
+            try {
+                this.setter.invokeExact(entity, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "FieldAccessor [" + this.field + "]";
+        }
+
+    }
+
+    /**
+     * Accessor that uses plain reflection.
+     */
+    private static final class ReflectionFieldAccessor implements FieldAccessor {
+
+        private final Field field;
+
+        ReflectionFieldAccessor(Field field) {
+            this.field = field;
+        }
+
+        @Override
+        public Field getField() {
+            return this.field;
+        }
+
+        @Override
+        public Object get(Object entity) {
+            try {
+                return this.field.get(entity);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Unable to read field: " + this.field, e);
+            }
+        }
+
+        @Override
+        public void set(Object entity, Object value) {
+            try {
+                this.field.set(entity, value);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Unable to set field: " + this.field, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "FieldAccessor [" + this.field + "]";
+        }
+
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.sangupta.jerry.db;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field of an entity to be indexed by stores that keep secondary
+ * indexes, such as {@link com.sangupta.jerry.db.impl.InMemoryDataStoreServiceImpl}.
+ * Entities may then be looked up on the value of the field without scanning
+ * the store.
+ * 
+ * Entities where the field is <code>null</code> are not indexed.
+ * 
+ * @author sangupta
+ *
+ * @since 2.0.0
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Indexed {
+
+    /**
+     * The kind of index to keep
+     */
+    public enum Type {
+
+        /**
+         * Hash index supporting equality lookups in <code>O(1)</code>
+         */
+        HASH,
+
+        /**
+         * Sorted index supporting equality and range lookups in
+         * <code>O(log n)</code>. The field must be {@link Comparable}.
+         */
+        SORTED;
+
+    }
+
+    public Type value() default Type.HASH;
+
+}
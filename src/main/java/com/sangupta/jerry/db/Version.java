@@ -0,0 +1,31 @@
+package com.sangupta.jerry.db;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the field of an entity that holds its version, for optimistic
+ * concurrency. The field must be an <code>int</code> or <code>long</code>,
+ * boxed or not, and an entity may have at most one such field.
+ *
+ * Stores only update a versioned entity if the version in the store is still
+ * the version of the entity being written, and increment the version on every
+ * write. Otherwise a {@link DataStoreVersionConflictException} is thrown, as
+ * the entity was changed by someone else since it was read. Stores that keep
+ * entity instances in memory copy versioned entities when writing and reading
+ * them, so that an entity read from the store can be changed and written back
+ * like any other.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Version {
+
+}
@@ -3,27 +3,58 @@ package com.sangupta.jerry.db.impl;
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.sangupta.jerry.db.DataStoreClock;
 import com.sangupta.jerry.db.DataStoreOperation;
+import com.sangupta.jerry.db.DataStorePage;
+import com.sangupta.jerry.db.DataStorePatch;
+import com.sangupta.jerry.db.DataStoreQuery;
 import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.DataStoreVersionConflictException;
+import com.sangupta.jerry.db.EntityMetadata;
 import com.sangupta.jerry.db.EntityScanner;
 import com.sangupta.jerry.db.EntityScanner.EntityDetails;
+import com.sangupta.jerry.db.FieldAccessor;
+import com.sangupta.jerry.db.Version;
+import com.sangupta.jerry.db.processor.EntityMetadataProcessor;
 import com.sangupta.jerry.entity.CreateTimeStampedEntity;
-import com.sangupta.jerry.entity.DeleteTimeStampedEntity;
 import com.sangupta.jerry.entity.SoftDeleteEntity;
 import com.sangupta.jerry.entity.UpdateTimeStampedEntity;
 import com.sangupta.jerry.entity.UserOwnedEntity;
 import com.sangupta.jerry.security.SecurityContext;
 import com.sangupta.jerry.util.AssertUtils;
+import com.sangupta.jerry.util.GsonUtils;
 
 /**
  * An abstract implementation for {@link DataStoreService} that handles the
  * incoming entity object for creation time, update time and the user who owns
  * the entity.
  * 
+ * Entities with a field annotated with {@link Version} are updated only if the
+ * store still holds the version they were read at, and their version is
+ * incremented on every update and patch. Otherwise a
+ * {@link DataStoreVersionConflictException} is thrown. Upserts of such entities
+ * update the entity if it exists and insert it otherwise, and multi-entity
+ * updates and upserts are carried out one entity at a time, stopping at the
+ * first conflict.
+ * 
  * @author sangupta
  * 
  * @since 2.0.0
@@ -33,6 +64,11 @@ import com.sangupta.jerry.util.AssertUtils;
  */
 public abstract class AbstractDataStoreServiceImpl<T, X> implements DataStoreService<T, X> {
 
+    /**
+     * Default number of entities fetched in one go when streaming
+     */
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
     /**
      * {@link Class} that represents the entity being persisted by this store.
      */
@@ -48,55 +84,137 @@ public abstract class AbstractDataStoreServiceImpl<T, X> implements DataStoreSer
      */
     protected final EntityDetails entityDetails;
 
+    /**
+     * Standard fields to set on entities of {@link #entityClass}
+     */
+    private final MassagePlan massagePlan;
+
+    /**
+     * Accessor for the field annotated with {@link Version}, <code>null</code>
+     * if the entity is not versioned
+     */
+    private final FieldAccessor versionAccessor;
+
+    /**
+     * Source of time for stamping entities
+     */
+    private volatile DataStoreClock clock = DataStoreClock.SYSTEM;
+
     @SuppressWarnings("unchecked")
     protected AbstractDataStoreServiceImpl() {
         // extract entity class and primary key class
-        Type t;
-        Class<?> tc = getClass();
-        do {
-            t = tc.getGenericSuperclass();
-            if (t instanceof ParameterizedType) {
-                break;
-            }
-
-            if (!(t instanceof Class)) {
-                break;
-            }
-            tc = (Class<?>) t;
-        } while (true);
-
-        Type[] actualTypeArguments = ((ParameterizedType) t).getActualTypeArguments();
+        Type[] actualTypeArguments = resolveTypeArguments(getClass(), AbstractDataStoreServiceImpl.class);
         this.entityClass = (Class<T>) actualTypeArguments[0];
         this.primaryIDClass = (Class<X>) actualTypeArguments[1];
 
         // set soft delete params
         this.entityDetails = EntityScanner.getDetails(this.entityClass);
+        this.massagePlan = MassagePlan.of(this.entityDetails);
+        this.versionAccessor = this.entityDetails.getVersionAccessor();
+    }
+
+    /**
+     * Create a store for the entity described by the given metadata, as
+     * generated by the {@link EntityMetadataProcessor}. This avoids resolving
+     * the type arguments of the store class through reflection, and the version
+     * field is looked up by name instead of scanning the entity.
+     * 
+     * @param metadata the metadata of the entity
+     */
+    protected AbstractDataStoreServiceImpl(EntityMetadata<T, X> metadata) {
+        if (metadata == null) {
+            throw new IllegalArgumentException("Metadata cannot be null");
+        }
+
+        this.entityClass = metadata.getEntityClass();
+        this.primaryIDClass = metadata.getPrimaryIDClass();
+        this.entityDetails = EntityScanner.getDetails(this.entityClass);
+        this.massagePlan = MassagePlan.of(this.entityDetails);
+        this.versionAccessor = this.entityDetails.getVersionAccessor();
+    }
+
+    /**
+     * Return the clock used to stamp entities on write.
+     * 
+     * @return the clock
+     */
+    public DataStoreClock getClock() {
+        return this.clock;
+    }
+
+    /**
+     * Set the clock used to stamp entities on write. Defaults to
+     * {@link DataStoreClock#SYSTEM}.
+     * 
+     * @param clock the clock to use
+     */
+    public void setClock(DataStoreClock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock cannot be null");
+        }
+
+        this.clock = clock;
+    }
+
+    /**
+     * Find the actual type arguments the given class binds to the type
+     * parameters of the given base class, which for a data store are the entity
+     * and primary key classes. Type parameters passed along by intermediate
+     * generic classes are followed down to the class that binds them.
+     * 
+     * @param clazz the concrete data store class
+     * 
+     * @param base  the generic base class, a super-class of <code>clazz</code>
+     * 
+     * @return the actual type arguments, in the order of the type parameters of
+     *         the base class
+     */
+    static Type[] resolveTypeArguments(Class<?> clazz, Class<?> base) {
+        Map<TypeVariable<?>, Type> bindings = new HashMap<>();
+        Class<?> current = clazz;
+        while (current != null && current != base) {
+            Type superType = current.getGenericSuperclass();
+            if (superType instanceof ParameterizedType) {
+                Type[] arguments = ((ParameterizedType) superType).getActualTypeArguments();
+                TypeVariable<?>[] parameters = current.getSuperclass().getTypeParameters();
+                for (int index = 0; index < arguments.length; index++) {
+                    Type bound = bindings.get(arguments[index]);
+                    bindings.put(parameters[index], bound != null ? bound : arguments[index]);
+                }
+            }
+
+            current = current.getSuperclass();
+        }
+
+        TypeVariable<?>[] parameters = base.getTypeParameters();
+        Type[] resolved = new Type[parameters.length];
+        for (int index = 0; index < parameters.length; index++) {
+            resolved[index] = bindings.getOrDefault(parameters[index], parameters[index]);
+        }
+
+        return resolved;
     }
 
     /**
      * Return the value of the primary key for this entity object. Concrete
      * implementation may override this method to provide a better performance to
-     * this method, than using Java Reflection by default.
+     * this method, than using the generated field accessor by default.
      * 
      * @param entity the entity being used in the data store
      * 
      * @return the primary ID
      */
+    @SuppressWarnings("unchecked")
     public X getPrimaryID(T entity) {
         if (entity == null) {
             throw new IllegalArgumentException("Entity cannot be null");
         }
 
-        if (this.entityDetails.idField == null) {
+        if (this.entityDetails.idAccessor == null) {
             throw new IllegalStateException("This DataStore must either implement getPrimaryID() method, or add an @Id annotation to a field in the entity");
         }
-        try {
-            return this.primaryIDClass.cast(this.entityDetails.idField.get(entity));
-        } catch (IllegalArgumentException e) {
-            throw e;
-        } catch (IllegalAccessException e) {
-            throw new IllegalArgumentException("Unable to access primary key field", e);
-        }
+
+        return (X) this.entityDetails.idAccessor.get(entity);
     }
 
     @Override
@@ -126,6 +244,54 @@ public abstract class AbstractDataStoreServiceImpl<T, X> implements DataStoreSer
         return this.getMultipleEntities(ids);
     }
 
+    @Override
+    public final T get(X primaryID, Collection<String> fields) {
+        List<FieldAccessor> accessors = this.getProjection(fields);
+        if (AssertUtils.isEmpty(primaryID)) {
+            return null;
+        }
+
+        return this.getEntity(primaryID, accessors);
+    }
+
+    @Override
+    public final List<T> getMultiple(Collection<X> ids, Collection<String> fields) {
+        List<FieldAccessor> accessors = this.getProjection(fields);
+        if (AssertUtils.isEmpty(ids)) {
+            return null;
+        }
+
+        return this.getMultipleEntities(ids, accessors);
+    }
+
+    /**
+     * Resolve the names of the fields to read to their accessors. The primary
+     * field is always read, and comes first.
+     * 
+     * @param fields the names of the fields
+     * 
+     * @return the accessors, without duplicates
+     * 
+     * @throws IllegalArgumentException if the fields are <code>null</code>, or
+     *                                  name a field that is not persisted
+     */
+    private List<FieldAccessor> getProjection(Collection<String> fields) {
+        if (fields == null) {
+            throw new IllegalArgumentException("Fields cannot be null");
+        }
+
+        Set<FieldAccessor> accessors = new LinkedHashSet<>();
+        if (this.entityDetails.idAccessor != null) {
+            accessors.add(this.entityDetails.idAccessor);
+        }
+
+        for (String field : fields) {
+            accessors.add(QueryEvaluator.accessorFor(this.entityDetails, field));
+        }
+
+        return new ArrayList<>(accessors);
+    }
+
     @Override
     public final List<T> getAll() {
         List<T> entities = this.getAllEntities();
@@ -159,6 +325,48 @@ public abstract class AbstractDataStoreServiceImpl<T, X> implements DataStoreSer
         return entities;
     }
 
+    @Override
+    public final DataStorePage<T> getPage(String token, int pageSize) {
+        if (pageSize <= 0) {
+            return null;
+        }
+
+        if (token != null && token.isEmpty()) {
+            token = null;
+        }
+
+        return this.getEntityPage(token, pageSize);
+    }
+
+    @Override
+    public final List<T> find(DataStoreQuery query) {
+        if (query == null) {
+            throw new IllegalArgumentException("Query cannot be null");
+        }
+
+        List<T> entities = this.findEntities(query);
+
+        if (entities == null) {
+            entities = new ArrayList<>();
+        }
+
+        return entities;
+    }
+
+    @Override
+    public final Stream<T> stream() {
+        return this.stream(DEFAULT_FETCH_SIZE);
+    }
+
+    @Override
+    public final Stream<T> stream(int fetchSize) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("Fetch size must be positive");
+        }
+
+        return this.streamEntities(fetchSize);
+    }
+
     @Override
     public final T insert(T entity) {
         if (entity == null) {
@@ -166,6 +374,7 @@ public abstract class AbstractDataStoreServiceImpl<T, X> implements DataStoreSer
         }
 
         this.massage(entity, DataStoreOperation.CREATE);
+        this.initVersion(entity);
         return this.insertEntity(entity);
     }
 
@@ -176,6 +385,10 @@ public abstract class AbstractDataStoreServiceImpl<T, X> implements DataStoreSer
         }
 
         this.massage(entity, DataStoreOperation.UPDATE);
+        if (this.versionAccessor != null) {
+            return this.updateVersioned(entity);
+        }
+
         return this.updateEntity(entity);
     }
 
@@ -186,9 +399,130 @@ public abstract class AbstractDataStoreServiceImpl<T, X> implements DataStoreSer
         }
 
         this.massage(entity, DataStoreOperation.UPSERT);
+        if (this.versionAccessor != null) {
+            return this.upsertVersioned(entity);
+        }
+
         return this.upsertEntity(entity);
     }
 
+    @Override
+    public final boolean patch(X primaryID, DataStorePatch patch) {
+        if (primaryID == null) {
+            throw new IllegalArgumentException("ID cannot be null");
+        }
+
+        if (patch == null) {
+            throw new IllegalArgumentException("Patch cannot be null");
+        }
+
+        DataStorePatch resolved = EntityPatches.resolve(this.entityDetails, patch);
+        if (resolved.isEmpty()) {
+            return this.getEntity(primaryID, this.getProjection(Collections.emptyList())) != null;
+        }
+
+        if (this.versionAccessor != null) {
+            String versionField = this.versionAccessor.getField().getName();
+            for (DataStorePatch.Change change : resolved.getChanges()) {
+                if (change.getField().equals(versionField)) {
+                    throw new IllegalArgumentException("Version field cannot be patched: " + versionField);
+                }
+            }
+
+            // a patch is a write, entities read before it must not be written back
+            resolved.inc(versionField, this.toVersionValue(1));
+        }
+
+        if (this.massagePlan.userOwned && !this.checkOwner(primaryID)) {
+            return false;
+        }
+
+        return this.patchEntity(primaryID, resolved);
+    }
+
+    /**
+     * Check that the entity with the given primary ID is not owned by a user
+     * other than the current one, as an update of the entity would. The owner
+     * is read separately from the write, so a change of owner in between is not
+     * noticed.
+     * 
+     * @param primaryID the primary ID of a {@link UserOwnedEntity}
+     * 
+     * @return <code>true</code> if the entity exists, <code>false</code>
+     *         otherwise
+     * 
+     * @throws SecurityException if the entity is owned by a different user
+     */
+    private boolean checkOwner(X primaryID) {
+        T entity = this.getEntity(primaryID);
+        if (entity == null) {
+            return false;
+        }
+
+        String owner = ((UserOwnedEntity) entity).getUserID();
+        if (owner != null && !owner.equals(SecurityContext.getUserID())) {
+            throw new SecurityException("Entity is owned by a different user");
+        }
+
+        return true;
+    }
+
+    @Override
+    public final List<T> insertMultiple(Collection<T> entities) {
+        if (AssertUtils.isEmpty(entities)) {
+            return null;
+        }
+
+        this.massageMultiple(entities, DataStoreOperation.CREATE);
+        if (this.versionAccessor != null) {
+            for (T entity : entities) {
+                this.initVersion(entity);
+            }
+        }
+
+        return this.insertMultipleEntities(entities);
+    }
+
+    @Override
+    public final List<T> updateMultiple(Collection<T> entities) {
+        if (AssertUtils.isEmpty(entities)) {
+            return null;
+        }
+
+        this.massageMultiple(entities, DataStoreOperation.UPDATE);
+        if (this.versionAccessor != null) {
+            List<T> list = new ArrayList<>(entities.size());
+            for (T entity : entities) {
+                if (this.updateVersioned(entity) != null) {
+                    list.add(entity);
+                }
+            }
+
+            return list;
+        }
+
+        return this.updateMultipleEntities(entities);
+    }
+
+    @Override
+    public final List<T> upsertMultiple(Collection<T> entities) {
+        if (AssertUtils.isEmpty(entities)) {
+            return null;
+        }
+
+        this.massageMultiple(entities, DataStoreOperation.UPSERT);
+        if (this.versionAccessor != null) {
+            List<T> list = new ArrayList<>(entities.size());
+            for (T entity : entities) {
+                list.add(this.upsertVersioned(entity));
+            }
+
+            return list;
+        }
+
+        return this.upsertMultipleEntities(entities);
+    }
+
     @Override
     public final T delete(T entity) {
         if (entity == null) {
@@ -196,7 +530,7 @@ public abstract class AbstractDataStoreServiceImpl<T, X> implements DataStoreSer
         }
 
         this.massage(entity, DataStoreOperation.DELETE);
-        if (entity instanceof SoftDeleteEntity) {
+        if (this.planFor(entity).softDelete) {
             return this.update(entity);
         }
 
@@ -211,7 +545,7 @@ public abstract class AbstractDataStoreServiceImpl<T, X> implements DataStoreSer
 
         if (this.entityDetails.isSoftDelete()) {
             T entity = this.get(primaryID);
-            return this.delete(entity);
+            return entity != null ? this.delete(entity) : null;
         }
 
         return this.deleteEntityForID(primaryID);
@@ -235,51 +569,213 @@ public abstract class AbstractDataStoreServiceImpl<T, X> implements DataStoreSer
         return this.deleteMultipleEntities(ids);
     }
 
+    /**
+     * Update a versioned entity if the store still holds the version it was read
+     * at, incrementing its version. The version is left untouched if the entity
+     * is not updated.
+     * 
+     * @param entity the entity, already massaged
+     * 
+     * @return the entity if updated, <code>null</code> if it does not exist
+     * 
+     * @throws DataStoreVersionConflictException if the store holds another
+     *                                           version of the entity
+     */
+    private T updateVersioned(T entity) {
+        Object version = this.versionAccessor.get(entity);
+        long expectedVersion = this.getVersion(entity);
+
+        this.versionAccessor.set(entity, this.toVersionValue(expectedVersion + 1));
+        T updated = null;
+        try {
+            updated = this.updateVersionedEntity(entity, expectedVersion);
+            return updated;
+        } finally {
+            if (updated == null) {
+                this.versionAccessor.set(entity, version);
+            }
+        }
+    }
+
+    /**
+     * Update a versioned entity as in {@link #updateVersioned(Object)}, or
+     * insert it if it does not exist.
+     */
+    private T upsertVersioned(T entity) {
+        T updated = this.updateVersioned(entity);
+        if (updated != null) {
+            return updated;
+        }
+
+        this.initVersion(entity);
+        if (this.insertEntity(entity) != null) {
+            return entity;
+        }
+
+        // inserted by someone else since, at a version not read by the caller
+        throw new DataStoreVersionConflictException(this.getPrimaryID(entity), this.getVersion(entity));
+    }
+
+    /**
+     * Set the version of a new entity to <code>0</code> if it has none.
+     */
+    private void initVersion(T entity) {
+        if (this.versionAccessor != null && this.versionAccessor.get(entity) == null) {
+            this.versionAccessor.set(entity, this.toVersionValue(0));
+        }
+    }
+
+    /**
+     * Return the version of a versioned entity.
+     * 
+     * @param entity the entity
+     * 
+     * @return the version, <code>0</code> if the entity has none
+     * 
+     * @throws IllegalStateException if the entity is not versioned
+     */
+    protected final long getVersion(T entity) {
+        if (this.versionAccessor == null) {
+            throw new IllegalStateException("Entity is not versioned");
+        }
+
+        Number version = (Number) this.versionAccessor.get(entity);
+        return version != null ? version.longValue() : 0;
+    }
+
+    /**
+     * Return the name of the field annotated with {@link Version}.
+     * 
+     * @return the name of the field, <code>null</code> if the entity is not
+     *         versioned
+     */
+    protected final String getVersionField() {
+        return this.versionAccessor != null ? this.versionAccessor.getField().getName() : null;
+    }
+
+    /**
+     * Return a deep copy of the entity, made by a round trip through its JSON
+     * form.
+     * 
+     * @param entity the entity to copy
+     * 
+     * @return the copy
+     */
+    protected final T copyOf(T entity) {
+        Gson gson = GsonUtils.getGson();
+        return gson.fromJson(gson.toJsonTree(entity), this.entityClass);
+    }
+
+    /**
+     * Return a copy of the entity if it is versioned, the entity itself
+     * otherwise. Stores that keep entity instances rather than a serialized form
+     * must copy versioned entities both when storing and when handing them out.
+     * The version of the entity being written is incremented before the store
+     * checks it, and would change the stored version too if the instance were
+     * shared, letting a lost update through.
+     * 
+     * @param entity the entity
+     * 
+     * @return the copy, or the entity if it is not versioned or is
+     *         <code>null</code>
+     */
+    protected final T copyIfVersioned(T entity) {
+        if (entity == null || this.versionAccessor == null) {
+            return entity;
+        }
+
+        return this.copyOf(entity);
+    }
+
+    /**
+     * Replace all entities in the list with their copies if the entity is
+     * versioned, see {@link #copyIfVersioned(Object)}.
+     * 
+     * @param entities the entities, in a modifiable list
+     * 
+     * @return the same list
+     */
+    protected final List<T> copyAllIfVersioned(List<T> entities) {
+        if (this.versionAccessor != null) {
+            entities.replaceAll(this::copyOf);
+        }
+
+        return entities;
+    }
+
+    private Number toVersionValue(long version) {
+        Class<?> type = this.versionAccessor.getField().getType();
+        if (type == int.class || type == Integer.class) {
+            return (int) version;
+        }
+
+        return version;
+    }
+
     /**
      * Massage the entity to set fields for {@link CreateTimeStampedEntity},
-     * {@link UpdateTimeStampedEntity} and {@link UserOwnedEntity}.
+     * {@link UpdateTimeStampedEntity} and {@link UserOwnedEntity}. The clock and
+     * the {@link SecurityContext} are only consulted if the entity needs them.
      * 
      * @param entity
      * @param operation
      */
     protected final void massage(T entity, DataStoreOperation operation) {
-        long currentTime = System.currentTimeMillis();
-
-        if (entity instanceof CreateTimeStampedEntity) {
-            CreateTimeStampedEntity cte = (CreateTimeStampedEntity) entity;
-            cte.setCreateTime(currentTime);
+        MassagePlan plan = this.planFor(entity);
+        if (!plan.empty) {
+            long currentTime = plan.needsTime(operation) ? this.clock.currentTimeMillis() : 0;
+            String currentUserID = plan.userOwned ? SecurityContext.getUserID() : null;
+            plan.apply(entity, operation, currentTime, currentUserID);
         }
 
-        if (entity instanceof UpdateTimeStampedEntity) {
-            UpdateTimeStampedEntity ute = (UpdateTimeStampedEntity) entity;
-            ute.setUpdateTime(currentTime);
-        }
+        this.massageEntity(entity, operation);
+    }
 
-        if (operation == DataStoreOperation.DELETE) {
-            if (entity instanceof DeleteTimeStampedEntity) {
-                DeleteTimeStampedEntity dte = (DeleteTimeStampedEntity) entity;
-                dte.setDeleteTime(currentTime);
-            }
+    /**
+     * Massage all entities of a batch for the same operation. The current time
+     * and user are looked up at most once for the whole batch.
+     * 
+     * @param entities  the entities to massage
+     * 
+     * @param operation the operation being carried out
+     * 
+     * @throws IllegalArgumentException if any of the entities is <code>null</code>
+     */
+    protected final void massageMultiple(Collection<T> entities, DataStoreOperation operation) {
+        long currentTime = 0;
+        boolean timeRead = false;
+
+        String currentUserID = null;
+        boolean userRead = false;
 
-            if (entity instanceof SoftDeleteEntity) {
-                SoftDeleteEntity sde = (SoftDeleteEntity) entity;
-                sde.setDeleted(true);
+        for (T entity : entities) {
+            if (entity == null) {
+                throw new IllegalArgumentException("Entity cannot be null");
             }
-        }
 
-        if (entity instanceof UserOwnedEntity) {
-            UserOwnedEntity uoe = (UserOwnedEntity) entity;
-            String entityUserID = uoe.getUserID();
-            String currentUserID = SecurityContext.getUserID();
+            MassagePlan plan = this.planFor(entity);
+            if (!plan.empty) {
+                if (!timeRead && plan.needsTime(operation)) {
+                    currentTime = this.clock.currentTimeMillis();
+                    timeRead = true;
+                }
+
+                if (!userRead && plan.userOwned) {
+                    currentUserID = SecurityContext.getUserID();
+                    userRead = true;
+                }
 
-            if ((entityUserID == null) || (entityUserID != null && entityUserID.equals(currentUserID))) {
-                uoe.setUserID(currentUserID);
-            } else {
-                throw new SecurityException("Entity is owned by a different user");
+                plan.apply(entity, operation, currentTime, currentUserID);
             }
+
+            this.massageEntity(entity, operation);
         }
+    }
 
-        this.massageEntity(entity, operation);
+    private MassagePlan planFor(T entity) {
+        // entities may be of a sub-class implementing more interfaces
+        Class<?> clazz = entity.getClass();
+        return clazz == this.entityClass ? this.massagePlan : MassagePlan.forClass(clazz);
     }
 
     /**
@@ -311,6 +807,63 @@ public abstract class AbstractDataStoreServiceImpl<T, X> implements DataStoreSer
      */
     protected abstract T getEntity(X primaryID);
 
+    /**
+     * Update the entity only if the store holds it at the expected version. The
+     * entity already carries the incremented version. The default
+     * implementation reads the version from the store before updating the
+     * entity, which is not atomic. Stores that can compare and set natively
+     * should override this method. Stores that keep entity instances must not
+     * share them with callers, see {@link #copyIfVersioned(Object)}.
+     * 
+     * @param entity          the entity to be updated. Will never be
+     *                        <code>null</code>
+     * 
+     * @param expectedVersion the version the entity was read at
+     * 
+     * @return the entity if it was updated, <code>null</code> if it does not
+     *         exist
+     * 
+     * @throws DataStoreVersionConflictException if the store holds another
+     *                                           version of the entity
+     */
+    protected T updateVersionedEntity(T entity, long expectedVersion) {
+        X primaryID = this.getPrimaryID(entity);
+        T stored = this.getEntity(primaryID, this.getProjection(Collections.singletonList(this.getVersionField())));
+        if (stored == null) {
+            return null;
+        }
+
+        if (this.getVersion(stored) != expectedVersion) {
+            throw new DataStoreVersionConflictException(primaryID, expectedVersion);
+        }
+
+        return this.updateEntity(entity);
+    }
+
+    /**
+     * Apply the changes to the entity with the given primary key. The default
+     * implementation reads the entity, applies the changes and updates it, which
+     * writes the whole entity and is not atomic. Stores that can update single
+     * fields natively should override this method.
+     * 
+     * @param primaryID the primary ID of the entity. Will never be
+     *                  <code>null</code>
+     * 
+     * @param patch     the changes to apply, with values converted to the type of
+     *                  the field. Will never be <code>null</code> or empty
+     * 
+     * @return <code>true</code> if the entity exists and was patched
+     */
+    protected boolean patchEntity(X primaryID, DataStorePatch patch) {
+        T entity = this.getEntity(primaryID);
+        if (entity == null) {
+            return false;
+        }
+
+        EntityPatches.apply(this.entityDetails, entity, patch);
+        return this.updateEntity(entity) != null;
+    }
+
     /**
      * 
      * @param entity the entity to be inserted. Will never be <code>null</code>
@@ -353,10 +906,349 @@ public abstract class AbstractDataStoreServiceImpl<T, X> implements DataStoreSer
      */
     protected abstract T deleteEntityForID(X primaryID);
 
+    /**
+     * Insert all given entities. The default implementation inserts the entities
+     * one by one. Implementations should override this method to batch the
+     * writes to the underlying store.
+     * 
+     * @param entities the entities to be inserted. Will never be
+     *                 <code>null</code> or contain <code>null</code>
+     * 
+     * @return the entities that were inserted
+     */
+    protected List<T> insertMultipleEntities(Collection<T> entities) {
+        List<T> list = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            if (this.insertEntity(entity) != null) {
+                list.add(entity);
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Update all given entities. The default implementation updates the entities
+     * one by one. Implementations should override this method to batch the
+     * writes to the underlying store.
+     * 
+     * @param entities the entities to be updated. Will never be
+     *                 <code>null</code> or contain <code>null</code>
+     * 
+     * @return the entities that were updated
+     */
+    protected List<T> updateMultipleEntities(Collection<T> entities) {
+        List<T> list = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            if (this.updateEntity(entity) != null) {
+                list.add(entity);
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Upsert all given entities. The default implementation upserts the entities
+     * one by one. Implementations should override this method to batch the
+     * writes to the underlying store.
+     * 
+     * @param entities the entities to be upserted. Will never be
+     *                 <code>null</code> or contain <code>null</code>
+     * 
+     * @return the entities that were upserted
+     */
+    protected List<T> upsertMultipleEntities(Collection<T> entities) {
+        List<T> list = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            if (this.upsertEntity(entity) != null) {
+                list.add(entity);
+            }
+        }
+
+        return list;
+    }
+
     protected abstract List<T> getAllEntities();
 
+    /**
+     * Read the given number of entities beginning at the given offset. Entities
+     * must be read from <code>start</code>, which is not always a multiple of
+     * the page size: {@link #getEntityPage(String, int)} reads a page and one
+     * extra entity from the offset of the previous token.
+     * 
+     * @param page     the page number, <code>start / pageSize</code> rounded
+     *                 down
+     * 
+     * @param pageSize the number of entities to read
+     * 
+     * @param start    the offset of the first entity to read
+     * 
+     * @param end      the offset after the last entity to read,
+     *                 <code>start + pageSize</code>
+     * 
+     * @return the entities read, fewer than the page size at the end
+     */
     protected abstract List<T> getAllEntities(int page, int pageSize, int start, int end);
 
+    /**
+     * Stream all entities from the data store. The default implementation reads
+     * the entities lazily one page at a time using
+     * {@link #getAllEntities(int, int, int, int)}. Implementations should
+     * override this method to use a native cursor of the underlying store.
+     * 
+     * @param fetchSize the number of entities to fetch in one go. Will always be
+     *                  positive
+     * 
+     * @return the stream of entities
+     */
+    protected Stream<T> streamEntities(final int fetchSize) {
+        Iterator<T> iterator = new Iterator<T>() {
+
+            private int page = 0;
+
+            private Iterator<T> current;
+
+            private boolean exhausted;
+
+            @Override
+            public boolean hasNext() {
+                while (!this.exhausted && (this.current == null || !this.current.hasNext())) {
+                    int start = this.page * fetchSize;
+                    List<T> list = getAllEntities(this.page, fetchSize, start, start + fetchSize);
+                    this.page++;
+
+                    if (list == null || list.isEmpty()) {
+                        this.exhausted = true;
+                        break;
+                    }
+
+                    if (list.size() < fetchSize) {
+                        this.exhausted = true;
+                    }
+
+                    this.current = list.iterator();
+                }
+
+                return this.current != null && this.current.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return this.current.next();
+            }
+
+        };
+
+        return EntityStreams.of(iterator, null);
+    }
+
+    /**
+     * Find all entities matching the query. The default implementation streams
+     * all entities using {@link #streamEntities(int)} and evaluates the query
+     * over them, keeping only the matching entities in memory. Implementations
+     * should override this method to run the query natively in the underlying
+     * store.
+     * 
+     * @param query the query to run. Will never be <code>null</code>
+     * 
+     * @return the matching entities
+     */
+    protected List<T> findEntities(DataStoreQuery query) {
+        QueryEvaluator<T> evaluator = QueryEvaluator.of(query, this.entityDetails);
+        try (Stream<T> stream = this.streamEntities(DEFAULT_FETCH_SIZE)) {
+            return evaluator.evaluate(stream.iterator());
+        }
+    }
+
+    /**
+     * Fetch a page of entities continuing from the given token. The default
+     * implementation encodes the offset of the next entity in the token and reads
+     * the page using {@link #getAllEntities(int, int, int, int)}. Implementations
+     * should override this method to continue from the last key, or native
+     * cursor, of the previous page.
+     * 
+     * @param token    the token returned with the previous page, or
+     *                 <code>null</code> for the first page
+     * 
+     * @param pageSize the page size. Will always be positive
+     * 
+     * @return the page
+     */
+    protected DataStorePage<T> getEntityPage(String token, int pageSize) {
+        int start = 0;
+        if (token != null) {
+            try {
+                start = Integer.parseInt(decodePageToken(token));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid page token", e);
+            }
+
+            if (start < 0) {
+                throw new IllegalArgumentException("Invalid page token");
+            }
+        }
+
+        // read the page and one extra entity, to know if there is a next page,
+        // in a single read from the offset
+        final int fetchSize = pageSize == Integer.MAX_VALUE ? pageSize : pageSize + 1;
+        final int next = start + pageSize;
+        return toPage(this.getAllEntities(start / fetchSize, fetchSize, start, start + fetchSize), pageSize, last -> encodePageToken(String.valueOf(next)));
+    }
+
+    /**
+     * Build a page from a list that was read with one extra entity beyond the
+     * page size. If the extra entity is present, it is dropped, and the token for
+     * the next page is computed from the last entity of this page.
+     * 
+     * @param list      the entities read, at most <code>pageSize + 1</code>
+     * 
+     * @param pageSize  the page size
+     * 
+     * @param nextToken function to compute the next token from the last entity
+     *                  of the page
+     * 
+     * @return the page
+     */
+    protected static <T> DataStorePage<T> toPage(List<T> list, int pageSize, Function<T, String> nextToken) {
+        if (list == null || list.size() <= pageSize) {
+            return new DataStorePage<>(list, null);
+        }
+
+        List<T> entities = new ArrayList<>(list.subList(0, pageSize));
+        return new DataStorePage<>(entities, nextToken.apply(entities.get(pageSize - 1)));
+    }
+
+    /**
+     * Encode the primary ID into an opaque page token.
+     * 
+     * @param primaryID the primary ID
+     * 
+     * @return the token
+     */
+    protected String encodeKeyToken(X primaryID) {
+        return encodePageToken(GsonUtils.getGson().toJson(primaryID));
+    }
+
+    /**
+     * Decode the primary ID from a token created using
+     * {@link #encodeKeyToken(Object)}.
+     * 
+     * @param token the token
+     * 
+     * @return the primary ID
+     * 
+     * @throws IllegalArgumentException if the token is invalid
+     */
+    protected X decodeKeyToken(String token) {
+        X primaryID;
+        try {
+            primaryID = GsonUtils.getGson().fromJson(decodePageToken(token), this.primaryIDClass);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Invalid page token", e);
+        }
+
+        if (primaryID == null) {
+            throw new IllegalArgumentException("Invalid page token");
+        }
+
+        return primaryID;
+    }
+
+    /**
+     * Encode the given value into an opaque, URL-safe page token.
+     * 
+     * @param value the value to encode
+     * 
+     * @return the token
+     */
+    protected static String encodePageToken(String value) {
+        return encodePageToken(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Encode the given bytes into an opaque, URL-safe page token.
+     * 
+     * @param bytes the bytes to encode
+     * 
+     * @return the token
+     */
+    protected static String encodePageToken(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * Decode the value from a token created using
+     * {@link #encodePageToken(String)}.
+     * 
+     * @param token the token
+     * 
+     * @return the decoded value
+     * 
+     * @throws IllegalArgumentException if the token is invalid
+     */
+    protected static String decodePageToken(String token) {
+        return new String(decodePageTokenBytes(token), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decode the bytes from a token created using
+     * {@link #encodePageToken(byte[])}.
+     * 
+     * @param token the token
+     * 
+     * @return the decoded bytes
+     * 
+     * @throws IllegalArgumentException if the token is invalid
+     */
+    protected static byte[] decodePageTokenBytes(String token) {
+        try {
+            return Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page token", e);
+        }
+    }
+
+    /**
+     * Read the entity with only the given fields populated. The default
+     * implementation reads the full entity using {@link #getEntity(Object)}.
+     * Implementations should override this method to read only the given fields
+     * from the underlying store.
+     * 
+     * @param primaryID the primary ID for which entity is required. Will never be
+     *                  <code>null</code>
+     * 
+     * @param fields    the fields to read, the primary field first if the entity
+     *                  has one. Will never be <code>null</code>
+     * 
+     * @return the entity, or <code>null</code> if none exists
+     */
+    protected T getEntity(X primaryID, List<FieldAccessor> fields) {
+        return this.getEntity(primaryID);
+    }
+
+    /**
+     * Read the entities with only the given fields populated. The default
+     * implementation reads the full entities using
+     * {@link #getMultipleEntities(Collection)}. Implementations should override
+     * this method to read only the given fields from the underlying store.
+     * 
+     * @param ids    the primary IDs for which entities are required. Will never
+     *               be <code>null</code> or empty
+     * 
+     * @param fields the fields to read, the primary field first if the entity has
+     *               one. Will never be <code>null</code>
+     * 
+     * @return the entities found
+     */
+    protected List<T> getMultipleEntities(Collection<X> ids, List<FieldAccessor> fields) {
+        return this.getMultipleEntities(ids);
+    }
+
     protected abstract List<T> getMultipleEntities(Collection<X> ids);
 
     protected abstract List<T> getMultipleEntities(X[] ids);
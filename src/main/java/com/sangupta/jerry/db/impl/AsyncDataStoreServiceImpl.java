@@ -0,0 +1,255 @@
+package com.sangupta.jerry.db.impl;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.security.Principal;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sangupta.jerry.db.AsyncDataStoreService;
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.security.SecurityContext;
+
+/**
+ * An {@link AsyncDataStoreService} that runs the calls of a blocking
+ * {@link DataStoreService} on an executor. At most the configured number of
+ * calls run against the underlying store at any time, the rest wait for their
+ * turn without holding up the caller. The implementation can be used as:
+ *
+ * <pre>
+ * AsyncDataStoreService<MyEntity, String> async = new AsyncDataStoreServiceImpl<>(service, 128);
+ * </pre>
+ *
+ * When the runtime supports virtual threads, each call runs on its own virtual
+ * thread, and the concurrency limit is enforced with a {@link Semaphore}.
+ * Otherwise calls run on a fixed pool of daemon threads as large as the
+ * concurrency limit. An external {@link Executor} may be supplied instead, in
+ * which case it is not shut down by {@link #close()}.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ *
+ * @param <X> The primary ID key for this entity object
+ */
+public class AsyncDataStoreServiceImpl<T, X> implements AsyncDataStoreService<T, X>, Closeable {
+
+    /**
+     * logger instance
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncDataStoreServiceImpl.class);
+
+    /**
+     * Default number of calls allowed to run against the store at the same time
+     */
+    public static final int DEFAULT_MAX_CONCURRENCY = 64;
+
+    protected final DataStoreService<T, X> dataStoreService;
+
+    protected final Executor executor;
+
+    /**
+     * Bounds the calls in flight, <code>null</code> if the executor bounds them
+     */
+    private final Semaphore permits;
+
+    /**
+     * Whether the executor was created here and must be shut down on close
+     */
+    private final boolean ownsExecutor;
+
+    private final boolean virtualThreads;
+
+    public AsyncDataStoreServiceImpl(DataStoreService<T, X> dataStoreService) {
+        this(dataStoreService, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    public AsyncDataStoreServiceImpl(DataStoreService<T, X> dataStoreService, int maxConcurrency) {
+        if (dataStoreService == null) {
+            throw new IllegalArgumentException("DataStoreService cannot be null");
+        }
+
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("Max concurrency must be positive");
+        }
+
+        this.dataStoreService = dataStoreService;
+        this.ownsExecutor = true;
+
+        ExecutorService virtual = newVirtualThreadExecutor();
+        if (virtual != null) {
+            this.executor = virtual;
+            this.permits = new Semaphore(maxConcurrency);
+            this.virtualThreads = true;
+        } else {
+            this.executor = Executors.newFixedThreadPool(maxConcurrency, new DaemonThreadFactory());
+            this.permits = null;
+            this.virtualThreads = false;
+        }
+    }
+
+    /**
+     * Create an instance that runs all calls on the given executor. The executor
+     * is expected to bound the concurrency itself, and is not shut down when this
+     * instance is closed.
+     *
+     * @param dataStoreService the store to delegate calls to
+     *
+     * @param executor         the executor to run calls on
+     */
+    public AsyncDataStoreServiceImpl(DataStoreService<T, X> dataStoreService, Executor executor) {
+        if (dataStoreService == null) {
+            throw new IllegalArgumentException("DataStoreService cannot be null");
+        }
+
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null");
+        }
+
+        this.dataStoreService = dataStoreService;
+        this.executor = executor;
+        this.permits = null;
+        this.ownsExecutor = false;
+        this.virtualThreads = false;
+    }
+
+    /**
+     * Check if calls run on virtual threads.
+     *
+     * @return <code>true</code> if calls run on virtual threads,
+     *         <code>false</code> otherwise
+     */
+    public boolean isVirtualThreads() {
+        return this.virtualThreads;
+    }
+
+    @Override
+    public CompletableFuture<T> get(X primaryID) {
+        return this.submit(() -> this.dataStoreService.get(primaryID));
+    }
+
+    @Override
+    public CompletableFuture<List<T>> getMultiple(Collection<X> ids) {
+        return this.submit(() -> this.dataStoreService.getMultiple(ids));
+    }
+
+    @Override
+    public CompletableFuture<T> insert(T entity) {
+        return this.submit(() -> this.dataStoreService.insert(entity));
+    }
+
+    @Override
+    public CompletableFuture<T> update(T entity) {
+        return this.submit(() -> this.dataStoreService.update(entity));
+    }
+
+    @Override
+    public CompletableFuture<T> upsert(T entity) {
+        return this.submit(() -> this.dataStoreService.upsert(entity));
+    }
+
+    @Override
+    public CompletableFuture<T> delete(T entity) {
+        return this.submit(() -> this.dataStoreService.delete(entity));
+    }
+
+    @Override
+    public CompletableFuture<T> deleteForID(X primaryID) {
+        return this.submit(() -> this.dataStoreService.deleteForID(primaryID));
+    }
+
+    @Override
+    public CompletableFuture<List<T>> deleteMultiple(Collection<X> ids) {
+        return this.submit(() -> this.dataStoreService.deleteMultiple(ids));
+    }
+
+    /**
+     * Shut down the executor, if it was created by this instance. Calls already
+     * submitted are allowed to complete. The underlying store is not closed.
+     */
+    @Override
+    public void close() {
+        if (this.ownsExecutor) {
+            ((ExecutorService) this.executor).shutdown();
+        }
+    }
+
+    /**
+     * Run the given call on the executor, within the concurrency limit. The call
+     * runs with the {@link SecurityContext} of the calling thread, so that
+     * entities owned by a user are written on behalf of the caller.
+     *
+     * @param call the call to run
+     *
+     * @return the future for the result of the call
+     */
+    protected <R> CompletableFuture<R> submit(Supplier<R> call) {
+        // capture the caller before hopping onto the executor threads
+        final Principal principal = SecurityContexts.capture();
+        if (this.permits == null) {
+            return CompletableFuture.supplyAsync(() -> SecurityContexts.callAs(principal, call), this.executor);
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            // blocking a virtual thread on the semaphore is cheap
+            this.permits.acquireUninterruptibly();
+            try {
+                return SecurityContexts.callAs(principal, call);
+            } finally {
+                this.permits.release();
+            }
+        }, this.executor);
+    }
+
+    /**
+     * Create an executor that starts a new virtual thread per task, if the
+     * runtime supports virtual threads. Reflection is used as the library is
+     * compiled against an older release.
+     *
+     * @return the executor, or <code>null</code> if virtual threads are not
+     *         available
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // preview feature not enabled on older runtimes
+            LOGGER.debug("Virtual threads are not available, using platform threads", e);
+            return null;
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger POOL = new AtomicInteger();
+
+        private final int pool = POOL.incrementAndGet();
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "async-data-store-" + this.pool + "-" + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
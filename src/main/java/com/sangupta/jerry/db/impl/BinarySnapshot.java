@@ -0,0 +1,265 @@
+package com.sangupta.jerry.db.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+import com.google.gson.Gson;
+
+/**
+ * Reads and writes the binary snapshot format used by
+ * {@link DiskBackedInMemoryDataStoreServiceImpl}. The file is laid out as:
+ *
+ * <pre>
+ * int     MAGIC
+ * int     VERSION
+ * records, grouped in segments, each record being
+ *     int    key length,   byte[] key   (UTF-8 JSON of primary ID)
+ *     int    value length, byte[] value (UTF-8 JSON of entity)
+ * trailer
+ *     int    segment count
+ *     for each segment: long offset, long length, int record count
+ * long    trailer offset
+ * int     MAGIC
+ * </pre>
+ *
+ * Segments are independently memory-mapped and decoded in parallel on a
+ * {@link ForkJoinPool} when the snapshot is read back.
+ *
+ * @author sangupta
+ *
+ */
+final class BinarySnapshot {
+
+    /**
+     * Magic marker for the binary snapshot - spells <code>JBSS</code>
+     */
+    static final int MAGIC = 0x4A425353;
+
+    /**
+     * Current version of the snapshot layout
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Number of bytes after which a new segment is started
+     */
+    static final long SEGMENT_SIZE = 16l * 1024l * 1024l;
+
+    /**
+     * Size of the fixed tail: trailer offset and the magic marker
+     */
+    private static final int TAIL_SIZE = 12;
+
+    private BinarySnapshot() {
+        // cannot be instantiated
+    }
+
+    /**
+     * Check if the given file is a binary snapshot by looking for the magic
+     * marker at start of the file.
+     *
+     * @param file the file to check
+     *
+     * @return <code>true</code> if file exists and is a binary snapshot,
+     *         <code>false</code> otherwise
+     *
+     * @throws IOException if the file cannot be read
+     */
+    static boolean isBinarySnapshot(File file) throws IOException {
+        if (file == null || !file.exists() || file.length() < 8 + TAIL_SIZE) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    return false;
+                }
+            }
+
+            buffer.flip();
+            return buffer.getInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Write all entries of the given map to the channel, starting at its current
+     * position.
+     *
+     * @param channel the channel to write to, is not closed by this method
+     *
+     * @param entries the entries to write
+     *
+     * @param gson    the {@link Gson} instance to serialize keys and values with
+     *
+     * @throws IOException if writing fails
+     */
+    static <X, T> void write(FileChannel channel, Map<X, T> entries, Gson gson) throws IOException {
+        OutputStream stream = Channels.newOutputStream(channel);
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+
+        List<long[]> segments = new ArrayList<>();
+        long segmentStart = output.size();
+        long position = segmentStart;
+        int records = 0;
+
+        for (Entry<X, T> entry : entries.entrySet()) {
+            byte[] key = gson.toJson(entry.getKey()).getBytes(StandardCharsets.UTF_8);
+            byte[] value = gson.toJson(entry.getValue()).getBytes(StandardCharsets.UTF_8);
+
+            output.writeInt(key.length);
+            output.write(key);
+            output.writeInt(value.length);
+            output.write(value);
+
+            position += 8 + key.length + value.length;
+            records++;
+
+            if (position - segmentStart >= SEGMENT_SIZE) {
+                segments.add(new long[] { segmentStart, position - segmentStart, records });
+                segmentStart = position;
+                records = 0;
+            }
+        }
+
+        if (records > 0) {
+            segments.add(new long[] { segmentStart, position - segmentStart, records });
+        }
+
+        // write the trailer
+        long trailerOffset = position;
+        output.writeInt(segments.size());
+        for (long[] segment : segments) {
+            output.writeLong(segment[0]);
+            output.writeLong(segment[1]);
+            output.writeInt((int) segment[2]);
+        }
+
+        output.writeLong(trailerOffset);
+        output.writeInt(MAGIC);
+        output.flush();
+    }
+
+    /**
+     * Read the snapshot from the given file, decoding all segments in parallel
+     * on the given pool. The consumer is invoked concurrently from multiple
+     * threads and must be thread-safe.
+     *
+     * @param file       the snapshot file to read
+     *
+     * @param keyClass   the class of the primary ID
+     *
+     * @param valueClass the class of the entity
+     *
+     * @param gson       the {@link Gson} instance to deserialize with
+     *
+     * @param pool       the pool to run segment decoding on
+     *
+     * @param consumer   the consumer to receive each decoded entry
+     *
+     * @throws IOException if the file cannot be read or is corrupt
+     */
+    static <X, T> void read(File file, Class<X> keyClass, Class<T> valueClass, Gson gson, ForkJoinPool pool, BiConsumer<X, T> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+
+            ByteBuffer tail = readFully(channel, size - TAIL_SIZE, TAIL_SIZE);
+            long trailerOffset = tail.getLong();
+            if (tail.getInt() != MAGIC || trailerOffset < 8 || trailerOffset > size - TAIL_SIZE) {
+                throw new IOException("Binary snapshot is corrupt or truncated: " + file);
+            }
+
+            ByteBuffer trailer = readFully(channel, trailerOffset, (int) (size - TAIL_SIZE - trailerOffset));
+            int segmentCount = trailer.getInt();
+
+            List<Callable<Void>> tasks = new ArrayList<>(segmentCount);
+            for (int index = 0; index < segmentCount; index++) {
+                final long offset = trailer.getLong();
+                final long length = trailer.getLong();
+                final int records = trailer.getInt();
+
+                if (length > Integer.MAX_VALUE || offset + length > trailerOffset) {
+                    throw new IOException("Binary snapshot has an invalid segment: " + file);
+                }
+
+                final MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                tasks.add(() -> {
+                    readSegment(segment, records, keyClass, valueClass, gson, consumer);
+                    return null;
+                });
+            }
+
+            List<Future<Void>> futures = pool.invokeAll(tasks);
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading binary snapshot", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to read binary snapshot: " + file, e.getCause());
+        }
+    }
+
+    private static <X, T> void readSegment(ByteBuffer segment, int records, Class<X> keyClass, Class<T> valueClass, Gson gson, BiConsumer<X, T> consumer) {
+        byte[] buffer = new byte[1024];
+
+        for (int index = 0; index < records; index++) {
+            int keyLength = segment.getInt();
+            buffer = ensureCapacity(buffer, keyLength);
+            segment.get(buffer, 0, keyLength);
+            X key = gson.fromJson(new String(buffer, 0, keyLength, StandardCharsets.UTF_8), keyClass);
+
+            int valueLength = segment.getInt();
+            buffer = ensureCapacity(buffer, valueLength);
+            segment.get(buffer, 0, valueLength);
+            T value = gson.fromJson(new String(buffer, 0, valueLength, StandardCharsets.UTF_8), valueClass);
+
+            consumer.accept(key, value);
+        }
+    }
+
+    private static byte[] ensureCapacity(byte[] buffer, int length) {
+        if (buffer.length >= length) {
+            return buffer;
+        }
+
+        return new byte[Math.max(length, buffer.length * 2)];
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of binary snapshot");
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+}
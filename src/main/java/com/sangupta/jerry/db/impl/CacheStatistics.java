@@ -0,0 +1,97 @@
+package com.sangupta.jerry.db.impl;
+
+/**
+ * An immutable snapshot of the counters of a {@link CachingDataStoreService}.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ */
+public final class CacheStatistics {
+
+    private final long hitCount;
+
+    private final long missCount;
+
+    private final long evictionCount;
+
+    private final long expirationCount;
+
+    private final long rejectionCount;
+
+    public CacheStatistics(long hitCount, long missCount, long evictionCount, long expirationCount, long rejectionCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.expirationCount = expirationCount;
+        this.rejectionCount = rejectionCount;
+    }
+
+    /**
+     * Return the number of lookups served from the cache, including cached
+     * misses.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * Return the number of lookups that went to the underlying store.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * Return the number of entries removed to make room for new ones.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    /**
+     * Return the number of entries that were found to be past their time to
+     * live.
+     *
+     * @return the expiration count
+     */
+    public long getExpirationCount() {
+        return this.expirationCount;
+    }
+
+    /**
+     * Return the number of loaded entries that were not cached, as they were
+     * accessed less often than the entry they would have replaced.
+     *
+     * @return the rejection count
+     */
+    public long getRejectionCount() {
+        return this.rejectionCount;
+    }
+
+    public long getRequestCount() {
+        return this.hitCount + this.missCount;
+    }
+
+    /**
+     * Return the ratio of lookups served from the cache.
+     *
+     * @return the hit rate, <code>1.0</code> if there were no lookups
+     */
+    public double getHitRate() {
+        long requests = this.getRequestCount();
+        return requests == 0 ? 1.0 : (double) this.hitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics [hits=" + this.hitCount + ", misses=" + this.missCount + ", evictions=" + this.evictionCount + ", expirations=" + this.expirationCount + ", rejections=" + this.rejectionCount + "]";
+    }
+
+}
@@ -0,0 +1,645 @@
+package com.sangupta.jerry.db.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sangupta.jerry.db.DataStorePatch;
+import com.sangupta.jerry.db.DataStoreService;
+
+/**
+ * A read-through cache in front of any {@link DataStoreService}. Point reads
+ * via {@link #get(Object)} and {@link #getMultiple(Collection)} are served from
+ * a bounded on-heap cache, and only the misses go to the underlying store. The
+ * implementation can be used as:
+ *
+ * <pre>
+ * DataStoreService<MyEntity, String> cached = new CachingDataStoreService<>(service, 10_000, 60_000);
+ * </pre>
+ *
+ * The cache holds at most the given number of entries. When it is full, a
+ * victim is picked amongst a small random sample of entries, preferring expired
+ * entries and then the least frequently used one. A newly loaded entity is only
+ * admitted if it has been accessed more often recently than the victim, as
+ * estimated by a {@link FrequencySketch} (TinyLFU admission). This keeps a scan
+ * over cold keys from flushing out the hot ones.
+ *
+ * Entries expire after the configured time to live. Misses may also be cached,
+ * for a separate time to live, so that repeated lookups for absent keys do not
+ * reach the store. Every write and delete made through this instance
+ * invalidates the affected keys; writes made directly to the underlying store
+ * are only seen once the cached entries expire. Scans, queries, pages and
+ * counts are always served by the underlying store. Reads of selected fields
+ * are answered with the full cached entity on a hit, and the partial entities
+ * read on a miss are not cached.
+ *
+ * Cached entities are shared between callers, and must not be modified without
+ * writing them back through this instance.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ *
+ * @param <X> The primary ID key for this entity object
+ */
+public class CachingDataStoreService<T, X> extends ForwardingDataStoreService<T, X> {
+
+    /**
+     * Number of entries looked at to pick a victim for eviction
+     */
+    private static final int EVICTION_SAMPLE_SIZE = 8;
+
+    /**
+     * Number of stripes used to detect writes racing with a load
+     */
+    private static final int STAMP_STRIPES = 64;
+
+    /**
+     * Marker for entries that never expire
+     */
+    private static final long NEVER = Long.MIN_VALUE;
+
+    protected final int maximumSize;
+
+    protected final long timeToLiveNanos;
+
+    protected final long negativeTimeToLiveNanos;
+
+    private final ConcurrentHashMap<X, CacheEntry<T>> cache;
+
+    private final FrequencySketch sketch;
+
+    /**
+     * Incremented for a key stripe on every invalidation. A load only populates
+     * the cache if its stripe was not invalidated while the load was in flight.
+     */
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+
+    /**
+     * Guards {@link #slots}, {@link #size} and all modifications to the cache
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Keys of all cached entries, in the first {@link #size} slots. Allows
+     * picking random entries for eviction.
+     */
+    private final Object[] slots;
+
+    private int size;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder expirations = new LongAdder();
+
+    private final LongAdder rejections = new LongAdder();
+
+    public CachingDataStoreService(DataStoreService<T, X> delegate, int maximumSize) {
+        this(delegate, maximumSize, 0, 0);
+    }
+
+    public CachingDataStoreService(DataStoreService<T, X> delegate, int maximumSize, long timeToLiveMillis) {
+        this(delegate, maximumSize, timeToLiveMillis, 0);
+    }
+
+    /**
+     * Create a cache in front of the given store.
+     *
+     * @param delegate                 the store to cache
+     *
+     * @param maximumSize              the maximum number of entries to cache
+     *
+     * @param timeToLiveMillis         the time after which a cached entity
+     *                                 expires, or <code>0</code> to never expire
+     *
+     * @param negativeTimeToLiveMillis the time for which a miss is cached, or
+     *                                 <code>0</code> to not cache misses
+     */
+    public CachingDataStoreService(DataStoreService<T, X> delegate, int maximumSize, long timeToLiveMillis, long negativeTimeToLiveMillis) {
+        super(delegate);
+
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+
+        if (timeToLiveMillis < 0 || negativeTimeToLiveMillis < 0) {
+            throw new IllegalArgumentException("Time to live cannot be negative");
+        }
+
+        this.maximumSize = maximumSize;
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+        this.negativeTimeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(negativeTimeToLiveMillis);
+        this.cache = new ConcurrentHashMap<>(Math.min(maximumSize, 1 << 16));
+        this.slots = new Object[maximumSize];
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    @Override
+    public T get(X primaryID) {
+        if (primaryID == null) {
+            return this.delegate.get(primaryID);
+        }
+
+        CacheEntry<T> entry = this.lookup(primaryID);
+        if (entry != null) {
+            return entry.value;
+        }
+
+        long stamp = this.stampOf(primaryID);
+        T entity = this.delegate.get(primaryID);
+        this.cache(primaryID, entity, stamp);
+        return entity;
+    }
+
+    @Override
+    public List<T> getMultiple(Collection<X> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return this.delegate.getMultiple(ids);
+        }
+
+        List<T> list = new ArrayList<>(ids.size());
+        Map<X, Long> missing = new LinkedHashMap<>();
+        for (X id : ids) {
+            if (id == null || missing.containsKey(id)) {
+                continue;
+            }
+
+            CacheEntry<T> entry = this.lookup(id);
+            if (entry == null) {
+                missing.put(id, this.stampOf(id));
+                continue;
+            }
+
+            if (entry.value != null) {
+                list.add(entry.value);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return list;
+        }
+
+        List<T> loaded = this.delegate.getMultiple(missing.keySet());
+        Set<X> found = new HashSet<>();
+        if (loaded != null) {
+            for (T entity : loaded) {
+                X id = this.delegate.getPrimaryID(entity);
+                Long stamp = missing.get(id);
+                if (stamp != null) {
+                    this.cache(id, entity, stamp);
+                    found.add(id);
+                }
+
+                list.add(entity);
+            }
+        }
+
+        for (Map.Entry<X, Long> entry : missing.entrySet()) {
+            if (!found.contains(entry.getKey())) {
+                this.cache(entry.getKey(), null, entry.getValue());
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    public List<T> getMultiple(X[] ids) {
+        if (ids == null || ids.length == 0) {
+            return this.delegate.getMultiple(ids);
+        }
+
+        return this.getMultiple(Arrays.asList(ids));
+    }
+
+    @Override
+    public T get(X primaryID, Collection<String> fields) {
+        if (primaryID == null || fields == null) {
+            return this.delegate.get(primaryID, fields);
+        }
+
+        // a cached full entity is a valid answer for any fields, while partial
+        // entities read from the underlying store are not cached
+        CacheEntry<T> entry = this.lookup(primaryID);
+        if (entry != null) {
+            return entry.value;
+        }
+
+        return this.delegate.get(primaryID, fields);
+    }
+
+    @Override
+    public List<T> getMultiple(Collection<X> ids, Collection<String> fields) {
+        if (ids == null || ids.isEmpty() || fields == null) {
+            return this.delegate.getMultiple(ids, fields);
+        }
+
+        List<T> list = new ArrayList<>(ids.size());
+        Set<X> missing = new LinkedHashSet<>();
+        for (X id : ids) {
+            if (id == null || missing.contains(id)) {
+                continue;
+            }
+
+            CacheEntry<T> entry = this.lookup(id);
+            if (entry == null) {
+                missing.add(id);
+                continue;
+            }
+
+            if (entry.value != null) {
+                list.add(entry.value);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            List<T> loaded = this.delegate.getMultiple(missing, fields);
+            if (loaded != null) {
+                list.addAll(loaded);
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    public T insert(T entity) {
+        try {
+            return this.delegate.insert(entity);
+        } finally {
+            this.invalidateEntity(entity);
+        }
+    }
+
+    @Override
+    public T update(T entity) {
+        try {
+            return this.delegate.update(entity);
+        } finally {
+            this.invalidateEntity(entity);
+        }
+    }
+
+    @Override
+    public T upsert(T entity) {
+        try {
+            return this.delegate.upsert(entity);
+        } finally {
+            this.invalidateEntity(entity);
+        }
+    }
+
+    @Override
+    public boolean patch(X primaryID, DataStorePatch patch) {
+        try {
+            return this.delegate.patch(primaryID, patch);
+        } finally {
+            this.invalidate(primaryID);
+        }
+    }
+
+    @Override
+    public List<T> insertMultiple(Collection<T> entities) {
+        try {
+            return this.delegate.insertMultiple(entities);
+        } finally {
+            this.invalidateEntities(entities);
+        }
+    }
+
+    @Override
+    public List<T> updateMultiple(Collection<T> entities) {
+        try {
+            return this.delegate.updateMultiple(entities);
+        } finally {
+            this.invalidateEntities(entities);
+        }
+    }
+
+    @Override
+    public List<T> upsertMultiple(Collection<T> entities) {
+        try {
+            return this.delegate.upsertMultiple(entities);
+        } finally {
+            this.invalidateEntities(entities);
+        }
+    }
+
+    @Override
+    public T delete(T entity) {
+        try {
+            return this.delegate.delete(entity);
+        } finally {
+            this.invalidateEntity(entity);
+        }
+    }
+
+    @Override
+    public T deleteForID(X primaryID) {
+        try {
+            return this.delegate.deleteForID(primaryID);
+        } finally {
+            this.invalidate(primaryID);
+        }
+    }
+
+    @Override
+    public List<T> deleteMultiple(Collection<X> ids) {
+        try {
+            return this.delegate.deleteMultiple(ids);
+        } finally {
+            if (ids != null) {
+                for (X id : ids) {
+                    this.invalidate(id);
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<T> deleteMultiple(X[] ids) {
+        try {
+            return this.delegate.deleteMultiple(ids);
+        } finally {
+            if (ids != null) {
+                for (X id : ids) {
+                    this.invalidate(id);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        try {
+            this.delegate.deleteAll();
+        } finally {
+            this.invalidateAll();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.invalidateAll();
+        this.delegate.close();
+    }
+
+    /**
+     * Remove the entry for the given key from the cache, if present.
+     *
+     * @param primaryID the primary ID
+     */
+    public void invalidate(X primaryID) {
+        if (primaryID == null) {
+            return;
+        }
+
+        synchronized (this.lock) {
+            this.stamps.incrementAndGet(stripeOf(primaryID));
+
+            CacheEntry<T> entry = this.cache.get(primaryID);
+            if (entry != null) {
+                this.removeEntry(primaryID, entry);
+            }
+        }
+    }
+
+    /**
+     * Remove all entries from the cache.
+     */
+    public void invalidateAll() {
+        synchronized (this.lock) {
+            for (int stripe = 0; stripe < STAMP_STRIPES; stripe++) {
+                this.stamps.incrementAndGet(stripe);
+            }
+
+            this.cache.clear();
+            Arrays.fill(this.slots, 0, this.size, null);
+            this.size = 0;
+        }
+    }
+
+    /**
+     * Return the number of entries currently cached, including cached misses
+     * and entries that have expired but not yet been removed.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return this.cache.size();
+    }
+
+    /**
+     * Return a snapshot of the counters of this cache.
+     *
+     * @return the statistics
+     */
+    public CacheStatistics getStatistics() {
+        return new CacheStatistics(this.hits.sum(), this.misses.sum(), this.evictions.sum(), this.expirations.sum(), this.rejections.sum());
+    }
+
+    /**
+     * Find a live entry for the key, and record the access.
+     *
+     * @param key the key
+     *
+     * @return the entry, or <code>null</code> if the key must be loaded
+     */
+    private CacheEntry<T> lookup(X key) {
+        this.sketch.increment(key);
+
+        CacheEntry<T> entry = this.cache.get(key);
+        if (entry == null) {
+            this.misses.increment();
+            return null;
+        }
+
+        if (entry.expiresAt != NEVER && entry.isExpired(System.nanoTime())) {
+            this.expirations.increment();
+            this.misses.increment();
+
+            synchronized (this.lock) {
+                if (this.cache.get(key) == entry) {
+                    this.removeEntry(key, entry);
+                }
+            }
+
+            return null;
+        }
+
+        this.hits.increment();
+        return entry;
+    }
+
+    /**
+     * Add the loaded value to the cache, unless the key was invalidated since
+     * the load started or the admission policy rejects it.
+     *
+     * @param key    the key
+     *
+     * @param value  the loaded entity, <code>null</code> for a miss
+     *
+     * @param stamp  the stamp of the key as read before the load
+     */
+    private void cache(X key, T value, long stamp) {
+        long timeToLive = value != null ? this.timeToLiveNanos : this.negativeTimeToLiveNanos;
+        if (value == null && timeToLive == 0) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        final long expiresAt = timeToLive > 0 ? now + timeToLive : NEVER;
+
+        synchronized (this.lock) {
+            if (this.stamps.get(stripeOf(key)) != stamp) {
+                // a write went through while loading, value may be stale
+                return;
+            }
+
+            CacheEntry<T> existing = this.cache.get(key);
+            if (existing != null) {
+                this.cache.put(key, new CacheEntry<>(value, expiresAt, existing.slot));
+                return;
+            }
+
+            int slot;
+            if (this.size < this.maximumSize) {
+                slot = this.size++;
+            } else {
+                slot = this.pickVictim(now);
+
+                @SuppressWarnings("unchecked")
+                X victimKey = (X) this.slots[slot];
+                CacheEntry<T> victim = this.cache.get(victimKey);
+                if (victim.expiresAt != NEVER && victim.isExpired(now)) {
+                    this.expirations.increment();
+                } else if (this.sketch.frequency(key) <= this.sketch.frequency(victimKey)) {
+                    this.rejections.increment();
+                    return;
+                } else {
+                    this.evictions.increment();
+                }
+
+                this.cache.remove(victimKey);
+            }
+
+            this.slots[slot] = key;
+            this.cache.put(key, new CacheEntry<>(value, expiresAt, slot));
+        }
+    }
+
+    /**
+     * Pick the slot to evict from a random sample of slots. Expired entries are
+     * picked first, then the one accessed least often. Must be called holding
+     * the lock, with the cache full.
+     */
+    private int pickVictim(long now) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        int victim = -1;
+        int victimFrequency = Integer.MAX_VALUE;
+        for (int sample = 0; sample < EVICTION_SAMPLE_SIZE; sample++) {
+            int slot = random.nextInt(this.size);
+            Object key = this.slots[slot];
+
+            CacheEntry<T> entry = this.cache.get(key);
+            if (entry.expiresAt != NEVER && entry.isExpired(now)) {
+                return slot;
+            }
+
+            int frequency = this.sketch.frequency(key);
+            if (frequency < victimFrequency) {
+                victim = slot;
+                victimFrequency = frequency;
+            }
+        }
+
+        return victim;
+    }
+
+    /**
+     * Remove the entry and free its slot, by moving the last used slot into
+     * it. Must be called holding the lock.
+     */
+    private void removeEntry(X key, CacheEntry<T> entry) {
+        this.cache.remove(key);
+
+        int last = --this.size;
+        if (entry.slot != last) {
+            Object moved = this.slots[last];
+            this.slots[entry.slot] = moved;
+            this.cache.get(moved).slot = entry.slot;
+        }
+
+        this.slots[last] = null;
+    }
+
+    private void invalidateEntity(T entity) {
+        if (entity != null) {
+            this.invalidate(this.delegate.getPrimaryID(entity));
+        }
+    }
+
+    private void invalidateEntities(Collection<T> entities) {
+        if (entities == null) {
+            return;
+        }
+
+        for (T entity : entities) {
+            this.invalidateEntity(entity);
+        }
+    }
+
+    private long stampOf(X key) {
+        return this.stamps.get(stripeOf(key));
+    }
+
+    private static int stripeOf(Object key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (STAMP_STRIPES - 1);
+    }
+
+    private static final class CacheEntry<T> {
+
+        /**
+         * The cached entity, <code>null</code> for a cached miss
+         */
+        final T value;
+
+        final long expiresAt;
+
+        /**
+         * Index of the key in the slots, guarded by the lock
+         */
+        int slot;
+
+        CacheEntry(T value, long expiresAt, int slot) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.slot = slot;
+        }
+
+        boolean isExpired(long now) {
+            return now - this.expiresAt >= 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.sangupta.jerry.db.impl;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.sangupta.jerry.db.DataStoreClock;
+
+/**
+ * A {@link DataStoreClock} that reads the system clock once per tick on a
+ * background thread, and returns the last value read. Reading the time is then
+ * a single volatile read, at the cost of being behind the system clock by up
+ * to one tick. A single instance can be shared by all stores:
+ * 
+ * <pre>
+ * CoarseDataStoreClock clock = new CoarseDataStoreClock(10);
+ * service.setClock(clock);
+ * </pre>
+ * 
+ * @author sangupta
+ *
+ * @since 2.0.0
+ */
+public class CoarseDataStoreClock implements DataStoreClock, Closeable {
+
+    /**
+     * Default interval between two reads of the system clock
+     */
+    public static final long DEFAULT_RESOLUTION_MILLIS = 10;
+
+    private final ScheduledExecutorService ticker;
+
+    private volatile long currentTime = System.currentTimeMillis();
+
+    public CoarseDataStoreClock() {
+        this(DEFAULT_RESOLUTION_MILLIS);
+    }
+
+    /**
+     * Create a clock that reads the system clock at the given interval.
+     * 
+     * @param resolutionMillis the interval between two reads of the system clock
+     */
+    public CoarseDataStoreClock(long resolutionMillis) {
+        if (resolutionMillis <= 0) {
+            throw new IllegalArgumentException("Resolution must be positive");
+        }
+
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "coarse-data-store-clock");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.ticker.scheduleAtFixedRate(() -> this.currentTime = System.currentTimeMillis(), resolutionMillis, resolutionMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return this.currentTime;
+    }
+
+    /**
+     * Stop the background thread. The clock keeps returning the last time read.
+     */
+    @Override
+    public void close() {
+        this.ticker.shutdownNow();
+    }
+
+}
@@ -0,0 +1,444 @@
+package com.sangupta.jerry.db.impl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A concurrent map from primitive <code>long</code> keys to objects, using
+ * open addressing with linear probing. Keys are stored in a <code>long[]</code>
+ * and values in a parallel array, so that no key is boxed and no node is
+ * allocated per entry.
+ *
+ * The map is split into segments, each with its own table and monitor. Writes
+ * lock only the segment of the key, while reads never lock. A removed entry
+ * leaves a marker in its slot, so that probes of readers are never broken by
+ * entries moving around; the slot is reused if the same key is written again,
+ * and markers are dropped when the table of the segment is rebuilt. Rebuilt
+ * tables are published as a whole, and readers holding an older table see the
+ * entries as they were before the rebuild.
+ *
+ * Iteration is weakly consistent, like that of
+ * {@link java.util.concurrent.ConcurrentHashMap}, and never throws
+ * {@link java.util.ConcurrentModificationException}. <code>null</code> values
+ * are not supported.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <V> the type of values
+ */
+final class ConcurrentLongObjectMap<V> {
+
+    /**
+     * Marker left in the slot of a removed entry
+     */
+    private static final Object REMOVED = new Object();
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final Segment[] segments;
+
+    private final int segmentMask;
+
+    /**
+     * Create a map expected to hold the given number of entries.
+     *
+     * @param expectedSize the expected number of entries
+     *
+     * @param segments     the minimum number of segments, rounded up to the next
+     *                     power of two
+     */
+    ConcurrentLongObjectMap(int expectedSize, int segments) {
+        int count = 1;
+        while (count < segments) {
+            count <<= 1;
+        }
+
+        int capacity = capacityFor(expectedSize / count + 1);
+        this.segments = new Segment[count];
+        for (int index = 0; index < count; index++) {
+            this.segments[index] = new Segment(capacity);
+        }
+
+        this.segmentMask = count - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        long hash = mix(key);
+        Table table = this.segmentFor(hash).table;
+
+        int index = (int) hash & table.mask;
+        while (true) {
+            Object value = table.values.get(index);
+            if (value == null) {
+                return null;
+            }
+
+            if (table.keys[index] == key) {
+                return value == REMOVED ? null : (V) value;
+            }
+
+            index = (index + 1) & table.mask;
+        }
+    }
+
+    boolean containsKey(long key) {
+        return this.get(key) != null;
+    }
+
+    /**
+     * Map the key to the value.
+     *
+     * @return the previous value, or <code>null</code> if there was none
+     */
+    V put(long key, V value) {
+        return this.write(key, value, Write.PUT);
+    }
+
+    /**
+     * Map the key to the value, unless the key is already mapped.
+     *
+     * @return the existing value, or <code>null</code> if the value was added
+     */
+    V putIfAbsent(long key, V value) {
+        return this.write(key, value, Write.PUT_IF_ABSENT);
+    }
+
+    /**
+     * Map the key to the value, only if the key is already mapped.
+     *
+     * @return the previous value, or <code>null</code> if nothing was replaced
+     */
+    V replace(long key, V value) {
+        return this.write(key, value, Write.REPLACE);
+    }
+
+    /**
+     * Map the key to the value, only if the key is mapped to the expected
+     * instance.
+     *
+     * @return <code>true</code> if the value was replaced
+     */
+    boolean replace(long key, V expected, V value) {
+        if (expected == null || value == null) {
+            throw new IllegalArgumentException("Value cannot be null");
+        }
+
+        long hash = mix(key);
+        Segment segment = this.segmentFor(hash);
+
+        synchronized (segment) {
+            Table table = segment.table;
+            int index = indexOf(table, key, hash);
+            if (table.values.get(index) != expected) {
+                return false;
+            }
+
+            table.values.set(index, value);
+            return true;
+        }
+    }
+
+    /**
+     * Remove the mapping of the key.
+     *
+     * @return the removed value, or <code>null</code> if there was none
+     */
+    V remove(long key) {
+        return this.write(key, null, Write.REMOVE);
+    }
+
+    int size() {
+        long size = 0;
+        for (Segment segment : this.segments) {
+            size += segment.size;
+        }
+
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    boolean isEmpty() {
+        for (Segment segment : this.segments) {
+            if (segment.size > 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    void clear() {
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.table = new Table(MIN_CAPACITY);
+                segment.size = 0;
+                segment.used = 0;
+            }
+        }
+    }
+
+    /**
+     * Return a weakly consistent iterator over the values.
+     *
+     * @return the iterator
+     */
+    Iterator<V> values() {
+        return new ValueIterator();
+    }
+
+    /**
+     * Return a weakly consistent stream over the values.
+     *
+     * @return the stream
+     */
+    Stream<V> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this.values(), Spliterator.CONCURRENT | Spliterator.NONNULL), false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V write(long key, V value, Write write) {
+        if (write != Write.REMOVE && value == null) {
+            throw new IllegalArgumentException("Value cannot be null");
+        }
+
+        long hash = mix(key);
+        Segment segment = this.segmentFor(hash);
+
+        synchronized (segment) {
+            Table table = segment.table;
+            int index = indexOf(table, key, hash);
+            Object existing = table.values.get(index);
+
+            if (existing == null || existing == REMOVED) {
+                if (write == Write.REPLACE || write == Write.REMOVE) {
+                    return null;
+                }
+
+                if (existing == null) {
+                    // key must be visible before the value publishes the slot
+                    table.keys[index] = key;
+                    segment.used++;
+                }
+
+                table.values.set(index, value);
+                segment.size++;
+
+                if (segment.used > table.threshold) {
+                    segment.rebuild();
+                }
+
+                return null;
+            }
+
+            if (write == Write.PUT_IF_ABSENT) {
+                return (V) existing;
+            }
+
+            if (write == Write.REMOVE) {
+                table.values.set(index, REMOVED);
+                segment.size--;
+                return (V) existing;
+            }
+
+            table.values.set(index, value);
+            return (V) existing;
+        }
+    }
+
+    private Segment segmentFor(long hash) {
+        return this.segments[(int) (hash >>> 32) & this.segmentMask];
+    }
+
+    /**
+     * Find the slot holding the key, or the free slot that ends its probe.
+     */
+    private static int indexOf(Table table, long key, long hash) {
+        int index = (int) hash & table.mask;
+        while (true) {
+            if (table.values.get(index) == null || table.keys[index] == key) {
+                return index;
+            }
+
+            index = (index + 1) & table.mask;
+        }
+    }
+
+    /**
+     * Return the power of two capacity that holds the given number of entries
+     * at half load.
+     */
+    private static int capacityFor(int entries) {
+        long wanted = Math.max(MIN_CAPACITY, 2L * entries);
+        if (wanted >= MAX_CAPACITY) {
+            return MAX_CAPACITY;
+        }
+
+        return Integer.highestOneBit((int) wanted - 1) << 1;
+    }
+
+    /**
+     * The finalizer of MurmurHash3, so that sequential keys spread over all
+     * segments and slots.
+     */
+    private static long mix(long key) {
+        long hash = key;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private enum Write {
+
+        PUT,
+
+        PUT_IF_ABSENT,
+
+        REPLACE,
+
+        REMOVE;
+
+    }
+
+    private static final class Table {
+
+        final long[] keys;
+
+        /**
+         * <code>null</code> for a free slot, {@link #REMOVED} for a removed
+         * entry, and the value otherwise
+         */
+        final AtomicReferenceArray<Object> values;
+
+        final int mask;
+
+        /**
+         * Maximum number of used slots, keeping at least a quarter of the slots
+         * free so that every probe ends
+         */
+        final int threshold;
+
+        Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+            this.threshold = capacity / 4 * 3;
+        }
+
+    }
+
+    private static final class Segment {
+
+        volatile Table table;
+
+        /**
+         * Number of entries, written under the monitor of the segment
+         */
+        volatile int size;
+
+        /**
+         * Number of slots holding an entry or a removal marker, guarded by the
+         * monitor of the segment
+         */
+        int used;
+
+        Segment(int capacity) {
+            this.table = new Table(capacity);
+        }
+
+        /**
+         * Copy the entries to a new table sized for them, dropping removal
+         * markers. Must be called holding the monitor of the segment.
+         */
+        void rebuild() {
+            Table old = this.table;
+            Table table = new Table(capacityFor(this.size));
+            if (this.size > table.threshold) {
+                throw new IllegalStateException("Segment is full");
+            }
+
+            for (int index = 0; index < old.keys.length; index++) {
+                Object value = old.values.get(index);
+                if (value == null || value == REMOVED) {
+                    continue;
+                }
+
+                long key = old.keys[index];
+                int slot = indexOf(table, key, mix(key));
+                table.keys[slot] = key;
+                table.values.set(slot, value);
+            }
+
+            this.used = this.size;
+            this.table = table;
+        }
+
+    }
+
+    private final class ValueIterator implements Iterator<V> {
+
+        private int segment = -1;
+
+        private Table table;
+
+        private int index;
+
+        private V next;
+
+        ValueIterator() {
+            this.advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != null;
+        }
+
+        @Override
+        public V next() {
+            V value = this.next;
+            if (value == null) {
+                throw new NoSuchElementException();
+            }
+
+            this.advance();
+            return value;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            while (true) {
+                if (this.table == null || this.index >= this.table.keys.length) {
+                    this.segment++;
+                    if (this.segment >= segments.length) {
+                        this.next = null;
+                        return;
+                    }
+
+                    this.table = segments[this.segment].table;
+                    this.index = 0;
+                    continue;
+                }
+
+                Object value = this.table.values.get(this.index++);
+                if (value != null && value != REMOVED) {
+                    this.next = (V) value;
+                    return;
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.sangupta.jerry.db.impl;
+
+/**
+ * A journal that is notified of every mutation made to an
+ * {@link InMemoryDataStoreServiceImpl}, in the same order as they are applied
+ * to the store for any given primary ID. Mutations are recorded while the
+ * store holds a lock on the primary ID, and the caller then waits for the
+ * returned ticket to be durable outside of the lock.
+ * 
+ * @author sangupta
+ * 
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ * 
+ * @param <X> The primary ID key for this entity object
+ */
+public interface DataStoreJournal<T, X> {
+
+    /**
+     * Record that the given entity was stored against the primary ID.
+     * 
+     * @param primaryID the primary ID
+     * 
+     * @param entity    the entity that was stored
+     * 
+     * @return the ticket to wait upon for the record to be durable
+     */
+    public long stored(X primaryID, T entity);
+
+    /**
+     * Record that the entity with the given primary ID was removed.
+     * 
+     * @param primaryID the primary ID
+     * 
+     * @return the ticket to wait upon for the record to be durable
+     */
+    public long removed(X primaryID);
+
+    /**
+     * Block until the record for the given ticket, and all records before it,
+     * are durable.
+     * 
+     * @param ticket the ticket as returned by one of the record methods
+     */
+    public void await(long ticket);
+
+}
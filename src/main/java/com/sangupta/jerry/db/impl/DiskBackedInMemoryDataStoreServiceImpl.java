@@ -1,31 +1,64 @@
 package com.sangupta.jerry.db.impl;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import com.sangupta.jerry.db.DataStoreService;
 import com.sangupta.jerry.util.GsonUtils;
 
 /**
  * An in-memory {@link DataStoreService} implementation based on
- * {@link InMemoryDataStoreServiceImpl} that uses a JSON file on disk as a
- * backup strategy. The entire data set is loaded in-memory at load time, and
- * then written to disk, when a call is made explicitly to {@link #close()}
- * method. If {@link #close()} is not called, any changes in memory are lost. If
+ * {@link InMemoryDataStoreServiceImpl} that uses a file on disk as a backup
+ * strategy. The entire data set is loaded in-memory at load time, and then
+ * written to disk, when a call is made explicitly to {@link #close()} method.
+ * If {@link #close()} is not called, any changes in memory are lost. If
  * intermediate persistence is required, the callee may invoke {@link #flush()}
  * method.
  * 
+ * The file on disk may either be a JSON file, or a binary snapshot as decided
+ * by the {@link SnapshotFormat} used. Binary snapshots are memory-mapped and
+ * loaded in parallel, and are recommended for large data sets. The format of
+ * an existing file is detected automatically at load time, thus switching the
+ * format only affects how the next {@link #flush()} writes the file.
+ * 
+ * Both the formats are streamed to and from disk, and each flush writes to a
+ * temporary file that is then atomically renamed over the existing one. Thus,
+ * a crash during a flush leaves the previous copy of the data intact.
+ * 
+ * When created with {@link DurabilityMode#WRITE_AHEAD_LOG}, every insert,
+ * update, upsert and delete is also appended to a write-ahead log next to the
+ * data file, and the write returns only once the log record is on disk. Log
+ * syncs are group-committed across concurrent writers. The log is replayed on
+ * start-up, and is periodically compacted into the snapshot once it grows
+ * beyond {@link #getCompactionThreshold()} bytes. In this mode no mutation is
+ * lost even if {@link #close()} is never called.
+ * 
  * @author sangupta
  *
  * @param <T>
@@ -33,52 +66,434 @@ import com.sangupta.jerry.util.GsonUtils;
  */
 public class DiskBackedInMemoryDataStoreServiceImpl<T, X> extends InMemoryDataStoreServiceImpl<T, X> implements Closeable {
 
+    /**
+     * The format in which the data is written to disk.
+     *
+     */
+    public enum SnapshotFormat {
+
+        /**
+         * A single JSON object mapping primary IDs to entities
+         */
+        JSON,
+
+        /**
+         * A length-prefixed, segmented binary layout that is memory-mapped and
+         * loaded in parallel
+         */
+        BINARY;
+
+    }
+
+    /**
+     * The durability guarantee offered for writes.
+     *
+     */
+    public enum DurabilityMode {
+
+        /**
+         * Data is persisted only on {@link DiskBackedInMemoryDataStoreServiceImpl#flush()}
+         * and {@link DiskBackedInMemoryDataStoreServiceImpl#close()}
+         */
+        ON_FLUSH,
+
+        /**
+         * Every write is appended to a write-ahead log before it returns
+         */
+        WRITE_AHEAD_LOG;
+
+    }
+
+    /**
+     * logger instance
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiskBackedInMemoryDataStoreServiceImpl.class);
+
+    /**
+     * Default size of the write-ahead log after which it is compacted
+     */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 64l * 1024l * 1024l;
+
+    /**
+     * Size of the buffer used when streaming data to and from disk
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     protected final File dbPath;
 
+    protected final SnapshotFormat snapshotFormat;
+
+    protected final DurabilityMode durabilityMode;
+
+    /**
+     * The pool on which segments of a binary snapshot are decoded in parallel
+     */
+    private final ForkJoinPool snapshotLoadPool;
+
+    /**
+     * The write-ahead log, <code>null</code> unless running in
+     * {@link DurabilityMode#WRITE_AHEAD_LOG}
+     */
+    protected final WriteAheadLog writeAheadLog;
+
+    /**
+     * Lock to make sure only one flush writes to disk at a time
+     */
+    private final Object flushLock = new Object();
+
+    /**
+     * Executor to run log compaction in background
+     */
+    private final ExecutorService compactionExecutor;
+
+    /**
+     * Whether a compaction is already scheduled
+     */
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
+
     public DiskBackedInMemoryDataStoreServiceImpl(File dbPath) {
+        this(dbPath, SnapshotFormat.JSON);
+    }
+
+    public DiskBackedInMemoryDataStoreServiceImpl(File dbPath, SnapshotFormat snapshotFormat) {
+        this(dbPath, snapshotFormat, DurabilityMode.ON_FLUSH);
+    }
+
+    public DiskBackedInMemoryDataStoreServiceImpl(File dbPath, SnapshotFormat snapshotFormat, DurabilityMode durabilityMode) {
+        this(dbPath, snapshotFormat, durabilityMode, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create the data store, loading any existing snapshot from disk.
+     * 
+     * @param dbPath           the file to persist the data in
+     * 
+     * @param snapshotFormat   the format in which flushes write the file
+     * 
+     * @param durabilityMode   the durability guarantee offered for writes
+     * 
+     * @param snapshotLoadPool the pool on which segments of a binary snapshot are
+     *                         decoded in parallel, to limit or increase the
+     *                         parallelism during load
+     */
+    public DiskBackedInMemoryDataStoreServiceImpl(File dbPath, SnapshotFormat snapshotFormat, DurabilityMode durabilityMode, ForkJoinPool snapshotLoadPool) {
         super();
 
+        if (snapshotFormat == null) {
+            throw new IllegalArgumentException("Snapshot format cannot be null");
+        }
+
+        if (durabilityMode == null) {
+            throw new IllegalArgumentException("Durability mode cannot be null");
+        }
+
+        if (snapshotLoadPool == null) {
+            throw new IllegalArgumentException("Snapshot load pool cannot be null");
+        }
+
         this.dbPath = dbPath;
+        this.snapshotFormat = snapshotFormat;
+        this.durabilityMode = durabilityMode;
+        this.snapshotLoadPool = snapshotLoadPool;
 
-        final Gson gson = GsonUtils.getGson();
+        try {
+            this.loadSnapshot();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (durabilityMode != DurabilityMode.WRITE_AHEAD_LOG) {
+            this.writeAheadLog = null;
+            this.compactionExecutor = null;
+            return;
+        }
 
+        final WriteAheadLog log;
         try {
-            Type type = new TypeToken<HashMap<X, JsonObject>>() {
-            }.getType();
-            String json = FileUtils.readFileToString(this.dbPath, StandardCharsets.UTF_8);
-            HashMap<X, JsonObject> map = gson.fromJson(json, type);
-            if (map != null) {
-                for (Entry<X, JsonObject> entry : map.entrySet()) {
-                    X key = entry.getKey();
-                    JsonObject value = entry.getValue();
-
-                    T entity = gson.fromJson(value, this.entityClass);
-                    this.dataStore.put(key, entity);
-                }
-            }
-        } catch (FileNotFoundException e) {
-            // do nothing
+            log = this.openWriteAheadLog();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
+        this.writeAheadLog = log;
+
+        this.compactionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wal-compaction-" + this.dbPath.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.journal = new WriteAheadLogJournal();
     }
 
     /**
-     * Flush all data back to disk.
+     * Load the data store from the snapshot on disk, if any.
+     * 
+     * @throws IOException if the file cannot be read
+     */
+    private void loadSnapshot() throws IOException {
+        if (this.dbPath == null || !this.dbPath.exists() || this.dbPath.length() == 0) {
+            return;
+        }
+
+        if (BinarySnapshot.isBinarySnapshot(this.dbPath)) {
+            BinarySnapshot.read(this.dbPath, this.primaryIDClass, this.entityClass, GsonUtils.getGson(), this.snapshotLoadPool, this::loadEntity);
+            return;
+        }
+
+        this.loadJson();
+    }
+
+    /**
+     * Replay any existing write-ahead logs over the loaded snapshot, fold them
+     * into a fresh snapshot, and open an empty log for appending.
+     * 
+     * @return the opened log
+     * 
+     * @throws IOException if the logs cannot be read or written
+     */
+    private WriteAheadLog openWriteAheadLog() throws IOException {
+        final File walFile = this.getWriteAheadLogFile();
+        final File archiveFile = this.getWriteAheadLogArchiveFile();
+        final Gson gson = GsonUtils.getGson();
+
+        WriteAheadLog.RecordHandler handler = (operation, key, value) -> {
+            X id = gson.fromJson(new String(key, StandardCharsets.UTF_8), this.primaryIDClass);
+            if (operation == WriteAheadLog.OPERATION_PUT) {
+                this.loadEntity(id, gson.fromJson(new String(value, StandardCharsets.UTF_8), this.entityClass));
+            } else if (operation == WriteAheadLog.OPERATION_REMOVE) {
+                this.unloadEntity(id);
+            }
+        };
+
+        // an archive exists only if we crashed during compaction
+        long replayed = WriteAheadLog.replay(archiveFile, handler) + WriteAheadLog.replay(walFile, handler);
+        if (replayed > 0 || archiveFile.exists()) {
+            LOGGER.info("Replayed {} records from write-ahead log for: {}", replayed, this.dbPath);
+            this.writeSnapshot();
+        }
+
+        Files.deleteIfExists(archiveFile.toPath());
+        Files.deleteIfExists(walFile.toPath());
+
+        return new WriteAheadLog(walFile);
+    }
+
+    /**
+     * Load the data store from a JSON file, by streaming over its contents one
+     * entity at a time.
+     * 
+     * @throws IOException if the file cannot be read
+     */
+    private void loadJson() throws IOException {
+        final Gson gson = GsonUtils.getGson();
+        final TypeAdapter<X> keyAdapter = gson.getAdapter(this.primaryIDClass);
+
+        try (FileChannel channel = FileChannel.open(this.dbPath.toPath(), StandardOpenOption.READ);
+             JsonReader reader = gson.newJsonReader(new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1), BUFFER_SIZE))) {
+
+            if (reader.peek() == JsonToken.NULL) {
+                return;
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                X key = keyAdapter.fromJsonTree(new JsonPrimitive(reader.nextName()));
+                T entity = gson.fromJson(reader, this.entityClass);
+                if (entity != null) {
+                    this.loadEntity(key, entity);
+                }
+            }
+            reader.endObject();
+        }
+    }
+
+    /**
+     * Flush all data back to disk. The data is first written to a temporary
+     * file, which is then moved over the existing file. When using a write-ahead
+     * log, the log is compacted into the snapshot.
      */
     public void flush() {
+        synchronized (this.flushLock) {
+            try {
+                if (this.writeAheadLog == null) {
+                    this.writeSnapshot();
+                    return;
+                }
+
+                // all records up to rotation are reflected in the snapshot
+                // written after it, later ones go to the fresh log
+                File archiveFile = this.getWriteAheadLogArchiveFile();
+                this.writeAheadLog.rotate(archiveFile);
+                this.writeSnapshot();
+                Files.deleteIfExists(archiveFile.toPath());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Write the entire data store to disk via a temporary file.
+     * 
+     * @throws IOException if writing fails
+     */
+    private void writeSnapshot() throws IOException {
+        File temp = new File(this.dbPath.getAbsoluteFile().getParentFile(), this.dbPath.getName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (this.snapshotFormat == SnapshotFormat.BINARY) {
+                BinarySnapshot.write(channel, this.dataStore, GsonUtils.getGson());
+            } else {
+                this.writeJson(channel);
+            }
+
+            channel.force(true);
+        }
+
         try {
-            String json = GsonUtils.getGson().toJson(this.dataStore);
-            FileUtils.writeStringToFile(this.dbPath, json, StandardCharsets.UTF_8);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            Files.move(temp.toPath(), this.dbPath.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), this.dbPath.toPath(), StandardCopyOption.REPLACE_EXISTING);
         }
     }
 
+    /**
+     * Stream all entities as a JSON object to the given channel.
+     * 
+     * @param channel the channel to write to, is not closed by this method
+     * 
+     * @throws IOException if writing fails
+     */
+    private void writeJson(FileChannel channel) throws IOException {
+        final Gson gson = GsonUtils.getGson();
+
+        JsonWriter writer = gson.newJsonWriter(new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1), BUFFER_SIZE));
+        writer.beginObject();
+        for (Entry<X, T> entry : this.dataStore.entrySet()) {
+            T entity = entry.getValue();
+
+            writer.name(String.valueOf(entry.getKey()));
+            gson.toJson(entity, entity.getClass(), writer);
+        }
+        writer.endObject();
+        writer.flush();
+    }
+
     @Override
     public void close() {
+        if (this.writeAheadLog == null) {
+            this.flush();
+            return;
+        }
+
+        this.compactionExecutor.shutdown();
+        try {
+            this.compactionExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
         this.flush();
+
+        try {
+            this.writeAheadLog.close();
+            if (this.writeAheadLog.size() == 0) {
+                Files.deleteIfExists(this.writeAheadLog.getFile().toPath());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Return the size in bytes the write-ahead log may grow to, before it is
+     * compacted into the snapshot in background.
+     * 
+     * @return the threshold in bytes
+     */
+    protected long getCompactionThreshold() {
+        return DEFAULT_COMPACTION_THRESHOLD;
+    }
+
+    /**
+     * Return the file used as the write-ahead log.
+     * 
+     * @return the log file
+     */
+    protected File getWriteAheadLogFile() {
+        return new File(this.dbPath.getAbsoluteFile().getParentFile(), this.dbPath.getName() + ".wal");
+    }
+
+    /**
+     * Return the file where the write-ahead log is moved to during compaction.
+     * 
+     * @return the archive file
+     */
+    protected File getWriteAheadLogArchiveFile() {
+        return new File(this.dbPath.getAbsoluteFile().getParentFile(), this.dbPath.getName() + ".wal.old");
+    }
+
+    /**
+     * Schedule a background compaction if the log has grown beyond the
+     * threshold, and no compaction is already scheduled.
+     */
+    private void compactIfNeeded() {
+        if (this.writeAheadLog.size() < this.getCompactionThreshold()) {
+            return;
+        }
+
+        if (!this.compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            this.compactionExecutor.execute(() -> {
+                try {
+                    this.flush();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Unable to compact write-ahead log for: " + this.dbPath, e);
+                } finally {
+                    this.compactionScheduled.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // store is being closed, which compacts anyways
+            this.compactionScheduled.set(false);
+        }
+    }
+
+    /**
+     * {@link DataStoreJournal} that appends to the write-ahead log.
+     *
+     */
+    private class WriteAheadLogJournal implements DataStoreJournal<T, X> {
+
+        @Override
+        public long stored(X primaryID, T entity) {
+            Gson gson = GsonUtils.getGson();
+            byte[] key = gson.toJson(primaryID).getBytes(StandardCharsets.UTF_8);
+            byte[] value = gson.toJson(entity).getBytes(StandardCharsets.UTF_8);
+
+            long ticket = writeAheadLog.append(WriteAheadLog.OPERATION_PUT, key, value);
+            compactIfNeeded();
+            return ticket;
+        }
+
+        @Override
+        public long removed(X primaryID) {
+            byte[] key = GsonUtils.getGson().toJson(primaryID).getBytes(StandardCharsets.UTF_8);
+
+            long ticket = writeAheadLog.append(WriteAheadLog.OPERATION_REMOVE, key, null);
+            compactIfNeeded();
+            return ticket;
+        }
+
+        @Override
+        public void await(long ticket) {
+            writeAheadLog.sync(ticket);
+        }
+
     }
 
 }
@@ -0,0 +1,255 @@
+package com.sangupta.jerry.db.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.sangupta.jerry.db.EntityScanner.EntityDetails;
+import com.sangupta.jerry.db.FieldAccessor;
+import com.sangupta.jerry.db.Indexed;
+
+/**
+ * A secondary index from the value of one field of an entity to the primary
+ * IDs of the entities holding that value. The index also remembers the value
+ * it last saw for each primary ID, so that an entity that was changed in place
+ * is still removed from its old value on update.
+ *
+ * Updates for the same primary ID must not run concurrently, which the store
+ * ensures by holding a lock on the primary ID. Lookups never lock, and the IDs
+ * returned may be momentarily out of step with the store, thus callers should
+ * check the entities they read against {@link #matches(Object, Object)}.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <X> The primary ID key for the entity
+ */
+final class EntityIndex<X> {
+
+    private final FieldAccessor accessor;
+
+    private final Indexed.Type type;
+
+    /**
+     * The type of the field, boxed if primitive
+     */
+    private final Class<?> valueType;
+
+    private final ConcurrentMap<Object, Set<X>> entries;
+
+    /**
+     * The value each primary ID is indexed under
+     */
+    private final ConcurrentMap<X, Object> values = new ConcurrentHashMap<>();
+
+    /**
+     * Locks on the indexed value, so that adding an ID to a value never races
+     * with dropping the last ID of the same value
+     */
+    private final StripedLocks locks = new StripedLocks(64);
+
+    EntityIndex(FieldAccessor accessor, Indexed.Type type) {
+        this.accessor = accessor;
+        this.type = type;
+        this.valueType = EntityValues.boxed(accessor.getField().getType());
+
+        if (type == Indexed.Type.SORTED) {
+            Class<?> fieldType = accessor.getField().getType();
+            if (!fieldType.isPrimitive() && !Comparable.class.isAssignableFrom(fieldType)) {
+                throw new IllegalArgumentException("Field with a sorted index must be Comparable: " + accessor.getField().getName());
+            }
+
+            this.entries = new ConcurrentSkipListMap<>();
+        } else {
+            this.entries = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * Create indexes for all fields of the entity annotated with
+     * {@link Indexed}.
+     *
+     * @param details the details of the entity
+     *
+     * @return the indexes keyed on field name, empty if no field is indexed
+     */
+    static <X> Map<String, EntityIndex<X>> forEntity(EntityDetails details) {
+        List<FieldAccessor> accessors = details.getIndexedFieldAccessors();
+        if (accessors.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, EntityIndex<X>> indexes = new LinkedHashMap<>();
+        for (FieldAccessor accessor : accessors) {
+            Indexed indexed = accessor.getField().getAnnotation(Indexed.class);
+            indexes.put(accessor.getField().getName(), new EntityIndex<>(accessor, indexed.value()));
+        }
+
+        return Collections.unmodifiableMap(indexes);
+    }
+
+    boolean isSorted() {
+        return this.type == Indexed.Type.SORTED;
+    }
+
+    /**
+     * Check if the value can be looked up in this index, which holds values of
+     * the exact type of the field only.
+     *
+     * @param value the value to look up
+     *
+     * @return <code>true</code> if the value is of the type of the field
+     */
+    boolean accepts(Object value) {
+        return value != null && this.valueType.isInstance(value);
+    }
+
+    /**
+     * Index the entity stored under the primary ID.
+     *
+     * @param primaryID the primary ID
+     *
+     * @param entity    the entity now stored, or <code>null</code> if it was
+     *                  removed
+     */
+    void update(X primaryID, Object entity) {
+        Object value = entity != null ? this.accessor.get(entity) : null;
+        Object old = value != null ? this.values.put(primaryID, value) : this.values.remove(primaryID);
+        if (Objects.equals(old, value)) {
+            return;
+        }
+
+        if (old != null) {
+            synchronized (this.locks.lockFor(old)) {
+                Set<X> ids = this.entries.get(old);
+                if (ids != null && ids.remove(primaryID) && ids.isEmpty()) {
+                    this.entries.remove(old);
+                }
+            }
+        }
+
+        if (value != null) {
+            synchronized (this.locks.lockFor(value)) {
+                this.entries.computeIfAbsent(value, key -> ConcurrentHashMap.newKeySet()).add(primaryID);
+            }
+        }
+    }
+
+    void clear() {
+        this.entries.clear();
+        this.values.clear();
+    }
+
+    /**
+     * Return the primary IDs of entities with the given value.
+     *
+     * @param value the value, never <code>null</code>
+     *
+     * @return the primary IDs, never <code>null</code>
+     */
+    Collection<X> find(Object value) {
+        Set<X> ids = this.entries.get(value);
+        return ids != null ? new ArrayList<>(ids) : Collections.emptyList();
+    }
+
+    /**
+     * Return the primary IDs of entities with a value in the given range,
+     * ordered on the value. Available only for sorted indexes.
+     *
+     * @param from the lowest value, inclusive, or <code>null</code> for no lower
+     *             bound
+     *
+     * @param to   the highest value, exclusive, or <code>null</code> for no
+     *             upper bound
+     *
+     * @return the primary IDs, never <code>null</code>
+     */
+    Collection<X> findInRange(Object from, Object to) {
+        return this.findInRange(from, true, to, false);
+    }
+
+    /**
+     * Return the primary IDs of entities with a value in the given range,
+     * ordered on the value. Available only for sorted indexes.
+     *
+     * @param from          the lowest value, or <code>null</code> for no lower
+     *                      bound
+     *
+     * @param fromInclusive whether the lowest value is in the range
+     *
+     * @param to            the highest value, or <code>null</code> for no upper
+     *                      bound
+     *
+     * @param toInclusive   whether the highest value is in the range
+     *
+     * @return the primary IDs, never <code>null</code>
+     */
+    @SuppressWarnings("unchecked")
+    Collection<X> findInRange(Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+        NavigableMap<Object, Set<X>> map = (NavigableMap<Object, Set<X>>) this.entries;
+        if (from != null && to != null) {
+            int compared = ((Comparable<Object>) from).compareTo(to);
+            if (compared > 0 || (compared == 0 && !(fromInclusive && toInclusive))) {
+                return Collections.emptyList();
+            }
+
+            map = map.subMap(from, fromInclusive, to, toInclusive);
+        } else if (from != null) {
+            map = map.tailMap(from, fromInclusive);
+        } else if (to != null) {
+            map = map.headMap(to, toInclusive);
+        }
+
+        List<X> list = new ArrayList<>();
+        for (Set<X> ids : map.values()) {
+            list.addAll(ids);
+        }
+
+        return list;
+    }
+
+    /**
+     * Check that the entity still holds the given value.
+     *
+     * @param entity the entity read from the store
+     *
+     * @param value  the value looked up
+     *
+     * @return <code>true</code> if the field of the entity equals the value
+     */
+    boolean matches(Object entity, Object value) {
+        return Objects.equals(this.accessor.get(entity), value);
+    }
+
+    /**
+     * Check that the entity still holds a value in the given range.
+     *
+     * @param entity the entity read from the store
+     *
+     * @param from   the lowest value, inclusive, or <code>null</code>
+     *
+     * @param to     the highest value, exclusive, or <code>null</code>
+     *
+     * @return <code>true</code> if the field of the entity is in the range
+     */
+    @SuppressWarnings("unchecked")
+    boolean matches(Object entity, Object from, Object to) {
+        Comparable<Object> value = (Comparable<Object>) this.accessor.get(entity);
+        if (value == null) {
+            return false;
+        }
+
+        return (from == null || value.compareTo(from) >= 0) && (to == null || value.compareTo(to) < 0);
+    }
+
+}
@@ -0,0 +1,212 @@
+package com.sangupta.jerry.db.impl;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.sangupta.jerry.db.DataStorePatch;
+import com.sangupta.jerry.db.DataStorePatch.Change;
+import com.sangupta.jerry.db.DataStorePatch.Operator;
+import com.sangupta.jerry.db.EntityScanner.EntityDetails;
+import com.sangupta.jerry.db.FieldAccessor;
+
+/**
+ * Helper methods to check a {@link DataStorePatch} against the fields of an
+ * entity, and to apply it to entities held in memory, for stores that cannot
+ * update single fields natively.
+ *
+ * @author sangupta
+ *
+ */
+final class EntityPatches {
+
+    private EntityPatches() {
+        // cannot be instantiated
+    }
+
+    /**
+     * Check the patch against the fields of the entity, and convert numbers to
+     * the type of the field they are set on or added to, so that stores may
+     * write the values as is.
+     *
+     * @param details the details of the entity
+     *
+     * @param patch   the patch
+     *
+     * @return the patch with converted values
+     *
+     * @throws IllegalArgumentException if the patch changes the primary field, a
+     *                                  field that is not persisted or the same
+     *                                  field twice, or a value does not fit the
+     *                                  type of the field
+     */
+    static DataStorePatch resolve(EntityDetails details, DataStorePatch patch) {
+        DataStorePatch resolved = new DataStorePatch();
+        Set<String> fields = new HashSet<>();
+        for (Change change : patch.getChanges()) {
+            FieldAccessor accessor = QueryEvaluator.accessorFor(details, change.getField());
+            if (change.getField().equals(details.idFieldName)) {
+                throw new IllegalArgumentException("Primary field cannot be patched: " + change.getField());
+            }
+
+            // native updates cannot change a field twice
+            if (!fields.add(change.getField())) {
+                throw new IllegalArgumentException("Field changed more than once: " + change.getField());
+            }
+
+            Class<?> type = accessor.getField().getType();
+            if (change.getOperator() == Operator.INC) {
+                if (!isNumeric(EntityValues.boxed(type))) {
+                    throw new IllegalArgumentException("Field is not numeric: " + change.getField());
+                }
+
+                resolved.inc(change.getField(), convert(EntityValues.boxed(type), (Number) change.getValue(), change.getField()));
+                continue;
+            }
+
+            resolved.set(change.getField(), coerce(type, change.getValue(), change.getField()));
+        }
+
+        return resolved;
+    }
+
+    /**
+     * Apply a resolved patch to the entity.
+     *
+     * @param details the details of the entity
+     *
+     * @param entity  the entity to change
+     *
+     * @param patch   the patch, as returned by
+     *                {@link #resolve(EntityDetails, DataStorePatch)}
+     */
+    static void apply(EntityDetails details, Object entity, DataStorePatch patch) {
+        for (Change change : patch.getChanges()) {
+            FieldAccessor accessor = details.getFieldAccessor(change.getField());
+            if (change.getOperator() == Operator.INC) {
+                accessor.set(entity, add((Number) accessor.get(entity), (Number) change.getValue()));
+                continue;
+            }
+
+            accessor.set(entity, change.getValue());
+        }
+    }
+
+    private static Object coerce(Class<?> type, Object value, String field) {
+        if (value == null) {
+            if (type.isPrimitive()) {
+                throw new IllegalArgumentException("Field cannot be set to null: " + field);
+            }
+
+            return null;
+        }
+
+        Class<?> boxed = EntityValues.boxed(type);
+        if (boxed.isInstance(value)) {
+            return value;
+        }
+
+        if (value instanceof Number && isNumeric(boxed)) {
+            return convert(boxed, (Number) value, field);
+        }
+
+        if (value instanceof String && boxed.isEnum()) {
+            for (Object constant : boxed.getEnumConstants()) {
+                if (((Enum<?>) constant).name().equals(value)) {
+                    return constant;
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("Cannot set field " + field + " to a value of type " + value.getClass().getName());
+    }
+
+    /**
+     * Add two numbers of the same type, a missing value counting as zero.
+     */
+    private static Number add(Number value, Number delta) {
+        if (value == null) {
+            return delta;
+        }
+
+        if (delta instanceof Integer) {
+            return value.intValue() + delta.intValue();
+        }
+
+        if (delta instanceof Long) {
+            return value.longValue() + delta.longValue();
+        }
+
+        if (delta instanceof Double) {
+            return value.doubleValue() + delta.doubleValue();
+        }
+
+        if (delta instanceof Float) {
+            return value.floatValue() + delta.floatValue();
+        }
+
+        if (delta instanceof Short) {
+            return (short) (value.shortValue() + delta.shortValue());
+        }
+
+        if (delta instanceof Byte) {
+            return (byte) (value.byteValue() + delta.byteValue());
+        }
+
+        if (delta instanceof BigDecimal) {
+            return ((BigDecimal) value).add((BigDecimal) delta);
+        }
+
+        return ((BigInteger) value).add((BigInteger) delta);
+    }
+
+    /**
+     * Convert the number to the given numeric type, failing if it does not fit.
+     */
+    private static Number convert(Class<?> type, Number number, String field) {
+        if (type.isInstance(number)) {
+            return number;
+        }
+
+        try {
+            if (type == Double.class) {
+                return number.doubleValue();
+            }
+
+            if (type == Float.class) {
+                return number.floatValue();
+            }
+
+            BigDecimal decimal = EntityValues.toBigDecimal(number);
+            if (type == BigDecimal.class) {
+                return decimal;
+            }
+
+            if (type == BigInteger.class) {
+                return decimal.toBigIntegerExact();
+            }
+
+            if (type == Long.class) {
+                return decimal.longValueExact();
+            }
+
+            if (type == Integer.class) {
+                return decimal.intValueExact();
+            }
+
+            if (type == Short.class) {
+                return decimal.shortValueExact();
+            }
+
+            return decimal.byteValueExact();
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw new IllegalArgumentException("Value " + number + " does not fit field " + field, e);
+        }
+    }
+
+    private static boolean isNumeric(Class<?> type) {
+        return type == Integer.class || type == Long.class || type == Double.class || type == Float.class || type == Short.class || type == Byte.class || type == BigDecimal.class || type == BigInteger.class;
+    }
+
+}
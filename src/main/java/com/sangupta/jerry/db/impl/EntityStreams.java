@@ -0,0 +1,67 @@
+package com.sangupta.jerry.db.impl;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Helper methods to expose a cursor over the underlying data store as a lazy
+ * {@link Stream} that releases the cursor when the stream is closed.
+ *
+ * @author sangupta
+ *
+ */
+final class EntityStreams {
+
+    private EntityStreams() {
+        // cannot be instantiated
+    }
+
+    /**
+     * Wrap the given iterator in a sequential, lazy {@link Stream}. The given
+     * resource is closed when the stream is closed.
+     *
+     * @param iterator the iterator to read entities from
+     *
+     * @param resource the resource backing the iterator, may be <code>null</code>
+     *
+     * @return the stream
+     */
+    static <T> Stream<T> of(Iterator<T> iterator, AutoCloseable resource) {
+        Stream<T> stream = StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+        if (resource == null) {
+            return stream;
+        }
+
+        return stream.onClose(() -> closeQuietly(resource, true));
+    }
+
+    /**
+     * Close the given resource.
+     *
+     * @param resource the resource to close, may be <code>null</code>
+     *
+     * @param rethrow  whether a failure to close must be rethrown as a
+     *                 {@link RuntimeException}
+     */
+    static void closeQuietly(AutoCloseable resource, boolean rethrow) {
+        if (resource == null) {
+            return;
+        }
+
+        try {
+            resource.close();
+        } catch (RuntimeException e) {
+            if (rethrow) {
+                throw e;
+            }
+        } catch (Exception e) {
+            if (rethrow) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+}
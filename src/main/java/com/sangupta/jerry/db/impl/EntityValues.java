@@ -0,0 +1,66 @@
+package com.sangupta.jerry.db.impl;
+
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Conversions of field types and values shared by the indexes, queries and
+ * patches of the stores.
+ *
+ * @author sangupta
+ *
+ */
+final class EntityValues {
+
+    private EntityValues() {
+        // cannot be instantiated
+    }
+
+    /**
+     * Return the wrapper class of a primitive type.
+     *
+     * @param type the type
+     *
+     * @return the wrapper class if the type is primitive, the type otherwise
+     */
+    static Class<?> boxed(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+
+        return MethodType.methodType(type).wrap().returnType();
+    }
+
+    /**
+     * Convert the number to a {@link BigDecimal}. Floating point values are
+     * converted from their shortest decimal form, thus <code>0.1</code> stays
+     * <code>0.1</code>.
+     *
+     * @param number the number
+     *
+     * @return the decimal
+     *
+     * @throws NumberFormatException if the number is infinite or not a number
+     */
+    static BigDecimal toBigDecimal(Number number) {
+        if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        }
+
+        if (number instanceof BigInteger) {
+            return new BigDecimal((BigInteger) number);
+        }
+
+        if (number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte) {
+            return BigDecimal.valueOf(number.longValue());
+        }
+
+        if (number instanceof Float) {
+            return new BigDecimal(number.toString());
+        }
+
+        return BigDecimal.valueOf(number.doubleValue());
+    }
+
+}
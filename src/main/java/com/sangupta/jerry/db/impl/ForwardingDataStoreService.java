@@ -0,0 +1,179 @@
+package com.sangupta.jerry.db.impl;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.sangupta.jerry.db.DataStorePage;
+import com.sangupta.jerry.db.DataStorePatch;
+import com.sangupta.jerry.db.DataStoreQuery;
+import com.sangupta.jerry.db.DataStoreService;
+
+/**
+ * A {@link DataStoreService} that forwards all calls to another
+ * {@link DataStoreService}. Decorators extend this class and override only the
+ * methods whose behaviour they change.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ *
+ * @param <X> The primary ID key for this entity object
+ */
+public abstract class ForwardingDataStoreService<T, X> implements DataStoreService<T, X> {
+
+    /**
+     * The store to which calls are forwarded
+     */
+    protected final DataStoreService<T, X> delegate;
+
+    protected ForwardingDataStoreService(DataStoreService<T, X> delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("DataStoreService cannot be null");
+        }
+
+        this.delegate = delegate;
+    }
+
+    /**
+     * Return the store to which calls are forwarded.
+     *
+     * @return the underlying store
+     */
+    public DataStoreService<T, X> getDelegate() {
+        return this.delegate;
+    }
+
+    @Override
+    public X getPrimaryID(T entity) {
+        return this.delegate.getPrimaryID(entity);
+    }
+
+    @Override
+    public T get(X primaryID) {
+        return this.delegate.get(primaryID);
+    }
+
+    @Override
+    public List<T> getMultiple(Collection<X> ids) {
+        return this.delegate.getMultiple(ids);
+    }
+
+    @Override
+    public List<T> getMultiple(X[] ids) {
+        return this.delegate.getMultiple(ids);
+    }
+
+    @Override
+    public T get(X primaryID, Collection<String> fields) {
+        return this.delegate.get(primaryID, fields);
+    }
+
+    @Override
+    public List<T> getMultiple(Collection<X> ids, Collection<String> fields) {
+        return this.delegate.getMultiple(ids, fields);
+    }
+
+    @Override
+    public List<T> getAll() {
+        return this.delegate.getAll();
+    }
+
+    @Override
+    public Stream<T> stream() {
+        return this.delegate.stream();
+    }
+
+    @Override
+    public Stream<T> stream(int fetchSize) {
+        return this.delegate.stream(fetchSize);
+    }
+
+    @Override
+    public List<T> getAll(int page, int pageSize) {
+        return this.delegate.getAll(page, pageSize);
+    }
+
+    @Override
+    public DataStorePage<T> getPage(String token, int pageSize) {
+        return this.delegate.getPage(token, pageSize);
+    }
+
+    @Override
+    public List<T> find(DataStoreQuery query) {
+        return this.delegate.find(query);
+    }
+
+    @Override
+    public T insert(T entity) {
+        return this.delegate.insert(entity);
+    }
+
+    @Override
+    public T update(T entity) {
+        return this.delegate.update(entity);
+    }
+
+    @Override
+    public T upsert(T entity) {
+        return this.delegate.upsert(entity);
+    }
+
+    @Override
+    public boolean patch(X primaryID, DataStorePatch patch) {
+        return this.delegate.patch(primaryID, patch);
+    }
+
+    @Override
+    public List<T> insertMultiple(Collection<T> entities) {
+        return this.delegate.insertMultiple(entities);
+    }
+
+    @Override
+    public List<T> updateMultiple(Collection<T> entities) {
+        return this.delegate.updateMultiple(entities);
+    }
+
+    @Override
+    public List<T> upsertMultiple(Collection<T> entities) {
+        return this.delegate.upsertMultiple(entities);
+    }
+
+    @Override
+    public T delete(T entity) {
+        return this.delegate.delete(entity);
+    }
+
+    @Override
+    public T deleteForID(X primaryID) {
+        return this.delegate.deleteForID(primaryID);
+    }
+
+    @Override
+    public List<T> deleteMultiple(Collection<X> ids) {
+        return this.delegate.deleteMultiple(ids);
+    }
+
+    @Override
+    public List<T> deleteMultiple(X[] ids) {
+        return this.delegate.deleteMultiple(ids);
+    }
+
+    @Override
+    public long count() {
+        return this.delegate.count();
+    }
+
+    @Override
+    public void deleteAll() {
+        this.delegate.deleteAll();
+    }
+
+    @Override
+    public void close() {
+        this.delegate.close();
+    }
+
+}
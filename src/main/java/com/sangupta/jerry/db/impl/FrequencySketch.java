@@ -0,0 +1,126 @@
+package com.sangupta.jerry.db.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Count-Min sketch that estimates how often a key has been seen recently,
+ * using four 4-bit counters per key. Once the number of recorded accesses
+ * reaches ten times the maximum size of the cache, all counters are halved so
+ * that keys which are no longer accessed fade out. This is the frequency
+ * estimate used for TinyLFU admission in {@link CachingDataStoreService}.
+ *
+ * Counters are updated with compare-and-set, so the sketch is safe to use
+ * concurrently without locking.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final int MAX_COUNT = 15;
+
+    private final AtomicLongArray table;
+
+    private final int tableMask;
+
+    private final int sampleSize;
+
+    private final AtomicInteger additions = new AtomicInteger();
+
+    FrequencySketch(int maximumSize) {
+        int length = Integer.highestOneBit(Math.max(64, Math.min(maximumSize, 1 << 30)) - 1) << 1;
+        this.table = new AtomicLongArray(length);
+        this.tableMask = length - 1;
+        this.sampleSize = (int) Math.min(10L * maximumSize, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Return the estimated number of times the key was seen recently.
+     *
+     * @param key the key
+     *
+     * @return the estimate, between <code>0</code> and <code>15</code>
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int depth = 0; depth < SEEDS.length; depth++) {
+            int offset = offsetOf(hash, depth);
+            int count = (int) ((this.table.get(indexOf(hash, depth)) >>> offset) & 0xFL);
+            frequency = Math.min(frequency, count);
+        }
+
+        return frequency;
+    }
+
+    /**
+     * Record one access of the key.
+     *
+     * @param key the key
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int depth = 0; depth < SEEDS.length; depth++) {
+            added |= this.incrementAt(indexOf(hash, depth), offsetOf(hash, depth));
+        }
+
+        if (added && this.additions.incrementAndGet() == this.sampleSize) {
+            this.reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int offset) {
+        final long mask = 0xFL << offset;
+        while (true) {
+            long value = this.table.get(index);
+            if ((value & mask) == mask) {
+                return false;
+            }
+
+            if (this.table.compareAndSet(index, value, value + (1L << offset))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Halve all counters, so that the sketch reflects recent accesses.
+     */
+    private void reset() {
+        for (int index = 0; index < this.table.length(); index++) {
+            while (true) {
+                long value = this.table.get(index);
+                if (this.table.compareAndSet(index, value, (value >>> 1) & RESET_MASK)) {
+                    break;
+                }
+            }
+        }
+
+        this.additions.addAndGet(-(this.sampleSize >>> 1));
+    }
+
+    private int indexOf(int hash, int depth) {
+        long value = (hash + SEEDS[depth]) * SEEDS[depth];
+        value += value >>> 32;
+        return ((int) value) & this.tableMask;
+    }
+
+    private static int offsetOf(int hash, int depth) {
+        // each long holds sixteen 4-bit counters
+        return ((hash >>> (depth << 3)) & 0xF) << 2;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.sangupta.jerry.db.impl;
+
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.Gson;
+import com.sangupta.jerry.db.EntitySerializer;
+import com.sangupta.jerry.util.GsonUtils;
+
+/**
+ * An {@link EntitySerializer} that stores entities as compact, UTF-8 encoded
+ * JSON using the shared {@link Gson} instance from {@link GsonUtils}.
+ * 
+ * @author sangupta
+ * 
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ */
+public class GsonEntitySerializer<T> implements EntitySerializer<T> {
+
+    protected final Class<T> entityClass;
+
+    public GsonEntitySerializer(Class<T> entityClass) {
+        if (entityClass == null) {
+            throw new IllegalArgumentException("Entity class cannot be null");
+        }
+
+        this.entityClass = entityClass;
+    }
+
+    @Override
+    public byte[] serialize(T entity) {
+        return GsonUtils.getGson().toJson(entity).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+
+        return GsonUtils.getGson().fromJson(new String(bytes, StandardCharsets.UTF_8), this.entityClass);
+    }
+
+}
@@ -2,11 +2,29 @@ package com.sangupta.jerry.db.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
+import com.sangupta.jerry.db.DataStoreOperation;
+import com.sangupta.jerry.db.DataStorePage;
+import com.sangupta.jerry.db.DataStorePatch;
+import com.sangupta.jerry.db.DataStoreQuery;
+import com.sangupta.jerry.db.DataStoreQuery.Criterion;
+import com.sangupta.jerry.db.DataStoreQuery.Operator;
 import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.DataStoreVersionConflictException;
+import com.sangupta.jerry.db.EntityMetadata;
+import com.sangupta.jerry.db.Indexed;
+import com.sangupta.jerry.db.Version;
 import com.sangupta.jerry.util.AssertUtils;
 
 /**
@@ -20,6 +38,38 @@ import com.sangupta.jerry.util.AssertUtils;
  * Now service can be used for all CRUD operations on <code>MyEntity</code> object
  * using <code>service</code>.
  * 
+ * The store may be created in ordered mode, using
+ * {@link #InMemoryDataStoreServiceImpl(boolean)}, in which case entities are
+ * kept in a {@link ConcurrentSkipListMap} sorted on the primary ID. Ordered
+ * stores iterate in key order, serve {@link #getPage(String, int)} by seeking
+ * to the last key of the previous page, and support range and first/last key
+ * lookups in <code>O(log n)</code>. The primary ID must be {@link Comparable}
+ * in ordered mode. Unordered stores serve {@link #getPage(String, int)} by
+ * continuing the iteration that read the previous page, keeping the last
+ * {@link #MAX_PAGE_CURSORS} such iterations open. A token whose iteration was
+ * dropped, or is already being continued, skips to the offset it ended at.
+ * 
+ * Fields of the entity annotated with {@link Indexed} get a secondary index,
+ * which is updated along with every write while holding a lock on the primary
+ * ID. Entities may then be looked up on the value of the field using
+ * {@link #findBy(String, Object)}, and on a range of values using
+ * {@link #findInRange(String, Object, Object)} when the index is sorted.
+ * {@link #find(DataStoreQuery)} also uses the indexes to narrow down the
+ * entities it evaluates the query over.
+ * 
+ * Patches are applied to a copy of the stored entity, which then replaces it
+ * while holding the lock on the primary ID, so that concurrent patches to the
+ * same entity are not lost and readers never see a half applied patch.
+ * Entities with a {@link Version} field are replaced only if the stored entity
+ * is still at the version they were read at, checked and replaced while
+ * holding the same lock. Such entities are copied when written and when read,
+ * so that changes to an entity returned by a read never reach the store
+ * without a version check.
+ * 
+ * If a {@link DataStoreJournal} is attached to the store, every mutation is
+ * recorded to the journal while holding a lock on the primary ID, and the
+ * write only returns once the journal reports it durable.
+ * 
  * @author sangupta
  * 
  * @since 2.0.0
@@ -30,22 +80,307 @@ import com.sangupta.jerry.util.AssertUtils;
  */
 public abstract class InMemoryDataStoreServiceImpl<T, X> extends AbstractDataStoreServiceImpl<T, X> {
 
-    protected final Map<X, T> dataStore = new ConcurrentHashMap<>();
+    /**
+     * Number of open iterations kept for paging through unordered stores
+     */
+    public static final int MAX_PAGE_CURSORS = 64;
+
+    protected final Map<X, T> dataStore;
+
+    /**
+     * The same map as {@link #dataStore} when in ordered mode, <code>null</code>
+     * otherwise
+     */
+    protected final NavigableMap<X, T> orderedDataStore;
+
+    /**
+     * The journal to record mutations to, if any
+     */
+    protected DataStoreJournal<T, X> journal;
+
+    /**
+     * Secondary indexes keyed on field name, empty if no field is indexed
+     */
+    private final Map<String, EntityIndex<X>> indexes;
+
+    /**
+     * Locks to keep mutations, their index updates and their journal records
+     * in the same order
+     */
+    private final StripedLocks locks = new StripedLocks(64);
+
+    /**
+     * Open iterations of unordered pages, keyed on cursor ID, the oldest first
+     */
+    private final Map<Long, PageCursor<T>> pageCursors = new LinkedHashMap<Long, PageCursor<T>>() {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, PageCursor<T>> eldest) {
+            return this.size() > MAX_PAGE_CURSORS;
+        }
+
+    };
+
+    private final AtomicLong nextCursorID = new AtomicLong();
+
+    public InMemoryDataStoreServiceImpl() {
+        this(false);
+    }
+
+    /**
+     * Create a new store.
+     * 
+     * @param ordered whether entities are kept sorted on the primary ID
+     * 
+     * @throws IllegalArgumentException if ordered mode is requested and the
+     *                                  primary ID is not {@link Comparable}
+     */
+    public InMemoryDataStoreServiceImpl(boolean ordered) {
+        super();
+
+        this.orderedDataStore = ordered ? newOrderedStore(this.primaryIDClass) : null;
+        this.dataStore = ordered ? this.orderedDataStore : new ConcurrentHashMap<>();
+        this.indexes = EntityIndex.forEntity(this.entityDetails);
+    }
+
+    /**
+     * Create a new store for the entity described by the given metadata.
+     * 
+     * @param metadata the metadata of the entity
+     * 
+     * @param ordered  whether entities are kept sorted on the primary ID
+     * 
+     * @throws IllegalArgumentException if ordered mode is requested and the
+     *                                  primary ID is not {@link Comparable}
+     */
+    public InMemoryDataStoreServiceImpl(EntityMetadata<T, X> metadata, boolean ordered) {
+        super(metadata);
+
+        this.orderedDataStore = ordered ? newOrderedStore(this.primaryIDClass) : null;
+        this.dataStore = ordered ? this.orderedDataStore : new ConcurrentHashMap<>();
+        this.indexes = EntityIndex.forEntity(this.entityDetails);
+    }
+
+    private static <X, T> NavigableMap<X, T> newOrderedStore(Class<X> primaryIDClass) {
+        if (!Comparable.class.isAssignableFrom(primaryIDClass)) {
+            throw new IllegalArgumentException("Primary ID must be Comparable in ordered mode");
+        }
+
+        return new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Check if this store keeps entities sorted on the primary ID.
+     * 
+     * @return <code>true</code> if in ordered mode, <code>false</code> otherwise
+     */
+    public boolean isOrdered() {
+        return this.orderedDataStore != null;
+    }
+
+    /**
+     * Return all entities with primary ID in the given range, sorted on the
+     * primary ID. Available only in ordered mode.
+     * 
+     * @param fromID the lowest primary ID, inclusive, or <code>null</code> to
+     *               start from the first entity
+     * 
+     * @param toID   the highest primary ID, exclusive, or <code>null</code> to go
+     *               till the last entity
+     * 
+     * @return the entities in the range, never <code>null</code>
+     * 
+     * @throws IllegalStateException if the store is not in ordered mode
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> getRange(X fromID, X toID) {
+        NavigableMap<X, T> map = this.getOrderedDataStore();
+        if (fromID != null && toID != null) {
+            if (((Comparable<X>) fromID).compareTo(toID) >= 0) {
+                return new ArrayList<>();
+            }
+
+            map = map.subMap(fromID, true, toID, false);
+        } else if (fromID != null) {
+            map = map.tailMap(fromID, true);
+        } else if (toID != null) {
+            map = map.headMap(toID, false);
+        }
+
+        return this.copyAllIfVersioned(new ArrayList<>(map.values()));
+    }
+
+    /**
+     * Return the lowest primary ID in the store. Available only in ordered mode.
+     * 
+     * @return the first primary ID, or <code>null</code> if the store is empty
+     * 
+     * @throws IllegalStateException if the store is not in ordered mode
+     */
+    public X getFirstID() {
+        Map.Entry<X, T> entry = this.getOrderedDataStore().firstEntry();
+        return entry != null ? entry.getKey() : null;
+    }
+
+    /**
+     * Return the highest primary ID in the store. Available only in ordered mode.
+     * 
+     * @return the last primary ID, or <code>null</code> if the store is empty
+     * 
+     * @throws IllegalStateException if the store is not in ordered mode
+     */
+    public X getLastID() {
+        Map.Entry<X, T> entry = this.getOrderedDataStore().lastEntry();
+        return entry != null ? entry.getKey() : null;
+    }
+
+    /**
+     * Return the entity with the lowest primary ID. Available only in ordered
+     * mode.
+     * 
+     * @return the first entity, or <code>null</code> if the store is empty
+     * 
+     * @throws IllegalStateException if the store is not in ordered mode
+     */
+    public T getFirst() {
+        Map.Entry<X, T> entry = this.getOrderedDataStore().firstEntry();
+        return entry != null ? this.copyIfVersioned(entry.getValue()) : null;
+    }
+
+    /**
+     * Return the entity with the highest primary ID. Available only in ordered
+     * mode.
+     * 
+     * @return the last entity, or <code>null</code> if the store is empty
+     * 
+     * @throws IllegalStateException if the store is not in ordered mode
+     */
+    public T getLast() {
+        Map.Entry<X, T> entry = this.getOrderedDataStore().lastEntry();
+        return entry != null ? this.copyIfVersioned(entry.getValue()) : null;
+    }
+
+    /**
+     * Return all entities where the given field equals the value, using the
+     * index on the field.
+     * 
+     * @param field the name of a field annotated with {@link Indexed}
+     * 
+     * @param value the value to look for, of the type of the field
+     * 
+     * @return the matching entities, never <code>null</code>
+     * 
+     * @throws IllegalArgumentException if the field is not indexed or the value
+     *                                  is <code>null</code>
+     */
+    public List<T> findBy(String field, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null");
+        }
+
+        EntityIndex<X> index = this.getIndex(field);
+
+        List<T> list = new ArrayList<>();
+        for (X id : index.find(value)) {
+            T entity = this.dataStore.get(id);
+            if (entity != null && index.matches(entity, value)) {
+                list.add(this.copyIfVersioned(entity));
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Return all entities where the given field is in the range, sorted on the
+     * field, using the sorted index on the field.
+     * 
+     * @param field the name of a field annotated with {@link Indexed} of type
+     *              {@link Indexed.Type#SORTED}
+     * 
+     * @param from  the lowest value, inclusive, or <code>null</code> to start
+     *              from the lowest value
+     * 
+     * @param to    the highest value, exclusive, or <code>null</code> to go till
+     *              the highest value
+     * 
+     * @return the matching entities, never <code>null</code>
+     * 
+     * @throws IllegalArgumentException if the field does not have a sorted index
+     */
+    public List<T> findInRange(String field, Object from, Object to) {
+        EntityIndex<X> index = this.getIndex(field);
+        if (!index.isSorted()) {
+            throw new IllegalArgumentException("Field does not have a sorted index: " + field);
+        }
+
+        List<T> list = new ArrayList<>();
+        for (X id : index.findInRange(from, to)) {
+            T entity = this.dataStore.get(id);
+            if (entity != null && index.matches(entity, from, to)) {
+                list.add(this.copyIfVersioned(entity));
+            }
+        }
+
+        return list;
+    }
+
+    private EntityIndex<X> getIndex(String field) {
+        EntityIndex<X> index = this.indexes.get(field);
+        if (index == null) {
+            throw new IllegalArgumentException("Field is not indexed: " + field);
+        }
+
+        return index;
+    }
+
+    private NavigableMap<X, T> getOrderedDataStore() {
+        if (this.orderedDataStore == null) {
+            throw new IllegalStateException("Store is not in ordered mode");
+        }
+
+        return this.orderedDataStore;
+    }
 
     @Override
     protected T getEntity(X primaryID) {
-        return this.dataStore.get(primaryID);
+        return this.copyIfVersioned(this.dataStore.get(primaryID));
     }
 
     @Override
     protected T deleteEntity(T entity) {
         X id = this.getPrimaryID(entity);
-        return this.dataStore.remove(id);
+        return this.deleteEntityForID(id);
     }
 
     @Override
     protected T deleteEntityForID(X primaryID) {
-        return this.dataStore.remove(primaryID);
+        if (!this.isGuarded()) {
+            return this.dataStore.remove(primaryID);
+        }
+
+        final DataStoreJournal<T, X> journal = this.journal;
+        final T removed;
+        long ticket = 0;
+        synchronized (this.locks.lockFor(primaryID)) {
+            removed = this.dataStore.remove(primaryID);
+            if (removed == null) {
+                return null;
+            }
+
+            this.updateIndexes(primaryID, null);
+            if (journal != null) {
+                ticket = journal.removed(primaryID);
+            }
+        }
+
+        if (ticket > 0) {
+            journal.await(ticket);
+        }
+
+        return removed;
     }
 
     @Override
@@ -109,58 +444,567 @@ public abstract class InMemoryDataStoreServiceImpl<T, X> extends AbstractDataSto
 
     @Override
     protected List<T> getAllEntities() {
-        return new ArrayList<>(this.dataStore.values());
+        return this.copyAllIfVersioned(new ArrayList<>(this.dataStore.values()));
     }
 
     @Override
     protected List<T> getAllEntities(int page, int pageSize, int start, int end) {
-        List<T> coll = new ArrayList<>(this.dataStore.values());
-
-        int size = coll.size();
-        if (start >= size) {
+        if (start >= this.dataStore.size()) {
             return new ArrayList<>();
         }
 
-        if (end > size) {
-            end = size;
+        // walk the values, copying only the ones in the page
+        List<T> list = new ArrayList<>(Math.min(pageSize, this.dataStore.size() - start));
+        Iterator<T> iterator = this.dataStore.values().iterator();
+        for (int skipped = 0; skipped < start && iterator.hasNext(); skipped++) {
+            iterator.next();
+        }
+
+        while (iterator.hasNext() && list.size() < pageSize) {
+            list.add(this.copyIfVersioned(iterator.next()));
+        }
+
+        return list;
+    }
+
+    @Override
+    protected DataStorePage<T> getEntityPage(String token, int pageSize) {
+        if (this.orderedDataStore == null) {
+            return this.getUnorderedPage(token, pageSize);
+        }
+
+        NavigableMap<X, T> map = this.orderedDataStore;
+        if (token != null) {
+            map = map.tailMap(this.decodeKeyToken(token), false);
+        }
+
+        List<T> list = new ArrayList<>(Math.min(pageSize, 1024));
+        X lastID = null;
+        for (Map.Entry<X, T> entry : map.entrySet()) {
+            if (list.size() == pageSize) {
+                // there is at least one more entity
+                return new DataStorePage<>(list, this.encodeKeyToken(lastID));
+            }
+
+            lastID = entry.getKey();
+            list.add(this.copyIfVersioned(entry.getValue()));
+        }
+
+        return new DataStorePage<>(list, null);
+    }
+
+    /**
+     * Read a page by continuing the iteration of the previous page, there being
+     * no key order to resume from. The token holds the cursor ID of the
+     * iteration and the offset it ended at.
+     */
+    private DataStorePage<T> getUnorderedPage(String token, int pageSize) {
+        long cursorID;
+        int position = 0;
+        Iterator<T> iterator = null;
+        if (token == null) {
+            cursorID = this.nextCursorID.incrementAndGet();
+        } else {
+            String[] parts = decodePageToken(token).split(":", -1);
+            try {
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Invalid page token");
+                }
+
+                cursorID = Long.parseLong(parts[0]);
+                position = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid page token", e);
+            }
+
+            if (position < 0) {
+                throw new IllegalArgumentException("Invalid page token");
+            }
+
+            synchronized (this.pageCursors) {
+                PageCursor<T> cursor = this.pageCursors.get(cursorID);
+                if (cursor != null && cursor.position == position) {
+                    this.pageCursors.remove(cursorID);
+                    iterator = cursor.iterator;
+                }
+            }
+        }
+
+        if (iterator == null) {
+            iterator = this.dataStore.values().iterator();
+            for (int skipped = 0; skipped < position && iterator.hasNext(); skipped++) {
+                iterator.next();
+            }
+        }
+
+        List<T> list = new ArrayList<>(Math.min(pageSize, 1024));
+        while (list.size() < pageSize && iterator.hasNext()) {
+            list.add(this.copyIfVersioned(iterator.next()));
+        }
+
+        if (!iterator.hasNext()) {
+            return new DataStorePage<>(list, null);
+        }
+
+        final int next = position + list.size();
+        synchronized (this.pageCursors) {
+            this.pageCursors.put(cursorID, new PageCursor<>(iterator, next));
+        }
+
+        return new DataStorePage<>(list, encodePageToken(cursorID + ":" + next));
+    }
+
+    @Override
+    protected Stream<T> streamEntities(int fetchSize) {
+        // entities are already in memory, stream over the live values
+        return this.dataStore.values().stream().map(this::copyIfVersioned);
+    }
+
+    @Override
+    protected List<T> findEntities(DataStoreQuery query) {
+        QueryEvaluator<T> evaluator = QueryEvaluator.of(query, this.entityDetails);
+
+        Collection<X> candidates = this.findCandidates(query);
+        if (candidates == null) {
+            return this.copyAllIfVersioned(evaluator.evaluate(this.dataStore.values()));
+        }
+
+        // the index may be momentarily behind, the evaluator checks all criteria
+        List<T> entities = new ArrayList<>(candidates.size());
+        for (X id : candidates) {
+            T entity = this.dataStore.get(id);
+            if (entity != null) {
+                entities.add(entity);
+            }
+        }
+
+        return this.copyAllIfVersioned(evaluator.evaluate(entities));
+    }
+
+    /**
+     * Use the indexes to narrow down the entities that may match the query. Of
+     * all criteria that can be answered by an index, the one returning the
+     * fewest primary IDs is used.
+     * 
+     * @param query the query
+     * 
+     * @return the primary IDs of entities that may match, or <code>null</code>
+     *         if no index can be used
+     */
+    private Collection<X> findCandidates(DataStoreQuery query) {
+        if (this.indexes.isEmpty()) {
+            return null;
+        }
+
+        Collection<X> best = null;
+        Map<String, Range> ranges = new LinkedHashMap<>();
+        for (Criterion criterion : query.getCriteria()) {
+            EntityIndex<X> index = this.indexes.get(criterion.getField());
+            if (index == null) {
+                continue;
+            }
+
+            Collection<X> ids = null;
+            switch (criterion.getOperator()) {
+                case EQ:
+                    if (index.accepts(criterion.getValue())) {
+                        ids = index.find(criterion.getValue());
+                    }
+
+                    break;
+
+                case IN:
+                    Set<X> set = new LinkedHashSet<>();
+                    for (Object value : (Collection<?>) criterion.getValue()) {
+                        if (!index.accepts(value)) {
+                            set = null;
+                            break;
+                        }
+
+                        set.addAll(index.find(value));
+                    }
+
+                    ids = set;
+                    break;
+
+                default:
+                    if (index.isSorted() && index.accepts(criterion.getValue())) {
+                        ranges.computeIfAbsent(criterion.getField(), field -> new Range()).narrow(criterion);
+                    }
+            }
+
+            if (ids != null && (best == null || ids.size() < best.size())) {
+                best = ids;
+            }
+        }
+
+        for (Map.Entry<String, Range> entry : ranges.entrySet()) {
+            Range range = entry.getValue();
+            Collection<X> ids = this.indexes.get(entry.getKey()).findInRange(range.from, range.fromInclusive, range.to, range.toInclusive);
+            if (best == null || ids.size() < best.size()) {
+                best = ids;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Bounds on the value of a field, as collected from the range criteria of a
+     * query
+     */
+    private static class Range {
+
+        private Object from;
+
+        private boolean fromInclusive = true;
+
+        private Object to;
+
+        private boolean toInclusive = true;
+
+        /**
+         * Tighten the bounds with the given range criterion.
+         */
+        private void narrow(Criterion criterion) {
+            Object value = criterion.getValue();
+            switch (criterion.getOperator()) {
+                case GT:
+                case GTE:
+                    boolean inclusive = criterion.getOperator() == Operator.GTE;
+                    int compared = this.from == null ? 1 : QueryEvaluator.compare(value, this.from);
+                    if (compared > 0 || (compared == 0 && !inclusive)) {
+                        this.from = value;
+                        this.fromInclusive = inclusive;
+                    }
+
+                    break;
+
+                case LT:
+                case LTE:
+                    inclusive = criterion.getOperator() == Operator.LTE;
+                    compared = this.to == null ? -1 : QueryEvaluator.compare(value, this.to);
+                    if (compared < 0 || (compared == 0 && !inclusive)) {
+                        this.to = value;
+                        this.toInclusive = inclusive;
+                    }
+
+                    break;
+
+                default:
+                    break;
+            }
         }
 
-        return coll.subList(start, end);
     }
 
     @Override
     public void deleteAll() {
-        this.dataStore.clear();
+        if (!this.isGuarded()) {
+            this.dataStore.clear();
+            return;
+        }
+
+        for (X id : this.dataStore.keySet()) {
+            this.deleteEntityForID(id);
+        }
     }
 
     @Override
     protected T insertEntity(T entity) {
         X id = this.getPrimaryID(entity);
-        T old = this.dataStore.putIfAbsent(id, entity);
-        if (old == null) {
-            return entity;
+        if (!this.isGuarded()) {
+            T old = this.dataStore.putIfAbsent(id, this.copyIfVersioned(entity));
+            if (old == null) {
+                return entity;
+            }
+
+            return null;
         }
 
-        return null;
+        return this.writeGuarded(id, entity, DataStoreOperation.CREATE);
     }
 
     @Override
     protected T updateEntity(T entity) {
         X id = this.getPrimaryID(entity);
-        boolean exists = this.dataStore.containsKey(id);
-        if (!exists) {
-            return null;
+        if (!this.isGuarded()) {
+            T old = this.dataStore.replace(id, this.copyIfVersioned(entity));
+            if (old == null) {
+                return null;
+            }
+
+            return entity;
         }
 
-        this.dataStore.replace(id, entity);
-        return entity;
+        return this.writeGuarded(id, entity, DataStoreOperation.UPDATE);
     }
 
     @Override
     protected T upsertEntity(T entity) {
         X id = this.getPrimaryID(entity);
-        this.dataStore.put(id, entity);
+        if (!this.isGuarded()) {
+            this.dataStore.put(id, this.copyIfVersioned(entity));
+            return entity;
+        }
+
+        return this.writeGuarded(id, entity, DataStoreOperation.UPSERT);
+    }
+
+    @Override
+    protected T updateVersionedEntity(T entity, long expectedVersion) {
+        final DataStoreJournal<T, X> journal = this.journal;
+        final X id = this.getPrimaryID(entity);
+        final T stored = this.copyOf(entity);
+
+        long ticket;
+        synchronized (this.locks.lockFor(id)) {
+            T current = this.dataStore.get(id);
+            if (current == null) {
+                return null;
+            }
+
+            if (this.getVersion(current) != expectedVersion) {
+                throw new DataStoreVersionConflictException(id, expectedVersion);
+            }
+
+            // deletes do not always take the lock
+            if (!this.dataStore.replace(id, current, stored)) {
+                if (this.dataStore.containsKey(id)) {
+                    throw new DataStoreVersionConflictException(id, expectedVersion);
+                }
+
+                return null;
+            }
+
+            this.updateIndexes(id, stored);
+            ticket = journal != null ? journal.stored(id, stored) : 0;
+        }
+
+        if (ticket > 0) {
+            journal.await(ticket);
+        }
+
+        return entity;
+    }
+
+    @Override
+    protected boolean patchEntity(X primaryID, DataStorePatch patch) {
+        final DataStoreJournal<T, X> journal = this.journal;
+
+        long ticket;
+        synchronized (this.locks.lockFor(primaryID)) {
+            T current = this.dataStore.get(primaryID);
+            if (current == null) {
+                return false;
+            }
+
+            // readers may hold the stored instance, patch a copy of it
+            T entity = this.copyOf(current);
+            EntityPatches.apply(this.entityDetails, entity, patch);
+
+            // deletes do not always take the lock
+            if (!this.dataStore.replace(primaryID, current, entity)) {
+                return false;
+            }
+
+            this.updateIndexes(primaryID, entity);
+            ticket = journal != null ? journal.stored(primaryID, entity) : 0;
+        }
+
+        if (ticket > 0) {
+            journal.await(ticket);
+        }
+
+        return true;
+    }
+
+    @Override
+    protected List<T> insertMultipleEntities(Collection<T> entities) {
+        return this.writeMultiple(entities, DataStoreOperation.CREATE);
+    }
+
+    @Override
+    protected List<T> updateMultipleEntities(Collection<T> entities) {
+        return this.writeMultiple(entities, DataStoreOperation.UPDATE);
+    }
+
+    @Override
+    protected List<T> upsertMultipleEntities(Collection<T> entities) {
+        return this.writeMultiple(entities, DataStoreOperation.UPSERT);
+    }
+
+    /**
+     * Apply the write to all entities in a single pass. With a journal, all
+     * records are appended first and the caller waits only once for the last of
+     * them to be durable.
+     * 
+     * @param entities  the entities to write
+     * 
+     * @param operation one of {@link DataStoreOperation#CREATE},
+     *                  {@link DataStoreOperation#UPDATE} or
+     *                  {@link DataStoreOperation#UPSERT}
+     * 
+     * @return the entities that were written
+     */
+    private List<T> writeMultiple(Collection<T> entities, DataStoreOperation operation) {
+        final DataStoreJournal<T, X> journal = this.journal;
+        final boolean guarded = this.isGuarded();
+
+        List<T> list = new ArrayList<>(entities.size());
+        long ticket = 0;
+
+        for (T entity : entities) {
+            X id = this.getPrimaryID(entity);
+            T stored = this.copyIfVersioned(entity);
+            if (!guarded) {
+                if (this.write(id, stored, operation)) {
+                    list.add(entity);
+                }
+
+                continue;
+            }
+
+            long written = this.writeLocked(id, stored, operation, journal);
+            if (written < 0) {
+                continue;
+            }
+
+            ticket = Math.max(ticket, written);
+            list.add(entity);
+        }
+
+        if (ticket > 0) {
+            journal.await(ticket);
+        }
+
+        return list;
+    }
+
+    /**
+     * Check if writes must hold the lock on the primary ID, which is the case
+     * when there are indexes or a journal to keep in step with the data.
+     * 
+     * @return <code>true</code> if writes need the lock
+     */
+    private boolean isGuarded() {
+        return this.journal != null || !this.indexes.isEmpty();
+    }
+
+    /**
+     * Write a single entity holding the lock on its primary ID, and wait for the
+     * journal if there is one.
+     * 
+     * @return the entity if written, <code>null</code> otherwise
+     */
+    private T writeGuarded(X id, T entity, DataStoreOperation operation) {
+        final DataStoreJournal<T, X> journal = this.journal;
+
+        long ticket = this.writeLocked(id, this.copyIfVersioned(entity), operation, journal);
+        if (ticket < 0) {
+            return null;
+        }
+
+        if (ticket > 0) {
+            journal.await(ticket);
+        }
+
         return entity;
     }
 
+    /**
+     * Write the entity, update the indexes and record the write to the journal,
+     * all while holding the lock on the primary ID.
+     * 
+     * @return <code>-1</code> if the entity was not written, the journal ticket
+     *         to wait for, or <code>0</code> if there is no journal
+     */
+    private long writeLocked(X id, T entity, DataStoreOperation operation, DataStoreJournal<T, X> journal) {
+        synchronized (this.locks.lockFor(id)) {
+            if (!this.write(id, entity, operation)) {
+                return -1;
+            }
+
+            this.updateIndexes(id, entity);
+            return journal != null ? journal.stored(id, entity) : 0;
+        }
+    }
+
+    private void updateIndexes(X id, T entity) {
+        for (EntityIndex<X> index : this.indexes.values()) {
+            index.update(id, entity);
+        }
+    }
+
+    /**
+     * Put an entity read from a backing copy of the store, such as a snapshot
+     * on disk, keeping indexes up to date. The entity is neither massaged nor
+     * recorded to the journal.
+     * 
+     * @param id     the primary ID
+     * 
+     * @param entity the entity
+     */
+    protected void loadEntity(X id, T entity) {
+        if (this.indexes.isEmpty()) {
+            this.dataStore.put(id, entity);
+            return;
+        }
+
+        synchronized (this.locks.lockFor(id)) {
+            this.dataStore.put(id, entity);
+            this.updateIndexes(id, entity);
+        }
+    }
+
+    /**
+     * Remove an entity as recorded in a backing copy of the store, keeping
+     * indexes up to date. The removal is not recorded to the journal.
+     * 
+     * @param id the primary ID
+     */
+    protected void unloadEntity(X id) {
+        if (this.indexes.isEmpty()) {
+            this.dataStore.remove(id);
+            return;
+        }
+
+        synchronized (this.locks.lockFor(id)) {
+            if (this.dataStore.remove(id) != null) {
+                this.updateIndexes(id, null);
+            }
+        }
+    }
+
+    private boolean write(X id, T entity, DataStoreOperation operation) {
+        switch (operation) {
+            case CREATE:
+                return this.dataStore.putIfAbsent(id, entity) == null;
+
+            case UPDATE:
+                return this.dataStore.replace(id, entity) != null;
+
+            default:
+                this.dataStore.put(id, entity);
+                return true;
+        }
+    }
+
+    /**
+     * An iteration over the values of an unordered store, paused after the
+     * given number of entities
+     */
+    private static final class PageCursor<T> {
+
+        final Iterator<T> iterator;
+
+        final int position;
+
+        PageCursor(Iterator<T> iterator, int position) {
+            this.iterator = iterator;
+            this.position = position;
+        }
+
+    }
+
 }
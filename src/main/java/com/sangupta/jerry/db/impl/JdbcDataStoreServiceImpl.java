@@ -1,5 +1,1343 @@
 package com.sangupta.jerry.db.impl;
 
-public class JdbcDataStoreServiceImpl {
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+import javax.sql.DataSource;
+
+import com.sangupta.jerry.db.DataStorePage;
+import com.sangupta.jerry.db.DataStorePatch;
+import com.sangupta.jerry.db.DataStorePatch.Change;
+import com.sangupta.jerry.db.DataStoreQuery;
+import com.sangupta.jerry.db.DataStoreQuery.Criterion;
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.DataStoreVersionConflictException;
+import com.sangupta.jerry.db.EntityScanner.EntityDetails;
+import com.sangupta.jerry.db.FieldAccessor;
+import com.sangupta.jerry.util.GsonUtils;
+
+/**
+ * A JDBC based implementation of {@link DataStoreService}. The table mapping is
+ * derived from the {@link EntityDetails} of the entity: the table is named
+ * after the simple name of the entity class, and there is one column per
+ * persisted field, named after the field. The implementation can be used as:
+ *
+ * <pre>
+ * DataStoreService<MyEntity, String> service = new JdbcDataStoreServiceImpl<MyEntity, String>(dataSource) {};
+ * </pre>
+ *
+ * Simple values (primitives, strings, numbers, dates, enums and byte arrays)
+ * are stored natively, all other values are stored as JSON text. The names may
+ * be changed by overriding {@link #getTableName()} and
+ * {@link #getColumnName(Field)}, and the DDL used by {@link #createTable()} via
+ * {@link #getColumnDefinition(Field, boolean)}.
+ *
+ * SQL is generated once per store and reused for every call. Multi-entity
+ * reads are split into <code>IN</code> queries of at most
+ * {@link #getInClauseChunkSize()} IDs, and multi-entity writes use JDBC
+ * batches. Token paging uses keyset pagination over the primary key: each page
+ * is read with a <code>WHERE id &gt; ?</code> clause from the last ID of the
+ * previous page, without any <code>OFFSET</code>. Numbered pages have no
+ * previous ID to start from, thus the ID before the page is first looked up
+ * with an <code>OFFSET</code> over the primary key column alone, which the
+ * database may serve from the index, and the page is then read from it the
+ * same way.
+ * Streams hold a connection and read the rows using the requested JDBC fetch
+ * size, until the stream is closed. Queries are translated to a
+ * <code>WHERE</code>, <code>ORDER BY</code> and <code>FETCH FIRST</code> clause
+ * over the mapped columns, with values bound as parameters. Reads of selected
+ * fields only select the columns of those fields, and patches only update the
+ * columns of the changed fields. Versioned entities are updated with a
+ * condition on the version read, in the same statement.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ *
+ * @param <X> The primary ID key for this entity object
+ */
+public class JdbcDataStoreServiceImpl<T, X> extends AbstractDataStoreServiceImpl<T, X> {
+
+    /**
+     * Default number of IDs in a single <code>IN</code> clause
+     */
+    public static final int DEFAULT_IN_CLAUSE_CHUNK_SIZE = 500;
+
+    protected final DataSource dataSource;
+
+    protected final String tableName;
+
+    protected final String idColumn;
+
+    /**
+     * All persisted fields, primary field first
+     */
+    protected final List<Field> fields;
+
+    /**
+     * Accessors for each field, in same order
+     */
+    protected final List<FieldAccessor> accessors;
+
+    /**
+     * Column names for each field, in same order
+     */
+    protected final List<String> columns;
+
+    /**
+     * Position of each field in {@link #fields}, by field name
+     */
+    private final Map<String, Integer> fieldIndexes = new HashMap<>();
+
+    private final String selectColumns;
+
+    private final String selectByIdSql;
+
+    private final String selectAllSql;
+
+    private final String selectFirstPageSql;
+
+    private final String selectNextPageSql;
+
+    private final String selectPageBoundarySql;
+
+    private final String insertSql;
+
+    private final String updateSql;
+
+    /**
+     * Update that only matches the row at the expected version, for versioned
+     * entities
+     */
+    private final String updateVersionedSql;
+
+    private final String deleteByIdSql;
+
+    private final String countSql;
+
+    private final String deleteAllSql;
+
+    /**
+     * Cache of <code>IN</code> queries by number of parameters
+     */
+    private final ConcurrentMap<Integer, String> selectInSql = new ConcurrentHashMap<>();
+
+    /**
+     * Cache of <code>IN</code> queries reading only the primary key, by number of
+     * parameters
+     */
+    private final ConcurrentMap<Integer, String> selectIdsInSql = new ConcurrentHashMap<>();
+
+    public JdbcDataStoreServiceImpl(DataSource dataSource) {
+        super();
+
+        if (dataSource == null) {
+            throw new IllegalArgumentException("DataSource cannot be null");
+        }
+
+        if (this.entityDetails.idAccessor == null) {
+            throw new IllegalStateException("JDBC data store needs an @Id annotated field in the entity");
+        }
+
+        this.dataSource = dataSource;
+        this.tableName = this.getTableName();
+
+        List<FieldAccessor> accessors = new ArrayList<>();
+        accessors.add(this.entityDetails.idAccessor);
+        for (FieldAccessor accessor : this.entityDetails.getFieldAccessors()) {
+            if (accessor != this.entityDetails.idAccessor) {
+                accessors.add(accessor);
+            }
+        }
+        this.accessors = accessors;
+
+        List<Field> fields = new ArrayList<>();
+        for (FieldAccessor accessor : accessors) {
+            fields.add(accessor.getField());
+        }
+        this.fields = fields;
+
+        List<String> columns = new ArrayList<>();
+        for (Field field : this.fields) {
+            columns.add(this.getColumnName(field));
+        }
+        this.columns = columns;
+        this.idColumn = columns.get(0);
+
+        for (int index = 0; index < this.fields.size(); index++) {
+            this.fieldIndexes.put(this.fields.get(index).getName(), index);
+        }
+
+        // generate all SQL once
+        this.selectColumns = String.join(", ", this.columns);
+        this.selectByIdSql = "SELECT " + this.selectColumns + " FROM " + this.tableName + " WHERE " + this.idColumn + " = ?";
+        this.selectAllSql = "SELECT " + this.selectColumns + " FROM " + this.tableName + " ORDER BY " + this.idColumn;
+        this.selectFirstPageSql = this.selectAllSql + " FETCH FIRST ? ROWS ONLY";
+        this.selectNextPageSql = "SELECT " + this.selectColumns + " FROM " + this.tableName + " WHERE " + this.idColumn + " > ? ORDER BY " + this.idColumn + " FETCH FIRST ? ROWS ONLY";
+        this.selectPageBoundarySql = "SELECT " + this.idColumn + " FROM " + this.tableName + " ORDER BY " + this.idColumn + " OFFSET ? ROWS FETCH FIRST 1 ROWS ONLY";
+        this.insertSql = "INSERT INTO " + this.tableName + " (" + this.selectColumns + ") VALUES (" + placeholders(this.columns.size()) + ")";
+        this.deleteByIdSql = "DELETE FROM " + this.tableName + " WHERE " + this.idColumn + " = ?";
+        this.countSql = "SELECT COUNT(*) FROM " + this.tableName;
+        this.deleteAllSql = "DELETE FROM " + this.tableName;
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("UPDATE ").append(this.tableName).append(" SET ");
+        for (int index = 1; index < this.columns.size(); index++) {
+            if (index > 1) {
+                builder.append(", ");
+            }
+
+            builder.append(this.columns.get(index)).append(" = ?");
+        }
+        builder.append(" WHERE ").append(this.idColumn).append(" = ?");
+        this.updateSql = this.columns.size() > 1 ? builder.toString() : null;
+
+        // rows written before the entity was versioned have no version
+        String versionField = this.getVersionField();
+        this.updateVersionedSql = versionField != null ? this.updateSql + " AND COALESCE(" + this.columns.get(this.fieldIndexOf(versionField)) + ", 0) = ?" : null;
+    }
+
+    /**
+     * Return the name of the table for this entity. Defaults to the simple name
+     * of the entity class.
+     *
+     * @return the table name
+     */
+    protected String getTableName() {
+        return this.entityClass.getSimpleName();
+    }
+
+    /**
+     * Return the column name for the given field. Defaults to the field name.
+     *
+     * @param field the field
+     *
+     * @return the column name
+     */
+    protected String getColumnName(Field field) {
+        return field.getName();
+    }
+
+    /**
+     * Return the number of IDs to put in a single <code>IN</code> clause when
+     * reading or deleting multiple entities.
+     *
+     * @return the chunk size
+     */
+    protected int getInClauseChunkSize() {
+        return DEFAULT_IN_CLAUSE_CHUNK_SIZE;
+    }
+
+    /**
+     * Return the SQL column definition for the given field, as used by
+     * {@link #createTable()}.
+     *
+     * @param field   the field
+     *
+     * @param primary whether the field is the primary key
+     *
+     * @return the column type
+     */
+    protected String getColumnDefinition(Field field, boolean primary) {
+        Class<?> type = field.getType();
+
+        if (type == String.class) {
+            return primary ? "VARCHAR(255)" : "VARCHAR(4096)";
+        }
+
+        if (type == int.class || type == Integer.class) {
+            return "INTEGER";
+        }
+
+        if (type == long.class || type == Long.class) {
+            return "BIGINT";
+        }
+
+        if (type == short.class || type == Short.class) {
+            return "SMALLINT";
+        }
+
+        if (type == byte.class || type == Byte.class) {
+            return "TINYINT";
+        }
+
+        if (type == double.class || type == Double.class) {
+            return "DOUBLE";
+        }
+
+        if (type == float.class || type == Float.class) {
+            return "REAL";
+        }
+
+        if (type == boolean.class || type == Boolean.class) {
+            return "BOOLEAN";
+        }
+
+        if (type == char.class || type == Character.class) {
+            return "CHAR(1)";
+        }
+
+        if (type == BigDecimal.class) {
+            return "DECIMAL(38, 10)";
+        }
+
+        if (Date.class.isAssignableFrom(type)) {
+            return "TIMESTAMP";
+        }
+
+        if (type.isEnum()) {
+            return "VARCHAR(255)";
+        }
+
+        if (type == byte[].class) {
+            return "VARBINARY(65535)";
+        }
+
+        return "CLOB";
+    }
+
+    /**
+     * Create the table for this entity, if it does not already exist.
+     */
+    public void createTable() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("CREATE TABLE IF NOT EXISTS ").append(this.tableName).append(" (");
+        for (int index = 0; index < this.fields.size(); index++) {
+            builder.append(this.columns.get(index)).append(' ').append(this.getColumnDefinition(this.fields.get(index), index == 0)).append(", ");
+        }
+        builder.append("PRIMARY KEY (").append(this.idColumn).append("))");
+
+        try (Connection connection = this.dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(builder.toString());
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public long count() {
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(this.countSql);
+             ResultSet resultSet = statement.executeQuery()) {
+
+            resultSet.next();
+            return resultSet.getLong(1);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        try (Connection connection = this.dataSource.getConnection(); PreparedStatement statement = connection.prepareStatement(this.deleteAllSql)) {
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected T getEntity(X primaryID) {
+        List<T> list = this.query(this.selectByIdSql, primaryID);
+        if (list.isEmpty()) {
+            return null;
+        }
+
+        return list.get(0);
+    }
+
+    @Override
+    protected T getEntity(X primaryID, List<FieldAccessor> fields) {
+        int[] fieldIndexes = this.fieldIndexesOf(fields);
+        List<T> list = this.queryFields(this.selectFieldsSql(fieldIndexes) + " WHERE " + this.idColumn + " = ?", fieldIndexes, primaryID);
+        if (list.isEmpty()) {
+            return null;
+        }
+
+        return list.get(0);
+    }
+
+    @Override
+    protected T insertEntity(T entity) {
+        try (Connection connection = this.dataSource.getConnection(); PreparedStatement statement = connection.prepareStatement(this.insertSql)) {
+            this.bindAll(statement, entity);
+            statement.executeUpdate();
+            return entity;
+        } catch (SQLException e) {
+            if (isConstraintViolation(e)) {
+                return null;
+            }
+
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected T updateEntity(T entity) {
+        if (this.updateSql == null) {
+            // only the primary key is mapped, nothing to update
+            return this.getEntity(this.getPrimaryID(entity)) != null ? entity : null;
+        }
+
+        try (Connection connection = this.dataSource.getConnection(); PreparedStatement statement = connection.prepareStatement(this.updateSql)) {
+            this.bindForUpdate(statement, entity);
+            return statement.executeUpdate() > 0 ? entity : null;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected T updateVersionedEntity(T entity, long expectedVersion) {
+        try (Connection connection = this.dataSource.getConnection(); PreparedStatement statement = connection.prepareStatement(this.updateVersionedSql)) {
+            this.bindForUpdate(statement, entity);
+            statement.setObject(this.fields.size() + 1, expectedVersion);
+            if (statement.executeUpdate() > 0) {
+                return entity;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        X primaryID = this.getPrimaryID(entity);
+        if (this.getEntity(primaryID) == null) {
+            return null;
+        }
+
+        throw new DataStoreVersionConflictException(primaryID, expectedVersion);
+    }
+
+    @Override
+    protected boolean patchEntity(X primaryID, DataStorePatch patch) {
+        List<Change> changes = patch.getChanges();
+        List<Object> params = new ArrayList<>(changes.size() + 1);
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("UPDATE ").append(this.tableName).append(" SET ");
+        for (int index = 0; index < changes.size(); index++) {
+            Change change = changes.get(index);
+            int fieldIndex = this.fieldIndexOf(change.getField());
+            String column = this.columns.get(fieldIndex);
+            if (index > 0) {
+                builder.append(", ");
+            }
+
+            if (change.getOperator() == DataStorePatch.Operator.INC) {
+                builder.append(column).append(" = COALESCE(").append(column).append(", 0) + ?");
+            } else {
+                builder.append(column).append(" = ?");
+            }
+
+            params.add(toColumnValue(this.fields.get(fieldIndex).getType(), change.getValue()));
+        }
+
+        builder.append(" WHERE ").append(this.idColumn).append(" = ?");
+        params.add(primaryID);
+
+        try (Connection connection = this.dataSource.getConnection(); PreparedStatement statement = connection.prepareStatement(builder.toString())) {
+            for (int index = 0; index < params.size(); index++) {
+                statement.setObject(index + 1, params.get(index));
+            }
+
+            return statement.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected T upsertEntity(T entity) {
+        if (this.updateEntity(entity) != null) {
+            return entity;
+        }
+
+        if (this.insertEntity(entity) != null) {
+            return entity;
+        }
+
+        // inserted concurrently by someone else
+        return this.updateEntity(entity);
+    }
+
+    @Override
+    protected T deleteEntity(T entity) {
+        return this.deleteEntityForID(this.getPrimaryID(entity));
+    }
+
+    @Override
+    protected T deleteEntityForID(X primaryID) {
+        T entity = this.getEntity(primaryID);
+        if (entity == null) {
+            return null;
+        }
+
+        try (Connection connection = this.dataSource.getConnection(); PreparedStatement statement = connection.prepareStatement(this.deleteByIdSql)) {
+            statement.setObject(1, primaryID);
+            return statement.executeUpdate() > 0 ? entity : null;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected List<T> getAllEntities() {
+        return this.query(this.selectAllSql);
+    }
+
+    @Override
+    protected List<T> getAllEntities(int page, int pageSize, int start, int end) {
+        if (start == 0) {
+            return this.query(this.selectFirstPageSql, pageSize);
+        }
+
+        // jump straight to the page: look up the boundary using the index alone
+        Object boundary = this.findPageBoundary(start - 1);
+        if (boundary == null) {
+            return new ArrayList<>();
+        }
+
+        return this.query(this.selectNextPageSql, boundary, pageSize);
+    }
+
+    @Override
+    protected DataStorePage<T> getEntityPage(String token, int pageSize) {
+        // read one extra entity to know if there is a next page
+        final int fetchSize = pageSize == Integer.MAX_VALUE ? pageSize : pageSize + 1;
+
+        List<T> list;
+        if (token == null) {
+            list = this.query(this.selectFirstPageSql, fetchSize);
+        } else {
+            list = this.query(this.selectNextPageSql, this.decodeKeyToken(token), fetchSize);
+        }
+
+        return toPage(list, pageSize, last -> this.encodeKeyToken(this.getPrimaryID(last)));
+    }
+
+    @Override
+    protected Stream<T> streamEntities(int fetchSize) {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        boolean autoCommit = true;
+
+        try {
+            connection = this.dataSource.getConnection();
+
+            // drivers like PostgreSQL only honor the fetch size within a transaction
+            autoCommit = connection.getAutoCommit();
+            if (autoCommit) {
+                connection.setAutoCommit(false);
+            }
+
+            statement = connection.prepareStatement(this.selectAllSql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            resultSet = statement.executeQuery();
+        } catch (SQLException e) {
+            EntityStreams.closeQuietly(resultSet, false);
+            EntityStreams.closeQuietly(statement, false);
+            this.release(connection, autoCommit);
+            throw new RuntimeException(e);
+        }
+
+        final Connection streamConnection = connection;
+        final PreparedStatement streamStatement = statement;
+        final ResultSet rows = resultSet;
+        final boolean restoreAutoCommit = autoCommit;
+
+        Iterator<T> iterator = new Iterator<T>() {
+
+            private Boolean hasRow;
+
+            @Override
+            public boolean hasNext() {
+                if (this.hasRow == null) {
+                    try {
+                        this.hasRow = rows.next();
+                    } catch (SQLException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                return this.hasRow;
+            }
+
+            @Override
+            public T next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                this.hasRow = null;
+                try {
+                    return readEntity(rows);
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+        };
+
+        return EntityStreams.of(iterator, () -> {
+            EntityStreams.closeQuietly(rows, false);
+            EntityStreams.closeQuietly(streamStatement, false);
+            this.release(streamConnection, restoreAutoCommit);
+        });
+    }
+
+    @Override
+    protected List<T> findEntities(DataStoreQuery query) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("SELECT ").append(this.selectColumns).append(" FROM ").append(this.tableName);
+
+        List<Object> params = new ArrayList<>();
+        String separator = " WHERE ";
+        for (Criterion criterion : query.getCriteria()) {
+            String column = this.columns.get(this.fieldIndexOf(criterion.getField()));
+            builder.append(separator);
+            separator = " AND ";
+
+            Object value = criterion.getValue();
+            switch (criterion.getOperator()) {
+                case EQ:
+                    if (value == null) {
+                        builder.append(column).append(" IS NULL");
+                        continue;
+                    }
+
+                    builder.append(column).append(" = ?");
+                    break;
+
+                case GT:
+                    builder.append(column).append(" > ?");
+                    break;
+
+                case GTE:
+                    builder.append(column).append(" >= ?");
+                    break;
+
+                case LT:
+                    builder.append(column).append(" < ?");
+                    break;
+
+                case LTE:
+                    builder.append(column).append(" <= ?");
+                    break;
+
+                case IN:
+                    Collection<?> values = (Collection<?>) value;
+                    if (values.isEmpty()) {
+                        builder.append("1 = 0");
+                        continue;
+                    }
+
+                    builder.append(column).append(" IN (").append(placeholders(values.size())).append(')');
+                    for (Object item : values) {
+                        params.add(toColumnValue(item));
+                    }
+
+                    continue;
+
+                default:
+                    throw new IllegalArgumentException("Unsupported operator: " + criterion.getOperator());
+            }
+
+            params.add(toColumnValue(value));
+        }
+
+        separator = " ORDER BY ";
+        for (DataStoreQuery.Sort sort : query.getSorts()) {
+            builder.append(separator).append(this.columns.get(this.fieldIndexOf(sort.getField()))).append(sort.isAscending() ? " ASC" : " DESC");
+            separator = ", ";
+        }
+
+        if (query.getLimit() > 0) {
+            builder.append(" FETCH FIRST ? ROWS ONLY");
+            params.add(query.getLimit());
+        }
+
+        return this.query(builder.toString(), params.toArray());
+    }
+
+    private int fieldIndexOf(String field) {
+        Integer index = this.fieldIndexes.get(field);
+        if (index == null) {
+            throw new IllegalArgumentException("No such field in entity: " + field);
+        }
+
+        return index;
+    }
+
+    @Override
+    protected List<T> getMultipleEntities(Collection<X> ids) {
+        List<T> list = new ArrayList<>(ids.size());
+
+        final int chunkSize = this.getInClauseChunkSize();
+        List<Object> chunk = new ArrayList<>(Math.min(chunkSize, ids.size()));
+        for (X id : ids) {
+            chunk.add(id);
+            if (chunk.size() == chunkSize) {
+                list.addAll(this.query(this.getSelectInSql(chunk.size()), chunk.toArray()));
+                chunk.clear();
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            list.addAll(this.query(this.getSelectInSql(chunk.size()), chunk.toArray()));
+        }
+
+        return list;
+    }
+
+    @Override
+    protected List<T> getMultipleEntities(Collection<X> ids, List<FieldAccessor> fields) {
+        final int[] fieldIndexes = this.fieldIndexesOf(fields);
+        final String selectSql = this.selectFieldsSql(fieldIndexes) + " WHERE " + this.idColumn + " IN (";
+
+        List<T> list = new ArrayList<>(ids.size());
+
+        final int chunkSize = this.getInClauseChunkSize();
+        List<Object> chunk = new ArrayList<>(Math.min(chunkSize, ids.size()));
+        Iterator<X> iterator = ids.iterator();
+        while (iterator.hasNext()) {
+            chunk.add(iterator.next());
+            if (chunk.size() == chunkSize || !iterator.hasNext()) {
+                list.addAll(this.queryFields(selectSql + placeholders(chunk.size()) + ")", fieldIndexes, chunk.toArray()));
+                chunk.clear();
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Return the positions in {@link #fields} of the given fields.
+     */
+    private int[] fieldIndexesOf(List<FieldAccessor> fields) {
+        int[] fieldIndexes = new int[fields.size()];
+        for (int index = 0; index < fieldIndexes.length; index++) {
+            fieldIndexes[index] = this.fieldIndexOf(fields.get(index).getField().getName());
+        }
+
+        return fieldIndexes;
+    }
+
+    /**
+     * Return the <code>SELECT</code> clause reading only the columns of the
+     * given fields.
+     */
+    private String selectFieldsSql(int[] fieldIndexes) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("SELECT ");
+        for (int index = 0; index < fieldIndexes.length; index++) {
+            if (index > 0) {
+                builder.append(", ");
+            }
+
+            builder.append(this.columns.get(fieldIndexes[index]));
+        }
+
+        return builder.append(" FROM ").append(this.tableName).toString();
+    }
+
+    @Override
+    protected List<T> getMultipleEntities(X[] ids) {
+        return this.getMultipleEntities(Arrays.asList(ids));
+    }
+
+    @Override
+    protected List<T> deleteMultipleEntities(Collection<X> ids) {
+        List<T> list = this.getMultipleEntities(ids);
+        if (list.isEmpty()) {
+            return list;
+        }
+
+        try (Connection connection = this.dataSource.getConnection(); PreparedStatement statement = connection.prepareStatement(this.deleteByIdSql)) {
+            for (T entity : list) {
+                statement.setObject(1, this.getPrimaryID(entity));
+                statement.addBatch();
+            }
+
+            statement.executeBatch();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        return list;
+    }
+
+    @Override
+    protected List<T> deleteMultipleEntities(X[] ids) {
+        return this.deleteMultipleEntities(Arrays.asList(ids));
+    }
+
+    @Override
+    protected List<T> insertMultipleEntities(Collection<T> entities) {
+        // skip entities that already exist, or repeat within the batch
+        Set<Object> ids = this.findExistingIDs(entities);
+        List<T> pending = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            if (ids.add(this.getPrimaryID(entity))) {
+                pending.add(entity);
+            }
+        }
+
+        if (pending.isEmpty()) {
+            return pending;
+        }
+
+        try (Connection connection = this.dataSource.getConnection()) {
+            final boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                this.executeBatch(connection, this.insertSql, pending, this::bindAll);
+                connection.commit();
+                return pending;
+            } catch (SQLException e) {
+                connection.rollback();
+                if (!isConstraintViolation(e)) {
+                    throw e;
+                }
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        // some entities were inserted concurrently, insert one at a time
+        return super.insertMultipleEntities(pending);
+    }
+
+    @Override
+    protected List<T> updateMultipleEntities(Collection<T> entities) {
+        if (this.updateSql == null) {
+            return super.updateMultipleEntities(entities);
+        }
+
+        try (Connection connection = this.dataSource.getConnection()) {
+            final boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                List<T> list = new ArrayList<>(entities);
+                int[] counts = this.executeBatch(connection, this.updateSql, list, this::bindForUpdate);
+                List<T> updated = this.filter(connection, list, counts, true);
+                connection.commit();
+                return updated;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected List<T> upsertMultipleEntities(Collection<T> entities) {
+        if (this.updateSql == null) {
+            return super.upsertMultipleEntities(entities);
+        }
+
+        List<T> list = new ArrayList<>(entities);
+        try (Connection connection = this.dataSource.getConnection()) {
+            final boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                // update what exists, and insert the rest in the same transaction
+                int[] counts = this.executeBatch(connection, this.updateSql, list, this::bindForUpdate);
+                List<T> missing = this.filter(connection, list, counts, false);
+                if (!missing.isEmpty()) {
+                    this.executeBatch(connection, this.insertSql, missing, this::bindAll);
+                }
+
+                connection.commit();
+                return list;
+            } catch (SQLException e) {
+                connection.rollback();
+                if (!isConstraintViolation(e)) {
+                    throw e;
+                }
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        // some entities were inserted concurrently, upsert one at a time
+        return super.upsertMultipleEntities(list);
+    }
+
+    /**
+     * Binds a single entity to a statement.
+     *
+     * @param <T> the entity type
+     */
+    private interface StatementBinder<T> {
+
+        public void bind(PreparedStatement statement, T entity) throws SQLException;
+
+    }
+
+    /**
+     * Execute the given statement for all entities as a single JDBC batch.
+     *
+     * @param connection the connection to use
+     *
+     * @param sql        the statement to execute
+     *
+     * @param entities   the entities to bind
+     *
+     * @param binder     binds each entity to the statement
+     *
+     * @return the update counts for each entity
+     *
+     * @throws SQLException if the batch fails
+     */
+    private int[] executeBatch(Connection connection, String sql, List<T> entities, StatementBinder<T> binder) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (T entity : entities) {
+                binder.bind(statement, entity);
+                statement.addBatch();
+            }
+
+            return statement.executeBatch();
+        }
+    }
+
+    /**
+     * Find which of the primary IDs of the given entities exist in the table.
+     *
+     * @param entities the entities
+     *
+     * @return the primary IDs that exist
+     */
+    private Set<Object> findExistingIDs(Collection<T> entities) {
+        try (Connection connection = this.dataSource.getConnection()) {
+            return this.findExistingIDs(connection, entities);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Find which of the primary IDs of the given entities exist in the table,
+     * as seen by the given connection.
+     *
+     * @param connection the connection to use
+     *
+     * @param entities   the entities
+     *
+     * @return the primary IDs that exist
+     *
+     * @throws SQLException if the lookup fails
+     */
+    private Set<Object> findExistingIDs(Connection connection, Collection<T> entities) throws SQLException {
+        Set<Object> existing = new HashSet<>();
+
+        final int chunkSize = this.getInClauseChunkSize();
+        List<Object> chunk = new ArrayList<>(Math.min(chunkSize, entities.size()));
+        int index = 0;
+        for (T entity : entities) {
+            chunk.add(this.getPrimaryID(entity));
+            index++;
+
+            if (chunk.size() < chunkSize && index < entities.size()) {
+                continue;
+            }
+
+            String sql = this.selectIdsInSql.computeIfAbsent(chunk.size(), count -> "SELECT " + this.idColumn + " FROM " + this.tableName + " WHERE " + this.idColumn + " IN (" + placeholders(count) + ")");
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int param = 0; param < chunk.size(); param++) {
+                    statement.setObject(param + 1, chunk.get(param));
+                }
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        existing.add(readValue(resultSet, 1, this.fields.get(0)));
+                    }
+                }
+            }
+
+            chunk.clear();
+        }
+
+        return existing;
+    }
+
+    /**
+     * Return the entities whose update by the batch did, or did not, affect a
+     * row. Drivers may report {@link Statement#SUCCESS_NO_INFO} instead of the
+     * update count, in which case the row of the entity is looked up using the
+     * same connection: an update by primary key affects the row if it exists.
+     *
+     * @throws SQLException if the lookup fails
+     */
+    private List<T> filter(Connection connection, List<T> entities, int[] counts, boolean affected) throws SQLException {
+        List<T> unknown = new ArrayList<>();
+        for (int index = 0; index < entities.size() && index < counts.length; index++) {
+            if (counts[index] == Statement.SUCCESS_NO_INFO) {
+                unknown.add(entities.get(index));
+            }
+        }
+
+        Set<Object> existing = unknown.isEmpty() ? Collections.emptySet() : this.findExistingIDs(connection, unknown);
+
+        List<T> list = new ArrayList<>(entities.size());
+        for (int index = 0; index < entities.size(); index++) {
+            T entity = entities.get(index);
+            int count = index < counts.length ? counts[index] : Statement.EXECUTE_FAILED;
+
+            boolean rowAffected = count > 0;
+            if (count == Statement.SUCCESS_NO_INFO) {
+                rowAffected = existing.contains(this.getPrimaryID(entity));
+            }
+
+            if (rowAffected == affected) {
+                list.add(entity);
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Run the given query and map all rows to entities.
+     *
+     * @param sql    the query to run
+     *
+     * @param params the parameters to bind in order
+     *
+     * @return the mapped entities, never <code>null</code>
+     */
+    protected List<T> query(String sql, Object... params) {
+        return this.queryFields(sql, null, params);
+    }
+
+    /**
+     * Run the given query and map the rows to partially populated entities.
+     *
+     * @param sql          the query to run
+     *
+     * @param fieldIndexes the positions in {@link #fields} of the columns
+     *                     selected by the query, in order, or <code>null</code>
+     *                     if all columns are selected
+     *
+     * @param params       the parameters to bind in order
+     *
+     * @return the mapped entities, never <code>null</code>
+     */
+    private List<T> queryFields(String sql, int[] fieldIndexes, Object... params) {
+        try (Connection connection = this.dataSource.getConnection(); PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int index = 0; index < params.length; index++) {
+                statement.setObject(index + 1, params[index]);
+            }
+
+            List<T> list = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    list.add(fieldIndexes == null ? this.readEntity(resultSet) : this.readEntity(resultSet, fieldIndexes));
+                }
+            }
+
+            return list;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Map the current row of the result set to an entity. The result set must
+     * contain all columns in the order of {@link #columns}.
+     *
+     * @param resultSet the result set positioned on a row
+     *
+     * @return the entity
+     *
+     * @throws SQLException if reading fails
+     */
+    protected T readEntity(ResultSet resultSet) throws SQLException {
+        // let Gson instantiate the entity, it does not need a default constructor
+        T entity = GsonUtils.getGson().fromJson("{}", this.entityClass);
+
+        for (int index = 0; index < this.fields.size(); index++) {
+            Field field = this.fields.get(index);
+            Object value = readValue(resultSet, index + 1, field);
+            if (value == null && field.getType().isPrimitive()) {
+                continue;
+            }
+
+            this.accessors.get(index).set(entity, value);
+        }
+
+        return entity;
+    }
+
+    /**
+     * Map the current row of the result set to an entity with only the given
+     * fields populated.
+     *
+     * @param resultSet    the result set positioned on a row
+     *
+     * @param fieldIndexes the positions in {@link #fields} of the columns in the
+     *                     result set, in order
+     *
+     * @return the entity
+     *
+     * @throws SQLException if reading fails
+     */
+    private T readEntity(ResultSet resultSet, int[] fieldIndexes) throws SQLException {
+        T entity = GsonUtils.getGson().fromJson("{}", this.entityClass);
+
+        for (int column = 0; column < fieldIndexes.length; column++) {
+            int index = fieldIndexes[column];
+            Field field = this.fields.get(index);
+            Object value = readValue(resultSet, column + 1, field);
+            if (value == null && field.getType().isPrimitive()) {
+                continue;
+            }
+
+            this.accessors.get(index).set(entity, value);
+        }
+
+        return entity;
+    }
+
+    /**
+     * Bind all columns of the entity in order of {@link #columns}.
+     *
+     * @param statement the statement to bind to
+     *
+     * @param entity    the entity
+     *
+     * @throws SQLException if binding fails
+     */
+    protected void bindAll(PreparedStatement statement, T entity) throws SQLException {
+        for (int index = 0; index < this.fields.size(); index++) {
+            statement.setObject(index + 1, toColumnValue(this.accessors.get(index), entity));
+        }
+    }
+
+    /**
+     * Bind all non-key columns of the entity followed by the primary key, as
+     * needed by the update statement.
+     *
+     * @param statement the statement to bind to
+     *
+     * @param entity    the entity
+     *
+     * @throws SQLException if binding fails
+     */
+    protected void bindForUpdate(PreparedStatement statement, T entity) throws SQLException {
+        for (int index = 1; index < this.fields.size(); index++) {
+            statement.setObject(index, toColumnValue(this.accessors.get(index), entity));
+        }
+
+        statement.setObject(this.fields.size(), this.getPrimaryID(entity));
+    }
+
+    /**
+     * End the read-only transaction started for streaming, if any, and return
+     * the connection to the pool.
+     *
+     * @param connection the connection, may be <code>null</code>
+     *
+     * @param autoCommit the auto-commit mode to restore
+     */
+    private void release(Connection connection, boolean autoCommit) {
+        if (connection == null) {
+            return;
+        }
+
+        try {
+            if (autoCommit && !connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            // connection is closed below anyways
+        } finally {
+            EntityStreams.closeQuietly(connection, false);
+        }
+    }
+
+    private Object findPageBoundary(int offset) {
+        try (Connection connection = this.dataSource.getConnection(); PreparedStatement statement = connection.prepareStatement(this.selectPageBoundarySql)) {
+            statement.setInt(1, offset);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+
+                return resultSet.getObject(1);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String getSelectInSql(int size) {
+        return this.selectInSql.computeIfAbsent(size, count -> "SELECT " + this.selectColumns + " FROM " + this.tableName + " WHERE " + this.idColumn + " IN (" + placeholders(count) + ")");
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder(count * 3);
+        for (int index = 0; index < count; index++) {
+            if (index > 0) {
+                builder.append(", ");
+            }
+
+            builder.append('?');
+        }
+
+        return builder.toString();
+    }
+
+    private static boolean isConstraintViolation(SQLException e) {
+        // batch failures may carry the actual cause as the next exception
+        for (SQLException current = e; current != null; current = current.getNextException()) {
+            String state = current.getSQLState();
+            if (state != null && state.startsWith("23")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isNativeType(Class<?> type) {
+        return type.isPrimitive() || type == String.class || Number.class.isAssignableFrom(type) || type == Boolean.class || type == Character.class || type == byte[].class;
+    }
+
+    private static Object toColumnValue(FieldAccessor accessor, Object entity) {
+        return toColumnValue(accessor.getField().getType(), accessor.get(entity));
+    }
+
+    /**
+     * Convert a value given in a query to the value stored in the column, based
+     * on the type of the value itself.
+     */
+    private static Object toColumnValue(Object value) {
+        return value == null ? null : toColumnValue(value.getClass(), value);
+    }
+
+    private static Object toColumnValue(Class<?> type, Object value) {
+        if (value == null) {
+            return null;
+        }
+
+        if (type == char.class || type == Character.class) {
+            return String.valueOf(value);
+        }
+
+        if (isNativeType(type)) {
+            return value;
+        }
+
+        if (value instanceof Date) {
+            return new Timestamp(((Date) value).getTime());
+        }
+
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+
+        return GsonUtils.getGson().toJson(value);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object readValue(ResultSet resultSet, int index, Field field) throws SQLException {
+        Class<?> type = field.getType();
+
+        if (type == String.class) {
+            return resultSet.getString(index);
+        }
+
+        if (type == byte[].class) {
+            return resultSet.getBytes(index);
+        }
+
+        if (type == char.class || type == Character.class) {
+            String value = resultSet.getString(index);
+            return value == null || value.isEmpty() ? null : value.charAt(0);
+        }
+
+        if (type == boolean.class || type == Boolean.class) {
+            boolean value = resultSet.getBoolean(index);
+            return resultSet.wasNull() ? null : value;
+        }
+
+        if (type == BigDecimal.class) {
+            return resultSet.getBigDecimal(index);
+        }
+
+        if (type.isPrimitive() || Number.class.isAssignableFrom(type)) {
+            Object value = resultSet.getObject(index);
+            if (value == null) {
+                return null;
+            }
+
+            Number number = (Number) value;
+            if (type == int.class || type == Integer.class) {
+                return number.intValue();
+            }
+            if (type == long.class || type == Long.class) {
+                return number.longValue();
+            }
+            if (type == short.class || type == Short.class) {
+                return number.shortValue();
+            }
+            if (type == byte.class || type == Byte.class) {
+                return number.byteValue();
+            }
+            if (type == double.class || type == Double.class) {
+                return number.doubleValue();
+            }
+            if (type == float.class || type == Float.class) {
+                return number.floatValue();
+            }
+
+            return value;
+        }
+
+        if (Date.class.isAssignableFrom(type)) {
+            Timestamp value = resultSet.getTimestamp(index);
+            return value == null ? null : new Date(value.getTime());
+        }
+
+        if (type.isEnum()) {
+            String value = resultSet.getString(index);
+            return value == null ? null : Enum.valueOf((Class<Enum>) type, value);
+        }
+
+        String json = resultSet.getString(index);
+        return json == null ? null : GsonUtils.getGson().fromJson(json, field.getGenericType());
+    }
 
 }
@@ -1,5 +1,466 @@
 package com.sangupta.jerry.db.impl;
 
-public class LevelDbDataStoreServiceImpl {
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.Snapshot;
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.impl.Iq80DBFactory;
+
+import com.sangupta.jerry.db.DataStoreOperation;
+import com.sangupta.jerry.db.DataStorePage;
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.EntitySerializer;
+
+/**
+ * A {@link DataStoreService} implementation backed by an embedded LevelDB
+ * database, using the pure-Java <a href="https://github.com/dain/leveldb">iq80
+ * LevelDB port</a>. It does not need any native library and can thus run on
+ * platforms where JNI is not allowed. The implementation can be used as:
+ *
+ * <pre>
+ * DataStoreService<MyEntity, String> service = new LevelDbDataStoreServiceImpl<MyEntity, String>(new File("mydb")) {};
+ * </pre>
+ *
+ * Entities are serialized using the given {@link EntitySerializer}, which
+ * defaults to {@link GsonEntitySerializer}. Full and paged scans read from a
+ * consistent snapshot of the database, and multi-entity deletes are applied as
+ * a single {@link WriteBatch}. The size of the block cache may be supplied at
+ * construction, or all options tuned by overriding {@link #createOptions()}.
+ *
+ * LevelDB cannot seek to the n-th key, thus {@link #getAll(int, int)} steps
+ * over all entries before the requested page and gets slower the deeper the
+ * page is. Callers paging over large stores should use
+ * {@link #getPage(String, int)} instead, which seeks to the last key of the
+ * previous page.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ *
+ * @param <X> The primary ID key for this entity object
+ */
+public class LevelDbDataStoreServiceImpl<T, X> extends AbstractDataStoreServiceImpl<T, X> implements Closeable {
+
+    /**
+     * Default size of the block cache in bytes
+     */
+    public static final long DEFAULT_CACHE_SIZE = 32l * 1024l * 1024l;
+
+    /**
+     * Number of keys deleted in one {@link WriteBatch} by {@link #deleteAll()}
+     */
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    protected final File dbPath;
+
+    protected final EntitySerializer<T> serializer;
+
+    protected final long cacheSize;
+
+    protected final DB db;
+
+    /**
+     * Locks to make check-then-write operations atomic for a given key
+     */
+    private final StripedLocks locks = new StripedLocks(64);
+
+    public LevelDbDataStoreServiceImpl(File dbPath) {
+        this(dbPath, null, DEFAULT_CACHE_SIZE);
+    }
+
+    public LevelDbDataStoreServiceImpl(File dbPath, long cacheSize) {
+        this(dbPath, null, cacheSize);
+    }
+
+    public LevelDbDataStoreServiceImpl(File dbPath, EntitySerializer<T> serializer, long cacheSize) {
+        super();
+
+        if (dbPath == null) {
+            throw new IllegalArgumentException("Database path cannot be null");
+        }
+
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("Cache size cannot be negative");
+        }
+
+        this.dbPath = dbPath;
+        this.serializer = serializer != null ? serializer : new GsonEntitySerializer<>(this.entityClass);
+        this.cacheSize = cacheSize;
+
+        try {
+            this.db = Iq80DBFactory.factory.open(this.dbPath, this.createOptions());
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to open LevelDB at: " + dbPath, e);
+        }
+    }
+
+    /**
+     * Create the options used to open the database. Child classes may override
+     * this method to tune block size, write buffer, compression etc.
+     *
+     * @return the options to use
+     */
+    protected Options createOptions() {
+        return new Options().createIfMissing(true).cacheSize(this.cacheSize);
+    }
+
+    /**
+     * Convert the primary ID to the key bytes under which the entity is stored.
+     *
+     * @param primaryID the primary ID, never <code>null</code>
+     *
+     * @return the key bytes
+     */
+    protected byte[] toKeyBytes(X primaryID) {
+        return String.valueOf(primaryID).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public long count() {
+        long count = 0;
+        try (Snapshot snapshot = this.db.getSnapshot(); DBIterator iterator = this.db.iterator(new ReadOptions().snapshot(snapshot))) {
+            for (iterator.seekToFirst(); iterator.hasNext(); iterator.next()) {
+                count++;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return count;
+    }
+
+    @Override
+    public void deleteAll() {
+        try (Snapshot snapshot = this.db.getSnapshot(); DBIterator iterator = this.db.iterator(new ReadOptions().snapshot(snapshot).fillCache(false))) {
+            iterator.seekToFirst();
+
+            // delete in bounded batches, to not hold all keys in memory
+            while (iterator.hasNext()) {
+                try (WriteBatch batch = this.db.createWriteBatch()) {
+                    for (int count = 0; count < DELETE_BATCH_SIZE && iterator.hasNext(); count++) {
+                        batch.delete(iterator.next().getKey());
+                    }
+
+                    this.db.write(batch);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected T getEntity(X primaryID) {
+        return this.serializer.deserialize(this.db.get(this.toKeyBytes(primaryID)));
+    }
+
+    @Override
+    protected T insertEntity(T entity) {
+        X primaryID = this.getPrimaryID(entity);
+        byte[] key = this.toKeyBytes(primaryID);
+
+        synchronized (this.locks.lockFor(primaryID)) {
+            if (this.db.get(key) != null) {
+                return null;
+            }
+
+            this.db.put(key, this.serializer.serialize(entity));
+        }
+
+        return entity;
+    }
+
+    @Override
+    protected T updateEntity(T entity) {
+        X primaryID = this.getPrimaryID(entity);
+        byte[] key = this.toKeyBytes(primaryID);
+
+        synchronized (this.locks.lockFor(primaryID)) {
+            if (this.db.get(key) == null) {
+                return null;
+            }
+
+            this.db.put(key, this.serializer.serialize(entity));
+        }
+
+        return entity;
+    }
+
+    @Override
+    protected T upsertEntity(T entity) {
+        X primaryID = this.getPrimaryID(entity);
+
+        synchronized (this.locks.lockFor(primaryID)) {
+            this.db.put(this.toKeyBytes(primaryID), this.serializer.serialize(entity));
+        }
+
+        return entity;
+    }
+
+    @Override
+    protected T deleteEntity(T entity) {
+        return this.deleteEntityForID(this.getPrimaryID(entity));
+    }
+
+    @Override
+    protected T deleteEntityForID(X primaryID) {
+        byte[] key = this.toKeyBytes(primaryID);
+
+        synchronized (this.locks.lockFor(primaryID)) {
+            byte[] value = this.db.get(key);
+            if (value == null) {
+                return null;
+            }
+
+            this.db.delete(key);
+            return this.serializer.deserialize(value);
+        }
+    }
+
+    @Override
+    protected List<T> getAllEntities() {
+        List<T> list = new ArrayList<>();
+        try (Snapshot snapshot = this.db.getSnapshot(); DBIterator iterator = this.db.iterator(new ReadOptions().snapshot(snapshot))) {
+            for (iterator.seekToFirst(); iterator.hasNext();) {
+                list.add(this.serializer.deserialize(iterator.next().getValue()));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return list;
+    }
+
+    /**
+     * Read the page by stepping over the first <code>start</code> entries, which
+     * takes time proportional to <code>start</code>. Prefer
+     * {@link #getPage(String, int)} to page over large stores.
+     */
+    @Override
+    protected List<T> getAllEntities(int page, int pageSize, int start, int end) {
+        List<T> list = new ArrayList<>();
+        try (Snapshot snapshot = this.db.getSnapshot(); DBIterator iterator = this.db.iterator(new ReadOptions().snapshot(snapshot))) {
+            iterator.seekToFirst();
+
+            for (int skipped = 0; skipped < start && iterator.hasNext(); skipped++) {
+                iterator.next();
+            }
+
+            while (iterator.hasNext() && list.size() < pageSize) {
+                list.add(this.serializer.deserialize(iterator.next().getValue()));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return list;
+    }
+
+    @Override
+    protected DataStorePage<T> getEntityPage(String token, int pageSize) {
+        List<T> list = new ArrayList<>();
+        try (Snapshot snapshot = this.db.getSnapshot(); DBIterator iterator = this.db.iterator(new ReadOptions().snapshot(snapshot))) {
+            if (token == null) {
+                iterator.seekToFirst();
+            } else {
+                // position at the last key of previous page, or the one after it
+                byte[] lastKey = decodePageTokenBytes(token);
+                iterator.seek(lastKey);
+                if (iterator.hasNext() && Arrays.equals(iterator.peekNext().getKey(), lastKey)) {
+                    iterator.next();
+                }
+            }
+
+            byte[] lastKey = null;
+            while (iterator.hasNext() && list.size() < pageSize) {
+                Entry<byte[], byte[]> entry = iterator.next();
+                lastKey = entry.getKey();
+                list.add(this.serializer.deserialize(entry.getValue()));
+            }
+
+            if (iterator.hasNext() && lastKey != null) {
+                return new DataStorePage<>(list, encodePageToken(lastKey));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return new DataStorePage<>(list, null);
+    }
+
+    @Override
+    protected Stream<T> streamEntities(int fetchSize) {
+        final Snapshot snapshot = this.db.getSnapshot();
+        final DBIterator iterator = this.db.iterator(new ReadOptions().snapshot(snapshot).fillCache(false));
+        iterator.seekToFirst();
+
+        Iterator<T> entities = new Iterator<T>() {
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return serializer.deserialize(iterator.next().getValue());
+            }
+
+        };
+
+        return EntityStreams.of(entities, () -> {
+            try {
+                iterator.close();
+            } finally {
+                snapshot.close();
+            }
+        });
+    }
+
+    @Override
+    protected List<T> getMultipleEntities(Collection<X> ids) {
+        List<T> list = new ArrayList<>(ids.size());
+        try (Snapshot snapshot = this.db.getSnapshot()) {
+            ReadOptions readOptions = new ReadOptions().snapshot(snapshot);
+            for (X id : ids) {
+                byte[] value = this.db.get(this.toKeyBytes(id), readOptions);
+                if (value != null) {
+                    list.add(this.serializer.deserialize(value));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return list;
+    }
+
+    @Override
+    protected List<T> getMultipleEntities(X[] ids) {
+        return this.getMultipleEntities(Arrays.asList(ids));
+    }
+
+    @Override
+    protected List<T> deleteMultipleEntities(Collection<X> ids) {
+        // hold the locks of all keys so that the entities returned are the
+        // ones deleted, and do not race concurrent writes
+        final List<T> list = new ArrayList<>();
+        this.locks.runLocked(ids, () -> {
+            try (WriteBatch batch = this.db.createWriteBatch()) {
+                for (X id : ids) {
+                    byte[] key = this.toKeyBytes(id);
+                    byte[] value = this.db.get(key);
+                    if (value == null) {
+                        continue;
+                    }
+
+                    batch.delete(key);
+                    list.add(this.serializer.deserialize(value));
+                }
+
+                this.db.write(batch);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        return list;
+    }
+
+    @Override
+    protected List<T> deleteMultipleEntities(X[] ids) {
+        return this.deleteMultipleEntities(Arrays.asList(ids));
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.db.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected List<T> insertMultipleEntities(Collection<T> entities) {
+        return this.writeMultiple(entities, DataStoreOperation.CREATE);
+    }
+
+    @Override
+    protected List<T> updateMultipleEntities(Collection<T> entities) {
+        return this.writeMultiple(entities, DataStoreOperation.UPDATE);
+    }
+
+    @Override
+    protected List<T> upsertMultipleEntities(Collection<T> entities) {
+        return this.writeMultiple(entities, DataStoreOperation.UPSERT);
+    }
+
+    /**
+     * Write all entities as a single {@link WriteBatch}, holding the locks of all
+     * keys so that existence checks and writes are atomic.
+     * 
+     * @param entities  the entities to write
+     * 
+     * @param operation one of {@link DataStoreOperation#CREATE},
+     *                  {@link DataStoreOperation#UPDATE} or
+     *                  {@link DataStoreOperation#UPSERT}
+     * 
+     * @return the entities that were written
+     */
+    private List<T> writeMultiple(Collection<T> entities, DataStoreOperation operation) {
+        final List<X> ids = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            ids.add(this.getPrimaryID(entity));
+        }
+
+        final List<T> list = new ArrayList<>(entities.size());
+        this.locks.runLocked(ids, () -> {
+            try (WriteBatch batch = this.db.createWriteBatch()) {
+                Set<X> batched = new HashSet<>();
+
+                int index = 0;
+                for (T entity : entities) {
+                    final X id = ids.get(index++);
+                    final byte[] key = this.toKeyBytes(id);
+
+                    if (operation == DataStoreOperation.CREATE && (this.db.get(key) != null || !batched.add(id))) {
+                        continue;
+                    }
+
+                    if (operation == DataStoreOperation.UPDATE && this.db.get(key) == null) {
+                        continue;
+                    }
+
+                    batch.put(key, this.serializer.serialize(entity));
+                    list.add(entity);
+                }
+
+                this.db.write(batch);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        return list;
+    }
 
 }
@@ -0,0 +1,341 @@
+package com.sangupta.jerry.db.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.DataStoreVersionConflictException;
+import com.sangupta.jerry.db.EntityMetadata;
+import com.sangupta.jerry.db.Version;
+import com.sangupta.jerry.util.AssertUtils;
+
+/**
+ * An in-memory implementation for {@link DataStoreService} for entities with a
+ * <code>long</code> primary ID. Entities are kept in a concurrent
+ * open-addressing map keyed on the primitive ID, which needs neither a boxed
+ * key nor a node per entity, and thus holds large data sets in a fraction of
+ * the memory used by {@link InMemoryDataStoreServiceImpl}. Reads never lock,
+ * and writes lock only one of the segments of the map. The implementation can
+ * be used as:
+ *
+ * <pre>
+ * LongKeyedInMemoryDataStoreServiceImpl<MyEntity> service = new LongKeyedInMemoryDataStoreServiceImpl<MyEntity>() {};
+ * </pre>
+ *
+ * Besides the {@link DataStoreService} methods, the store offers overloads
+ * that take primitive IDs, such as {@link #get(long)}, for callers that wish
+ * to avoid boxing on hot paths. Writes read the ID of the entity using
+ * {@link #getPrimaryLongID(Object)}, which may be overridden to read the field
+ * directly.
+ *
+ * Iteration is in no particular order, and pages are served using offsets.
+ * Entities with a {@link Version} field are copied when written and when read,
+ * as in {@link InMemoryDataStoreServiceImpl}.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ */
+public abstract class LongKeyedInMemoryDataStoreServiceImpl<T> extends AbstractDataStoreServiceImpl<T, Long> {
+
+    /**
+     * Default number of segments the map is split into
+     */
+    public static final int DEFAULT_SEGMENTS = 64;
+
+    private final ConcurrentLongObjectMap<T> dataStore;
+
+    public LongKeyedInMemoryDataStoreServiceImpl() {
+        this(0);
+    }
+
+    /**
+     * Create a new store, sized to hold the given number of entities without
+     * growing.
+     *
+     * @param expectedSize the expected number of entities
+     */
+    public LongKeyedInMemoryDataStoreServiceImpl(int expectedSize) {
+        super();
+
+        this.dataStore = new ConcurrentLongObjectMap<>(expectedSize, DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * Create a new store for the entity described by the given metadata, sized
+     * to hold the given number of entities without growing.
+     *
+     * @param metadata     the metadata of the entity
+     *
+     * @param expectedSize the expected number of entities
+     */
+    public LongKeyedInMemoryDataStoreServiceImpl(EntityMetadata<T, Long> metadata, int expectedSize) {
+        super(metadata);
+
+        this.dataStore = new ConcurrentLongObjectMap<>(expectedSize, DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * Return the primary ID of the entity as a primitive. The default
+     * implementation unboxes the value returned by {@link #getPrimaryID(Object)}.
+     *
+     * @param entity the entity, never <code>null</code>
+     *
+     * @return the primary ID
+     *
+     * @throws IllegalArgumentException if the entity has no primary ID
+     */
+    protected long getPrimaryLongID(T entity) {
+        Long primaryID = this.getPrimaryID(entity);
+        if (primaryID == null) {
+            throw new IllegalArgumentException("Primary ID cannot be null");
+        }
+
+        return primaryID;
+    }
+
+    /**
+     * Return the entity with the given primary ID, without boxing the ID.
+     *
+     * @param primaryID the primary ID
+     *
+     * @return the entity, or <code>null</code> if none exists
+     */
+    public T get(long primaryID) {
+        return this.copyIfVersioned(this.dataStore.get(primaryID));
+    }
+
+    /**
+     * Return the entities with the given primary IDs, skipping the IDs that do
+     * not exist, without boxing the IDs.
+     *
+     * @param ids the primary IDs
+     *
+     * @return the entities found, or <code>null</code> if no ID was given
+     */
+    public List<T> getMultiple(long[] ids) {
+        if (ids == null || ids.length == 0) {
+            return null;
+        }
+
+        List<T> list = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            T entity = this.dataStore.get(id);
+            if (entity != null) {
+                list.add(this.copyIfVersioned(entity));
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Delete the entity with the given primary ID, without boxing the ID unless
+     * the entity is soft-deleted.
+     *
+     * @param primaryID the primary ID
+     *
+     * @return the deleted entity, or <code>null</code> if none exists
+     */
+    public T deleteForID(long primaryID) {
+        if (this.entityDetails.isSoftDelete()) {
+            return this.deleteForID(Long.valueOf(primaryID));
+        }
+
+        return this.dataStore.remove(primaryID);
+    }
+
+    /**
+     * Delete the entities with the given primary IDs, without boxing the IDs
+     * unless the entity is soft-deleted.
+     *
+     * @param ids the primary IDs
+     *
+     * @return the deleted entities, with <code>null</code> for IDs that did not
+     *         exist, or <code>null</code> if no ID was given
+     */
+    public List<T> deleteMultiple(long[] ids) {
+        if (ids == null || ids.length == 0) {
+            return null;
+        }
+
+        List<T> list = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            list.add(this.deleteForID(id));
+        }
+
+        return list;
+    }
+
+    @Override
+    protected T getEntity(Long primaryID) {
+        return this.copyIfVersioned(this.dataStore.get(primaryID));
+    }
+
+    @Override
+    protected T insertEntity(T entity) {
+        if (this.dataStore.putIfAbsent(this.getPrimaryLongID(entity), this.copyIfVersioned(entity)) == null) {
+            return entity;
+        }
+
+        return null;
+    }
+
+    @Override
+    protected T updateEntity(T entity) {
+        if (this.dataStore.replace(this.getPrimaryLongID(entity), this.copyIfVersioned(entity)) == null) {
+            return null;
+        }
+
+        return entity;
+    }
+
+    @Override
+    protected T updateVersionedEntity(T entity, long expectedVersion) {
+        final long id = this.getPrimaryLongID(entity);
+        final T stored = this.copyOf(entity);
+
+        T current = this.dataStore.get(id);
+        if (current == null) {
+            return null;
+        }
+
+        if (this.getVersion(current) != expectedVersion) {
+            throw new DataStoreVersionConflictException(id, expectedVersion);
+        }
+
+        if (!this.dataStore.replace(id, current, stored)) {
+            if (this.dataStore.containsKey(id)) {
+                throw new DataStoreVersionConflictException(id, expectedVersion);
+            }
+
+            return null;
+        }
+
+        return entity;
+    }
+
+    @Override
+    protected T upsertEntity(T entity) {
+        this.dataStore.put(this.getPrimaryLongID(entity), this.copyIfVersioned(entity));
+        return entity;
+    }
+
+    @Override
+    protected T deleteEntity(T entity) {
+        return this.dataStore.remove(this.getPrimaryLongID(entity));
+    }
+
+    @Override
+    protected T deleteEntityForID(Long primaryID) {
+        return this.dataStore.remove(primaryID);
+    }
+
+    @Override
+    protected List<T> getMultipleEntities(Collection<Long> ids) {
+        List<T> list = new ArrayList<>();
+        for (Long id : ids) {
+            T entity = this.get(id);
+            if (entity != null) {
+                list.add(entity);
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    protected List<T> getMultipleEntities(Long[] ids) {
+        List<T> list = new ArrayList<>();
+        for (Long id : ids) {
+            T entity = this.get(id);
+            if (entity != null) {
+                list.add(entity);
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    protected List<T> deleteMultipleEntities(Collection<Long> ids) {
+        if (AssertUtils.isEmpty(ids)) {
+            return null;
+        }
+
+        List<T> list = new ArrayList<>();
+        for (Long id : ids) {
+            list.add(this.deleteForID(id));
+        }
+
+        return list;
+    }
+
+    @Override
+    protected List<T> deleteMultipleEntities(Long[] ids) {
+        if (AssertUtils.isEmpty(ids)) {
+            return null;
+        }
+
+        List<T> list = new ArrayList<>();
+        for (Long id : ids) {
+            list.add(this.deleteForID(id));
+        }
+
+        return list;
+    }
+
+    @Override
+    public long count() {
+        return this.dataStore.size();
+    }
+
+    @Override
+    protected List<T> getAllEntities() {
+        List<T> list = new ArrayList<>(this.dataStore.size());
+        Iterator<T> iterator = this.dataStore.values();
+        while (iterator.hasNext()) {
+            list.add(this.copyIfVersioned(iterator.next()));
+        }
+
+        return list;
+    }
+
+    @Override
+    protected List<T> getAllEntities(int page, int pageSize, int start, int end) {
+        int size = this.dataStore.size();
+        if (start >= size) {
+            return new ArrayList<>();
+        }
+
+        // walk the values, copying only the ones in the page
+        List<T> list = new ArrayList<>(Math.min(pageSize, size - start));
+        Iterator<T> iterator = this.dataStore.values();
+        for (int skipped = 0; skipped < start && iterator.hasNext(); skipped++) {
+            iterator.next();
+        }
+
+        while (iterator.hasNext() && list.size() < pageSize) {
+            list.add(this.copyIfVersioned(iterator.next()));
+        }
+
+        return list;
+    }
+
+    @Override
+    protected Stream<T> streamEntities(int fetchSize) {
+        // entities are already in memory, stream over the live values
+        return this.dataStore.stream().map(this::copyIfVersioned);
+    }
+
+    @Override
+    public void deleteAll() {
+        this.dataStore.clear();
+    }
+
+}
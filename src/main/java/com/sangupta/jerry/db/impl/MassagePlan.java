@@ -0,0 +1,133 @@
+package com.sangupta.jerry.db.impl;
+
+import com.sangupta.jerry.db.DataStoreOperation;
+import com.sangupta.jerry.db.EntityScanner.EntityDetails;
+import com.sangupta.jerry.entity.CreateTimeStampedEntity;
+import com.sangupta.jerry.entity.DeleteTimeStampedEntity;
+import com.sangupta.jerry.entity.SoftDeleteEntity;
+import com.sangupta.jerry.entity.UpdateTimeStampedEntity;
+import com.sangupta.jerry.entity.UserOwnedEntity;
+
+/**
+ * The standard fields to set on entities of one class when they are written,
+ * worked out once per class. Applying the plan only touches the interfaces the
+ * class implements, and does not allocate.
+ * 
+ * @author sangupta
+ *
+ * @since 2.0.0
+ */
+final class MassagePlan {
+
+    private static final ClassValue<MassagePlan> PLANS = new ClassValue<MassagePlan>() {
+
+        @Override
+        protected MassagePlan computeValue(Class<?> clazz) {
+            return new MassagePlan(CreateTimeStampedEntity.class.isAssignableFrom(clazz), UpdateTimeStampedEntity.class.isAssignableFrom(clazz), DeleteTimeStampedEntity.class.isAssignableFrom(clazz), SoftDeleteEntity.class.isAssignableFrom(clazz), UserOwnedEntity.class.isAssignableFrom(clazz));
+        }
+
+    };
+
+    final boolean createTimeStamped;
+
+    final boolean updateTimeStamped;
+
+    final boolean deleteTimeStamped;
+
+    final boolean softDelete;
+
+    final boolean userOwned;
+
+    /**
+     * Whether nothing needs to be set for any operation
+     */
+    final boolean empty;
+
+    private MassagePlan(boolean createTimeStamped, boolean updateTimeStamped, boolean deleteTimeStamped, boolean softDelete, boolean userOwned) {
+        this.createTimeStamped = createTimeStamped;
+        this.updateTimeStamped = updateTimeStamped;
+        this.deleteTimeStamped = deleteTimeStamped;
+        this.softDelete = softDelete;
+        this.userOwned = userOwned;
+        this.empty = !(createTimeStamped || updateTimeStamped || deleteTimeStamped || softDelete || userOwned);
+    }
+
+    /**
+     * Return the plan for the given class.
+     * 
+     * @param clazz the runtime class of the entity
+     * 
+     * @return the plan
+     */
+    static MassagePlan forClass(Class<?> clazz) {
+        return PLANS.get(clazz);
+    }
+
+    /**
+     * Create the plan from the flags already known for an entity class, without
+     * looking at the class again.
+     * 
+     * @param details the entity details
+     * 
+     * @return the plan
+     */
+    static MassagePlan of(EntityDetails details) {
+        return new MassagePlan(details.isCreateTimeStamped(), details.isUpdateTimeStamped(), details.isDeleteTimeStamped(), details.isSoftDelete(), details.isUserOwned());
+    }
+
+    /**
+     * Check if the current time is needed to apply the plan for the operation.
+     * 
+     * @param operation the operation being carried out
+     * 
+     * @return <code>true</code> if the time is needed
+     */
+    boolean needsTime(DataStoreOperation operation) {
+        return this.createTimeStamped || this.updateTimeStamped || (this.deleteTimeStamped && operation == DataStoreOperation.DELETE);
+    }
+
+    /**
+     * Set the standard fields of the entity for the given operation.
+     * 
+     * @param entity        the entity
+     * 
+     * @param operation     the operation being carried out
+     * 
+     * @param currentTime   the time of the operation, if needed
+     * 
+     * @param currentUserID the user carrying out the operation, if needed
+     * 
+     * @throws SecurityException if the entity is owned by a different user
+     */
+    void apply(Object entity, DataStoreOperation operation, long currentTime, String currentUserID) {
+        if (this.createTimeStamped) {
+            ((CreateTimeStampedEntity) entity).setCreateTime(currentTime);
+        }
+
+        if (this.updateTimeStamped) {
+            ((UpdateTimeStampedEntity) entity).setUpdateTime(currentTime);
+        }
+
+        if (operation == DataStoreOperation.DELETE) {
+            if (this.deleteTimeStamped) {
+                ((DeleteTimeStampedEntity) entity).setDeleteTime(currentTime);
+            }
+
+            if (this.softDelete) {
+                ((SoftDeleteEntity) entity).setDeleted(true);
+            }
+        }
+
+        if (this.userOwned) {
+            UserOwnedEntity uoe = (UserOwnedEntity) entity;
+            String entityUserID = uoe.getUserID();
+
+            if (entityUserID == null || entityUserID.equals(currentUserID)) {
+                uoe.setUserID(currentUserID);
+            } else {
+                throw new SecurityException("Entity is owned by a different user");
+            }
+        }
+    }
+
+}
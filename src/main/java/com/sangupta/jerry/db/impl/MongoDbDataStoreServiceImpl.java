@@ -1,22 +1,49 @@
 package com.sangupta.jerry.db.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonParseException;
+import org.bson.json.JsonWriterSettings;
 import org.bson.types.ObjectId;
 
-import com.mongodb.BasicDBObject;
+import com.mongodb.ErrorCategory;
 import com.mongodb.Mongo;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import com.sangupta.jerry.db.DataStorePage;
+import com.sangupta.jerry.db.DataStorePatch;
+import com.sangupta.jerry.db.DataStorePatch.Change;
+import com.sangupta.jerry.db.DataStoreQuery;
+import com.sangupta.jerry.db.DataStoreQuery.Criterion;
 import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.DataStoreVersionConflictException;
+import com.sangupta.jerry.db.FieldAccessor;
+import com.sangupta.jerry.util.GsonUtils;
 import com.sangupta.jerry.util.ReflectionMapper;
 
 /**
@@ -32,6 +59,17 @@ import com.sangupta.jerry.util.ReflectionMapper;
  * using {@link Class#getName()} method. If the name needs to be customized,
  * overridethe {@link #getCollectionName()} method.
  * 
+ * Entities are converted to documents using {@link #toDocument(Object)}, and
+ * multi-entity writes are sent to the server as a single unordered
+ * <code>bulkWrite</code>. Queries are sent to the server as a filter, sort and
+ * limit, with values converted the same way as the fields of the document.
+ * Reads of selected fields send a projection, so that only those fields leave
+ * the server, and patches are sent as <code>$set</code>, <code>$unset</code>
+ * and <code>$inc</code> operators on the changed fields. Versioned entities
+ * are replaced with a filter on both the <code>_id</code> and the version read.
+ * Numbered pages are read in <code>_id</code> order, skipping the earlier
+ * pages on the server, use {@link #getPage(String, int)} to avoid the skip.
+ * 
  * @author sangupta
  *
  * @param <T>
@@ -40,6 +78,12 @@ import com.sangupta.jerry.util.ReflectionMapper;
  */
 public class MongoDbDataStoreServiceImpl<T, X> extends AbstractDataStoreServiceImpl<T, X> {
 
+    /**
+     * Settings to write page tokens with, preserving the BSON type of the
+     * <code>_id</code>
+     */
+    private static final JsonWriterSettings TOKEN_SETTINGS = JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build();
+
     protected MongoCollection<Document> collection;
 
     protected String collectionName;
@@ -64,11 +108,17 @@ public class MongoDbDataStoreServiceImpl<T, X> extends AbstractDataStoreServiceI
 
     @Override
     protected T getEntity(X primaryID) {
-        BasicDBObject query = new BasicDBObject();
-        query.put("_id", new ObjectId(primaryID.toString()));
+        Document document = this.collection.find(Filters.eq("_id", this.toDocumentID(primaryID))).first();
+        if (document == null) {
+            return null;
+        }
 
-        Bson filter = Filters.eq("_id", new ObjectId(primaryID.toString()));
-        Document document = this.collection.find(filter).first();
+        return ReflectionMapper.from(document, this.entityClass);
+    }
+
+    @Override
+    protected T getEntity(X primaryID, List<FieldAccessor> fields) {
+        Document document = this.collection.find(Filters.eq("_id", this.toDocumentID(primaryID))).projection(this.toProjection(fields)).first();
         if (document == null) {
             return null;
         }
@@ -78,24 +128,187 @@ public class MongoDbDataStoreServiceImpl<T, X> extends AbstractDataStoreServiceI
 
     @Override
     protected T insertEntity(T entity) {
-        return null;
+        try {
+            this.collection.insertOne(this.toDocument(entity));
+            return entity;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return null;
+            }
+
+            throw e;
+        }
     }
 
     @Override
     protected T updateEntity(T entity) {
+        Document document = this.toDocument(entity);
+        UpdateResult result = this.collection.replaceOne(Filters.eq("_id", document.get("_id")), document);
+        if (result.getMatchedCount() > 0) {
+            return entity;
+        }
+
         return null;
     }
 
+    @Override
+    protected T updateVersionedEntity(T entity, long expectedVersion) {
+        Document document = this.toDocument(entity);
+        Bson filter = Filters.eq("_id", document.get("_id"));
+
+        UpdateResult result = this.collection.replaceOne(Filters.and(filter, this.toVersionFilter(expectedVersion)), document);
+        if (result.getMatchedCount() > 0) {
+            return entity;
+        }
+
+        if (this.collection.countDocuments(filter) == 0) {
+            return null;
+        }
+
+        throw new DataStoreVersionConflictException(this.getPrimaryID(entity), expectedVersion);
+    }
+
+    /**
+     * Return the filter matching documents at the given version. Documents
+     * written before the entity was versioned have no version, which is taken
+     * as version <code>0</code>.
+     * 
+     * @param version the version
+     * 
+     * @return the filter
+     */
+    protected Bson toVersionFilter(long version) {
+        String field = this.toDocumentField(this.getVersionField());
+        if (version == 0) {
+            return Filters.or(Filters.eq(field, 0), Filters.exists(field, false));
+        }
+
+        return Filters.eq(field, version);
+    }
+
+    @Override
+    protected boolean patchEntity(X primaryID, DataStorePatch patch) {
+        UpdateResult result = this.collection.updateOne(Filters.eq("_id", this.toDocumentID(primaryID)), this.toUpdate(patch));
+        return result.getMatchedCount() > 0;
+    }
+
+    /**
+     * Convert the patch to update operators, so that only the changed fields are
+     * sent to and written by the server. Fields set to <code>null</code> are
+     * removed from the document, the same as {@link #toDocument(Object)} leaves
+     * them out.
+     * 
+     * @param patch the patch
+     * 
+     * @return the update
+     */
+    protected Bson toUpdate(DataStorePatch patch) {
+        List<Bson> updates = new ArrayList<>(patch.getChanges().size());
+        for (Change change : patch.getChanges()) {
+            String field = this.toDocumentField(change.getField());
+            if (change.getOperator() == DataStorePatch.Operator.INC) {
+                updates.add(Updates.inc(field, (Number) change.getValue()));
+            } else if (change.getValue() == null) {
+                updates.add(Updates.unset(field));
+            } else {
+                updates.add(Updates.set(field, this.toDocumentValue(change.getValue(), false)));
+            }
+        }
+
+        return Updates.combine(updates);
+    }
+
     @Override
     protected T upsertEntity(T entity) {
-        return null;
+        Document document = this.toDocument(entity);
+        this.collection.replaceOne(Filters.eq("_id", document.get("_id")), document, new ReplaceOptions().upsert(true));
+        return entity;
+    }
+
+    @Override
+    protected List<T> insertMultipleEntities(Collection<T> entities) {
+        List<T> list = new ArrayList<>(entities);
+        List<WriteModel<Document>> models = new ArrayList<>(list.size());
+        for (T entity : list) {
+            models.add(new InsertOneModel<>(this.toDocument(entity)));
+        }
+
+        try {
+            this.collection.bulkWrite(models, new BulkWriteOptions().ordered(false));
+            return list;
+        } catch (MongoBulkWriteException e) {
+            // entities that already existed are skipped, all others were inserted
+            Set<Integer> failed = new HashSet<>();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+
+                failed.add(error.getIndex());
+            }
+
+            List<T> inserted = new ArrayList<>(list.size() - failed.size());
+            for (int index = 0; index < list.size(); index++) {
+                if (!failed.contains(index)) {
+                    inserted.add(list.get(index));
+                }
+            }
+
+            return inserted;
+        }
+    }
+
+    @Override
+    protected List<T> updateMultipleEntities(Collection<T> entities) {
+        List<Document> documents = new ArrayList<>(entities.size());
+        List<Object> ids = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            Document document = this.toDocument(entity);
+            documents.add(document);
+            ids.add(document.get("_id"));
+        }
+
+        // only replace documents that exist, as reported back to the caller
+        Set<Object> existing = new HashSet<>();
+        for (Document document : this.collection.find(Filters.in("_id", ids)).projection(Projections.include("_id"))) {
+            existing.add(document.get("_id"));
+        }
+
+        List<T> list = new ArrayList<>(existing.size());
+        List<WriteModel<Document>> models = new ArrayList<>(existing.size());
+        int index = 0;
+        for (T entity : entities) {
+            Document document = documents.get(index++);
+            if (existing.contains(document.get("_id"))) {
+                models.add(new ReplaceOneModel<>(Filters.eq("_id", document.get("_id")), document));
+                list.add(entity);
+            }
+        }
+
+        if (!models.isEmpty()) {
+            this.collection.bulkWrite(models, new BulkWriteOptions().ordered(false));
+        }
+
+        return list;
+    }
+
+    @Override
+    protected List<T> upsertMultipleEntities(Collection<T> entities) {
+        final ReplaceOptions options = new ReplaceOptions().upsert(true);
+
+        List<WriteModel<Document>> models = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            Document document = this.toDocument(entity);
+            models.add(new ReplaceOneModel<>(Filters.eq("_id", document.get("_id")), document, options));
+        }
+
+        this.collection.bulkWrite(models, new BulkWriteOptions().ordered(false));
+        return new ArrayList<>(entities);
     }
 
     @Override
     protected T deleteEntity(T entity) {
-        X primaryID = this.getPrimaryID(entity);
-        Bson filter = Filters.eq("_id", new ObjectId(primaryID.toString()));
-        DeleteResult result = this.collection.deleteOne(filter);
+        DeleteResult result = this.collection.deleteOne(Filters.eq("_id", this.toDocumentID(this.getPrimaryID(entity))));
         if (result.getDeletedCount() > 0) {
             return entity;
         }
@@ -105,8 +318,7 @@ public class MongoDbDataStoreServiceImpl<T, X> extends AbstractDataStoreServiceI
 
     @Override
     protected T deleteEntityForID(X primaryID) {
-        Bson filter = Filters.eq("_id", new ObjectId(primaryID.toString()));
-        Document document = this.collection.findOneAndDelete(filter);
+        Document document = this.collection.findOneAndDelete(Filters.eq("_id", this.toDocumentID(primaryID)));
         if (document == null) {
             return null;
         }
@@ -122,33 +334,232 @@ public class MongoDbDataStoreServiceImpl<T, X> extends AbstractDataStoreServiceI
 
     @Override
     protected List<T> getAllEntities(int page, int pageSize, int start, int end) {
-        return null;
+        FindIterable<Document> iterable = this.collection.find().sort(Sorts.ascending("_id")).skip(start).limit(pageSize);
+        return this.getFromIterable(iterable);
+    }
+
+    @Override
+    protected DataStorePage<T> getEntityPage(String token, int pageSize) {
+        Bson filter = new Document();
+        if (token != null) {
+            filter = Filters.gt("_id", this.decodeDocumentID(token));
+        }
+
+        // read one extra document to know if there is a next page, the _id index
+        // serves the range without scanning earlier pages
+        final int fetchSize = pageSize == Integer.MAX_VALUE ? pageSize : pageSize + 1;
+        List<Document> documents = new ArrayList<>();
+        this.collection.find(filter).sort(Sorts.ascending("_id")).limit(fetchSize).into(documents);
+
+        String nextToken = null;
+        if (documents.size() > pageSize) {
+            documents = documents.subList(0, pageSize);
+            nextToken = encodePageToken(new Document("_id", documents.get(pageSize - 1).get("_id")).toJson(TOKEN_SETTINGS));
+        }
+
+        List<T> list = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            list.add(ReflectionMapper.from(document, this.entityClass));
+        }
+
+        return new DataStorePage<>(list, nextToken);
+    }
+
+    private Object decodeDocumentID(String token) {
+        Object id;
+        try {
+            id = Document.parse(decodePageToken(token)).get("_id");
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Invalid page token", e);
+        }
+
+        if (id == null) {
+            throw new IllegalArgumentException("Invalid page token");
+        }
+
+        return id;
+    }
+
+    @Override
+    protected Stream<T> streamEntities(int fetchSize) {
+        MongoCursor<Document> cursor = this.collection.find().batchSize(fetchSize).iterator();
+        return EntityStreams.of(cursor, cursor).map(document -> ReflectionMapper.from(document, this.entityClass));
+    }
+
+    @Override
+    protected List<T> findEntities(DataStoreQuery query) {
+        FindIterable<Document> iterable = this.collection.find(this.toFilter(query));
+        if (!query.getSorts().isEmpty()) {
+            List<Bson> sorts = new ArrayList<>(query.getSorts().size());
+            for (DataStoreQuery.Sort sort : query.getSorts()) {
+                String field = this.toDocumentField(sort.getField());
+                sorts.add(sort.isAscending() ? Sorts.ascending(field) : Sorts.descending(field));
+            }
+
+            iterable = iterable.sort(Sorts.orderBy(sorts));
+        }
+
+        if (query.getLimit() > 0) {
+            iterable = iterable.limit(query.getLimit());
+        }
+
+        return this.getFromIterable(iterable);
+    }
+
+    /**
+     * Convert the criteria of the query to a filter, so that only matching
+     * documents are read from the server.
+     * 
+     * @param query the query
+     * 
+     * @return the filter
+     */
+    protected Bson toFilter(DataStoreQuery query) {
+        List<Bson> filters = new ArrayList<>(query.getCriteria().size());
+        for (Criterion criterion : query.getCriteria()) {
+            String field = this.toDocumentField(criterion.getField());
+            boolean primary = "_id".equals(field);
+
+            Object value = criterion.getValue();
+            if (criterion.getOperator() == DataStoreQuery.Operator.IN) {
+                List<Object> values = new ArrayList<>();
+                for (Object item : (Collection<?>) value) {
+                    values.add(this.toDocumentValue(item, primary));
+                }
+
+                filters.add(Filters.in(field, values));
+                continue;
+            }
+
+            value = this.toDocumentValue(value, primary);
+            switch (criterion.getOperator()) {
+                case EQ:
+                    filters.add(Filters.eq(field, value));
+                    break;
+
+                case GT:
+                    filters.add(Filters.gt(field, value));
+                    break;
+
+                case GTE:
+                    filters.add(Filters.gte(field, value));
+                    break;
+
+                case LT:
+                    filters.add(Filters.lt(field, value));
+                    break;
+
+                case LTE:
+                    filters.add(Filters.lte(field, value));
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Unsupported operator: " + criterion.getOperator());
+            }
+        }
+
+        if (filters.isEmpty()) {
+            return new Document();
+        }
+
+        return filters.size() == 1 ? filters.get(0) : Filters.and(filters);
+    }
+
+    /**
+     * Return the name of the document field for the given entity field, which
+     * is <code>_id</code> for the primary field.
+     * 
+     * @param field the entity field
+     * 
+     * @return the document field
+     * 
+     * @throws IllegalArgumentException if the entity does not persist the field
+     */
+    protected String toDocumentField(String field) {
+        QueryEvaluator.accessorFor(this.entityDetails, field);
+        return field.equals(this.entityDetails.idFieldName) ? "_id" : field;
+    }
+
+    /**
+     * Convert a value in a query to the value stored in the document, the same
+     * way {@link #toDocument(Object)} converts the fields of the entity.
+     * 
+     * @param value   the value
+     * 
+     * @param primary whether the value is for the primary field
+     * 
+     * @return the document value
+     */
+    @SuppressWarnings("unchecked")
+    protected Object toDocumentValue(Object value, boolean primary) {
+        if (primary) {
+            return this.toDocumentID((X) value);
+        }
+
+        if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean) {
+            return value;
+        }
+
+        return Document.parse("{\"value\":" + GsonUtils.getGson().toJson(value) + "}").get("value");
     }
 
     @Override
     protected List<T> getMultipleEntities(Collection<X> ids) {
-        Bson filter = Filters.in("_id", ids);
-        FindIterable<Document> iterable = this.collection.find(filter);
+        FindIterable<Document> iterable = this.collection.find(Filters.in("_id", this.toDocumentIDs(ids)));
         return this.getFromIterable(iterable);
     }
 
     @Override
-    protected List<T> getMultipleEntities(X[] ids) {
-        Bson filter = Filters.in("_id", ids);
-        FindIterable<Document> iterable = this.collection.find(filter);
+    protected List<T> getMultipleEntities(Collection<X> ids, List<FieldAccessor> fields) {
+        FindIterable<Document> iterable = this.collection.find(Filters.in("_id", this.toDocumentIDs(ids))).projection(this.toProjection(fields));
         return this.getFromIterable(iterable);
     }
 
+    /**
+     * Convert the fields to read to a projection, so that the server only sends
+     * back those fields.
+     * 
+     * @param fields the fields to read
+     * 
+     * @return the projection
+     */
+    protected Bson toProjection(List<FieldAccessor> fields) {
+        List<String> names = new ArrayList<>(fields.size());
+        for (FieldAccessor accessor : fields) {
+            names.add(this.toDocumentField(accessor.getField().getName()));
+        }
+
+        return Projections.include(names);
+    }
+
+    @Override
+    protected List<T> getMultipleEntities(X[] ids) {
+        return this.getMultipleEntities(Arrays.asList(ids));
+    }
+
     @Override
     protected List<T> deleteMultipleEntities(Collection<X> ids) {
-        Bson filter = Filters.in("_id", ids);
-        FindIterable<Document> iterable = this.collection.find(filter);
-        return null;
+        // read the documents to return them, then delete only those read
+        List<Document> documents = new ArrayList<>();
+        this.collection.find(Filters.in("_id", this.toDocumentIDs(ids))).into(documents);
+        if (documents.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<Object> documentIDs = new ArrayList<>(documents.size());
+        List<T> list = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            documentIDs.add(document.get("_id"));
+            list.add(ReflectionMapper.from(document, this.entityClass));
+        }
+
+        this.collection.deleteMany(Filters.in("_id", documentIDs));
+        return list;
     }
 
     @Override
     protected List<T> deleteMultipleEntities(X[] ids) {
-        return null;
+        return this.deleteMultipleEntities(Arrays.asList(ids));
     }
     
     protected List<T> getFromIterable(FindIterable<Document> iterable) {
@@ -163,6 +574,51 @@ public class MongoDbDataStoreServiceImpl<T, X> extends AbstractDataStoreServiceI
         return list;        
     }
 
+    /**
+     * Convert the entity to the document to be stored. The primary ID is stored
+     * as <code>_id</code>, converted using {@link #toDocumentID(Object)}.
+     * 
+     * @param entity the entity, never <code>null</code>
+     * 
+     * @return the document
+     */
+    protected Document toDocument(T entity) {
+        Document document = Document.parse(GsonUtils.getGson().toJson(entity));
+        if (this.entityDetails.idFieldName != null) {
+            document.remove(this.entityDetails.idFieldName);
+        }
+
+        document.put("_id", this.toDocumentID(this.getPrimaryID(entity)));
+        return document;
+    }
+
+    /**
+     * Convert the primary ID to the value stored as <code>_id</code>. IDs that
+     * are valid {@link ObjectId} strings are stored as {@link ObjectId}, others
+     * as they are. Every filter on <code>_id</code> converts the IDs the same
+     * way.
+     * 
+     * @param primaryID the primary ID
+     * 
+     * @return the value for <code>_id</code>
+     */
+    protected Object toDocumentID(X primaryID) {
+        if (primaryID != null && ObjectId.isValid(primaryID.toString())) {
+            return new ObjectId(primaryID.toString());
+        }
+
+        return primaryID;
+    }
+
+    private List<Object> toDocumentIDs(Collection<X> ids) {
+        List<Object> documentIDs = new ArrayList<>(ids.size());
+        for (X id : ids) {
+            documentIDs.add(this.toDocumentID(id));
+        }
+
+        return documentIDs;
+    }
+
     protected String getCollectionName() {
         if (this.collectionName != null) {
             return this.collectionName;
@@ -1,16 +1,47 @@
 package com.sangupta.jerry.db.impl;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import javax.inject.Inject;
 
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.data.util.StreamUtils;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import com.sangupta.jerry.db.DataStorePage;
+import com.sangupta.jerry.db.DataStorePatch;
+import com.sangupta.jerry.db.DataStorePatch.Change;
+import com.sangupta.jerry.db.DataStoreQuery;
+import com.sangupta.jerry.db.DataStoreQuery.Criterion;
 import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.DataStoreVersionConflictException;
+import com.sangupta.jerry.db.FieldAccessor;
 
 /**
  * {@link MongoTemplate} based implementation of the {@link DataStoreService}.
@@ -22,6 +53,16 @@ import com.sangupta.jerry.db.DataStoreService;
  * Now service can be used for all CRUD operations on <code>MyEntity</code> object
  * using <code>service</code>.
  * 
+ * Multi-entity inserts are sent as unordered {@link BulkOperations}. As
+ * {@link BulkOperations} cannot replace whole documents, multi-entity updates
+ * and upserts convert the entities with the template's converter and send a
+ * single unordered <code>bulkWrite</code> of replacements to the collection.
+ * Queries are converted to a template {@link Query} and run on the server, and
+ * reads of selected fields include only those fields in the query. Patches are
+ * sent as an {@link Update} of the changed fields, instead of saving the whole
+ * entity. Versioned entities are converted the same way as multi-entity updates
+ * and replaced with a filter on both the <code>_id</code> and the version read.
+ * 
  * @author sangupta
  * 
  * @since 2.0.0
@@ -62,6 +103,34 @@ public abstract class MongoTemplateDataStoreServiceImpl<T, X> extends AbstractDa
         return this.mongoTemplate.find(query, this.entityClass);
     }
 
+    @Override
+    protected T getEntity(X primaryID, List<FieldAccessor> fields) {
+        Query query = new Query(Criteria.where(this.entityDetails.idFieldName).is(primaryID));
+        this.includeFields(query, fields);
+        return this.mongoTemplate.findOne(query, this.entityClass);
+    }
+
+    @Override
+    protected List<T> getMultipleEntities(Collection<X> ids, List<FieldAccessor> fields) {
+        Query query = new Query(Criteria.where(this.entityDetails.idFieldName).in(ids));
+        this.includeFields(query, fields);
+        return this.mongoTemplate.find(query, this.entityClass);
+    }
+
+    /**
+     * Limit the fields read by the query to the given fields, so that the server
+     * only sends back those fields.
+     * 
+     * @param query  the query
+     * 
+     * @param fields the fields to read
+     */
+    protected void includeFields(Query query, List<FieldAccessor> fields) {
+        for (FieldAccessor accessor : fields) {
+            query.fields().include(accessor.getField().getName());
+        }
+    }
+
     @Override
     protected List<T> getAllEntities() {
         return this.mongoTemplate.findAll(this.entityClass);
@@ -73,6 +142,105 @@ public abstract class MongoTemplateDataStoreServiceImpl<T, X> extends AbstractDa
         return this.mongoTemplate.find(query, this.entityClass);
     }
 
+    @Override
+    protected DataStorePage<T> getEntityPage(String token, int pageSize) {
+        Query query = new Query();
+        if (token != null) {
+            query.addCriteria(Criteria.where(this.entityDetails.idFieldName).gt(this.decodeKeyToken(token)));
+        }
+
+        // read one extra entity to know if there is a next page
+        final int fetchSize = pageSize == Integer.MAX_VALUE ? pageSize : pageSize + 1;
+        query.with(Sort.by(Sort.Direction.ASC, this.entityDetails.idFieldName)).limit(fetchSize);
+
+        List<T> list = this.mongoTemplate.find(query, this.entityClass);
+        return toPage(list, pageSize, last -> this.encodeKeyToken(this.getPrimaryID(last)));
+    }
+
+    @Override
+    protected List<T> findEntities(DataStoreQuery query) {
+        return this.mongoTemplate.find(this.toQuery(query), this.entityClass);
+    }
+
+    /**
+     * Convert the query to a template {@link Query}, so that only matching
+     * documents are read from the server. Field names and values are mapped to
+     * the document by the template, the same way as for the entity.
+     * 
+     * @param query the query
+     * 
+     * @return the template query
+     */
+    protected Query toQuery(DataStoreQuery query) {
+        List<Criteria> criteria = new ArrayList<>(query.getCriteria().size());
+        for (Criterion criterion : query.getCriteria()) {
+            QueryEvaluator.accessorFor(this.entityDetails, criterion.getField());
+
+            Criteria current = Criteria.where(criterion.getField());
+            switch (criterion.getOperator()) {
+                case EQ:
+                    current.is(criterion.getValue());
+                    break;
+
+                case GT:
+                    current.gt(criterion.getValue());
+                    break;
+
+                case GTE:
+                    current.gte(criterion.getValue());
+                    break;
+
+                case LT:
+                    current.lt(criterion.getValue());
+                    break;
+
+                case LTE:
+                    current.lte(criterion.getValue());
+                    break;
+
+                case IN:
+                    current.in((Collection<?>) criterion.getValue());
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Unsupported operator: " + criterion.getOperator());
+            }
+
+            criteria.add(current);
+        }
+
+        Query mongoQuery = new Query();
+        if (criteria.size() == 1) {
+            mongoQuery.addCriteria(criteria.get(0));
+        } else if (criteria.size() > 1) {
+            // criteria may repeat a field, which only $and allows
+            mongoQuery.addCriteria(new Criteria().andOperator(criteria.toArray(new Criteria[0])));
+        }
+
+        if (!query.getSorts().isEmpty()) {
+            List<Sort.Order> orders = new ArrayList<>(query.getSorts().size());
+            for (DataStoreQuery.Sort sort : query.getSorts()) {
+                QueryEvaluator.accessorFor(this.entityDetails, sort.getField());
+                orders.add(sort.isAscending() ? Sort.Order.asc(sort.getField()) : Sort.Order.desc(sort.getField()));
+            }
+
+            mongoQuery.with(Sort.by(orders));
+        }
+
+        if (query.getLimit() > 0) {
+            mongoQuery.limit(query.getLimit());
+        }
+
+        return mongoQuery;
+    }
+
+    @Override
+    protected Stream<T> streamEntities(int fetchSize) {
+        Query query = new Query().cursorBatchSize(fetchSize);
+        CloseableIterator<T> iterator = this.mongoTemplate.stream(query, this.entityClass);
+        return StreamUtils.createStreamFromIterator(iterator);
+    }
+
     @Override
     protected T insertEntity(T entity) {
         return this.mongoTemplate.insert(entity);
@@ -88,6 +256,60 @@ public abstract class MongoTemplateDataStoreServiceImpl<T, X> extends AbstractDa
         return this.mongoTemplate.save(entity);
     }
 
+    @Override
+    protected T updateVersionedEntity(T entity, long expectedVersion) {
+        MongoCollection<Document> collection = this.mongoTemplate.getCollection(this.mongoTemplate.getCollectionName(this.entityClass));
+
+        Document document = this.toDocuments(Collections.singletonList(entity)).get(0);
+        Bson filter = Filters.eq("_id", document.get("_id"));
+
+        // documents written before the entity was versioned have no version
+        String field = this.getVersionField();
+        Bson versionFilter = expectedVersion == 0 ? Filters.or(Filters.eq(field, 0), Filters.exists(field, false)) : Filters.eq(field, expectedVersion);
+
+        UpdateResult result = collection.replaceOne(Filters.and(filter, versionFilter), document);
+        if (result.getMatchedCount() > 0) {
+            return entity;
+        }
+
+        if (collection.countDocuments(filter) == 0) {
+            return null;
+        }
+
+        throw new DataStoreVersionConflictException(this.getPrimaryID(entity), expectedVersion);
+    }
+
+    @Override
+    protected boolean patchEntity(X primaryID, DataStorePatch patch) {
+        Query query = new Query(Criteria.where(this.entityDetails.idFieldName).is(primaryID));
+        UpdateResult result = this.mongoTemplate.updateFirst(query, this.toUpdate(patch), this.entityClass);
+        return result.getMatchedCount() > 0;
+    }
+
+    /**
+     * Convert the patch to a template {@link Update}, so that only the changed
+     * fields are sent to and written by the server. Fields set to
+     * <code>null</code> are removed from the document.
+     * 
+     * @param patch the patch
+     * 
+     * @return the update
+     */
+    protected Update toUpdate(DataStorePatch patch) {
+        Update update = new Update();
+        for (Change change : patch.getChanges()) {
+            if (change.getOperator() == DataStorePatch.Operator.INC) {
+                update.inc(change.getField(), (Number) change.getValue());
+            } else if (change.getValue() == null) {
+                update.unset(change.getField());
+            } else {
+                update.set(change.getField(), change.getValue());
+            }
+        }
+
+        return update;
+    }
+
     @Override
     protected T upsertEntity(T entity) {
         X primaryID = getPrimaryID(entity);
@@ -99,6 +321,102 @@ public abstract class MongoTemplateDataStoreServiceImpl<T, X> extends AbstractDa
         return this.mongoTemplate.save(entity);
     }
     
+    @Override
+    protected List<T> insertMultipleEntities(Collection<T> entities) {
+        List<T> list = new ArrayList<>(entities);
+
+        BulkOperations operations = this.mongoTemplate.bulkOps(BulkMode.UNORDERED, this.entityClass);
+        operations.insert(list);
+        try {
+            operations.execute();
+            return list;
+        } catch (BulkOperationException e) {
+            // entities that already existed are skipped, all others were inserted
+            Set<Integer> failed = new HashSet<>();
+            for (BulkWriteError error : e.getErrors()) {
+                if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+
+                failed.add(error.getIndex());
+            }
+
+            List<T> inserted = new ArrayList<>(list.size() - failed.size());
+            for (int index = 0; index < list.size(); index++) {
+                if (!failed.contains(index)) {
+                    inserted.add(list.get(index));
+                }
+            }
+
+            return inserted;
+        }
+    }
+
+    @Override
+    protected List<T> updateMultipleEntities(Collection<T> entities) {
+        MongoCollection<Document> collection = this.mongoTemplate.getCollection(this.mongoTemplate.getCollectionName(this.entityClass));
+
+        List<Document> documents = this.toDocuments(entities);
+        List<Object> ids = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            ids.add(document.get("_id"));
+        }
+
+        // only replace documents that exist, as reported back to the caller
+        Set<Object> existing = new HashSet<>();
+        for (Document document : collection.find(Filters.in("_id", ids)).projection(Projections.include("_id"))) {
+            existing.add(document.get("_id"));
+        }
+
+        List<T> list = new ArrayList<>(existing.size());
+        List<WriteModel<Document>> models = new ArrayList<>(existing.size());
+        int index = 0;
+        for (T entity : entities) {
+            Document document = documents.get(index++);
+            if (existing.contains(document.get("_id"))) {
+                models.add(new ReplaceOneModel<>(Filters.eq("_id", document.get("_id")), document));
+                list.add(entity);
+            }
+        }
+
+        if (!models.isEmpty()) {
+            collection.bulkWrite(models, new BulkWriteOptions().ordered(false));
+        }
+
+        return list;
+    }
+
+    @Override
+    protected List<T> upsertMultipleEntities(Collection<T> entities) {
+        final ReplaceOptions options = new ReplaceOptions().upsert(true);
+
+        List<WriteModel<Document>> models = new ArrayList<>(entities.size());
+        for (Document document : this.toDocuments(entities)) {
+            models.add(new ReplaceOneModel<>(Filters.eq("_id", document.get("_id")), document, options));
+        }
+
+        this.mongoTemplate.getCollection(this.mongoTemplate.getCollectionName(this.entityClass)).bulkWrite(models, new BulkWriteOptions().ordered(false));
+        return new ArrayList<>(entities);
+    }
+
+    /**
+     * Convert the entities to documents using the template's converter.
+     * 
+     * @param entities the entities
+     * 
+     * @return the documents, in the same order
+     */
+    protected List<Document> toDocuments(Collection<T> entities) {
+        List<Document> documents = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            Document document = new Document();
+            this.mongoTemplate.getConverter().write(entity, document);
+            documents.add(document);
+        }
+
+        return documents;
+    }
+
     @Override
     protected T deleteEntity(T entity) {
         DeleteResult result = this.mongoTemplate.remove(entity);
@@ -0,0 +1,737 @@
+package com.sangupta.jerry.db.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import com.sangupta.jerry.db.DataStoreOperation;
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.DataStoreVersionConflictException;
+import com.sangupta.jerry.db.EntitySerializer;
+import com.sangupta.jerry.util.AssertUtils;
+
+/**
+ * An in-memory implementation for {@link DataStoreService} that keeps entities
+ * outside the Java heap. Each entity is serialized into a chunk of direct
+ * memory, and is deserialized again on every read. The index from primary ID
+ * to chunk is a hash table that also lives in direct memory, thus the heap
+ * used by the store, and the work done by the garbage collector, does not
+ * grow with the number of entities. The implementation can be used as:
+ *
+ * <pre>
+ * DataStoreService<MyEntity, String> service = new OffHeapDataStoreServiceImpl<MyEntity, String>(8L << 30) {};
+ * </pre>
+ *
+ * Memory for entities is taken one page of {@link #DEFAULT_PAGE_SIZE} bytes at
+ * a time, up to the capacity given at construction, and each page is split
+ * into chunks of a single size class. As every size class in use holds at
+ * least one page, the capacity should be well above the page size. The space
+ * of deleted entities is reused for new entities of a similar size, and an
+ * updated entity is written in place when its size class does not change.
+ * Writes that need more memory
+ * than the capacity allows fail with an {@link IllegalStateException}. The
+ * index needs 16 bytes per slot over and above the capacity, and the JVM must
+ * allow enough direct memory for both, using
+ * <code>-XX:MaxDirectMemorySize</code>.
+ *
+ * Entities are serialized using the given {@link EntitySerializer}, which
+ * defaults to {@link GsonEntitySerializer}. The primary ID is stored as the
+ * UTF-8 bytes of its {@link String} form, which may be changed by overriding
+ * {@link #toKeyBytes(Object)}. An entity, along with its key, cannot be larger
+ * than a page.
+ *
+ * The store is split into segments, each with its own index and read-write
+ * lock. Iteration, paging and streaming read the segments in turn, copying a
+ * batch of entities at a time under the read lock of the segment, thus the
+ * heap needed does not grow with the size of the store. Skipped entities are
+ * stepped over in the index without being copied. These reads are weakly
+ * consistent: entities written while a stream is consumed, or moved within a
+ * segment by concurrent deletes or growth of its index, may or may not be
+ * seen.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ *
+ * @param <X> The primary ID key for this entity object
+ */
+public class OffHeapDataStoreServiceImpl<T, X> extends AbstractDataStoreServiceImpl<T, X> {
+
+    /**
+     * Size of each page of direct memory, which is also the largest entity
+     * that can be stored
+     */
+    public static final int DEFAULT_PAGE_SIZE = 1 << 20;
+
+    /**
+     * Number of segments the store is split into
+     */
+    public static final int DEFAULT_SEGMENTS = 64;
+
+    /**
+     * Bytes before the key in a record: the key length and the value length
+     */
+    private static final int RECORD_HEADER = 8;
+
+    /**
+     * Expected version of writes that do not compare versions
+     */
+    private static final long ANY_VERSION = Long.MIN_VALUE;
+
+    protected final EntitySerializer<T> serializer;
+
+    private final OffHeapMemory memory;
+
+    private final Segment[] segments;
+
+    /**
+     * Create a store limited only by the direct memory available to the JVM.
+     */
+    public OffHeapDataStoreServiceImpl() {
+        this(Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Create a store holding at most the given number of bytes of entities.
+     *
+     * @param capacity the capacity in bytes, at least {@link #DEFAULT_PAGE_SIZE}
+     */
+    public OffHeapDataStoreServiceImpl(long capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Create a store holding at most the given number of bytes of entities.
+     *
+     * @param capacity   the capacity in bytes, at least
+     *                   {@link #DEFAULT_PAGE_SIZE}
+     *
+     * @param serializer the serializer for entities, or <code>null</code> to use
+     *                   {@link GsonEntitySerializer}
+     */
+    public OffHeapDataStoreServiceImpl(long capacity, EntitySerializer<T> serializer) {
+        super();
+
+        this.serializer = serializer != null ? serializer : new GsonEntitySerializer<>(this.entityClass);
+        this.memory = new OffHeapMemory(capacity, DEFAULT_PAGE_SIZE);
+
+        this.segments = new Segment[DEFAULT_SEGMENTS];
+        for (int index = 0; index < this.segments.length; index++) {
+            this.segments[index] = new Segment();
+        }
+    }
+
+    /**
+     * Convert the primary ID to the bytes stored as key.
+     *
+     * @param primaryID the primary ID, never <code>null</code>
+     *
+     * @return the key bytes
+     */
+    protected byte[] toKeyBytes(X primaryID) {
+        return String.valueOf(primaryID).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Return the maximum number of bytes that may be allocated for entities.
+     *
+     * @return the capacity in bytes
+     */
+    public long getCapacity() {
+        return this.memory.getCapacity();
+    }
+
+    /**
+     * Return the number of bytes of direct memory taken for entities, including
+     * free chunks.
+     *
+     * @return the allocated bytes
+     */
+    public long getAllocatedBytes() {
+        return this.memory.getAllocatedBytes();
+    }
+
+    /**
+     * Return the number of bytes in chunks holding entities.
+     *
+     * @return the used bytes
+     */
+    public long getUsedBytes() {
+        return this.memory.getUsedBytes();
+    }
+
+    @Override
+    public long count() {
+        long count = 0;
+        for (Segment segment : this.segments) {
+            count += segment.size;
+        }
+
+        return count;
+    }
+
+    @Override
+    protected T getEntity(X primaryID) {
+        byte[] key = this.toKeyBytes(primaryID);
+        long hash = hash(key);
+        Segment segment = this.segmentFor(hash);
+
+        byte[] value;
+        segment.lock.readLock().lock();
+        try {
+            int slot = segment.find(hash, key, this.memory);
+            if (slot < 0) {
+                return null;
+            }
+
+            value = this.readValue(segment.addressAt(slot));
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+
+        return this.serializer.deserialize(value);
+    }
+
+    @Override
+    protected T insertEntity(T entity) {
+        return this.write(entity, DataStoreOperation.CREATE);
+    }
+
+    @Override
+    protected T updateEntity(T entity) {
+        return this.write(entity, DataStoreOperation.UPDATE);
+    }
+
+    @Override
+    protected T upsertEntity(T entity) {
+        return this.write(entity, DataStoreOperation.UPSERT);
+    }
+
+    @Override
+    protected T updateVersionedEntity(T entity, long expectedVersion) {
+        return this.write(entity, DataStoreOperation.UPDATE, expectedVersion);
+    }
+
+    @Override
+    protected T deleteEntity(T entity) {
+        return this.deleteEntityForID(this.getPrimaryID(entity));
+    }
+
+    @Override
+    protected T deleteEntityForID(X primaryID) {
+        byte[] key = this.toKeyBytes(primaryID);
+        long hash = hash(key);
+        Segment segment = this.segmentFor(hash);
+
+        byte[] value;
+        segment.lock.writeLock().lock();
+        try {
+            int slot = segment.find(hash, key, this.memory);
+            if (slot < 0) {
+                return null;
+            }
+
+            long address = segment.addressAt(slot);
+            value = this.readValue(address);
+
+            this.memory.free(address, this.recordLength(address));
+            segment.remove(slot);
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+
+        return this.serializer.deserialize(value);
+    }
+
+    @Override
+    protected List<T> getMultipleEntities(Collection<X> ids) {
+        List<T> list = new ArrayList<>();
+        for (X id : ids) {
+            T entity = this.get(id);
+            if (entity != null) {
+                list.add(entity);
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    protected List<T> getMultipleEntities(X[] ids) {
+        List<T> list = new ArrayList<>();
+        for (X id : ids) {
+            T entity = this.get(id);
+            if (entity != null) {
+                list.add(entity);
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    protected List<T> deleteMultipleEntities(Collection<X> ids) {
+        if (AssertUtils.isEmpty(ids)) {
+            return null;
+        }
+
+        List<T> list = new ArrayList<>();
+        for (X id : ids) {
+            list.add(this.deleteForID(id));
+        }
+
+        return list;
+    }
+
+    @Override
+    protected List<T> deleteMultipleEntities(X[] ids) {
+        if (AssertUtils.isEmpty(ids)) {
+            return null;
+        }
+
+        List<T> list = new ArrayList<>();
+        for (X id : ids) {
+            list.add(this.deleteForID(id));
+        }
+
+        return list;
+    }
+
+    @Override
+    protected List<T> getAllEntities() {
+        List<T> list = new ArrayList<>();
+        ValueIterator values = new ValueIterator(0, DEFAULT_FETCH_SIZE);
+        while (values.hasNext()) {
+            list.add(this.serializer.deserialize(values.next()));
+        }
+
+        return list;
+    }
+
+    @Override
+    protected List<T> getAllEntities(int page, int pageSize, int start, int end) {
+        List<T> list = new ArrayList<>();
+        ValueIterator values = new ValueIterator(start, pageSize);
+        while (list.size() < pageSize && values.hasNext()) {
+            list.add(this.serializer.deserialize(values.next()));
+        }
+
+        return list;
+    }
+
+    @Override
+    protected Stream<T> streamEntities(int fetchSize) {
+        final ValueIterator values = new ValueIterator(0, fetchSize);
+        Iterator<T> entities = new Iterator<T>() {
+
+            @Override
+            public boolean hasNext() {
+                return values.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return serializer.deserialize(values.next());
+            }
+
+        };
+
+        return EntityStreams.of(entities, null);
+    }
+
+    @Override
+    public void deleteAll() {
+        this.clear();
+    }
+
+    /**
+     * Release all direct memory held by the store. The store is empty after
+     * being closed.
+     */
+    @Override
+    public void close() {
+        this.clear();
+    }
+
+    private T write(T entity, DataStoreOperation operation) {
+        return this.write(entity, operation, ANY_VERSION);
+    }
+
+    /**
+     * Write the entity, comparing the version of the stored entity under the
+     * write lock of the segment unless the expected version is
+     * {@link #ANY_VERSION}.
+     */
+    private T write(T entity, DataStoreOperation operation, long expectedVersion) {
+        byte[] key = this.toKeyBytes(this.getPrimaryID(entity));
+        byte[] value = this.serializer.serialize(entity);
+        int length = RECORD_HEADER + key.length + value.length;
+
+        long hash = hash(key);
+        Segment segment = this.segmentFor(hash);
+
+        segment.lock.writeLock().lock();
+        try {
+            int slot = segment.find(hash, key, this.memory);
+            if (slot < 0) {
+                if (operation == DataStoreOperation.UPDATE) {
+                    return null;
+                }
+
+                long address = this.allocate(length);
+                this.writeRecord(address, key, value);
+                segment.add(hash, address);
+                return entity;
+            }
+
+            if (operation == DataStoreOperation.CREATE) {
+                return null;
+            }
+
+            long existing = segment.addressAt(slot);
+            if (expectedVersion != ANY_VERSION) {
+                T current = this.serializer.deserialize(this.readValue(existing));
+                if (this.getVersion(current) != expectedVersion) {
+                    throw new DataStoreVersionConflictException(this.getPrimaryID(entity), expectedVersion);
+                }
+            }
+
+            int existingLength = this.recordLength(existing);
+            if (this.memory.fits(existingLength, length)) {
+                // readers are locked out, overwrite in place
+                this.writeRecord(existing, key, value);
+                return entity;
+            }
+
+            long address = this.allocate(length);
+            this.writeRecord(address, key, value);
+            segment.setAddressAt(slot, address);
+            this.memory.free(existing, existingLength);
+            return entity;
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    private long allocate(int length) {
+        long address = this.memory.allocate(length);
+        if (address == OffHeapMemory.NONE) {
+            throw new IllegalStateException("Off-heap store is full, capacity: " + this.memory.getCapacity() + " bytes");
+        }
+
+        return address;
+    }
+
+    private void writeRecord(long address, byte[] key, byte[] value) {
+        this.memory.putInt(address, key.length);
+        this.memory.putInt(address + 4, value.length);
+        this.memory.put(address + RECORD_HEADER, key);
+        this.memory.put(address + RECORD_HEADER + key.length, value);
+    }
+
+    private int recordLength(long address) {
+        return RECORD_HEADER + this.memory.getInt(address) + this.memory.getInt(address + 4);
+    }
+
+    private byte[] readValue(long address) {
+        int keyLength = this.memory.getInt(address);
+        byte[] value = new byte[this.memory.getInt(address + 4)];
+        this.memory.get(address + RECORD_HEADER + keyLength, value);
+        return value;
+    }
+
+    private void clear() {
+        this.clear(0);
+    }
+
+    /**
+     * Clear all segments, holding the write locks of all of them while the
+     * memory is released.
+     */
+    private void clear(int index) {
+        if (index == this.segments.length) {
+            this.memory.clear();
+            return;
+        }
+
+        Segment segment = this.segments[index];
+        segment.lock.writeLock().lock();
+        try {
+            segment.reset();
+            this.clear(index + 1);
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    private Segment segmentFor(long hash) {
+        return this.segments[(int) (hash >>> 32) & (this.segments.length - 1)];
+    }
+
+    /**
+     * FNV-1a over the key bytes, finished with the MurmurHash3 finalizer so
+     * that the low bits used for slots are well mixed.
+     */
+    private static long hash(byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte value : key) {
+            hash ^= value;
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Iterates over the serialized entities of all segments, copying at most a
+     * batch of them at a time while holding the read lock of the segment.
+     */
+    private final class ValueIterator implements Iterator<byte[]> {
+
+        private final int batchSize;
+
+        private final ArrayDeque<byte[]> batch;
+
+        /**
+         * The segment being read
+         */
+        private int segment;
+
+        /**
+         * The slot of the segment to continue reading from
+         */
+        private int slot;
+
+        /**
+         * The number of entities still to be skipped
+         */
+        private int skip;
+
+        ValueIterator(int skip, int batchSize) {
+            this.batchSize = batchSize;
+            this.batch = new ArrayDeque<>(Math.min(batchSize, 1024));
+
+            // skip whole segments without reading their index
+            while (this.segment < segments.length && skip >= segments[this.segment].size) {
+                skip -= segments[this.segment].size;
+                this.segment++;
+            }
+
+            this.skip = skip;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.batch.isEmpty() && this.segment < segments.length) {
+                this.readBatch();
+            }
+
+            return !this.batch.isEmpty();
+        }
+
+        @Override
+        public byte[] next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return this.batch.poll();
+        }
+
+        /**
+         * Copy the next batch of entities from the current segment, moving to the
+         * next segment once the current one is read.
+         */
+        private void readBatch() {
+            Segment current = segments[this.segment];
+
+            current.lock.readLock().lock();
+            try {
+                for (; this.slot < current.capacity && this.batch.size() < this.batchSize; this.slot++) {
+                    long address = current.addressAt(this.slot);
+                    if (address == OffHeapMemory.NONE) {
+                        continue;
+                    }
+
+                    if (this.skip > 0) {
+                        this.skip--;
+                        continue;
+                    }
+
+                    this.batch.add(readValue(address));
+                }
+
+                if (this.slot < current.capacity) {
+                    return;
+                }
+            } finally {
+                current.lock.readLock().unlock();
+            }
+
+            this.segment++;
+            this.slot = 0;
+        }
+
+    }
+
+    /**
+     * A hash table with linear probing from key hash to record address, held
+     * in direct memory. Each slot holds the full hash and the address plus one,
+     * with zero marking a free slot. Deletion shifts later entries back, thus
+     * no removal marker is needed.
+     */
+    private static final class Segment {
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        private static final int SLOT_SIZE = 16;
+
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        ByteBuffer table;
+
+        int capacity;
+
+        /**
+         * Number of entries, written under the write lock
+         */
+        volatile int size;
+
+        Segment() {
+            this.reset();
+        }
+
+        void reset() {
+            this.capacity = INITIAL_CAPACITY;
+            this.table = ByteBuffer.allocateDirect(INITIAL_CAPACITY * SLOT_SIZE);
+            this.size = 0;
+        }
+
+        /**
+         * Find the slot of the record with the given key.
+         *
+         * @return the slot, or <code>-1</code> if there is no such record
+         */
+        int find(long hash, byte[] key, OffHeapMemory memory) {
+            int mask = this.capacity - 1;
+            int slot = (int) hash & mask;
+            while (true) {
+                long address = this.addressAt(slot);
+                if (address == OffHeapMemory.NONE) {
+                    return -1;
+                }
+
+                if (this.hashAt(slot) == hash && memory.getInt(address) == key.length && memory.matches(address + RECORD_HEADER, key)) {
+                    return slot;
+                }
+
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        /**
+         * Add a record whose key is not present.
+         */
+        void add(long hash, long address) {
+            if ((this.size + 1) * 4L > this.capacity * 3L) {
+                this.resize(this.capacity * 2);
+            }
+
+            this.place(hash, address);
+            this.size++;
+        }
+
+        /**
+         * Remove the record in the slot, moving back later records of the probe
+         * sequence to fill the gap.
+         */
+        void remove(int slot) {
+            int mask = this.capacity - 1;
+            int hole = slot;
+            int current = slot;
+            while (true) {
+                current = (current + 1) & mask;
+                long address = this.addressAt(current);
+                if (address == OffHeapMemory.NONE) {
+                    break;
+                }
+
+                // move the record if the hole is between its home slot and it
+                int home = (int) this.hashAt(current) & mask;
+                if (((current - home) & mask) >= ((current - hole) & mask)) {
+                    this.set(hole, this.hashAt(current), address);
+                    hole = current;
+                }
+            }
+
+            this.set(hole, 0, OffHeapMemory.NONE);
+            this.size--;
+        }
+
+        long hashAt(int slot) {
+            return this.table.getLong(slot * SLOT_SIZE);
+        }
+
+        /**
+         * Return the address held in the slot, or {@link OffHeapMemory#NONE} if
+         * the slot is free.
+         */
+        long addressAt(int slot) {
+            return this.table.getLong(slot * SLOT_SIZE + 8) - 1;
+        }
+
+        void setAddressAt(int slot, long address) {
+            this.table.putLong(slot * SLOT_SIZE + 8, address + 1);
+        }
+
+        private void set(int slot, long hash, long address) {
+            this.table.putLong(slot * SLOT_SIZE, hash);
+            this.table.putLong(slot * SLOT_SIZE + 8, address + 1);
+        }
+
+        private void place(long hash, long address) {
+            int mask = this.capacity - 1;
+            int slot = (int) hash & mask;
+            while (this.addressAt(slot) != OffHeapMemory.NONE) {
+                slot = (slot + 1) & mask;
+            }
+
+            this.set(slot, hash, address);
+        }
+
+        private void resize(int capacity) {
+            if (capacity > Integer.MAX_VALUE / SLOT_SIZE) {
+                throw new IllegalStateException("Off-heap index segment is full");
+            }
+
+            ByteBuffer old = this.table;
+            int oldCapacity = this.capacity;
+
+            this.table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+            this.capacity = capacity;
+
+            for (int slot = 0; slot < oldCapacity; slot++) {
+                long address = old.getLong(slot * SLOT_SIZE + 8) - 1;
+                if (address != OffHeapMemory.NONE) {
+                    this.place(old.getLong(slot * SLOT_SIZE), address);
+                }
+            }
+        }
+
+    }
+
+}
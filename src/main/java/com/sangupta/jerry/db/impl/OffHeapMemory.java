@@ -0,0 +1,267 @@
+package com.sangupta.jerry.db.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Direct memory carved into chunks, in the manner of a slab allocator. Memory
+ * is obtained from the operating system one page at a time, each page is
+ * assigned to a size class on first use, and split into chunks of that size.
+ * Size classes grow by a quarter from {@link #MIN_CHUNK_SIZE} up to the page
+ * size, so that no more than a fifth of a chunk is wasted. Freed chunks are
+ * kept in a free list per size class, threaded through the chunks themselves,
+ * and are handed out again before a new page is taken.
+ *
+ * An address packs the index of the page in the upper 32 bits and the offset
+ * within the page in the lower 32 bits. A chunk never crosses a page, so
+ * offsets may be added to the address of a chunk to reach within it.
+ *
+ * Allocation is synchronized. Reads and writes of chunks are not, and must be
+ * guarded by the caller that owns the chunk.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ */
+final class OffHeapMemory {
+
+    /**
+     * Returned by {@link #allocate(int)} when the capacity is exhausted
+     */
+    static final long NONE = -1;
+
+    static final int MIN_CHUNK_SIZE = 32;
+
+    private final int pageSize;
+
+    private final int maxPages;
+
+    private final int[] chunkSizes;
+
+    /**
+     * Head of the free list of each size class
+     */
+    private final long[] freeChunks;
+
+    /**
+     * Page being split into chunks for each size class, and the offset of the
+     * next chunk in it
+     */
+    private final long[] nextChunks;
+
+    private volatile ByteBuffer[] pages = new ByteBuffer[0];
+
+    private int pageCount;
+
+    private long usedBytes;
+
+    /**
+     * Create an instance.
+     *
+     * @param capacity the maximum number of bytes to allocate, rounded down to
+     *                 whole pages
+     *
+     * @param pageSize the size of each page, which is also the largest chunk
+     *                 that can be allocated
+     */
+    OffHeapMemory(long capacity, int pageSize) {
+        if (pageSize < MIN_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Page size must be at least " + MIN_CHUNK_SIZE + " bytes");
+        }
+
+        if (capacity < pageSize) {
+            throw new IllegalArgumentException("Capacity must be at least the page size");
+        }
+
+        this.pageSize = pageSize;
+        this.maxPages = (int) Math.min(capacity / pageSize, Integer.MAX_VALUE);
+
+        List<Integer> sizes = new ArrayList<>();
+        int size = MIN_CHUNK_SIZE;
+        while (size < pageSize) {
+            sizes.add(size);
+            size = (int) Math.min(((size + size / 4L) + 7) & ~7L, pageSize);
+        }
+
+        sizes.add(pageSize);
+
+        this.chunkSizes = sizes.stream().mapToInt(Integer::intValue).toArray();
+        this.freeChunks = new long[this.chunkSizes.length];
+        this.nextChunks = new long[this.chunkSizes.length];
+        Arrays.fill(this.freeChunks, NONE);
+        Arrays.fill(this.nextChunks, NONE);
+    }
+
+    /**
+     * Allocate a chunk of at least the given length.
+     *
+     * @param length the number of bytes needed
+     *
+     * @return the address of the chunk, or {@link #NONE} if the capacity is
+     *         exhausted
+     *
+     * @throws IllegalArgumentException if the length exceeds the page size
+     */
+    synchronized long allocate(int length) {
+        int sizeClass = this.sizeClassOf(length);
+        int chunkSize = this.chunkSizes[sizeClass];
+
+        long address = this.freeChunks[sizeClass];
+        if (address != NONE) {
+            this.freeChunks[sizeClass] = this.getLong(address);
+        } else {
+            address = this.nextChunks[sizeClass];
+            if (address == NONE || offsetOf(address) + chunkSize > this.pageSize) {
+                address = this.newPage();
+                if (address == NONE) {
+                    return NONE;
+                }
+            }
+
+            this.nextChunks[sizeClass] = address + chunkSize;
+        }
+
+        this.usedBytes += chunkSize;
+        return address;
+    }
+
+    /**
+     * Return a chunk for reuse.
+     *
+     * @param address the address of the chunk
+     *
+     * @param length  the length the chunk was allocated for
+     */
+    synchronized void free(long address, int length) {
+        int sizeClass = this.sizeClassOf(length);
+        this.putLong(address, this.freeChunks[sizeClass]);
+        this.freeChunks[sizeClass] = address;
+        this.usedBytes -= this.chunkSizes[sizeClass];
+    }
+
+    /**
+     * Check if a chunk allocated for one length can also hold the other.
+     *
+     * @param allocated the length the chunk was allocated for
+     *
+     * @param length    the length needed
+     *
+     * @return <code>true</code> if both lengths fall in the same size class
+     */
+    boolean fits(int allocated, int length) {
+        return length <= this.pageSize && this.sizeClassOf(allocated) == this.sizeClassOf(length);
+    }
+
+    /**
+     * Release all pages. All addresses handed out so far become invalid.
+     */
+    synchronized void clear() {
+        this.pages = new ByteBuffer[0];
+        this.pageCount = 0;
+        this.usedBytes = 0;
+        Arrays.fill(this.freeChunks, NONE);
+        Arrays.fill(this.nextChunks, NONE);
+    }
+
+    int getPageSize() {
+        return this.pageSize;
+    }
+
+    long getCapacity() {
+        return (long) this.maxPages * this.pageSize;
+    }
+
+    synchronized long getAllocatedBytes() {
+        return (long) this.pageCount * this.pageSize;
+    }
+
+    synchronized long getUsedBytes() {
+        return this.usedBytes;
+    }
+
+    int getInt(long address) {
+        return this.pageOf(address).getInt(offsetOf(address));
+    }
+
+    void putInt(long address, int value) {
+        this.pageOf(address).putInt(offsetOf(address), value);
+    }
+
+    long getLong(long address) {
+        return this.pageOf(address).getLong(offsetOf(address));
+    }
+
+    void putLong(long address, long value) {
+        this.pageOf(address).putLong(offsetOf(address), value);
+    }
+
+    void get(long address, byte[] bytes) {
+        ByteBuffer page = this.pageOf(address).duplicate();
+        page.position(offsetOf(address));
+        page.get(bytes);
+    }
+
+    void put(long address, byte[] bytes) {
+        ByteBuffer page = this.pageOf(address).duplicate();
+        page.position(offsetOf(address));
+        page.put(bytes);
+    }
+
+    /**
+     * Compare the bytes at the address with the given bytes.
+     *
+     * @param address the address to compare at
+     *
+     * @param bytes   the bytes to compare with
+     *
+     * @return <code>true</code> if all bytes are equal
+     */
+    boolean matches(long address, byte[] bytes) {
+        ByteBuffer page = this.pageOf(address);
+        int offset = offsetOf(address);
+        for (int index = 0; index < bytes.length; index++) {
+            if (page.get(offset + index) != bytes[index]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private long newPage() {
+        if (this.pageCount == this.maxPages) {
+            return NONE;
+        }
+
+        ByteBuffer[] pages = this.pages;
+        if (this.pageCount == pages.length) {
+            pages = Arrays.copyOf(pages, Math.max(16, pages.length * 2));
+        }
+
+        // publish the page along with the array, even if the array is the same
+        pages[this.pageCount] = ByteBuffer.allocateDirect(this.pageSize);
+        this.pages = pages;
+
+        return (long) this.pageCount++ << 32;
+    }
+
+    private int sizeClassOf(int length) {
+        if (length > this.pageSize) {
+            throw new IllegalArgumentException("Cannot allocate more than " + this.pageSize + " bytes, requested: " + length);
+        }
+
+        int index = Arrays.binarySearch(this.chunkSizes, Math.max(length, MIN_CHUNK_SIZE));
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private ByteBuffer pageOf(long address) {
+        return this.pages[(int) (address >>> 32)];
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+}
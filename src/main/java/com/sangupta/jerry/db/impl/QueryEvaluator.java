@@ -0,0 +1,310 @@
+package com.sangupta.jerry.db.impl;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+import com.sangupta.jerry.db.DataStoreQuery;
+import com.sangupta.jerry.db.DataStoreQuery.Criterion;
+import com.sangupta.jerry.db.DataStoreQuery.Sort;
+import com.sangupta.jerry.db.EntityScanner.EntityDetails;
+import com.sangupta.jerry.db.FieldAccessor;
+
+/**
+ * Evaluates a {@link DataStoreQuery} over entities held in memory, for stores
+ * that cannot run the query natively. Field names are resolved to accessors
+ * once, when the evaluator is created.
+ *
+ * Numbers of different types are compared by value, and enum fields may be
+ * compared with the name of the constant, the way stores that keep enums as
+ * text compare them. When the query has both a sort and a limit, only the
+ * top entities are kept while scanning, instead of sorting all matches.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ */
+final class QueryEvaluator<T> {
+
+    private final FieldAccessor[] accessors;
+
+    private final Criterion[] criteria;
+
+    private final Comparator<T> comparator;
+
+    private final int limit;
+
+    private QueryEvaluator(DataStoreQuery query, EntityDetails details) {
+        List<Criterion> criteria = query.getCriteria();
+        this.criteria = criteria.toArray(new Criterion[0]);
+        this.accessors = new FieldAccessor[this.criteria.length];
+        for (int index = 0; index < this.criteria.length; index++) {
+            Criterion criterion = this.criteria[index];
+            FieldAccessor accessor = accessorFor(details, criterion.getField());
+            switch (criterion.getOperator()) {
+                case EQ:
+                case IN:
+                    break;
+
+                default:
+                    requireComparable(accessor);
+            }
+
+            this.accessors[index] = accessor;
+        }
+
+        Comparator<T> comparator = null;
+        for (Sort sort : query.getSorts()) {
+            final FieldAccessor accessor = requireComparable(accessorFor(details, sort.getField()));
+            Comparator<T> current = (first, second) -> compare(accessor.get(first), accessor.get(second));
+            if (!sort.isAscending()) {
+                current = current.reversed();
+            }
+
+            comparator = comparator == null ? current : comparator.thenComparing(current);
+        }
+
+        this.comparator = comparator;
+        this.limit = query.getLimit();
+    }
+
+    /**
+     * Create an evaluator for the query over entities with the given details.
+     *
+     * @param query   the query
+     *
+     * @param details the details of the entity
+     *
+     * @return the evaluator
+     *
+     * @throws IllegalArgumentException if the query refers to a field that is
+     *                                  not persisted, or compares or sorts on a
+     *                                  field that is not {@link Comparable}
+     */
+    static <T> QueryEvaluator<T> of(DataStoreQuery query, EntityDetails details) {
+        return new QueryEvaluator<>(query, details);
+    }
+
+    /**
+     * Check if the entity matches all criteria of the query.
+     *
+     * @param entity the entity
+     *
+     * @return <code>true</code> if the entity matches
+     */
+    boolean matches(T entity) {
+        for (int index = 0; index < this.criteria.length; index++) {
+            if (!matches(this.criteria[index], this.accessors[index].get(entity))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Return the matching entities, sorted and limited as asked by the query.
+     *
+     * @param entities the entities to evaluate
+     *
+     * @return the matching entities, never <code>null</code>
+     */
+    List<T> evaluate(Iterator<T> entities) {
+        if (this.comparator == null) {
+            List<T> list = new ArrayList<>();
+            while (entities.hasNext()) {
+                T entity = entities.next();
+                if (this.matches(entity)) {
+                    list.add(entity);
+                    if (list.size() == this.limit) {
+                        break;
+                    }
+                }
+            }
+
+            return list;
+        }
+
+        if (this.limit == 0) {
+            List<T> list = new ArrayList<>();
+            while (entities.hasNext()) {
+                T entity = entities.next();
+                if (this.matches(entity)) {
+                    list.add(entity);
+                }
+            }
+
+            list.sort(this.comparator);
+            return list;
+        }
+
+        // keep the top entities, with the one to evict next at the head
+        PriorityQueue<T> queue = new PriorityQueue<>(Math.min(this.limit, 1024) + 1, this.comparator.reversed());
+        while (entities.hasNext()) {
+            T entity = entities.next();
+            if (!this.matches(entity)) {
+                continue;
+            }
+
+            if (queue.size() < this.limit) {
+                queue.add(entity);
+            } else if (this.comparator.compare(entity, queue.peek()) < 0) {
+                queue.poll();
+                queue.add(entity);
+            }
+        }
+
+        List<T> list = new ArrayList<>(queue);
+        list.sort(this.comparator);
+        return list;
+    }
+
+    /**
+     * Return the matching entities, sorted and limited as asked by the query.
+     *
+     * @param entities the entities to evaluate
+     *
+     * @return the matching entities, never <code>null</code>
+     */
+    List<T> evaluate(Collection<T> entities) {
+        return this.evaluate(entities.iterator());
+    }
+
+    /**
+     * Return the accessor for a field named in a query.
+     *
+     * @param details the details of the entity
+     *
+     * @param field   the name of the field
+     *
+     * @return the accessor, never <code>null</code>
+     *
+     * @throws IllegalArgumentException if the entity does not persist the field
+     */
+    static FieldAccessor accessorFor(EntityDetails details, String field) {
+        FieldAccessor accessor = details.getFieldAccessor(field);
+        if (accessor == null) {
+            throw new IllegalArgumentException("No such field in entity: " + field);
+        }
+
+        return accessor;
+    }
+
+    private static FieldAccessor requireComparable(FieldAccessor accessor) {
+        Class<?> type = accessor.getField().getType();
+        if (!type.isPrimitive() && !Comparable.class.isAssignableFrom(type)) {
+            throw new IllegalArgumentException("Field is not comparable: " + accessor.getField().getName());
+        }
+
+        return accessor;
+    }
+
+    private static boolean matches(Criterion criterion, Object value) {
+        Object expected = criterion.getValue();
+        switch (criterion.getOperator()) {
+            case EQ:
+                return equal(value, expected);
+
+            case IN:
+                for (Object item : (Collection<?>) expected) {
+                    if (equal(value, item)) {
+                        return true;
+                    }
+                }
+
+                return false;
+
+            case GT:
+                return value != null && compare(value, expected) > 0;
+
+            case GTE:
+                return value != null && compare(value, expected) >= 0;
+
+            case LT:
+                return value != null && compare(value, expected) < 0;
+
+            case LTE:
+                return value != null && compare(value, expected) <= 0;
+
+            default:
+                throw new IllegalArgumentException("Unsupported operator: " + criterion.getOperator());
+        }
+    }
+
+    /**
+     * Check two values for equality, numbers by value and enums also by name.
+     */
+    static boolean equal(Object value, Object expected) {
+        if (value == null || expected == null) {
+            return value == expected;
+        }
+
+        if (value instanceof Number && expected instanceof Number && value.getClass() != expected.getClass()) {
+            return compareNumbers((Number) value, (Number) expected) == 0;
+        }
+
+        if (value instanceof Enum && expected instanceof String) {
+            return ((Enum<?>) value).name().equals(expected);
+        }
+
+        return Objects.equals(value, expected);
+    }
+
+    /**
+     * Compare two values, numbers by value and enums by name when compared with
+     * text. <code>null</code> sorts before all other values.
+     */
+    @SuppressWarnings("unchecked")
+    static int compare(Object first, Object second) {
+        if (first == null || second == null) {
+            return first == second ? 0 : (first == null ? -1 : 1);
+        }
+
+        if (first instanceof Number && second instanceof Number && first.getClass() != second.getClass()) {
+            return compareNumbers((Number) first, (Number) second);
+        }
+
+        if (first instanceof Enum && second instanceof String) {
+            return ((Enum<?>) first).name().compareTo((String) second);
+        }
+
+        if (first instanceof String && second instanceof Enum) {
+            return ((String) first).compareTo(((Enum<?>) second).name());
+        }
+
+        try {
+            return ((Comparable<Object>) first).compareTo(second);
+        } catch (ClassCastException e) {
+            throw new IllegalArgumentException("Cannot compare " + first.getClass().getName() + " with " + second.getClass().getName(), e);
+        }
+    }
+
+    private static int compareNumbers(Number first, Number second) {
+        if (isIntegral(first) && isIntegral(second)) {
+            return Long.compare(first.longValue(), second.longValue());
+        }
+
+        if (isDecimal(first) || isDecimal(second)) {
+            return EntityValues.toBigDecimal(first).compareTo(EntityValues.toBigDecimal(second));
+        }
+
+        return Double.compare(first.doubleValue(), second.doubleValue());
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+    }
+
+    private static boolean isDecimal(Number number) {
+        return number instanceof BigDecimal || number instanceof BigInteger;
+    }
+
+}
@@ -0,0 +1,610 @@
+package com.sangupta.jerry.db.impl;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import com.sangupta.jerry.db.AsyncDataStoreService;
+import com.sangupta.jerry.db.DataStoreClock;
+import com.sangupta.jerry.db.DataStoreOperation;
+import com.sangupta.jerry.db.EntityScanner;
+import com.sangupta.jerry.db.EntityScanner.EntityDetails;
+import com.sangupta.jerry.security.SecurityContext;
+import com.sangupta.jerry.util.GsonUtils;
+import com.sangupta.jerry.util.ReflectionMapper;
+
+/**
+ * A non-blocking MongoDB implementation of {@link AsyncDataStoreService}, built
+ * on the <a href="https://mongodb.github.io/mongo-java-driver-reactivestreams/">
+ * MongoDB Reactive Streams driver</a>. No thread is held while an operation is
+ * in flight with the server. The implementation can be used as:
+ *
+ * <pre>
+ * AsyncDataStoreService<MyEntity, String> service = new ReactiveMongoDbDataStoreServiceImpl<MyEntity, String>(database) {};
+ * </pre>
+ *
+ * Single-entity results are returned as {@link CompletableFuture}, and full
+ * scans are returned as a {@link Flow.Publisher} that fetches documents from
+ * the server only as fast as the subscriber requests them.
+ *
+ * Entities are massaged for time stamps and ownership on the calling thread,
+ * before the operation is sent to the server, so that the
+ * {@link SecurityContext} of the caller is used. Entities are stored and read
+ * back the same way as {@link MongoDbDataStoreServiceImpl} does.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ *
+ * @param <X> The primary ID key for this entity object
+ */
+public abstract class ReactiveMongoDbDataStoreServiceImpl<T, X> implements AsyncDataStoreService<T, X> {
+
+    /**
+     * {@link Class} that represents the entity being persisted by this store.
+     */
+    protected final Class<T> entityClass;
+
+    /**
+     * {@link Class} that represents the primary key in the entity
+     */
+    protected final Class<X> primaryIDClass;
+
+    protected final EntityDetails entityDetails;
+
+    protected final MongoCollection<Document> collection;
+
+    /**
+     * Standard fields to set on entities of {@link #entityClass}
+     */
+    private final MassagePlan massagePlan;
+
+    /**
+     * Source of time for stamping entities
+     */
+    private volatile DataStoreClock clock = DataStoreClock.SYSTEM;
+
+    public ReactiveMongoDbDataStoreServiceImpl(MongoDatabase database) {
+        this(database, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ReactiveMongoDbDataStoreServiceImpl(MongoDatabase database, MongoCollection<Document> collection) {
+        Type[] actualTypeArguments = AbstractDataStoreServiceImpl.resolveTypeArguments(getClass(), ReactiveMongoDbDataStoreServiceImpl.class);
+        this.entityClass = (Class<T>) actualTypeArguments[0];
+        this.primaryIDClass = (Class<X>) actualTypeArguments[1];
+        this.entityDetails = EntityScanner.getDetails(this.entityClass);
+        this.massagePlan = MassagePlan.of(this.entityDetails);
+
+        if (collection != null) {
+            this.collection = collection;
+        } else if (database != null) {
+            this.collection = database.getCollection(this.getCollectionName());
+        } else {
+            throw new IllegalArgumentException("Database and collection cannot both be null");
+        }
+    }
+
+    public ReactiveMongoDbDataStoreServiceImpl(MongoCollection<Document> collection) {
+        this(null, collection);
+    }
+
+    /**
+     * Return the clock used to stamp entities on write.
+     *
+     * @return the clock
+     */
+    public DataStoreClock getClock() {
+        return this.clock;
+    }
+
+    /**
+     * Set the clock used to stamp entities on write. Defaults to
+     * {@link DataStoreClock#SYSTEM}.
+     *
+     * @param clock the clock to use
+     */
+    public void setClock(DataStoreClock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock cannot be null");
+        }
+
+        this.clock = clock;
+    }
+
+    /**
+     * Return the value of the primary key for this entity object.
+     *
+     * @param entity the entity
+     *
+     * @return the primary ID
+     */
+    @SuppressWarnings("unchecked")
+    public X getPrimaryID(T entity) {
+        if (entity == null) {
+            throw new IllegalArgumentException("Entity cannot be null");
+        }
+
+        if (this.entityDetails.idAccessor == null) {
+            throw new IllegalStateException("This DataStore must either implement getPrimaryID() method, or add an @Id annotation to a field in the entity");
+        }
+
+        return (X) this.entityDetails.idAccessor.get(entity);
+    }
+
+    @Override
+    public CompletableFuture<T> get(X primaryID) {
+        if (primaryID == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return first(this.collection.find(this.filterFor(primaryID)).first()).thenApply(this::toEntity);
+    }
+
+    @Override
+    public CompletableFuture<List<T>> getMultiple(Collection<X> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return all(this.collection.find(Filters.in("_id", this.toDocumentIDs(ids))), this::toEntity);
+    }
+
+    /**
+     * Stream all entities in the collection. Documents are fetched from the
+     * server as the subscriber requests them.
+     *
+     * @return the publisher of all entities
+     */
+    public Flow.Publisher<T> getAll() {
+        return new FlowPublisher<>(this.collection.find(), this::toEntity);
+    }
+
+    /**
+     * Stream all entities in the collection, fetching documents from the server
+     * in batches of given size as the subscriber requests them.
+     *
+     * @param batchSize the number of documents to fetch in one go
+     *
+     * @return the publisher of all entities
+     */
+    public Flow.Publisher<T> getAll(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+
+        return new FlowPublisher<>(this.collection.find().batchSize(batchSize), this::toEntity);
+    }
+
+    @Override
+    public CompletableFuture<T> insert(T entity) {
+        final Document document;
+        try {
+            document = this.prepare(entity, DataStoreOperation.CREATE, this.currentUserID(entity));
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+        first(this.collection.insertOne(document)).whenComplete((success, error) -> {
+            if (error == null) {
+                future.complete(entity);
+                return;
+            }
+
+            if (error instanceof MongoWriteException && ((MongoWriteException) error).getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                future.complete(null);
+                return;
+            }
+
+            future.completeExceptionally(error);
+        });
+
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<T> update(T entity) {
+        try {
+            return this.update(entity, this.currentUserID(entity));
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<T> upsert(T entity) {
+        final Document document;
+        try {
+            document = this.prepare(entity, DataStoreOperation.UPSERT, this.currentUserID(entity));
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+
+        return first(this.collection.replaceOne(Filters.eq("_id", document.get("_id")), document, new ReplaceOptions().upsert(true))).thenApply(result -> entity);
+    }
+
+    @Override
+    public CompletableFuture<T> delete(T entity) {
+        try {
+            return this.delete(entity, this.currentUserID(entity));
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<T> deleteForID(X primaryID) {
+        if (primaryID == null) {
+            return failed(new IllegalArgumentException("ID cannot be null"));
+        }
+
+        if (this.massagePlan.softDelete) {
+            // capture the caller before hopping onto the driver threads
+            final String userID = this.massagePlan.userOwned ? SecurityContext.getUserID() : null;
+            return this.get(primaryID).thenCompose(entity -> entity == null ? CompletableFuture.completedFuture(null) : this.delete(entity, userID));
+        }
+
+        return first(this.collection.findOneAndDelete(this.filterFor(primaryID))).thenApply(this::toEntity);
+    }
+
+    @Override
+    public CompletableFuture<List<T>> deleteMultiple(Collection<X> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final Bson filter = Filters.in("_id", this.toDocumentIDs(ids));
+        return all(this.collection.find(filter), this::toEntity).thenCompose(list -> {
+            if (list.isEmpty()) {
+                return CompletableFuture.completedFuture(list);
+            }
+
+            return first(this.collection.deleteMany(filter)).thenApply(result -> list);
+        });
+    }
+
+    /**
+     * Count the documents in the collection.
+     *
+     * @return future for the count
+     */
+    public CompletableFuture<Long> count() {
+        return first(this.collection.countDocuments());
+    }
+
+    /**
+     * Remove all documents by dropping the collection.
+     *
+     * @return future that completes when the collection is dropped
+     */
+    public CompletableFuture<Void> deleteAll() {
+        return first(this.collection.drop()).thenApply(success -> null);
+    }
+
+    /**
+     * Extension point for child classes that want to extend massaging the entity
+     * other than what the implementation supports. Called on the caller thread.
+     *
+     * @param entity    the entity
+     *
+     * @param operation the operation being carried out
+     */
+    protected void massageEntity(T entity, DataStoreOperation operation) {
+        // this method is left intentional for child classes
+        // to override as needed
+    }
+
+    /**
+     * Convert the entity to the document to be stored. The primary ID is stored
+     * as <code>_id</code>, converted using {@link #toDocumentID(Object)}.
+     *
+     * @param entity the entity, never <code>null</code>
+     *
+     * @return the document
+     */
+    protected Document toDocument(T entity) {
+        Document document = Document.parse(GsonUtils.getGson().toJson(entity));
+        if (this.entityDetails.idFieldName != null) {
+            document.remove(this.entityDetails.idFieldName);
+        }
+
+        document.put("_id", this.toDocumentID(this.getPrimaryID(entity)));
+        return document;
+    }
+
+    /**
+     * Convert the primary ID to the value stored as <code>_id</code>. IDs that
+     * are valid {@link ObjectId} strings are stored as {@link ObjectId}.
+     *
+     * @param primaryID the primary ID
+     *
+     * @return the value for <code>_id</code>
+     */
+    protected Object toDocumentID(X primaryID) {
+        if (primaryID != null && ObjectId.isValid(primaryID.toString())) {
+            return new ObjectId(primaryID.toString());
+        }
+
+        return primaryID;
+    }
+
+    /**
+     * Convert a document read from the collection to the entity.
+     *
+     * @param document the document, may be <code>null</code>
+     *
+     * @return the entity, or <code>null</code> for a <code>null</code> document
+     */
+    protected T toEntity(Document document) {
+        if (document == null) {
+            return null;
+        }
+
+        return ReflectionMapper.from(document, this.entityClass);
+    }
+
+    protected String getCollectionName() {
+        String name = this.entityClass.getName();
+        char[] array = name.toCharArray();
+        array[0] = Character.toLowerCase(array[0]);
+
+        return new String(array);
+    }
+
+    private CompletableFuture<T> update(T entity, String userID) {
+        Document document = this.prepare(entity, DataStoreOperation.UPDATE, userID);
+        return first(this.collection.replaceOne(Filters.eq("_id", document.get("_id")), document)).thenApply(result -> result.getMatchedCount() > 0 ? entity : null);
+    }
+
+    private CompletableFuture<T> delete(T entity, String userID) {
+        if (entity == null) {
+            throw new IllegalArgumentException("Entity cannot be null");
+        }
+
+        this.massage(entity, DataStoreOperation.DELETE, userID);
+        if (this.planFor(entity).softDelete) {
+            return this.update(entity, userID);
+        }
+
+        return first(this.collection.deleteOne(this.filterFor(this.getPrimaryID(entity)))).thenApply(result -> result.getDeletedCount() > 0 ? entity : null);
+    }
+
+    private Document prepare(T entity, DataStoreOperation operation, String userID) {
+        if (entity == null) {
+            throw new IllegalArgumentException("Entity cannot be null");
+        }
+
+        this.massage(entity, operation, userID);
+        return this.toDocument(entity);
+    }
+
+    private void massage(T entity, DataStoreOperation operation, String userID) {
+        MassagePlan plan = this.planFor(entity);
+        if (!plan.empty) {
+            long currentTime = plan.needsTime(operation) ? this.clock.currentTimeMillis() : 0;
+            plan.apply(entity, operation, currentTime, userID);
+        }
+
+        this.massageEntity(entity, operation);
+    }
+
+    /**
+     * Read the user from the {@link SecurityContext} of the calling thread, if
+     * the entity is owned by a user.
+     */
+    private String currentUserID(T entity) {
+        if (entity == null || !this.planFor(entity).userOwned) {
+            return null;
+        }
+
+        return SecurityContext.getUserID();
+    }
+
+    private MassagePlan planFor(T entity) {
+        Class<?> clazz = entity.getClass();
+        return clazz == this.entityClass ? this.massagePlan : MassagePlan.forClass(clazz);
+    }
+
+    private Bson filterFor(X primaryID) {
+        return Filters.eq("_id", this.toDocumentID(primaryID));
+    }
+
+    private List<Object> toDocumentIDs(Collection<X> ids) {
+        List<Object> list = new ArrayList<>(ids.size());
+        for (X id : ids) {
+            list.add(this.toDocumentID(id));
+        }
+
+        return list;
+    }
+
+    private static <R> CompletableFuture<R> failed(Throwable error) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /**
+     * Subscribe to the publisher and complete with its first item, or
+     * <code>null</code> if it completes empty.
+     */
+    private static <R> CompletableFuture<R> first(Publisher<R> publisher) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        publisher.subscribe(new Subscriber<R>() {
+
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(R item) {
+                if (future.complete(item)) {
+                    this.subscription.cancel();
+                }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                future.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete() {
+                future.complete(null);
+            }
+
+        });
+
+        return future;
+    }
+
+    /**
+     * Subscribe to the publisher and complete with all its items, mapped using
+     * the given function.
+     */
+    private static <D, R> CompletableFuture<List<R>> all(Publisher<D> publisher, Function<D, R> mapper) {
+        CompletableFuture<List<R>> future = new CompletableFuture<>();
+        publisher.subscribe(new Subscriber<D>() {
+
+            private final List<R> list = new ArrayList<>();
+
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(D item) {
+                try {
+                    this.list.add(mapper.apply(item));
+                } catch (RuntimeException e) {
+                    this.subscription.cancel();
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                future.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete() {
+                future.complete(this.list);
+            }
+
+        });
+
+        return future;
+    }
+
+    /**
+     * Adapts a Reactive Streams {@link Publisher} to a {@link Flow.Publisher},
+     * mapping each item. Demand from the subscriber is passed upstream as is, so
+     * backpressure is preserved.
+     */
+    private static class FlowPublisher<D, R> implements Flow.Publisher<R> {
+
+        private final Publisher<D> source;
+
+        private final Function<D, R> mapper;
+
+        FlowPublisher(Publisher<D> source, Function<D, R> mapper) {
+            this.source = source;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super R> subscriber) {
+            this.source.subscribe(new Subscriber<D>() {
+
+                private Subscription subscription;
+
+                private boolean done;
+
+                @Override
+                public void onSubscribe(Subscription subscription) {
+                    this.subscription = subscription;
+                    subscriber.onSubscribe(new Flow.Subscription() {
+
+                        @Override
+                        public void request(long n) {
+                            subscription.request(n);
+                        }
+
+                        @Override
+                        public void cancel() {
+                            subscription.cancel();
+                        }
+
+                    });
+                }
+
+                @Override
+                public void onNext(D item) {
+                    if (this.done) {
+                        return;
+                    }
+
+                    final R mapped;
+                    try {
+                        mapped = mapper.apply(item);
+                    } catch (RuntimeException e) {
+                        this.done = true;
+                        this.subscription.cancel();
+                        subscriber.onError(e);
+                        return;
+                    }
+
+                    subscriber.onNext(mapped);
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    if (!this.done) {
+                        this.done = true;
+                        subscriber.onError(error);
+                    }
+                }
+
+                @Override
+                public void onComplete() {
+                    if (!this.done) {
+                        this.done = true;
+                        subscriber.onComplete();
+                    }
+                }
+
+            });
+        }
+
+    }
+
+}
@@ -1,17 +1,31 @@
 package com.sangupta.jerry.db.impl;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 import javax.inject.Inject;
 
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.ReturnType;
 import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.serializer.RedisSerializer;
 
+import com.sangupta.jerry.db.DataStorePage;
+import com.sangupta.jerry.db.DataStorePatch;
 import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.DataStoreVersionConflictException;
 
 /**
  * A Redis implementation to {@link DataStoreService} that uses
@@ -21,6 +35,22 @@ import com.sangupta.jerry.db.DataStoreService;
  * store. It can be modified by overriding the {@link #getRedisHashKey()}
  * method.
  * 
+ * Multi-entity writes are pipelined: inserts send one <code>HSETNX</code> per
+ * entity in a single pipeline, upserts send a single <code>HMSET</code>, and
+ * updates check for existence in one pipeline before a single
+ * <code>HMSET</code>.
+ * 
+ * Entities are stored serialized as a whole in a single field of the hash, so
+ * patches cannot write single fields. A patch reads the entity and writes it
+ * back in a <code>MULTI</code> transaction while watching the hash, and retries
+ * if the hash changed in between, so that concurrent writes are not lost.
+ * Versioned entities are updated the same way, checking the version of the
+ * stored entity before writing.
+ * 
+ * Pages returned by {@link #getPage(String, int)} are served from a single
+ * <code>HSCAN</code> cursor, and the token records the cursor and the position
+ * within the last scan step. As <code>HSCAN</code> cannot tell in advance if
+ * more entries remain, the last page may be empty.
  * 
  * @author sangupta
  *
@@ -29,6 +59,18 @@ import com.sangupta.jerry.db.DataStoreService;
  */
 public class RedisDataStoreServiceImpl<T, X> extends AbstractDataStoreServiceImpl<T, X> {
 
+    /**
+     * Script to run a single <code>HSCAN</code> step, returning the raw cursor
+     * and entries independent of the Redis driver in use
+     */
+    private static final byte[] HSCAN_SCRIPT = "return redis.call('HSCAN', KEYS[1], ARGV[1], 'COUNT', ARGV[2])".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Number of times a patch or versioned update is retried when the hash
+     * changes while the entity is read and written back
+     */
+    private static final int MAX_WATCH_ATTEMPTS = 16;
+
     @Inject
     protected RedisTemplate<String, Object> redisTemplate;
 
@@ -75,6 +117,87 @@ public class RedisDataStoreServiceImpl<T, X> extends AbstractDataStoreServiceImp
         return entity;
     }
 
+    @Override
+    protected boolean patchEntity(X primaryID, final DataStorePatch patch) {
+        return this.writeWatched(primaryID, entity -> {
+            EntityPatches.apply(this.entityDetails, entity, patch);
+            return entity;
+        });
+    }
+
+    @Override
+    protected T updateVersionedEntity(final T entity, final long expectedVersion) {
+        final X primaryID = this.getPrimaryID(entity);
+        boolean updated = this.writeWatched(primaryID, stored -> {
+            if (this.getVersion(stored) != expectedVersion) {
+                throw new DataStoreVersionConflictException(primaryID, expectedVersion);
+            }
+
+            return entity;
+        });
+
+        return updated ? entity : null;
+    }
+
+    /**
+     * Read the entity and write back the entity returned by the given function,
+     * in a <code>MULTI</code> transaction while watching the hash. This is
+     * retried if the hash changed since it was watched, so that no concurrent
+     * write is lost.
+     * 
+     * @param primaryID the primary ID of the entity
+     * 
+     * @param function  the function returning the entity to write, given the
+     *                  stored entity
+     * 
+     * @return <code>true</code> if the entity was written, <code>false</code>
+     *         if it does not exist
+     * 
+     * @throws IllegalStateException if the hash kept changing
+     */
+    private boolean writeWatched(final X primaryID, final UnaryOperator<T> function) {
+        final String key = this.getRedisHashKey();
+        for (int attempt = 0; attempt < MAX_WATCH_ATTEMPTS; attempt++) {
+            Boolean written = this.redisTemplate.execute(new SessionCallback<Boolean>() {
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Boolean execute(RedisOperations<K, V> redisOperations) throws DataAccessException {
+                    RedisOperations<String, Object> operations = (RedisOperations<String, Object>) redisOperations;
+                    operations.watch(key);
+
+                    T entity;
+                    try {
+                        Object value = operations.opsForHash().get(key, primaryID);
+                        if (value == null) {
+                            operations.unwatch();
+                            return false;
+                        }
+
+                        entity = function.apply(entityClass.cast(value));
+                    } catch (RuntimeException e) {
+                        operations.unwatch();
+                        throw e;
+                    }
+
+                    operations.multi();
+                    operations.opsForHash().put(key, primaryID, entity);
+                    List<Object> results = operations.exec();
+
+                    // aborted if the hash changed since it was watched
+                    return results == null || results.isEmpty() ? null : true;
+                }
+
+            });
+
+            if (written != null) {
+                return written;
+            }
+        }
+
+        throw new IllegalStateException("Entity kept changing while being written: " + primaryID);
+    }
+
     @Override
     protected T upsertEntity(T entity) {
         X primaryID = this.getPrimaryID(entity);
@@ -82,6 +205,75 @@ public class RedisDataStoreServiceImpl<T, X> extends AbstractDataStoreServiceImp
         return entity;
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    protected List<T> insertMultipleEntities(Collection<T> entities) {
+        final List<T> list = new ArrayList<>(entities);
+        final byte[] key = ((RedisSerializer<String>) this.redisTemplate.getKeySerializer()).serialize(this.getRedisHashKey());
+        final RedisSerializer<Object> hashKeySerializer = (RedisSerializer<Object>) this.redisTemplate.getHashKeySerializer();
+        final RedisSerializer<Object> hashValueSerializer = (RedisSerializer<Object>) this.redisTemplate.getHashValueSerializer();
+
+        List<Object> results = this.redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (T entity : list) {
+                connection.hSetNX(key, hashKeySerializer.serialize(this.getPrimaryID(entity)), hashValueSerializer.serialize(entity));
+            }
+
+            return null;
+        });
+
+        List<T> inserted = new ArrayList<>(list.size());
+        for (int index = 0; index < list.size(); index++) {
+            if (Boolean.TRUE.equals(results.get(index))) {
+                inserted.add(list.get(index));
+            }
+        }
+
+        return inserted;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected List<T> updateMultipleEntities(Collection<T> entities) {
+        final List<T> list = new ArrayList<>(entities);
+        final byte[] key = ((RedisSerializer<String>) this.redisTemplate.getKeySerializer()).serialize(this.getRedisHashKey());
+        final RedisSerializer<Object> hashKeySerializer = (RedisSerializer<Object>) this.redisTemplate.getHashKeySerializer();
+
+        List<Object> results = this.redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (T entity : list) {
+                connection.hExists(key, hashKeySerializer.serialize(this.getPrimaryID(entity)));
+            }
+
+            return null;
+        });
+
+        List<T> updated = new ArrayList<>(list.size());
+        Map<Object, Object> values = new LinkedHashMap<>();
+        for (int index = 0; index < list.size(); index++) {
+            if (Boolean.TRUE.equals(results.get(index))) {
+                T entity = list.get(index);
+                values.put(this.getPrimaryID(entity), entity);
+                updated.add(entity);
+            }
+        }
+
+        if (!values.isEmpty()) {
+            this.redisTemplate.opsForHash().putAll(this.getRedisHashKey(), values);
+        }
+
+        return updated;
+    }
+
+    @Override
+    protected List<T> upsertMultipleEntities(Collection<T> entities) {
+        Map<Object, Object> values = new LinkedHashMap<>();
+        for (T entity : entities) {
+            values.put(this.getPrimaryID(entity), entity);
+        }
+
+        this.redisTemplate.opsForHash().putAll(this.getRedisHashKey(), values);
+        return new ArrayList<>(entities);
+    }
+
     @Override
     protected T deleteEntity(T entity) {
         X primaryID = this.getPrimaryID(entity);
@@ -142,6 +334,85 @@ public class RedisDataStoreServiceImpl<T, X> extends AbstractDataStoreServiceImp
         return list;
     }
 
+    @Override
+    protected DataStorePage<T> getEntityPage(String token, int pageSize) {
+        String cursor = "0";
+        int skip = 0;
+        if (token != null) {
+            String value = decodePageToken(token);
+            int separator = value.indexOf(':');
+            try {
+                cursor = value.substring(0, separator);
+                skip = Integer.parseInt(value.substring(separator + 1));
+                Long.parseUnsignedLong(cursor);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid page token", e);
+            }
+
+            if (skip < 0) {
+                throw new IllegalArgumentException("Invalid page token");
+            }
+        }
+
+        List<T> list = new ArrayList<>();
+        while (true) {
+            List<Object> step = this.scanStep(cursor, pageSize);
+            String nextCursor = asString(step.get(0));
+            List<?> entries = (List<?>) step.get(1);
+
+            // entries are returned as flat key, value pairs
+            int count = entries.size() / 2;
+            int index = skip;
+            for (; index < count && list.size() < pageSize; index++) {
+                list.add(this.entityClass.cast(this.redisTemplate.getHashValueSerializer().deserialize((byte[]) entries.get(2 * index + 1))));
+            }
+
+            if (index < count) {
+                // page is full before this step was consumed, continue from here
+                return new DataStorePage<>(list, encodePageToken(cursor + ":" + index));
+            }
+
+            if ("0".equals(nextCursor)) {
+                return new DataStorePage<>(list, null);
+            }
+
+            cursor = nextCursor;
+            skip = 0;
+
+            if (list.size() >= pageSize) {
+                return new DataStorePage<>(list, encodePageToken(cursor + ":0"));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> scanStep(String cursor, int count) {
+        final byte[] key = ((RedisSerializer<String>) this.redisTemplate.getKeySerializer()).serialize(this.getRedisHashKey());
+        final byte[] cursorBytes = cursor.getBytes(StandardCharsets.UTF_8);
+        final byte[] countBytes = String.valueOf(count).getBytes(StandardCharsets.UTF_8);
+
+        return this.redisTemplate.execute((RedisCallback<List<Object>>) connection -> connection.eval(HSCAN_SCRIPT, ReturnType.MULTI, 1, key, cursorBytes, countBytes));
+    }
+
+    private static String asString(Object value) {
+        if (value instanceof byte[]) {
+            return new String((byte[]) value, StandardCharsets.UTF_8);
+        }
+
+        return String.valueOf(value);
+    }
+
+    @Override
+    protected Stream<T> streamEntities(int fetchSize) {
+        ScanOptions scanOptions = ScanOptions.scanOptions().count(fetchSize).build();
+        Cursor<Entry<Object, Object>> cursor = this.redisTemplate.opsForHash().scan(this.getRedisHashKey(), scanOptions);
+        if(cursor == null) {
+            return Stream.empty();
+        }
+        
+        return EntityStreams.of(cursor, cursor).map(entry -> this.entityClass.cast(entry.getValue()));
+    }
+
     @Override
     protected List<T> getMultipleEntities(Collection<X> ids) {
         List<T> list = new ArrayList<>();
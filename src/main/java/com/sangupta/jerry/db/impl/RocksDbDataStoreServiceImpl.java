@@ -1,5 +1,488 @@
 package com.sangupta.jerry.db.impl;
 
-public class RocksDbDataStoreServiceImpl {
+import java.io.Closeable;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import com.sangupta.jerry.db.DataStoreOperation;
+import com.sangupta.jerry.db.DataStorePage;
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.EntitySerializer;
+
+/**
+ * A {@link DataStoreService} implementation backed by an embedded
+ * <a href="https://rocksdb.org">RocksDB</a> database. Entities are kept on disk
+ * and only the RocksDB caches reside in heap, thus the store can hold far more
+ * data than fits in memory. The implementation can be used as:
+ *
+ * <pre>
+ * DataStoreService<MyEntity, String> service = new RocksDbDataStoreServiceImpl<MyEntity, String>(new File("mydb")) {};
+ * </pre>
+ *
+ * Entities are serialized using the given {@link EntitySerializer}, which
+ * defaults to {@link GsonEntitySerializer}. The primary ID is stored as the
+ * UTF-8 bytes of its {@link String} form, which may be changed by overriding
+ * {@link #toKeyBytes(Object)}. RocksDB options may be tuned by overriding
+ * {@link #createOptions()}.
+ *
+ * RocksDB cannot seek to the n-th key, thus {@link #getAll(int, int)} steps
+ * over all keys before the requested page and gets slower the deeper the page
+ * is. Callers paging over large stores should use
+ * {@link #getPage(String, int)} instead, which seeks to the last key of the
+ * previous page.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ *
+ * @param <X> The primary ID key for this entity object
+ */
+public class RocksDbDataStoreServiceImpl<T, X> extends AbstractDataStoreServiceImpl<T, X> implements Closeable {
+
+    static {
+        RocksDB.loadLibrary();
+    }
+
+    protected final File dbPath;
+
+    protected final EntitySerializer<T> serializer;
+
+    protected final Options options;
+
+    protected final WriteOptions writeOptions;
+
+    protected final RocksDB db;
+
+    /**
+     * Locks to make check-then-write operations atomic for a given key
+     */
+    private final StripedLocks locks = new StripedLocks(64);
+
+    public RocksDbDataStoreServiceImpl(File dbPath) {
+        this(dbPath, null);
+    }
+
+    public RocksDbDataStoreServiceImpl(File dbPath, EntitySerializer<T> serializer) {
+        super();
+
+        if (dbPath == null) {
+            throw new IllegalArgumentException("Database path cannot be null");
+        }
+
+        this.dbPath = dbPath;
+        this.serializer = serializer != null ? serializer : new GsonEntitySerializer<>(this.entityClass);
+        this.options = this.createOptions();
+        this.writeOptions = new WriteOptions();
+
+        try {
+            this.dbPath.mkdirs();
+            this.db = RocksDB.open(this.options, this.dbPath.getAbsolutePath());
+        } catch (RocksDBException e) {
+            this.writeOptions.close();
+            this.options.close();
+            throw new RuntimeException("Unable to open RocksDB at: " + dbPath, e);
+        }
+    }
+
+    /**
+     * Create the options used to open the database. Child classes may override
+     * this method to tune block cache, compression, compaction etc.
+     *
+     * @return the options to use
+     */
+    protected Options createOptions() {
+        return new Options().setCreateIfMissing(true);
+    }
+
+    /**
+     * Convert the primary ID to the key bytes under which the entity is stored.
+     *
+     * @param primaryID the primary ID, never <code>null</code>
+     *
+     * @return the key bytes
+     */
+    protected byte[] toKeyBytes(X primaryID) {
+        return String.valueOf(primaryID).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public long count() {
+        long count = 0;
+        try (RocksIterator iterator = this.db.newIterator()) {
+            for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    public void deleteAll() {
+        try (RocksIterator iterator = this.db.newIterator()) {
+            iterator.seekToFirst();
+            if (!iterator.isValid()) {
+                return;
+            }
+
+            byte[] first = iterator.key();
+
+            iterator.seekToLast();
+            byte[] last = iterator.key();
+
+            // range end is exclusive, go one beyond the last key
+            byte[] end = Arrays.copyOf(last, last.length + 1);
+
+            this.db.deleteRange(this.writeOptions, first, end);
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected T getEntity(X primaryID) {
+        try {
+            return this.serializer.deserialize(this.db.get(this.toKeyBytes(primaryID)));
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected T insertEntity(T entity) {
+        X primaryID = this.getPrimaryID(entity);
+        byte[] key = this.toKeyBytes(primaryID);
+
+        try {
+            synchronized (this.locks.lockFor(primaryID)) {
+                if (this.db.get(key) != null) {
+                    return null;
+                }
+
+                this.db.put(this.writeOptions, key, this.serializer.serialize(entity));
+            }
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+
+        return entity;
+    }
+
+    @Override
+    protected T updateEntity(T entity) {
+        X primaryID = this.getPrimaryID(entity);
+        byte[] key = this.toKeyBytes(primaryID);
+
+        try {
+            synchronized (this.locks.lockFor(primaryID)) {
+                if (this.db.get(key) == null) {
+                    return null;
+                }
+
+                this.db.put(this.writeOptions, key, this.serializer.serialize(entity));
+            }
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+
+        return entity;
+    }
+
+    @Override
+    protected T upsertEntity(T entity) {
+        X primaryID = this.getPrimaryID(entity);
+
+        try {
+            synchronized (this.locks.lockFor(primaryID)) {
+                this.db.put(this.writeOptions, this.toKeyBytes(primaryID), this.serializer.serialize(entity));
+            }
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+
+        return entity;
+    }
+
+    @Override
+    protected T deleteEntity(T entity) {
+        return this.deleteEntityForID(this.getPrimaryID(entity));
+    }
+
+    @Override
+    protected T deleteEntityForID(X primaryID) {
+        byte[] key = this.toKeyBytes(primaryID);
+
+        try {
+            synchronized (this.locks.lockFor(primaryID)) {
+                byte[] value = this.db.get(key);
+                if (value == null) {
+                    return null;
+                }
+
+                this.db.delete(this.writeOptions, key);
+                return this.serializer.deserialize(value);
+            }
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected List<T> getAllEntities() {
+        List<T> list = new ArrayList<>();
+        try (RocksIterator iterator = this.db.newIterator()) {
+            for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                list.add(this.serializer.deserialize(iterator.value()));
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Read the page by stepping over the first <code>start</code> keys, which
+     * takes time proportional to <code>start</code>. Prefer
+     * {@link #getPage(String, int)} to page over large stores.
+     */
+    @Override
+    protected List<T> getAllEntities(int page, int pageSize, int start, int end) {
+        List<T> list = new ArrayList<>();
+        try (RocksIterator iterator = this.db.newIterator()) {
+            iterator.seekToFirst();
+
+            // skip over keys without reading values
+            for (int skipped = 0; skipped < start && iterator.isValid(); skipped++) {
+                iterator.next();
+            }
+
+            for (; iterator.isValid() && list.size() < pageSize; iterator.next()) {
+                list.add(this.serializer.deserialize(iterator.value()));
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    protected DataStorePage<T> getEntityPage(String token, int pageSize) {
+        List<T> list = new ArrayList<>();
+        try (RocksIterator iterator = this.db.newIterator()) {
+            if (token == null) {
+                iterator.seekToFirst();
+            } else {
+                // position at the last key of previous page, or the one after it
+                byte[] lastKey = decodePageTokenBytes(token);
+                iterator.seek(lastKey);
+                if (iterator.isValid() && Arrays.equals(iterator.key(), lastKey)) {
+                    iterator.next();
+                }
+            }
+
+            byte[] lastKey = null;
+            for (; iterator.isValid() && list.size() < pageSize; iterator.next()) {
+                lastKey = iterator.key();
+                list.add(this.serializer.deserialize(iterator.value()));
+            }
+
+            if (iterator.isValid() && lastKey != null) {
+                return new DataStorePage<>(list, encodePageToken(lastKey));
+            }
+        }
+
+        return new DataStorePage<>(list, null);
+    }
+
+    @Override
+    protected Stream<T> streamEntities(int fetchSize) {
+        // scan from a private snapshot and do not pollute the block cache
+        final ReadOptions readOptions = new ReadOptions().setSnapshot(this.db.getSnapshot()).setFillCache(false);
+        final RocksIterator iterator = this.db.newIterator(readOptions);
+        iterator.seekToFirst();
+
+        Iterator<T> entities = new Iterator<T>() {
+
+            @Override
+            public boolean hasNext() {
+                return iterator.isValid();
+            }
+
+            @Override
+            public T next() {
+                if (!iterator.isValid()) {
+                    throw new NoSuchElementException();
+                }
+
+                T entity = serializer.deserialize(iterator.value());
+                iterator.next();
+                return entity;
+            }
+
+        };
+
+        return EntityStreams.of(entities, () -> {
+            iterator.close();
+            this.db.releaseSnapshot(readOptions.snapshot());
+            readOptions.close();
+        });
+    }
+
+    @Override
+    protected List<T> getMultipleEntities(Collection<X> ids) {
+        List<byte[]> keys = new ArrayList<>(ids.size());
+        for (X id : ids) {
+            keys.add(this.toKeyBytes(id));
+        }
+
+        List<byte[]> values;
+        try {
+            values = this.db.multiGetAsList(keys);
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+
+        List<T> list = new ArrayList<>(values.size());
+        for (byte[] value : values) {
+            if (value != null) {
+                list.add(this.serializer.deserialize(value));
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    protected List<T> getMultipleEntities(X[] ids) {
+        return this.getMultipleEntities(Arrays.asList(ids));
+    }
+
+    @Override
+    protected List<T> deleteMultipleEntities(Collection<X> ids) {
+        final List<byte[]> keys = new ArrayList<>(ids.size());
+        for (X id : ids) {
+            keys.add(this.toKeyBytes(id));
+        }
+
+        // hold the locks of all keys so that the entities returned are the
+        // ones deleted, and do not race concurrent writes
+        final List<T> list = new ArrayList<>();
+        this.locks.runLocked(ids, () -> {
+            try (WriteBatch batch = new WriteBatch()) {
+                List<byte[]> values = this.db.multiGetAsList(keys);
+
+                for (int index = 0; index < values.size(); index++) {
+                    byte[] value = values.get(index);
+                    if (value == null) {
+                        continue;
+                    }
+
+                    batch.delete(keys.get(index));
+                    list.add(this.serializer.deserialize(value));
+                }
+
+                this.db.write(this.writeOptions, batch);
+            } catch (RocksDBException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        return list;
+    }
+
+    @Override
+    protected List<T> deleteMultipleEntities(X[] ids) {
+        return this.deleteMultipleEntities(Arrays.asList(ids));
+    }
+
+    @Override
+    public void close() {
+        this.db.close();
+        this.writeOptions.close();
+        this.options.close();
+    }
+
+    @Override
+    protected List<T> insertMultipleEntities(Collection<T> entities) {
+        return this.writeMultiple(entities, DataStoreOperation.CREATE);
+    }
+
+    @Override
+    protected List<T> updateMultipleEntities(Collection<T> entities) {
+        return this.writeMultiple(entities, DataStoreOperation.UPDATE);
+    }
+
+    @Override
+    protected List<T> upsertMultipleEntities(Collection<T> entities) {
+        return this.writeMultiple(entities, DataStoreOperation.UPSERT);
+    }
+
+    /**
+     * Write all entities as a single {@link WriteBatch}, holding the locks of all
+     * keys so that existence checks and writes are atomic.
+     * 
+     * @param entities  the entities to write
+     * 
+     * @param operation one of {@link DataStoreOperation#CREATE},
+     *                  {@link DataStoreOperation#UPDATE} or
+     *                  {@link DataStoreOperation#UPSERT}
+     * 
+     * @return the entities that were written
+     */
+    private List<T> writeMultiple(Collection<T> entities, DataStoreOperation operation) {
+        final List<X> ids = new ArrayList<>(entities.size());
+        final List<byte[]> keys = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            X id = this.getPrimaryID(entity);
+            ids.add(id);
+            keys.add(this.toKeyBytes(id));
+        }
+
+        final List<T> list = new ArrayList<>(entities.size());
+        this.locks.runLocked(ids, () -> {
+            try (WriteBatch batch = new WriteBatch()) {
+                List<byte[]> existing = operation == DataStoreOperation.UPSERT ? null : this.db.multiGetAsList(keys);
+                Set<X> batched = new HashSet<>();
+
+                int index = 0;
+                for (T entity : entities) {
+                    final int current = index++;
+                    if (operation == DataStoreOperation.CREATE && (existing.get(current) != null || !batched.add(ids.get(current)))) {
+                        continue;
+                    }
+
+                    if (operation == DataStoreOperation.UPDATE && existing.get(current) == null) {
+                        continue;
+                    }
+
+                    batch.put(keys.get(current), this.serializer.serialize(entity));
+                    list.add(entity);
+                }
+
+                this.db.write(this.writeOptions, batch);
+            } catch (RocksDBException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        return list;
+    }
 
 }
@@ -0,0 +1,76 @@
+package com.sangupta.jerry.db.impl;
+
+import java.security.Principal;
+import java.util.function.Supplier;
+
+import com.sangupta.jerry.security.SecurityContext;
+
+/**
+ * Helper methods to carry the {@link SecurityContext} of a caller over to the
+ * thread that runs a data store call on its behalf, so that entities owned by
+ * a user are checked against, and stamped with, the caller.
+ *
+ * @author sangupta
+ *
+ */
+final class SecurityContexts {
+
+    private SecurityContexts() {
+        // cannot be instantiated
+    }
+
+    /**
+     * Return the principal of the calling thread, to be handed to
+     * {@link #callAs(Principal, Supplier)} on another thread.
+     *
+     * @return the principal, may be <code>null</code>
+     */
+    static Principal capture() {
+        return SecurityContext.getPrincipal();
+    }
+
+    /**
+     * Run the call with the given principal set in the {@link SecurityContext}
+     * of the current thread, restoring the principal the thread had before once
+     * the call completes.
+     *
+     * @param principal the principal to run as, may be <code>null</code>
+     *
+     * @param call      the call to run
+     *
+     * @return the result of the call
+     */
+    static <R> R callAs(Principal principal, Supplier<R> call) {
+        Principal previous = SecurityContext.getPrincipal();
+        set(principal);
+        try {
+            return call.get();
+        } finally {
+            set(previous);
+        }
+    }
+
+    /**
+     * Run the action as in {@link #callAs(Principal, Supplier)}.
+     *
+     * @param principal the principal to run as, may be <code>null</code>
+     *
+     * @param action    the action to run
+     */
+    static void runAs(Principal principal, Runnable action) {
+        callAs(principal, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    private static void set(Principal principal) {
+        if (principal == null) {
+            SecurityContext.clearPrincipal();
+            return;
+        }
+
+        SecurityContext.setPrincipal(principal);
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.sangupta.jerry.db.impl;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * A fixed set of monitors that keys are hashed onto, so that operations on
+ * the same key are serialized without needing a lock per key, while
+ * operations on different keys rarely contend.
+ * 
+ * @author sangupta
+ *
+ */
+final class StripedLocks {
+
+    private final Object[] locks;
+
+    private final int mask;
+
+    /**
+     * Create an instance with at least the given number of stripes. The actual
+     * number is rounded up to the next power of two.
+     * 
+     * @param stripes the minimum number of stripes
+     */
+    StripedLocks(int stripes) {
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+
+        this.locks = new Object[size];
+        for (int index = 0; index < size; index++) {
+            this.locks[index] = new Object();
+        }
+
+        this.mask = size - 1;
+    }
+
+    /**
+     * Return the monitor that guards the given key.
+     * 
+     * @param key the key, must not be <code>null</code>
+     * 
+     * @return the monitor to synchronize upon
+     */
+    Object lockFor(Object key) {
+        return this.locks[this.indexFor(key)];
+    }
+
+    /**
+     * Run the given action holding the monitors of all given keys. Monitors are
+     * always acquired in the same order, so that two callers locking
+     * overlapping keys cannot deadlock.
+     * 
+     * @param keys   the keys, none of which may be <code>null</code>
+     * 
+     * @param action the action to run
+     */
+    void runLocked(Collection<?> keys, Runnable action) {
+        BitSet stripes = new BitSet(this.locks.length);
+        for (Object key : keys) {
+            stripes.set(this.indexFor(key));
+        }
+
+        this.runLocked(stripes, stripes.nextSetBit(0), action);
+    }
+
+    private void runLocked(BitSet stripes, int stripe, Runnable action) {
+        if (stripe < 0) {
+            action.run();
+            return;
+        }
+
+        synchronized (this.locks[stripe]) {
+            this.runLocked(stripes, stripes.nextSetBit(stripe + 1), action);
+        }
+    }
+
+    private int indexFor(Object key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return hash & this.mask;
+    }
+
+}
@@ -0,0 +1,519 @@
+package com.sangupta.jerry.db.impl;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only log of mutations that group-commits writes and
+ * <code>fsync</code> calls across concurrent writers. Each writer appends its
+ * record to an in-memory buffer and receives a sequence number. The first
+ * writer to wait for durability becomes the leader, writes out everything that
+ * has been buffered so far and forces it to disk, while all other writers wait
+ * for the leader to be done. Thus, a single <code>fsync</code> is shared by all
+ * writers that arrived while the previous one was in progress.
+ *
+ * Each record is laid out as:
+ *
+ * <pre>
+ * int     payload length
+ * int     CRC32 of payload
+ * payload
+ *     byte   operation
+ *     int    key length
+ *     byte[] key
+ *     byte[] value (rest of the payload)
+ * </pre>
+ *
+ * A torn or corrupt record at the tail of the log, as left behind by a crash,
+ * is discarded when the log is replayed.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ */
+public class WriteAheadLog implements Closeable {
+
+    /**
+     * logger instance
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    /**
+     * Operation when an entity is stored against a key
+     */
+    public static final byte OPERATION_PUT = 1;
+
+    /**
+     * Operation when an entity is removed for a key
+     */
+    public static final byte OPERATION_REMOVE = 2;
+
+    /**
+     * Size of record header: payload length and checksum
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Callback to receive records when replaying a log.
+     *
+     */
+    public interface RecordHandler {
+
+        /**
+         * Handle a single record from the log.
+         *
+         * @param operation the operation that was logged
+         *
+         * @param key       the key bytes
+         *
+         * @param value     the value bytes, empty for removals
+         */
+        public void handle(byte operation, byte[] key, byte[] value);
+
+    }
+
+    private final File file;
+
+    /**
+     * Guards the pending buffer and the appended sequence
+     */
+    private final Object appendLock = new Object();
+
+    /**
+     * Guards the synced sequence and the leader flag
+     */
+    private final Object syncMonitor = new Object();
+
+    private FileChannel channel;
+
+    private byte[] pending = new byte[64 * 1024];
+
+    private int pendingCount;
+
+    private byte[] spare = new byte[64 * 1024];
+
+    private long appendedSequence;
+
+    private long syncedSequence;
+
+    private boolean syncing;
+
+    private volatile long size;
+
+    private volatile boolean closed;
+
+    /**
+     * The error that left the log unusable, <code>null</code> if none
+     */
+    private volatile IOException failure;
+
+    /**
+     * Open the log for appending. Any existing content is preserved, and the log
+     * is expected to have been replayed and truncated to its valid length using
+     * {@link #replay(File, RecordHandler)} before.
+     *
+     * @param file the file to append to
+     *
+     * @throws IOException if the file cannot be opened
+     */
+    public WriteAheadLog(File file) throws IOException {
+        this.file = file;
+        this.channel = openChannel(file);
+        this.size = this.channel.size();
+    }
+
+    /**
+     * Append a record to the log. The record is buffered and is not durable until
+     * {@link #sync(long)} returns for the returned sequence.
+     *
+     * @param operation the operation
+     *
+     * @param key       the key bytes
+     *
+     * @param value     the value bytes, may be <code>null</code>
+     *
+     * @return the sequence number of the appended record
+     */
+    public long append(byte operation, byte[] key, byte[] value) {
+        final int valueLength = value == null ? 0 : value.length;
+        final int payloadLength = 1 + 4 + key.length + valueLength;
+
+        CRC32 crc = new CRC32();
+        crc.update(operation);
+        crc.update(key.length >>> 24);
+        crc.update(key.length >>> 16);
+        crc.update(key.length >>> 8);
+        crc.update(key.length);
+        crc.update(key);
+        if (valueLength > 0) {
+            crc.update(value);
+        }
+
+        synchronized (this.appendLock) {
+            if (this.closed) {
+                throw new IllegalStateException("Write-ahead log is already closed");
+            }
+
+            if (this.failure != null) {
+                throw new IllegalStateException("Write-ahead log has failed: " + this.file, this.failure);
+            }
+
+            ByteBuffer buffer = this.reserve(HEADER_SIZE + payloadLength);
+            buffer.putInt(payloadLength);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(operation);
+            buffer.putInt(key.length);
+            buffer.put(key);
+            if (valueLength > 0) {
+                buffer.put(value);
+            }
+
+            this.pendingCount += HEADER_SIZE + payloadLength;
+            this.size += HEADER_SIZE + payloadLength;
+            return ++this.appendedSequence;
+        }
+    }
+
+    /**
+     * Block until the record with given sequence, and all records before it, are
+     * durable on disk. If writing out or forcing the log fails, the log is left
+     * unusable, as records may have been partly written, and every record not
+     * yet durable fails to sync.
+     *
+     * @param sequence the sequence as returned by {@link #append(byte, byte[], byte[])}
+     *
+     * @throws RuntimeException if the record cannot be made durable
+     */
+    public void sync(long sequence) {
+        if (!this.becomeLeader(sequence)) {
+            return;
+        }
+
+        long target = -1;
+        try {
+            this.checkNotFailed();
+            target = this.writeAndForce();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to sync write-ahead log: " + this.file, e);
+        } finally {
+            this.resignLeader(target);
+        }
+    }
+
+    /**
+     * Move all content written so far to the given archive file, and start
+     * afresh with an empty log. Records appended after this call returns go to
+     * the new log. If the log cannot be moved, it carries on in the same file.
+     *
+     * @param archive the file to move existing content to
+     *
+     * @throws IOException if the log cannot be moved
+     */
+    public void rotate(File archive) throws IOException {
+        this.becomeLeader(Long.MAX_VALUE);
+
+        long target = -1;
+        try {
+            this.checkNotFailed();
+            target = this.writeAndForce();
+            final long rotated = this.channel.size();
+            this.channel.close();
+
+            try {
+                Files.move(this.file.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                this.channel = openChannel(this.file);
+            }
+
+            // records appended since the pending buffer was written out are
+            // still counted, and go to the new log
+            synchronized (this.appendLock) {
+                this.size -= rotated;
+            }
+        } catch (IOException e) {
+            if (!this.channel.isOpen()) {
+                // the log could not be reopened
+                this.failure = e;
+            }
+
+            throw e;
+        } finally {
+            this.resignLeader(target);
+        }
+    }
+
+    /**
+     * Return the number of bytes in the current log, including records that are
+     * yet to be written out.
+     *
+     * @return the size in bytes
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * Return the file backing this log.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Write out and sync all pending records, and close the log.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this.appendLock) {
+            if (this.closed) {
+                return;
+            }
+
+            this.closed = true;
+        }
+
+        this.becomeLeader(Long.MAX_VALUE);
+        long target = -1;
+        try {
+            if (this.failure == null) {
+                target = this.writeAndForce();
+            }
+        } finally {
+            try {
+                this.channel.close();
+            } finally {
+                this.resignLeader(target);
+            }
+        }
+    }
+
+    /**
+     * Replay all valid records from the given log file. If the log ends in a torn
+     * or corrupt record, the file is truncated to the end of the last valid
+     * record.
+     *
+     * @param file    the log file to replay
+     *
+     * @param handler the handler to receive records
+     *
+     * @return the number of records replayed
+     *
+     * @throws IOException if the file cannot be read
+     */
+    public static long replay(File file, RecordHandler handler) throws IOException {
+        if (file == null || !file.exists()) {
+            return 0;
+        }
+
+        long records = 0;
+        long validLength = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long length = channel.size();
+            DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+
+            CRC32 crc = new CRC32();
+            while (validLength + HEADER_SIZE <= length) {
+                int payloadLength;
+                int checksum;
+                byte[] payload;
+                try {
+                    payloadLength = input.readInt();
+                    checksum = input.readInt();
+                    if (payloadLength < 5 || validLength + HEADER_SIZE + payloadLength > length) {
+                        break;
+                    }
+
+                    payload = new byte[payloadLength];
+                    input.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                ByteBuffer buffer = ByteBuffer.wrap(payload);
+                byte operation = buffer.get();
+                int keyLength = buffer.getInt();
+                if (keyLength < 0 || keyLength > buffer.remaining()) {
+                    break;
+                }
+
+                byte[] key = new byte[keyLength];
+                buffer.get(key);
+                byte[] value = new byte[buffer.remaining()];
+                buffer.get(value);
+
+                handler.handle(operation, key, value);
+                records++;
+                validLength += HEADER_SIZE + payloadLength;
+            }
+
+            if (validLength < length) {
+                LOGGER.warn("Discarding {} bytes of torn or corrupt records at the tail of write-ahead log: {}", length - validLength, file);
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Wait until either the given sequence is durable, or this thread is the
+     * leader that must make it durable.
+     *
+     * @param sequence the sequence to wait for
+     *
+     * @return <code>true</code> if this thread is now the leader,
+     *         <code>false</code> if the sequence is already durable
+     */
+    private boolean becomeLeader(long sequence) {
+        boolean interrupted = false;
+        try {
+            synchronized (this.syncMonitor) {
+                while (this.syncing && this.syncedSequence < sequence) {
+                    try {
+                        this.syncMonitor.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+
+                if (this.syncedSequence >= sequence) {
+                    return false;
+                }
+
+                this.syncing = true;
+                return true;
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Give up leadership, marking the given sequence as durable.
+     *
+     * @param target the sequence now durable, or <code>-1</code> if the leader
+     *               failed
+     */
+    private void resignLeader(long target) {
+        synchronized (this.syncMonitor) {
+            if (target > this.syncedSequence) {
+                this.syncedSequence = target;
+            }
+
+            this.syncing = false;
+            this.syncMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Write all pending records to the channel and force them to disk, leaving
+     * the log unusable if that fails. Must only be called by the leader.
+     *
+     * @return the sequence of the last record now durable
+     *
+     * @throws IOException if writing or forcing fails
+     */
+    private long writeAndForce() throws IOException {
+        try {
+            long target = this.writePending();
+            this.channel.force(false);
+            return target;
+        } catch (IOException e) {
+            // the records are gone from the buffer, and may be partly written
+            this.failure = e;
+            throw e;
+        }
+    }
+
+    /**
+     * Fail if an earlier error left the log unusable.
+     *
+     * @throws IOException if the log has failed
+     */
+    private void checkNotFailed() throws IOException {
+        if (this.failure != null) {
+            throw new IOException("Write-ahead log has failed: " + this.file, this.failure);
+        }
+    }
+
+    /**
+     * Write all pending records to the channel. Must only be called by the leader.
+     *
+     * @return the sequence of the last record written
+     *
+     * @throws IOException if writing fails
+     */
+    private long writePending() throws IOException {
+        final byte[] bytes;
+        final int count;
+        final long target;
+
+        synchronized (this.appendLock) {
+            bytes = this.pending;
+            count = this.pendingCount;
+            target = this.appendedSequence;
+
+            this.pending = this.spare;
+            this.pendingCount = 0;
+            this.spare = bytes;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, count);
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+
+        return target;
+    }
+
+    /**
+     * Make sure the pending buffer has room for given number of bytes, and return
+     * a buffer positioned at the end of pending data. Must be called holding the
+     * append lock.
+     *
+     * @param length the number of bytes needed
+     *
+     * @return the buffer to write into
+     */
+    private ByteBuffer reserve(int length) {
+        if (this.pendingCount + length > this.pending.length) {
+            byte[] grown = new byte[Math.max(this.pending.length * 2, this.pendingCount + length)];
+            System.arraycopy(this.pending, 0, grown, 0, this.pendingCount);
+            this.pending = grown;
+        }
+
+        return ByteBuffer.wrap(this.pending, this.pendingCount, length);
+    }
+
+    private static FileChannel openChannel(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+}
@@ -0,0 +1,734 @@
+package com.sangupta.jerry.db.impl;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sangupta.jerry.db.DataStorePage;
+import com.sangupta.jerry.db.DataStorePatch;
+import com.sangupta.jerry.db.DataStoreQuery;
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.EntityScanner;
+import com.sangupta.jerry.db.Version;
+import com.sangupta.jerry.security.SecurityContext;
+
+/**
+ * A write-behind buffer in front of any {@link DataStoreService}. Calls to
+ * {@link #update(Object)} and {@link #upsert(Object)} are held in memory, one
+ * pending write per primary ID, so that repeated writes to the same entity are
+ * coalesced into a single write. Pending writes are sent to the underlying
+ * store using {@link DataStoreService#updateMultiple(Collection)} and
+ * {@link DataStoreService#upsertMultiple(Collection)}, once the batch size is
+ * reached or the flush interval elapses, whichever comes first. The
+ * implementation can be used as:
+ *
+ * <pre>
+ * WriteBehindDataStoreService<MyEntity, String> service = new WriteBehindDataStoreService<>(delegate, 500, 1000, 10_000);
+ * </pre>
+ *
+ * Reads through this instance see pending writes: point reads are answered from
+ * the buffer, and scans, queries, pages and counts flush the buffer first.
+ * Inserts, deletes and patches are sent to the underlying store right away, a
+ * patch first writing out the pending write of the entity, if any. Writes of
+ * entities with a {@link Version} field are never buffered, so that version
+ * conflicts are raised to the writer. An update is
+ * only buffered if the entity exists, which costs one read from the underlying
+ * store the first time an entity is updated in a flush window.
+ *
+ * The buffer is bounded: once it holds the maximum number of pending writes,
+ * the writing thread flushes it before returning. The bound is approximate, as
+ * writers check the size of the buffer after adding to it without taking a
+ * lock, and may exceed it by up to one write per concurrent writer. Entities
+ * are massaged by the underlying store when they are flushed, as the user that
+ * wrote them as per the {@link SecurityContext} at the time of the write, and
+ * writes that user is not allowed to make are dropped. Entities must not be
+ * modified after being handed over, other than by writing them again.
+ * {@link #close()} flushes all pending writes before closing the underlying
+ * store.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ *
+ * @param <T> The entity object type which is persisted in the datastore
+ *
+ * @param <X> The primary ID key for this entity object
+ */
+public class WriteBehindDataStoreService<T, X> extends ForwardingDataStoreService<T, X> {
+
+    /**
+     * logger instance
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindDataStoreService.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+    public static final int DEFAULT_MAX_PENDING = 10_000;
+
+    protected final int batchSize;
+
+    protected final int maxPending;
+
+    private final ConcurrentHashMap<X, PendingWrite<T>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Serializes flushes, and keeps inserts and deletes from racing with a flush
+     * of the same key
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Whether a flush has been requested as the batch size was reached
+     */
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private final LongAdder flushed = new LongAdder();
+
+    public WriteBehindDataStoreService(DataStoreService<T, X> delegate) {
+        this(delegate, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * Create a write-behind buffer in front of the given store.
+     *
+     * @param delegate            the store to write to
+     *
+     * @param batchSize           the number of pending writes that triggers a
+     *                            flush, and the largest batch sent in one call
+     *
+     * @param flushIntervalMillis the maximum time a write stays pending
+     *
+     * @param maxPending          the maximum number of pending writes, after
+     *                            which writers flush on their own thread. The
+     *                            bound is approximate, see above
+     */
+    public WriteBehindDataStoreService(DataStoreService<T, X> delegate, int batchSize, long flushIntervalMillis, int maxPending) {
+        super(delegate);
+
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Flush interval must be positive");
+        }
+
+        if (maxPending < batchSize) {
+            throw new IllegalArgumentException("Max pending cannot be less than batch size");
+        }
+
+        this.batchSize = batchSize;
+        this.maxPending = maxPending;
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-behind-data-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public T get(X primaryID) {
+        if (primaryID != null) {
+            PendingWrite<T> write = this.pending.get(primaryID);
+            if (write != null) {
+                return write.entity;
+            }
+        }
+
+        return this.delegate.get(primaryID);
+    }
+
+    @Override
+    public List<T> getMultiple(Collection<X> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return this.delegate.getMultiple(ids);
+        }
+
+        List<T> list = new ArrayList<>(ids.size());
+        List<X> remaining = new ArrayList<>(ids.size());
+        for (X id : ids) {
+            PendingWrite<T> write = id != null ? this.pending.get(id) : null;
+            if (write != null) {
+                list.add(write.entity);
+            } else {
+                remaining.add(id);
+            }
+        }
+
+        if (!remaining.isEmpty()) {
+            List<T> loaded = this.delegate.getMultiple(remaining);
+            if (loaded != null) {
+                list.addAll(loaded);
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    public List<T> getMultiple(X[] ids) {
+        if (ids == null || ids.length == 0) {
+            return this.delegate.getMultiple(ids);
+        }
+
+        return this.getMultiple(Arrays.asList(ids));
+    }
+
+    @Override
+    public T get(X primaryID, Collection<String> fields) {
+        if (primaryID != null && fields != null) {
+            // the full entity is a valid answer for any fields
+            PendingWrite<T> write = this.pending.get(primaryID);
+            if (write != null) {
+                return write.entity;
+            }
+        }
+
+        return this.delegate.get(primaryID, fields);
+    }
+
+    @Override
+    public List<T> getMultiple(Collection<X> ids, Collection<String> fields) {
+        if (ids == null || ids.isEmpty() || fields == null) {
+            return this.delegate.getMultiple(ids, fields);
+        }
+
+        List<T> list = new ArrayList<>(ids.size());
+        List<X> remaining = new ArrayList<>(ids.size());
+        for (X id : ids) {
+            PendingWrite<T> write = id != null ? this.pending.get(id) : null;
+            if (write != null) {
+                list.add(write.entity);
+            } else {
+                remaining.add(id);
+            }
+        }
+
+        if (!remaining.isEmpty()) {
+            List<T> loaded = this.delegate.getMultiple(remaining, fields);
+            if (loaded != null) {
+                list.addAll(loaded);
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    public List<T> getAll() {
+        this.flush();
+        return this.delegate.getAll();
+    }
+
+    @Override
+    public Stream<T> stream() {
+        this.flush();
+        return this.delegate.stream();
+    }
+
+    @Override
+    public Stream<T> stream(int fetchSize) {
+        this.flush();
+        return this.delegate.stream(fetchSize);
+    }
+
+    @Override
+    public List<T> getAll(int page, int pageSize) {
+        this.flush();
+        return this.delegate.getAll(page, pageSize);
+    }
+
+    @Override
+    public DataStorePage<T> getPage(String token, int pageSize) {
+        this.flush();
+        return this.delegate.getPage(token, pageSize);
+    }
+
+    @Override
+    public List<T> find(DataStoreQuery query) {
+        this.flush();
+        return this.delegate.find(query);
+    }
+
+    @Override
+    public long count() {
+        this.flush();
+        return this.delegate.count();
+    }
+
+    @Override
+    public T insert(T entity) {
+        if (entity == null) {
+            return this.delegate.insert(entity);
+        }
+
+        this.flushLock.lock();
+        try {
+            if (this.pending.containsKey(this.delegate.getPrimaryID(entity))) {
+                // a pending write means the entity already exists
+                return null;
+            }
+
+            return this.delegate.insert(entity);
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    @Override
+    public T update(T entity) {
+        if (entity == null || isVersioned(entity)) {
+            return this.delegate.update(entity);
+        }
+
+        X primaryID = this.delegate.getPrimaryID(entity);
+        if (!this.pending.containsKey(primaryID) && this.delegate.get(primaryID) == null) {
+            return null;
+        }
+
+        this.buffer(primaryID, new PendingWrite<>(entity, false, SecurityContexts.capture()));
+        return entity;
+    }
+
+    @Override
+    public T upsert(T entity) {
+        if (entity == null || isVersioned(entity)) {
+            return this.delegate.upsert(entity);
+        }
+
+        this.buffer(this.delegate.getPrimaryID(entity), new PendingWrite<>(entity, true, SecurityContexts.capture()));
+        return entity;
+    }
+
+    /**
+     * Check if the entity has a {@link Version} field. Writes of such entities
+     * are not buffered, as version conflicts must be reported to the writer.
+     */
+    private static boolean isVersioned(Object entity) {
+        return EntityScanner.getDetails(entity.getClass()).isVersioned();
+    }
+
+    private static boolean isVersioned(Collection<?> entities) {
+        for (Object entity : entities) {
+            if (entity != null && isVersioned(entity)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean patch(X primaryID, DataStorePatch patch) {
+        if (primaryID == null) {
+            return this.delegate.patch(primaryID, patch);
+        }
+
+        // the patch must apply on top of the pending write, and no flush may
+        // write an older entity over it
+        this.flushLock.lock();
+        try {
+            this.flushKeys(Collections.singletonList(primaryID));
+            return this.delegate.patch(primaryID, patch);
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    @Override
+    public List<T> insertMultiple(Collection<T> entities) {
+        if (entities == null || entities.isEmpty()) {
+            return this.delegate.insertMultiple(entities);
+        }
+
+        this.flushLock.lock();
+        try {
+            List<T> list = new ArrayList<>(entities.size());
+            for (T entity : entities) {
+                if (entity == null) {
+                    throw new IllegalArgumentException("Entity cannot be null");
+                }
+
+                if (!this.pending.containsKey(this.delegate.getPrimaryID(entity))) {
+                    list.add(entity);
+                }
+            }
+
+            if (list.isEmpty()) {
+                return list;
+            }
+
+            return this.delegate.insertMultiple(list);
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    @Override
+    public List<T> updateMultiple(Collection<T> entities) {
+        if (entities == null || entities.isEmpty() || isVersioned(entities)) {
+            return this.delegate.updateMultiple(entities);
+        }
+
+        Map<X, T> unknown = new HashMap<>();
+        for (T entity : entities) {
+            if (entity == null) {
+                throw new IllegalArgumentException("Entity cannot be null");
+            }
+
+            X primaryID = this.delegate.getPrimaryID(entity);
+            if (!this.pending.containsKey(primaryID)) {
+                unknown.put(primaryID, entity);
+            }
+        }
+
+        // check existence of all entities not in the buffer in one read
+        if (!unknown.isEmpty()) {
+            List<T> existing = this.delegate.getMultiple(unknown.keySet());
+            if (existing != null) {
+                for (T entity : existing) {
+                    unknown.remove(this.delegate.getPrimaryID(entity));
+                }
+            }
+        }
+
+        Principal principal = SecurityContexts.capture();
+        List<T> list = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            X primaryID = this.delegate.getPrimaryID(entity);
+            if (!unknown.containsKey(primaryID)) {
+                this.buffer(primaryID, new PendingWrite<>(entity, false, principal));
+                list.add(entity);
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    public List<T> upsertMultiple(Collection<T> entities) {
+        if (entities == null || entities.isEmpty() || isVersioned(entities)) {
+            return this.delegate.upsertMultiple(entities);
+        }
+
+        for (T entity : entities) {
+            if (entity == null) {
+                throw new IllegalArgumentException("Entity cannot be null");
+            }
+        }
+
+        Principal principal = SecurityContexts.capture();
+        for (T entity : entities) {
+            this.buffer(this.delegate.getPrimaryID(entity), new PendingWrite<>(entity, true, principal));
+        }
+
+        return new ArrayList<>(entities);
+    }
+
+    @Override
+    public T delete(T entity) {
+        if (entity == null) {
+            return this.delegate.delete(entity);
+        }
+
+        this.flushLock.lock();
+        try {
+            PendingWrite<T> write = this.pending.remove(this.delegate.getPrimaryID(entity));
+            T deleted = this.delegate.delete(entity);
+            return deleted != null || write == null ? deleted : write.entity;
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    @Override
+    public T deleteForID(X primaryID) {
+        if (primaryID == null) {
+            return this.delegate.deleteForID(primaryID);
+        }
+
+        this.flushLock.lock();
+        try {
+            PendingWrite<T> write = this.pending.get(primaryID);
+            if (write == null) {
+                return this.delegate.deleteForID(primaryID);
+            }
+
+            // the store may not have the entity yet, delete the pending one
+            return this.delete(write.entity);
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    @Override
+    public List<T> deleteMultiple(Collection<X> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return this.delegate.deleteMultiple(ids);
+        }
+
+        this.flushLock.lock();
+        try {
+            this.flushKeys(ids);
+            return this.delegate.deleteMultiple(ids);
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    @Override
+    public List<T> deleteMultiple(X[] ids) {
+        if (ids == null || ids.length == 0) {
+            return this.delegate.deleteMultiple(ids);
+        }
+
+        return this.deleteMultiple(Arrays.asList(ids));
+    }
+
+    @Override
+    public void deleteAll() {
+        this.flushLock.lock();
+        try {
+            this.pending.clear();
+            this.delegate.deleteAll();
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Flush all pending writes and close the underlying store.
+     */
+    @Override
+    public void close() {
+        this.flusher.shutdown();
+        try {
+            this.flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            this.flush();
+        } finally {
+            this.delegate.close();
+        }
+    }
+
+    /**
+     * Send all pending writes to the underlying store, on the calling thread.
+     * Writes that fail stay pending and are retried on the next flush.
+     */
+    public void flush() {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+
+        this.flushLock.lock();
+        try {
+            this.flushRequested.set(false);
+
+            List<X> keys = new ArrayList<>(this.batchSize);
+            List<PendingWrite<T>> writes = new ArrayList<>(this.batchSize);
+            for (Map.Entry<X, PendingWrite<T>> entry : this.pending.entrySet()) {
+                keys.add(entry.getKey());
+                writes.add(entry.getValue());
+
+                if (keys.size() == this.batchSize) {
+                    this.write(keys, writes);
+                    keys.clear();
+                    writes.clear();
+                }
+            }
+
+            if (!keys.isEmpty()) {
+                this.write(keys, writes);
+            }
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of writes waiting to be flushed.
+     *
+     * @return the number of pending writes
+     */
+    public int getPendingCount() {
+        return this.pending.size();
+    }
+
+    /**
+     * Return the number of writes that were merged into an already pending
+     * write, and so never reached the underlying store.
+     *
+     * @return the number of coalesced writes
+     */
+    public long getCoalescedCount() {
+        return this.coalesced.sum();
+    }
+
+    /**
+     * Return the number of writes sent to the underlying store.
+     *
+     * @return the number of flushed writes
+     */
+    public long getFlushedCount() {
+        return this.flushed.sum();
+    }
+
+    private void buffer(X primaryID, PendingWrite<T> write) {
+        this.pending.merge(primaryID, write, (existing, latest) -> {
+            this.coalesced.increment();
+
+            // an update following an upsert must still create the entity
+            return existing.upsert && !latest.upsert ? new PendingWrite<>(latest.entity, true, latest.principal) : latest;
+        });
+
+        int size = this.pending.size();
+        if (size >= this.maxPending) {
+            this.flush();
+            return;
+        }
+
+        if (size >= this.batchSize && this.flushRequested.compareAndSet(false, true)) {
+            this.flusher.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Write the pending writes for the given keys, if any. Must be called holding
+     * the flush lock.
+     */
+    private void flushKeys(Collection<X> ids) {
+        List<X> keys = new ArrayList<>();
+        List<PendingWrite<T>> writes = new ArrayList<>();
+        for (X id : ids) {
+            PendingWrite<T> write = id != null ? this.pending.get(id) : null;
+            if (write != null) {
+                keys.add(id);
+                writes.add(write);
+            }
+        }
+
+        if (!keys.isEmpty()) {
+            this.write(keys, writes);
+        }
+    }
+
+    /**
+     * Write one batch to the underlying store, and remove the writes that were
+     * not replaced in the meantime from the buffer. Must be called holding the
+     * flush lock.
+     */
+    private void write(List<X> keys, List<PendingWrite<T>> writes) {
+        // writes are sent as the user that made them, one call per user
+        Map<Principal, List<T>> updates = new LinkedHashMap<>();
+        Map<Principal, List<T>> upserts = new LinkedHashMap<>();
+        for (PendingWrite<T> write : writes) {
+            Map<Principal, List<T>> map = write.upsert ? upserts : updates;
+            map.computeIfAbsent(write.principal, principal -> new ArrayList<>()).add(write.entity);
+        }
+
+        for (Map.Entry<Principal, List<T>> entry : updates.entrySet()) {
+            this.writeAs(entry.getKey(), entry.getValue(), false);
+        }
+
+        for (Map.Entry<Principal, List<T>> entry : upserts.entrySet()) {
+            this.writeAs(entry.getKey(), entry.getValue(), true);
+        }
+
+        for (int index = 0; index < keys.size(); index++) {
+            this.pending.remove(keys.get(index), writes.get(index));
+        }
+
+        this.flushed.add(writes.size());
+    }
+
+    /**
+     * Send writes to the underlying store as the given user. Writes the user is
+     * not allowed to make can never succeed, and are dropped rather than
+     * retried, the rest of the batch then being written one at a time.
+     */
+    private void writeAs(Principal principal, List<T> entities, boolean upsert) {
+        try {
+            SecurityContexts.runAs(principal, () -> this.writeMultiple(entities, upsert));
+            return;
+        } catch (SecurityException e) {
+            // find out which of the writes are not allowed
+        }
+
+        for (T entity : entities) {
+            try {
+                SecurityContexts.runAs(principal, () -> this.writeMultiple(Collections.singletonList(entity), upsert));
+            } catch (SecurityException e) {
+                LOGGER.error("Dropping pending write not allowed for its user: {}", this.delegate.getPrimaryID(entity), e);
+            }
+        }
+    }
+
+    private void writeMultiple(List<T> entities, boolean upsert) {
+        if (upsert) {
+            this.delegate.upsertMultiple(entities);
+        } else {
+            this.delegate.updateMultiple(entities);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            this.flush();
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to flush pending writes, will retry", e);
+        }
+    }
+
+    private static final class PendingWrite<T> {
+
+        final T entity;
+
+        /**
+         * <code>true</code> to upsert, <code>false</code> to update
+         */
+        final boolean upsert;
+
+        /**
+         * The principal of the writer, <code>null</code> if none
+         */
+        final Principal principal;
+
+        PendingWrite(T entity, boolean upsert, Principal principal) {
+            this.entity = entity;
+            this.upsert = upsert;
+            this.principal = principal;
+        }
+
+    }
+
+}
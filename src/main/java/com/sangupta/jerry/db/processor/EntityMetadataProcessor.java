@@ -0,0 +1,357 @@
+package com.sangupta.jerry.db.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import com.sangupta.jerry.db.EntityMetadata;
+
+/**
+ * Annotation processor that generates an {@link EntityMetadata} class for each
+ * class with a field annotated with <code>@Id</code>, so that
+ * {@link com.sangupta.jerry.db.EntityScanner} does not need to scan the entity
+ * at runtime. The processor is registered as a service, and runs automatically
+ * when the library is on the compile class path.
+ *
+ * Metadata is only generated for entities that the generated class can read
+ * the primary key of without reflection: the entity must be a non-generic,
+ * top-level or static nested class that is not private, and the primary key
+ * field must either not be private or have a non-private getter. Other
+ * entities, and entities with more than one version field or one that is not
+ * an <code>int</code> or <code>long</code>, are skipped with a note, and are
+ * scanned at runtime as before.
+ *
+ * The names of the version and indexed fields are generated as well, so that
+ * stores look up only those fields instead of scanning the entity.
+ *
+ * @author sangupta
+ *
+ * @since 2.0.0
+ */
+@SupportedAnnotationTypes(EntityMetadataProcessor.ID_ANNOTATION)
+public class EntityMetadataProcessor extends AbstractProcessor {
+
+    static final String ID_ANNOTATION = "org.springframework.data.annotation.Id";
+
+    private static final String TRANSIENT_ANNOTATION = "org.springframework.data.annotation.Transient";
+
+    private static final String VERSION_ANNOTATION = "com.sangupta.jerry.db.Version";
+
+    private static final String INDEXED_ANNOTATION = "com.sangupta.jerry.db.Indexed";
+
+    private static final String ENTITY_PACKAGE = "com.sangupta.jerry.entity.";
+
+    /**
+     * Entities already generated, across rounds
+     */
+    private final Set<String> generated = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.FIELD) {
+                    continue;
+                }
+
+                VariableElement field = (VariableElement) element;
+                TypeElement entity = (TypeElement) field.getEnclosingElement();
+                if (this.generated.add(entity.getQualifiedName().toString())) {
+                    this.generate(entity, field);
+                }
+            }
+        }
+
+        // leave the annotation for other processors
+        return false;
+    }
+
+    private void generate(TypeElement entity, VariableElement field) {
+        String reason = checkEntity(entity);
+        if (reason != null) {
+            this.note(entity, "Entity metadata not generated: " + reason);
+            return;
+        }
+
+        String idExpression = this.idExpression(entity, field);
+        if (idExpression == null) {
+            this.note(entity, "Entity metadata not generated: primary key field is private and has no getter");
+            return;
+        }
+
+        List<VariableElement> fields = this.persistedFields(entity);
+        List<String> versionFields = annotatedFields(fields, VERSION_ANNOTATION);
+        if (versionFields.size() > 1) {
+            this.note(entity, "Entity metadata not generated: more than one version field");
+            return;
+        }
+
+        String versionField = versionFields.isEmpty() ? null : versionFields.get(0);
+        if (versionField != null && !this.isVersionType(fields, versionField)) {
+            this.note(entity, "Entity metadata not generated: version field must be an int or a long");
+            return;
+        }
+
+        String packageName = this.processingEnv.getElementUtils().getPackageOf(entity).getQualifiedName().toString();
+        String binaryName = this.processingEnv.getElementUtils().getBinaryName(entity).toString();
+        String simpleName = packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1);
+        String metadataName = simpleName.replace('$', '_') + EntityMetadata.CLASS_SUFFIX;
+
+        String entityType = entity.getQualifiedName().toString();
+        String idType = this.idType(field);
+
+        StringBuilder builder = new StringBuilder(2048);
+        if (!packageName.isEmpty()) {
+            builder.append("package ").append(packageName).append(";\n\n");
+        }
+
+        builder.append("@javax.annotation.processing.Generated(\"").append(EntityMetadataProcessor.class.getName()).append("\")\n");
+        builder.append("public final class ").append(metadataName).append(" implements ").append(EntityMetadata.class.getName()).append('<').append(entityType).append(", ").append(idType).append("> {\n\n");
+
+        method(builder, "Class<" + entityType + ">", "getEntityClass", "", entityType + ".class");
+        method(builder, "Class<" + idType + ">", "getPrimaryIDClass", "", idType + ".class");
+        method(builder, "String", "getIdFieldName", "", "\"" + field.getSimpleName() + "\"");
+        method(builder, idType, "getPrimaryID", entityType + " entity", idExpression);
+        method(builder, "boolean", "isSoftDelete", "", this.implementsEntity(entity, "SoftDeleteEntity"));
+        method(builder, "boolean", "isReadOnly", "", this.implementsEntity(entity, "ReadOnlyEntity"));
+        method(builder, "boolean", "isCreateTimeStamped", "", this.implementsEntity(entity, "CreateTimeStampedEntity"));
+        method(builder, "boolean", "isUpdateTimeStamped", "", this.implementsEntity(entity, "UpdateTimeStampedEntity"));
+        method(builder, "boolean", "isDeleteTimeStamped", "", this.implementsEntity(entity, "DeleteTimeStampedEntity"));
+        method(builder, "boolean", "isUserOwned", "", this.implementsEntity(entity, "UserOwnedEntity"));
+        method(builder, "String", "getVersionFieldName", "", versionField != null ? "\"" + versionField + "\"" : "null");
+        method(builder, "java.util.List<String>", "getIndexedFieldNames", "", "java.util.List.of(" + quoted(annotatedFields(fields, INDEXED_ANNOTATION)) + ")");
+
+        builder.append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? metadataName : packageName + "." + metadataName;
+        try {
+            JavaFileObject file = this.processingEnv.getFiler().createSourceFile(qualifiedName, entity);
+            try (Writer writer = file.openWriter()) {
+                writer.write(builder.toString());
+            }
+        } catch (IOException e) {
+            this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write entity metadata: " + e.getMessage(), entity);
+        }
+    }
+
+    /**
+     * Check that the generated class, in the same package, can refer to the
+     * entity.
+     *
+     * @return the reason the entity is not supported, or <code>null</code>
+     */
+    private static String checkEntity(TypeElement entity) {
+        if (entity.getKind() != ElementKind.CLASS) {
+            return "not a class";
+        }
+
+        if (!entity.getTypeParameters().isEmpty()) {
+            return "generic entity classes are not supported";
+        }
+
+        Element current = entity;
+        while (current instanceof TypeElement) {
+            TypeElement type = (TypeElement) current;
+            if (type.getModifiers().contains(Modifier.PRIVATE)) {
+                return "class is private";
+            }
+
+            NestingKind nesting = type.getNestingKind();
+            if (nesting == NestingKind.LOCAL || nesting == NestingKind.ANONYMOUS) {
+                return "local and anonymous classes are not supported";
+            }
+
+            if (nesting == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+                return "inner classes are not supported";
+            }
+
+            current = type.getEnclosingElement();
+        }
+
+        return null;
+    }
+
+    /**
+     * Build the expression that reads the primary key from a variable named
+     * <code>entity</code>.
+     *
+     * @return the expression, or <code>null</code> if the key cannot be read
+     */
+    private String idExpression(TypeElement entity, VariableElement field) {
+        String name = field.getSimpleName().toString();
+        if (!field.getModifiers().contains(Modifier.PRIVATE)) {
+            return "entity." + name;
+        }
+
+        String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (Element element : entity.getEnclosedElements()) {
+            if (element.getKind() != ElementKind.METHOD) {
+                continue;
+            }
+
+            ExecutableElement method = (ExecutableElement) element;
+            String methodName = method.getSimpleName().toString();
+            if (!methodName.equals("get" + suffix) && !methodName.equals("is" + suffix)) {
+                continue;
+            }
+
+            if (!method.getParameters().isEmpty() || method.getModifiers().contains(Modifier.PRIVATE) || method.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+
+            if (this.processingEnv.getTypeUtils().isSameType(method.getReturnType(), field.asType())) {
+                return "entity." + methodName + "()";
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Return the boxed, erased type of the primary key as source.
+     */
+    private String idType(VariableElement field) {
+        TypeMirror type = field.asType();
+        if (type.getKind().isPrimitive()) {
+            type = this.processingEnv.getTypeUtils().boxedClass((PrimitiveType) type).asType();
+        }
+
+        TypeMirror erased = this.processingEnv.getTypeUtils().erasure(type);
+        if (erased.getKind() == TypeKind.DECLARED) {
+            Element element = this.processingEnv.getTypeUtils().asElement(erased);
+            return ((TypeElement) element).getQualifiedName().toString();
+        }
+
+        return erased.toString();
+    }
+
+    /**
+     * Return the fields of the entity and its super-classes that are persisted,
+     * skipping the same fields as {@link com.sangupta.jerry.db.EntityScanner}.
+     */
+    private List<VariableElement> persistedFields(TypeElement entity) {
+        List<VariableElement> fields = new ArrayList<>();
+
+        TypeElement current = entity;
+        while (current != null && !current.getQualifiedName().contentEquals("java.lang.Object")) {
+            for (Element element : current.getEnclosedElements()) {
+                if (element.getKind() != ElementKind.FIELD) {
+                    continue;
+                }
+
+                Set<Modifier> modifiers = element.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT) || hasAnnotation(element, TRANSIENT_ANNOTATION)) {
+                    continue;
+                }
+
+                fields.add((VariableElement) element);
+            }
+
+            TypeMirror superclass = current.getSuperclass();
+            current = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) this.processingEnv.getTypeUtils().asElement(superclass) : null;
+        }
+
+        return fields;
+    }
+
+    private boolean isVersionType(List<VariableElement> fields, String name) {
+        for (VariableElement field : fields) {
+            if (!field.getSimpleName().contentEquals(name)) {
+                continue;
+            }
+
+            TypeMirror type = field.asType();
+            if (type.getKind() == TypeKind.INT || type.getKind() == TypeKind.LONG) {
+                return true;
+            }
+
+            String typeName = this.processingEnv.getTypeUtils().erasure(type).toString();
+            return typeName.equals("java.lang.Integer") || typeName.equals("java.lang.Long");
+        }
+
+        return false;
+    }
+
+    private static List<String> annotatedFields(List<VariableElement> fields, String annotation) {
+        List<String> names = new ArrayList<>();
+        for (VariableElement field : fields) {
+            if (hasAnnotation(field, annotation)) {
+                names.add(field.getSimpleName().toString());
+            }
+        }
+
+        return names;
+    }
+
+    private static boolean hasAnnotation(Element element, String annotation) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+            if (type.getQualifiedName().contentEquals(annotation)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String quoted(List<String> names) {
+        StringBuilder builder = new StringBuilder();
+        for (String name : names) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+
+            builder.append('"').append(name).append('"');
+        }
+
+        return builder.toString();
+    }
+
+    private String implementsEntity(TypeElement entity, String interfaceName) {
+        TypeElement type = this.processingEnv.getElementUtils().getTypeElement(ENTITY_PACKAGE + interfaceName);
+        if (type == null) {
+            return "false";
+        }
+
+        boolean assignable = this.processingEnv.getTypeUtils().isAssignable(entity.asType(), this.processingEnv.getTypeUtils().erasure(type.asType()));
+        return String.valueOf(assignable);
+    }
+
+    private void note(Element element, String message) {
+        this.processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, message, element);
+    }
+
+    private static void method(StringBuilder builder, String returnType, String name, String parameters, String expression) {
+        builder.append("    @Override\n");
+        builder.append("    public ").append(returnType).append(' ').append(name).append('(').append(parameters).append(") {\n");
+        builder.append("        return ").append(expression).append(";\n");
+        builder.append("    }\n\n");
+    }
+
+}
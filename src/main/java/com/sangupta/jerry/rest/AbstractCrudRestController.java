@@ -37,6 +37,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import com.sangupta.jerry.constants.HttpStatusCode;
 import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.EntityMetadata;
 import com.sangupta.jerry.entity.UserOwnedEntity;
 import com.sangupta.jerry.exceptions.HttpException;
 import com.sangupta.jerry.security.SecurityContext;
@@ -92,6 +93,23 @@ public abstract class AbstractCrudRestController<T, X> {
         this.isUserOwnedEntity = UserOwnedEntity.class.isAssignableFrom(this.entityClass);
     }
 
+    /**
+     * Create a controller for the entity described by the given metadata, as
+     * generated at build time. This avoids resolving the type arguments of the
+     * controller class through reflection.
+     * 
+     * @param metadata the metadata of the entity
+     */
+    protected AbstractCrudRestController(EntityMetadata<T, X> metadata) {
+        if (metadata == null) {
+            throw new IllegalArgumentException("Metadata cannot be null");
+        }
+
+        this.entityClass = metadata.getEntityClass();
+        this.primaryIDClass = metadata.getPrimaryIDClass();
+        this.isUserOwnedEntity = metadata.isUserOwned();
+    }
+
     /**
      * Read all entities from the database.
      * 
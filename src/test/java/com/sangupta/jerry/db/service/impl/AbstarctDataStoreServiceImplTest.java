@@ -3,7 +3,11 @@ package com.sangupta.jerry.db.service.impl;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -11,6 +15,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.springframework.data.annotation.Id;
 
+import com.sangupta.jerry.db.DataStorePage;
+import com.sangupta.jerry.db.DataStorePatch;
+import com.sangupta.jerry.db.DataStoreQuery;
 import com.sangupta.jerry.db.DataStoreService;
 
 /**
@@ -304,6 +311,245 @@ public abstract class AbstarctDataStoreServiceImplTest {
         Assert.assertEquals(0, this.service.count());
     }
     
+    @Test(expected = IllegalArgumentException.class)
+    public void testStreamInvalidFetchSize() {
+        this.service.stream(0);
+    }
+    
+    @Test
+    public void testStream() {
+        try(Stream<TestObject> stream = this.service.stream()) {
+            Assert.assertEquals(0, stream.count());
+        }
+        
+        Set<String> ids = new HashSet<>();
+        int max = 20 + RANDOM.nextInt(100);
+        for(int index = 0; index < max; index++) {
+            TestObject obj = new TestObject("random-" + index);
+            this.service.insert(obj);
+            ids.add(obj.id);
+        }
+        
+        // fetch size smaller than the data set to go over multiple batches
+        try(Stream<TestObject> stream = this.service.stream(7)) {
+            Set<String> streamed = stream.map(obj -> obj.id).collect(Collectors.toSet());
+            Assert.assertEquals(ids, streamed);
+        }
+    }
+    
+    @Test
+    public void testGetPage() {
+        Assert.assertNull(this.service.getPage(null, 0));
+        
+        DataStorePage<TestObject> page = this.service.getPage(null, 10);
+        Assert.assertNotNull(page);
+        Assert.assertTrue(page.getEntities().isEmpty());
+        Assert.assertFalse(page.hasNext());
+        
+        Set<String> ids = new HashSet<>();
+        int max = 20 + RANDOM.nextInt(100);
+        for(int index = 0; index < max; index++) {
+            TestObject obj = new TestObject("random-" + index);
+            this.service.insert(obj);
+            ids.add(obj.id);
+        }
+        
+        Set<String> paged = new HashSet<>();
+        String token = null;
+        do {
+            page = this.service.getPage(token, 7);
+            Assert.assertTrue(page.getEntities().size() <= 7);
+            for(TestObject obj : page.getEntities()) {
+                Assert.assertTrue(paged.add(obj.id));
+            }
+            
+            token = page.getNextToken();
+        } while(token != null);
+        
+        Assert.assertEquals(ids, paged);
+    }
+    
+    @Test
+    public void testGetPageChangingPageSize() {
+        Set<String> ids = new HashSet<>();
+        int max = 20 + RANDOM.nextInt(100);
+        for(int index = 0; index < max; index++) {
+            TestObject obj = new TestObject("random-" + index);
+            this.service.insert(obj);
+            ids.add(obj.id);
+        }
+        
+        final int[] sizes = { 7, 10, 3, 4 };
+        Set<String> paged = new HashSet<>();
+        String token = null;
+        int call = 0;
+        do {
+            int pageSize = sizes[call++ % sizes.length];
+            DataStorePage<TestObject> page = this.service.getPage(token, pageSize);
+            Assert.assertTrue(page.getEntities().size() <= pageSize);
+            for(TestObject obj : page.getEntities()) {
+                Assert.assertTrue(paged.add(obj.id));
+            }
+            
+            token = page.getNextToken();
+        } while(token != null);
+        
+        Assert.assertEquals(ids, paged);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetPageInvalidToken() {
+        this.service.insert(new TestObject("random"));
+        this.service.getPage("!not-a-token!", 10);
+    }
+    
+    @Test
+    public void testInsertMultiple() {
+        Assert.assertNull(this.service.insertMultiple(null));
+        Assert.assertNull(this.service.insertMultiple(new ArrayList<>()));
+        
+        this.service.insert(new TestObject("random-0"));
+        
+        List<TestObject> objects = new ArrayList<>();
+        int max = 20 + RANDOM.nextInt(100);
+        for(int index = 0; index < max; index++) {
+            objects.add(new TestObject("random-" + index));
+        }
+        
+        // the existing entity is skipped
+        List<TestObject> inserted = this.service.insertMultiple(objects);
+        Assert.assertEquals(max - 1, inserted.size());
+        Assert.assertFalse(inserted.contains(new TestObject("random-0")));
+        Assert.assertEquals(max, this.service.count());
+    }
+    
+    @Test
+    public void testUpdateMultiple() {
+        Assert.assertNull(this.service.updateMultiple(null));
+        
+        List<TestObject> objects = new ArrayList<>();
+        int max = 20 + RANDOM.nextInt(100);
+        for(int index = 0; index < max; index++) {
+            objects.add(new TestObject("random-" + index));
+            if(index % 2 == 0) {
+                this.service.insert(new TestObject("random-" + index));
+            }
+        }
+        
+        // only existing entities are updated
+        List<TestObject> updated = this.service.updateMultiple(objects);
+        Assert.assertEquals((max + 1) / 2, updated.size());
+        Assert.assertEquals((max + 1) / 2, this.service.count());
+    }
+    
+    @Test
+    public void testUpsertMultiple() {
+        Assert.assertNull(this.service.upsertMultiple(null));
+        
+        List<TestObject> objects = new ArrayList<>();
+        int max = 20 + RANDOM.nextInt(100);
+        for(int index = 0; index < max; index++) {
+            objects.add(new TestObject("random-" + index));
+            if(index % 2 == 0) {
+                this.service.insert(new TestObject("random-" + index));
+            }
+        }
+        
+        Assert.assertEquals(max, this.service.upsertMultiple(objects).size());
+        Assert.assertEquals(max, this.service.count());
+        for(int index = 0; index < max; index++) {
+            Assert.assertEquals(new TestObject("random-" + index), this.service.get("random-" + index));
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testInsertMultipleWithNull() {
+        List<TestObject> objects = new ArrayList<>();
+        objects.add(new TestObject("random"));
+        objects.add(null);
+        this.service.insertMultiple(objects);
+    }
+    
+    @Test
+    public void testFind() {
+        for(int index = 0; index < 20; index++) {
+            this.service.insert(new TestObject(String.format("key-%03d", index)));
+        }
+        
+        Assert.assertEquals(20, this.service.find(new DataStoreQuery()).size());
+        Assert.assertEquals(List.of(new TestObject("key-005")), this.service.find(new DataStoreQuery().eq("id", "key-005")));
+        Assert.assertEquals(0, this.service.find(new DataStoreQuery().eq("id", "hello")).size());
+        Assert.assertEquals(2, this.service.find(new DataStoreQuery().in("id", "key-001", "key-003", "hello")).size());
+        Assert.assertEquals(0, this.service.find(new DataStoreQuery().in("id", List.of())).size());
+        Assert.assertEquals(5, this.service.find(new DataStoreQuery().range("id", "key-005", "key-010")).size());
+        Assert.assertEquals(6, this.service.find(new DataStoreQuery().gte("id", "key-005").lte("id", "key-010")).size());
+        
+        List<TestObject> list = this.service.find(new DataStoreQuery().gt("id", "key-015").sortBy("id", false));
+        Assert.assertEquals(List.of(new TestObject("key-019"), new TestObject("key-018"), new TestObject("key-017"), new TestObject("key-016")), list);
+        
+        list = this.service.find(new DataStoreQuery().lt("id", "key-010").sortBy("id", true).limit(3));
+        Assert.assertEquals(List.of(new TestObject("key-000"), new TestObject("key-001"), new TestObject("key-002")), list);
+        
+        list = this.service.find(new DataStoreQuery().sortBy("id", false).limit(2));
+        Assert.assertEquals(List.of(new TestObject("key-019"), new TestObject("key-018")), list);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindNull() {
+        this.service.find(null);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindUnknownField() {
+        this.service.find(new DataStoreQuery().eq("hello", "world"));
+    }
+    
+    @Test
+    public void testGetWithFields() {
+        this.service.insert(new TestObject("key-1"));
+        this.service.insert(new TestObject("key-2"));
+        
+        Assert.assertEquals(new TestObject("key-1"), this.service.get("key-1", List.of()));
+        Assert.assertEquals(new TestObject("key-2"), this.service.get("key-2", List.of("id")));
+        Assert.assertNull(this.service.get("hello", List.of("id")));
+        
+        Set<TestObject> set = new HashSet<>(this.service.getMultiple(List.of("key-1", "key-2", "hello"), List.of("id")));
+        Assert.assertEquals(Set.of(new TestObject("key-1"), new TestObject("key-2")), set);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetWithUnknownField() {
+        this.service.get("key-1", List.of("hello"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetWithNullFields() {
+        this.service.getMultiple(List.of("key-1"), null);
+    }
+    
+    @Test
+    public void testPatch() {
+        Assert.assertFalse(this.service.patch("key-1", new DataStorePatch()));
+        
+        this.service.insert(new TestObject("key-1"));
+        Assert.assertTrue(this.service.patch("key-1", new DataStorePatch()));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testPatchPrimaryField() {
+        this.service.patch("key-1", new DataStorePatch().set("id", "key-2"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testPatchUnknownField() {
+        this.service.patch("key-1", new DataStorePatch().set("hello", "world"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testPatchNull() {
+        this.service.patch("key-1", null);
+    }
+    
     protected static class TestObject {
         
         @Id
@@ -0,0 +1,141 @@
+package com.sangupta.jerry.db.service.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.annotation.Id;
+
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.impl.AsyncDataStoreServiceImpl;
+import com.sangupta.jerry.db.impl.InMemoryDataStoreServiceImpl;
+import com.sangupta.jerry.db.service.impl.AbstarctDataStoreServiceImplTest.TestObject;
+import com.sangupta.jerry.entity.UserAwarePrincipal;
+import com.sangupta.jerry.entity.UserOwnedEntity;
+import com.sangupta.jerry.security.SecurityContext;
+
+public class AsyncDataStoreServiceImplTest {
+
+    @Test
+    public void testFanOut() {
+        DataStoreService<TestObject, String> service = new InMemoryDataStoreServiceImpl<TestObject, String>() {};
+        
+        try(AsyncDataStoreServiceImpl<TestObject, String> async = new AsyncDataStoreServiceImpl<>(service, 4)) {
+            List<CompletableFuture<TestObject>> inserts = new ArrayList<>();
+            for(int index = 0; index < 100; index++) {
+                inserts.add(async.insert(new TestObject("random-" + index)));
+            }
+            
+            CompletableFuture.allOf(inserts.toArray(new CompletableFuture[0])).join();
+            Assert.assertEquals(100, service.count());
+            
+            List<CompletableFuture<TestObject>> reads = new ArrayList<>();
+            for(int index = 0; index < 100; index++) {
+                reads.add(async.get("random-" + index));
+            }
+            
+            for(int index = 0; index < 100; index++) {
+                Assert.assertEquals(new TestObject("random-" + index), reads.get(index).join());
+            }
+            
+            Assert.assertNull(async.insert(new TestObject("random-0")).join());
+            Assert.assertEquals(new TestObject("random-0"), async.deleteForID("random-0").join());
+            Assert.assertNull(async.get("random-0").join());
+        }
+    }
+    
+    @Test
+    public void testExceptionalCompletion() {
+        DataStoreService<TestObject, String> service = new InMemoryDataStoreServiceImpl<TestObject, String>() {};
+        
+        try(AsyncDataStoreServiceImpl<TestObject, String> async = new AsyncDataStoreServiceImpl<>(service)) {
+            try {
+                async.insert(null).join();
+                Assert.fail("Expected insert of null to fail");
+            } catch(CompletionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+        }
+    }
+
+    @Test
+    public void testUserOwnedEntity() {
+        DataStoreService<OwnedObject, String> service = new InMemoryDataStoreServiceImpl<OwnedObject, String>() {};
+
+        try(AsyncDataStoreServiceImpl<OwnedObject, String> async = new AsyncDataStoreServiceImpl<>(service, 4)) {
+            SecurityContext.setPrincipal(new User("user1"));
+
+            // the call runs on another thread, but as the caller
+            OwnedObject object = async.insert(new OwnedObject("hello")).join();
+            Assert.assertEquals("user1", object.userID);
+            Assert.assertEquals("user1", service.get("hello").userID);
+
+            Assert.assertNotNull(async.update(new OwnedObject("hello", "user1")).join());
+            Assert.assertEquals("user1", service.get("hello").userID);
+
+            SecurityContext.setPrincipal(new User("user2"));
+            try {
+                async.update(new OwnedObject("hello", "user1")).join();
+                Assert.fail("Update by another user must fail");
+            } catch(CompletionException e) {
+                Assert.assertTrue(e.getCause() instanceof SecurityException);
+            }
+
+            Assert.assertEquals("user1", service.get("hello").userID);
+        } finally {
+            SecurityContext.clearPrincipal();
+        }
+    }
+
+    static class OwnedObject implements UserOwnedEntity {
+
+        @Id
+        String id;
+
+        String userID;
+
+        OwnedObject(String id) {
+            this.id = id;
+        }
+
+        OwnedObject(String id, String userID) {
+            this.id = id;
+            this.userID = userID;
+        }
+
+        @Override
+        public String getUserID() {
+            return this.userID;
+        }
+
+        @Override
+        public void setUserID(String userID) {
+            this.userID = userID;
+        }
+
+    }
+
+    static class User implements UserAwarePrincipal {
+
+        private final String userID;
+
+        User(String userID) {
+            this.userID = userID;
+        }
+
+        @Override
+        public String getUserID() {
+            return this.userID;
+        }
+
+        @Override
+        public String getName() {
+            return this.userID;
+        }
+
+    }
+
+}
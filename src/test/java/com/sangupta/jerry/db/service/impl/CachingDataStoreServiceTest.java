@@ -0,0 +1,95 @@
+package com.sangupta.jerry.db.service.impl;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.impl.CacheStatistics;
+import com.sangupta.jerry.db.impl.CachingDataStoreService;
+import com.sangupta.jerry.db.impl.InMemoryDataStoreServiceImpl;
+
+public class CachingDataStoreServiceTest extends AbstarctDataStoreServiceImplTest {
+
+    @Override
+    protected DataStoreService<TestObject, String> getService() {
+        return new CachingDataStoreService<>(new InMemoryDataStoreServiceImpl<TestObject, String>() {}, 1000, 60_000, 60_000);
+    }
+
+    @Test
+    public void testHitsAndInvalidation() {
+        DataStoreService<TestObject, String> store = new InMemoryDataStoreServiceImpl<TestObject, String>() {};
+        CachingDataStoreService<TestObject, String> cached = new CachingDataStoreService<>(store, 100, 0, 60_000);
+
+        // miss is cached
+        Assert.assertNull(cached.get("hello"));
+        Assert.assertNull(cached.get("hello"));
+        CacheStatistics statistics = cached.getStatistics();
+        Assert.assertEquals(1, statistics.getMissCount());
+        Assert.assertEquals(1, statistics.getHitCount());
+
+        // insert through the cache invalidates the cached miss
+        cached.insert(new TestObject("hello"));
+        Assert.assertEquals(new TestObject("hello"), cached.get("hello"));
+        Assert.assertEquals(new TestObject("hello"), cached.get("hello"));
+        Assert.assertEquals(2, cached.getStatistics().getMissCount());
+        Assert.assertEquals(2, cached.getStatistics().getHitCount());
+
+        // writes bypassing the cache are not seen
+        store.deleteForID("hello");
+        Assert.assertEquals(new TestObject("hello"), cached.get("hello"));
+
+        cached.deleteForID("hello");
+        Assert.assertNull(cached.get("hello"));
+
+        // multi-get serves cached entries and loads the rest
+        cached.insert(new TestObject("world"));
+        Assert.assertNotNull(cached.get("world"));
+        List<TestObject> list = cached.getMultiple(List.of("hello", "world", "there"));
+        Assert.assertEquals(1, list.size());
+        Assert.assertNull(cached.get("there"));
+    }
+
+    @Test
+    public void testBoundedSize() {
+        CachingDataStoreService<TestObject, String> cached = new CachingDataStoreService<>(new InMemoryDataStoreServiceImpl<TestObject, String>() {}, 10);
+        for (int index = 0; index < 50; index++) {
+            cached.insert(new TestObject("key-" + index));
+        }
+
+        // make the first keys hot
+        for (int round = 0; round < 5; round++) {
+            for (int index = 0; index < 10; index++) {
+                Assert.assertNotNull(cached.get("key-" + index));
+            }
+        }
+
+        // a scan over cold keys does not flush the hot ones out
+        for (int index = 10; index < 50; index++) {
+            Assert.assertNotNull(cached.get("key-" + index));
+            Assert.assertTrue(cached.size() <= 10);
+        }
+
+        long misses = cached.getStatistics().getMissCount();
+        for (int index = 0; index < 10; index++) {
+            cached.get("key-" + index);
+        }
+
+        Assert.assertEquals(misses, cached.getStatistics().getMissCount());
+        Assert.assertTrue(cached.getStatistics().getRejectionCount() > 0);
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        CachingDataStoreService<TestObject, String> cached = new CachingDataStoreService<>(new InMemoryDataStoreServiceImpl<TestObject, String>() {}, 10, 1);
+        cached.insert(new TestObject("hello"));
+        Assert.assertNotNull(cached.get("hello"));
+
+        Thread.sleep(5);
+        Assert.assertNotNull(cached.get("hello"));
+        Assert.assertEquals(1, cached.getStatistics().getExpirationCount());
+        Assert.assertEquals(2, cached.getStatistics().getMissCount());
+    }
+
+}
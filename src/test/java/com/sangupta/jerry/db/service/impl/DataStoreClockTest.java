@@ -0,0 +1,78 @@
+package com.sangupta.jerry.db.service.impl;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.annotation.Id;
+
+import com.sangupta.jerry.db.impl.InMemoryDataStoreServiceImpl;
+import com.sangupta.jerry.db.service.impl.AbstarctDataStoreServiceImplTest.TestObject;
+import com.sangupta.jerry.entity.UpdateTimeStampedEntity;
+
+/**
+ * Tests for the pluggable clock used to stamp entities.
+ *
+ * @author sangupta
+ *
+ */
+public class DataStoreClockTest {
+
+    @Test
+    public void testClockIsUsed() {
+        InMemoryDataStoreServiceImpl<UpdateTimeTestObject, String> service = new InMemoryDataStoreServiceImpl<UpdateTimeTestObject, String>() {};
+        service.setClock(() -> 42L);
+
+        UpdateTimeTestObject obj = new UpdateTimeTestObject("hello");
+        Assert.assertNotNull(service.insert(obj));
+        Assert.assertEquals(42L, obj.updated);
+
+        service.setClock(() -> 43L);
+        UpdateTimeTestObject other = new UpdateTimeTestObject("world");
+        service.upsertMultiple(List.of(obj, other));
+        Assert.assertEquals(43L, obj.updated);
+        Assert.assertEquals(43L, other.updated);
+    }
+
+    @Test
+    public void testClockNotReadForPlainEntity() {
+        InMemoryDataStoreServiceImpl<TestObject, String> service = new InMemoryDataStoreServiceImpl<TestObject, String>() {};
+        service.setClock(() -> {
+            throw new AssertionError("Clock must not be read");
+        });
+
+        Assert.assertNotNull(service.insert(new TestObject("hello")));
+        Assert.assertNotNull(service.update(new TestObject("hello")));
+        Assert.assertNotNull(service.insertMultiple(List.of(new TestObject("world"))));
+        Assert.assertNotNull(service.delete(new TestObject("hello")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullClock() {
+        new InMemoryDataStoreServiceImpl<TestObject, String>() {}.setClock(null);
+    }
+
+    static class UpdateTimeTestObject implements UpdateTimeStampedEntity {
+
+        @Id
+        String id;
+
+        long updated;
+
+        UpdateTimeTestObject(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public long getUpdateTime() {
+            return this.updated;
+        }
+
+        @Override
+        public void setUpdateTime(long updateTime) {
+            this.updated = updateTime;
+        }
+
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.sangupta.jerry.db.service.impl;
+
+import java.io.File;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.impl.DiskBackedInMemoryDataStoreServiceImpl;
+import com.sangupta.jerry.db.impl.DiskBackedInMemoryDataStoreServiceImpl.SnapshotFormat;
+
+public class DiskBackedBinaryInMemoryDataStoreServiceImplTest extends AbstarctDataStoreServiceImplTest {
+
+    @Override
+    protected DataStoreService<TestObject, String> getService() {
+        File file = new File(FileUtils.getTempDirectory(), UUID.randomUUID().toString() + ".jbss");
+
+        return new DiskBackedInMemoryDataStoreServiceImpl<TestObject, String>(file, SnapshotFormat.BINARY) {
+            
+            @Override
+            public void close() {
+                super.close();
+                FileUtils.deleteQuietly(file);
+            }
+            
+        };
+    }
+    
+    @Test
+    public void testReload() {
+        File file = new File(FileUtils.getTempDirectory(), UUID.randomUUID().toString() + ".jbss");
+        
+        try {
+            DiskBackedInMemoryDataStoreServiceImpl<TestObject, String> store = new DiskBackedInMemoryDataStoreServiceImpl<TestObject, String>(file, SnapshotFormat.BINARY) {};
+            int max = 20 + RANDOM.nextInt(100);
+            for(int index = 0; index < max; index++) {
+                store.insert(new TestObject("random-" + index));
+            }
+            store.close();
+            
+            DiskBackedInMemoryDataStoreServiceImpl<TestObject, String> reloaded = new DiskBackedInMemoryDataStoreServiceImpl<TestObject, String>(file) {};
+            Assert.assertEquals(max, reloaded.count());
+            for(int index = 0; index < max; index++) {
+                Assert.assertEquals(new TestObject("random-" + index), reloaded.get("random-" + index));
+            }
+        } finally {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+}
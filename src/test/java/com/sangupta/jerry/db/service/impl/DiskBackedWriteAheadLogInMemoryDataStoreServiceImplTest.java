@@ -0,0 +1,96 @@
+package com.sangupta.jerry.db.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.impl.DiskBackedInMemoryDataStoreServiceImpl;
+import com.sangupta.jerry.db.impl.DiskBackedInMemoryDataStoreServiceImpl.DurabilityMode;
+import com.sangupta.jerry.db.impl.DiskBackedInMemoryDataStoreServiceImpl.SnapshotFormat;
+import com.sangupta.jerry.db.impl.WriteAheadLog;
+
+public class DiskBackedWriteAheadLogInMemoryDataStoreServiceImplTest extends AbstarctDataStoreServiceImplTest {
+
+    @Override
+    protected DataStoreService<TestObject, String> getService() {
+        File file = new File(FileUtils.getTempDirectory(), UUID.randomUUID().toString() + ".json");
+
+        return new DiskBackedInMemoryDataStoreServiceImpl<TestObject, String>(file, SnapshotFormat.JSON, DurabilityMode.WRITE_AHEAD_LOG) {
+            
+            @Override
+            public void close() {
+                super.close();
+                FileUtils.deleteQuietly(file);
+            }
+            
+        };
+    }
+    
+    @Test
+    public void testRecoveryWithoutClose() {
+        File file = new File(FileUtils.getTempDirectory(), UUID.randomUUID().toString() + ".jbss");
+        
+        try {
+            DiskBackedInMemoryDataStoreServiceImpl<TestObject, String> store = new DiskBackedInMemoryDataStoreServiceImpl<TestObject, String>(file, SnapshotFormat.BINARY, DurabilityMode.WRITE_AHEAD_LOG) {};
+            int max = 20 + RANDOM.nextInt(100);
+            for(int index = 0; index < max; index++) {
+                store.insert(new TestObject("random-" + index));
+            }
+            store.deleteForID("random-0");
+            
+            // the first store is never closed, as if the process crashed
+            DiskBackedInMemoryDataStoreServiceImpl<TestObject, String> recovered = new DiskBackedInMemoryDataStoreServiceImpl<TestObject, String>(file, SnapshotFormat.BINARY, DurabilityMode.WRITE_AHEAD_LOG) {};
+            Assert.assertEquals(max - 1, recovered.count());
+            Assert.assertNull(recovered.get("random-0"));
+            for(int index = 1; index < max; index++) {
+                Assert.assertEquals(new TestObject("random-" + index), recovered.get("random-" + index));
+            }
+            
+            recovered.close();
+        } finally {
+            FileUtils.deleteQuietly(file);
+            FileUtils.deleteQuietly(new File(file.getAbsolutePath() + ".wal"));
+        }
+    }
+
+    @Test
+    public void testRotateFailure() throws IOException {
+        File file = new File(FileUtils.getTempDirectory(), UUID.randomUUID().toString() + ".wal");
+        File archive = new File(new File(FileUtils.getTempDirectory(), UUID.randomUUID().toString()), "archive.wal");
+
+        try {
+            WriteAheadLog log = new WriteAheadLog(file);
+            log.sync(log.append(WriteAheadLog.OPERATION_PUT, bytes("1"), bytes("one")));
+
+            try {
+                log.rotate(archive);
+                Assert.fail("Rotate to a missing directory must fail");
+            } catch (IOException e) {
+                // expected
+            }
+
+            // the log carries on in the same file
+            log.sync(log.append(WriteAheadLog.OPERATION_PUT, bytes("2"), bytes("two")));
+            log.close();
+
+            List<String> keys = new ArrayList<>();
+            WriteAheadLog.replay(file, (operation, key, value) -> keys.add(new String(key, StandardCharsets.UTF_8)));
+            Assert.assertEquals(List.of("1", "2"), keys);
+        } finally {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.sangupta.jerry.db.service.impl;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.EntityMetadata;
+import com.sangupta.jerry.db.EntityScanner;
+import com.sangupta.jerry.db.EntityScanner.EntityDetails;
+import com.sangupta.jerry.db.impl.InMemoryDataStoreServiceImpl;
+import com.sangupta.jerry.db.service.impl.AbstarctDataStoreServiceImplTest.TestObject;
+import com.sangupta.jerry.db.service.impl.InMemoryVersionedDataStoreServiceImplTest.Invalid;
+import com.sangupta.jerry.db.service.impl.InMemoryVersionedDataStoreServiceImplTest.Order;
+
+/**
+ * Tests for the metadata generated by the entity metadata processor when test
+ * sources are compiled.
+ *
+ * @author sangupta
+ *
+ */
+public class EntityMetadataTest {
+
+    @Test
+    public void testGeneratedMetadata() {
+        EntityDetails details = EntityScanner.getDetails(TestObject.class);
+        Assert.assertNotNull(details.getMetadata());
+        Assert.assertEquals("id", details.idFieldName);
+        Assert.assertEquals("hello", details.idAccessor.get(new TestObject("hello")));
+        Assert.assertFalse(details.isSoftDelete());
+        Assert.assertFalse(details.isUserOwned());
+
+        // fields are still available on demand
+        Assert.assertEquals("id", details.getIdField().getName());
+        Assert.assertEquals(1, details.getFields().size());
+    }
+
+    @Test
+    public void testVersionAndIndexedFields() {
+        EntityDetails details = EntityScanner.getDetails(Order.class);
+        Assert.assertNotNull(details.getMetadata());
+        Assert.assertEquals("version", details.getMetadata().getVersionFieldName());
+        Assert.assertEquals(List.of("status"), details.getMetadata().getIndexedFieldNames());
+
+        Assert.assertEquals("version", details.getVersionAccessor().getField().getName());
+        Assert.assertEquals(1, details.getIndexedFieldAccessors().size());
+        Assert.assertEquals("status", details.getIndexedFieldAccessors().get(0).getField().getName());
+
+        // the same as a scan at runtime
+        Assert.assertNull(EntityScanner.getDetails(TestObject.class).getVersionAccessor());
+        Assert.assertTrue(EntityScanner.getDetails(TestObject.class).getIndexedFieldAccessors().isEmpty());
+
+        // invalid version fields are left to the runtime scan to report
+        Assert.assertNull(EntityScanner.getDetails(Invalid.class).getMetadata());
+    }
+
+    @Test
+    public void testStoreFromMetadata() {
+        @SuppressWarnings("unchecked")
+        EntityMetadata<TestObject, String> metadata = (EntityMetadata<TestObject, String>) EntityScanner.getDetails(TestObject.class).getMetadata();
+        Assert.assertEquals(TestObject.class, metadata.getEntityClass());
+        Assert.assertEquals(String.class, metadata.getPrimaryIDClass());
+
+        DataStoreService<TestObject, String> service = new InMemoryDataStoreServiceImpl<>(metadata, false) {};
+        Assert.assertNotNull(service.insert(new TestObject("hello")));
+        Assert.assertEquals("hello", service.getPrimaryID(service.get("hello")));
+    }
+
+}
@@ -1,7 +1,20 @@
 package com.sangupta.jerry.db.service.impl;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.annotation.Id;
+
+import com.sangupta.jerry.db.DataStorePage;
+import com.sangupta.jerry.db.DataStorePatch;
 import com.sangupta.jerry.db.DataStoreService;
 import com.sangupta.jerry.db.impl.InMemoryDataStoreServiceImpl;
+import com.sangupta.jerry.db.service.impl.AsyncDataStoreServiceImplTest.User;
+import com.sangupta.jerry.entity.UserOwnedEntity;
+import com.sangupta.jerry.security.SecurityContext;
 
 public class InMemoryDataStoreServiceImplTest extends AbstarctDataStoreServiceImplTest {
 
@@ -10,4 +23,91 @@ public class InMemoryDataStoreServiceImplTest extends AbstarctDataStoreServiceIm
         return new InMemoryDataStoreServiceImpl<TestObject, String>() {};
     }
 
+    @Test
+    public void testGetPageResumesIteration() {
+        InMemoryDataStoreServiceImpl<TestObject, String> service = new InMemoryDataStoreServiceImpl<TestObject, String>() {
+
+            @Override
+            protected List<TestObject> getAllEntities(int page, int pageSize, int start, int end) {
+                throw new AssertionError("Pages must continue the previous iteration");
+            }
+
+        };
+
+        for (int index = 0; index < 50; index++) {
+            service.insert(new TestObject("random-" + index));
+        }
+
+        Set<String> ids = new HashSet<>();
+        DataStorePage<TestObject> first = service.getPage(null, 6);
+        String token = first.getNextToken();
+        while (token != null) {
+            DataStorePage<TestObject> page = service.getPage(token, 6);
+            for (TestObject obj : page.getEntities()) {
+                Assert.assertTrue(ids.add(obj.id));
+            }
+
+            token = page.getNextToken();
+        }
+
+        Assert.assertEquals(44, ids.size());
+
+        // a token already continued skips to its offset
+        DataStorePage<TestObject> again = service.getPage(first.getNextToken(), 6);
+        Assert.assertEquals(6, again.getEntities().size());
+        Assert.assertTrue(ids.contains(again.getEntities().get(0).id));
+    }
+
+    @Test
+    public void testPatchUserOwnedEntity() {
+        InMemoryDataStoreServiceImpl<Note, String> service = new InMemoryDataStoreServiceImpl<Note, String>() {};
+
+        try {
+            SecurityContext.setPrincipal(new User("user1"));
+            service.insert(new Note("1", "hello"));
+            Assert.assertTrue(service.patch("1", new DataStorePatch().set("text", "world")));
+            Assert.assertEquals("world", service.get("1").text);
+
+            // patched by another user, rejected as an update would be
+            SecurityContext.setPrincipal(new User("user2"));
+            try {
+                service.patch("1", new DataStorePatch().set("text", "stolen"));
+                Assert.fail("Patch by another user must fail");
+            } catch (SecurityException e) {
+                // expected
+            }
+
+            Assert.assertEquals("world", service.get("1").text);
+            Assert.assertFalse(service.patch("2", new DataStorePatch().set("text", "missing")));
+        } finally {
+            SecurityContext.clearPrincipal();
+        }
+    }
+
+    static class Note implements UserOwnedEntity {
+
+        @Id
+        String id;
+
+        String text;
+
+        String userID;
+
+        Note(String id, String text) {
+            this.id = id;
+            this.text = text;
+        }
+
+        @Override
+        public String getUserID() {
+            return this.userID;
+        }
+
+        @Override
+        public void setUserID(String userID) {
+            this.userID = userID;
+        }
+
+    }
+
 }
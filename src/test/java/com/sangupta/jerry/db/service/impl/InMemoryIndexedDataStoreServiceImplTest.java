@@ -0,0 +1,257 @@
+package com.sangupta.jerry.db.service.impl;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.annotation.Id;
+
+import com.sangupta.jerry.db.DataStorePatch;
+import com.sangupta.jerry.db.DataStoreQuery;
+import com.sangupta.jerry.db.DataStoreTracker;
+import com.sangupta.jerry.db.Indexed;
+import com.sangupta.jerry.db.impl.DiskBackedInMemoryDataStoreServiceImpl;
+import com.sangupta.jerry.db.impl.InMemoryDataStoreServiceImpl;
+
+/**
+ * Tests for secondary indexes of {@link InMemoryDataStoreServiceImpl}.
+ *
+ * @author sangupta
+ *
+ */
+public class InMemoryIndexedDataStoreServiceImplTest {
+
+    private InMemoryDataStoreServiceImpl<Person, String> service;
+
+    @Before
+    public void beforeEachTest() {
+        this.service = new InMemoryDataStoreServiceImpl<Person, String>() {};
+    }
+
+    @Test
+    public void testFindBy() {
+        this.service.insert(new Person("1", "a@example.com", 30, "active"));
+        this.service.insert(new Person("2", "b@example.com", 40, "active"));
+        this.service.insert(new Person("3", "c@example.com", 50, "inactive"));
+
+        Assert.assertEquals("2", this.service.findBy("email", "b@example.com").get(0).id);
+        Assert.assertEquals(2, this.service.findBy("status", "active").size());
+        Assert.assertTrue(this.service.findBy("email", "x@example.com").isEmpty());
+
+        // a new instance with a changed value
+        this.service.update(new Person("2", "d@example.com", 40, "inactive"));
+        Assert.assertTrue(this.service.findBy("email", "b@example.com").isEmpty());
+        Assert.assertEquals("2", this.service.findBy("email", "d@example.com").get(0).id);
+        Assert.assertEquals(1, this.service.findBy("status", "active").size());
+
+        // the stored instance changed in place
+        Person person = this.service.get("1");
+        person.email = "e@example.com";
+        this.service.update(person);
+        Assert.assertTrue(this.service.findBy("email", "a@example.com").isEmpty());
+        Assert.assertEquals("1", this.service.findBy("email", "e@example.com").get(0).id);
+
+        this.service.deleteForID("1");
+        Assert.assertTrue(this.service.findBy("email", "e@example.com").isEmpty());
+
+        this.service.deleteAll();
+        Assert.assertTrue(this.service.findBy("status", "inactive").isEmpty());
+    }
+
+    @Test
+    public void testNullNotIndexed() {
+        this.service.insert(new Person("1", null, 30, null));
+        Assert.assertTrue(this.service.findBy("status", "active").isEmpty());
+
+        this.service.upsert(new Person("1", null, 30, "active"));
+        Assert.assertEquals(1, this.service.findBy("status", "active").size());
+    }
+
+    @Test
+    public void testFindInRange() {
+        for (int index = 0; index < 10; index++) {
+            this.service.insert(new Person(String.valueOf(index), null, 90 - index * 10, null));
+        }
+
+        List<Integer> ages = this.service.findInRange("age", 20, 50).stream().map(person -> person.age).collect(Collectors.toList());
+        Assert.assertEquals(List.of(20, 30, 40), ages);
+
+        Assert.assertEquals(3, this.service.findInRange("age", null, 30).size());
+        Assert.assertEquals(2, this.service.findInRange("age", 80, null).size());
+        Assert.assertTrue(this.service.findInRange("age", 50, 50).isEmpty());
+        Assert.assertEquals(1, this.service.findBy("age", 60).size());
+
+        this.service.upsertMultiple(List.of(new Person("0", null, 25, null)));
+        Assert.assertEquals(List.of(20, 25, 30, 40), this.service.findInRange("age", 20, 50).stream().map(person -> person.age).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testFindWithIndexes() {
+        for (int index = 0; index < 10; index++) {
+            this.service.insert(new Person(String.valueOf(index), index + "@example.com", index * 10, index % 2 == 0 ? "even" : "odd"));
+        }
+
+        List<Person> list = this.service.find(new DataStoreQuery().eq("status", "odd").gte("age", 30).lte("age", 70).sortBy("age", false));
+        Assert.assertEquals(List.of(70, 50, 30), list.stream().map(person -> person.age).collect(Collectors.toList()));
+
+        // values of another type than the field are compared by value
+        Assert.assertEquals(2, this.service.find(new DataStoreQuery().in("age", 20L, 40L)).size());
+        Assert.assertEquals(3, this.service.find(new DataStoreQuery().gt("age", 65.5d)).size());
+        Assert.assertEquals(1, this.service.find(new DataStoreQuery().eq("age", 30.0f).lt("age", new BigDecimal("30.1"))).size());
+
+        // index is momentarily behind when the entity is changed in place
+        Person person = this.service.get("1");
+        person.email = "changed@example.com";
+        Assert.assertTrue(this.service.find(new DataStoreQuery().eq("email", "1@example.com")).isEmpty());
+
+        Assert.assertEquals(1, this.service.find(new DataStoreQuery().eq("name", null).eq("email", "2@example.com")).size());
+        Assert.assertEquals(2, this.service.find(new DataStoreQuery().eq("status", "even").sortBy("age", true).limit(2)).size());
+    }
+
+    @Test
+    public void testPatch() {
+        this.service.insert(new Person("1", "a@example.com", 30, "active"));
+
+        Assert.assertTrue(this.service.patch("1", new DataStorePatch().set("status", "inactive").inc("age", 5L).set("name", "hello")));
+        Person person = this.service.get("1");
+        Assert.assertEquals(35, person.age);
+        Assert.assertEquals("hello", person.name);
+        Assert.assertEquals("a@example.com", person.email);
+
+        // indexes follow the patched fields
+        Assert.assertTrue(this.service.findBy("status", "active").isEmpty());
+        Assert.assertEquals(1, this.service.findBy("status", "inactive").size());
+        Assert.assertEquals(1, this.service.findBy("age", 35).size());
+
+        Assert.assertTrue(this.service.patch("1", new DataStorePatch().set("email", null).set("age", 40.0d)));
+        Assert.assertTrue(this.service.findBy("email", "a@example.com").isEmpty());
+        Assert.assertEquals(40, this.service.get("1").age);
+
+        Assert.assertFalse(this.service.patch("2", new DataStorePatch().set("name", "hello")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPatchNotNumeric() {
+        this.service.patch("1", new DataStorePatch().inc("name", 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPatchValueDoesNotFit() {
+        this.service.patch("1", new DataStorePatch().set("age", 1.5d));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPatchFieldTwice() {
+        this.service.patch("1", new DataStorePatch().set("age", 1).inc("age", 1));
+    }
+
+    @Test
+    public void testTracker() {
+        this.service.insert(new Person("1", "a@example.com", 30, "active"));
+
+        Person person = this.service.get("1");
+        DataStoreTracker<Person> tracker = DataStoreTracker.track(person);
+        Assert.assertFalse(tracker.isDirty());
+        Assert.assertTrue(tracker.getChanges().isEmpty());
+
+        person.age = 31;
+        person.name = "hello";
+        Assert.assertTrue(tracker.isDirty());
+        Assert.assertEquals(List.of("age", "name"), tracker.getDirtyFields());
+
+        DataStorePatch patch = tracker.getChanges();
+        Assert.assertEquals(2, patch.getChanges().size());
+        Assert.assertTrue(this.service.patch("1", patch));
+
+        tracker.reset();
+        Assert.assertFalse(tracker.isDirty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFieldNotIndexed() {
+        this.service.findBy("name", "hello");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRangeOnHashIndex() {
+        this.service.findInRange("email", "a", "b");
+    }
+
+    @Test
+    public void testIndexRebuiltOnLoad() {
+        File file = new File(FileUtils.getTempDirectory(), UUID.randomUUID().toString() + ".json");
+        try {
+            DiskBackedInMemoryDataStoreServiceImpl<Person, String> store = new DiskBackedInMemoryDataStoreServiceImpl<Person, String>(file) {};
+            store.insert(new Person("1", "a@example.com", 30, "active"));
+            store.close();
+
+            store = new DiskBackedInMemoryDataStoreServiceImpl<Person, String>(file) {};
+            Assert.assertEquals("1", store.findBy("email", "a@example.com").get(0).id);
+            store.close();
+        } finally {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    @Test
+    public void testGetterNotUsed() {
+        InMemoryDataStoreServiceImpl<Masked, String> masked = new InMemoryDataStoreServiceImpl<Masked, String>() {};
+        masked.insert(new Masked("1", "a@example.com"));
+
+        // the field is indexed and matched as stored, not as the getter returns it
+        Assert.assertEquals(1, masked.findBy("email", "a@example.com").size());
+        Assert.assertTrue(masked.findBy("email", "***").isEmpty());
+        Assert.assertEquals(1, masked.find(new DataStoreQuery().eq("email", "a@example.com")).size());
+    }
+
+    static class Masked {
+
+        @Id
+        String id;
+
+        @Indexed
+        String email;
+
+        Masked(String id, String email) {
+            this.id = id;
+            this.email = email;
+        }
+
+        public String getEmail() {
+            return "***";
+        }
+
+    }
+
+    static class Person {
+
+        @Id
+        String id;
+
+        @Indexed
+        String email;
+
+        @Indexed(Indexed.Type.SORTED)
+        int age;
+
+        @Indexed
+        String status;
+
+        String name;
+
+        Person(String id, String email, int age, String status) {
+            this.id = id;
+            this.email = email;
+            this.age = age;
+            this.status = status;
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.sangupta.jerry.db.service.impl;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sangupta.jerry.db.DataStorePage;
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.impl.InMemoryDataStoreServiceImpl;
+
+public class InMemoryOrderedDataStoreServiceImplTest extends AbstarctDataStoreServiceImplTest {
+
+    @Override
+    protected DataStoreService<TestObject, String> getService() {
+        return new InMemoryDataStoreServiceImpl<TestObject, String>(true) {};
+    }
+    
+    @Test
+    public void testOrdering() {
+        InMemoryDataStoreServiceImpl<TestObject, String> store = new InMemoryDataStoreServiceImpl<TestObject, String>(true) {};
+        Assert.assertTrue(store.isOrdered());
+        Assert.assertNull(store.getFirstID());
+        Assert.assertNull(store.getLast());
+        
+        for(int index = 99; index >= 0; index--) {
+            store.insert(new TestObject(String.format("key-%03d", index)));
+        }
+        
+        Assert.assertEquals("key-000", store.getFirstID());
+        Assert.assertEquals("key-099", store.getLastID());
+        Assert.assertEquals(new TestObject("key-000"), store.getFirst());
+        Assert.assertEquals(new TestObject("key-099"), store.getLast());
+        
+        List<TestObject> range = store.getRange("key-010", "key-020");
+        Assert.assertEquals(10, range.size());
+        for(int index = 0; index < range.size(); index++) {
+            Assert.assertEquals(new TestObject(String.format("key-%03d", index + 10)), range.get(index));
+        }
+        
+        Assert.assertEquals(5, store.getRange("key-095", null).size());
+        Assert.assertEquals(5, store.getRange(null, "key-005").size());
+        Assert.assertTrue(store.getRange("key-020", "key-010").isEmpty());
+        
+        // pages come back in key order
+        DataStorePage<TestObject> page = store.getPage(null, 30);
+        Assert.assertEquals(new TestObject("key-000"), page.getEntities().get(0));
+        page = store.getPage(page.getNextToken(), 30);
+        Assert.assertEquals(new TestObject("key-030"), page.getEntities().get(0));
+        
+        // removing entities does not shift the next page
+        String token = page.getNextToken();
+        store.deleteForID("key-000");
+        store.deleteForID("key-001");
+        page = store.getPage(token, 30);
+        Assert.assertEquals(new TestObject("key-060"), page.getEntities().get(0));
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void testRangeOnHashStore() {
+        new InMemoryDataStoreServiceImpl<TestObject, String>() {}.getRange("a", "b");
+    }
+
+}
@@ -0,0 +1,411 @@
+package com.sangupta.jerry.db.service.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.annotation.Id;
+
+import com.sangupta.jerry.db.DataStorePatch;
+import com.sangupta.jerry.db.DataStoreVersionConflictException;
+import com.sangupta.jerry.db.Indexed;
+import com.sangupta.jerry.db.Version;
+import com.sangupta.jerry.db.impl.InMemoryDataStoreServiceImpl;
+import com.sangupta.jerry.db.impl.LongKeyedInMemoryDataStoreServiceImpl;
+import com.sangupta.jerry.db.impl.OffHeapDataStoreServiceImpl;
+import com.sangupta.jerry.db.impl.WriteBehindDataStoreService;
+
+/**
+ * Tests for entities with a {@link Version} field in
+ * {@link InMemoryDataStoreServiceImpl}.
+ *
+ * @author sangupta
+ *
+ */
+public class InMemoryVersionedDataStoreServiceImplTest {
+
+    private static final int ROUNDS = 2000;
+
+    private InMemoryDataStoreServiceImpl<Account, String> service;
+
+    @Before
+    public void beforeEachTest() {
+        this.service = new InMemoryDataStoreServiceImpl<Account, String>() {};
+    }
+
+    @Test
+    public void testUpdate() {
+        this.service.insert(new Account("1", 0, 100));
+        Assert.assertEquals(0, this.service.get("1").version);
+
+        Account account = new Account("1", 0, 200);
+        Assert.assertNotNull(this.service.update(account));
+        Assert.assertEquals(1, account.version);
+        Assert.assertEquals(1, this.service.get("1").version);
+
+        // written by someone who read version 0
+        Account stale = new Account("1", 0, 300);
+        try {
+            this.service.update(stale);
+            Assert.fail("Update of a stale version must fail");
+        } catch (DataStoreVersionConflictException e) {
+            Assert.assertEquals("1", e.getPrimaryID());
+            Assert.assertEquals(0, e.getExpectedVersion());
+        }
+
+        Assert.assertEquals(0, stale.version);
+        Assert.assertEquals(200, this.service.get("1").balance);
+
+        // an entity read from the store changed in place
+        Account read = this.service.get("1");
+        Account other = this.service.get("1");
+        read.balance = 400;
+        Assert.assertEquals(200, this.service.get("1").balance);
+        Assert.assertNotNull(this.service.update(read));
+        Assert.assertEquals(2, this.service.get("1").version);
+
+        // read at the same version, before the update above
+        other.balance = 500;
+        try {
+            this.service.update(other);
+            Assert.fail("Update of a stale version must fail");
+        } catch (DataStoreVersionConflictException e) {
+            Assert.assertEquals(1, e.getExpectedVersion());
+        }
+
+        Assert.assertEquals(400, this.service.get("1").balance);
+
+        // changes after the write do not reach the store
+        read.balance = 600;
+        Assert.assertEquals(400, this.service.get("1").balance);
+
+        Account missing = new Account("2", 5, 0);
+        Assert.assertNull(this.service.update(missing));
+        Assert.assertEquals(5, missing.version);
+    }
+
+    @Test
+    public void testUpsert() {
+        Assert.assertNotNull(this.service.upsert(new Account("1", 0, 100)));
+        Assert.assertEquals(0, this.service.get("1").version);
+
+        Assert.assertNotNull(this.service.upsert(new Account("1", 0, 200)));
+        Assert.assertEquals(1, this.service.get("1").version);
+
+        try {
+            this.service.upsertMultiple(List.of(new Account("2", 0, 0), new Account("1", 0, 300)));
+            Assert.fail("Upsert of a stale version must fail");
+        } catch (DataStoreVersionConflictException e) {
+            Assert.assertEquals("1", e.getPrimaryID());
+        }
+
+        Assert.assertEquals(200, this.service.get("1").balance);
+        Assert.assertNotNull(this.service.get("2"));
+    }
+
+    @Test
+    public void testUpdateMultiple() {
+        this.service.insertMultiple(List.of(new Account("1", 0, 100), new Account("2", 0, 100)));
+
+        List<Account> updated = this.service.updateMultiple(List.of(new Account("1", 0, 200), new Account("2", 0, 200), new Account("3", 0, 200)));
+        Assert.assertEquals(2, updated.size());
+        Assert.assertEquals(1, this.service.get("1").version);
+        Assert.assertEquals(1, this.service.get("2").version);
+    }
+
+    @Test
+    public void testPatch() {
+        this.service.insert(new Account("1", 0, 100));
+
+        Assert.assertTrue(this.service.patch("1", new DataStorePatch().inc("balance", 50)));
+        Assert.assertEquals(150, this.service.get("1").balance);
+        Assert.assertEquals(1, this.service.get("1").version);
+
+        // read before the patch
+        try {
+            this.service.update(new Account("1", 0, 0));
+            Assert.fail("Update of a version read before a patch must fail");
+        } catch (DataStoreVersionConflictException e) {
+            // expected
+        }
+
+        // an empty patch writes nothing
+        Assert.assertTrue(this.service.patch("1", new DataStorePatch()));
+        Assert.assertEquals(1, this.service.get("1").version);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPatchVersion() {
+        this.service.patch("1", new DataStorePatch().set("version", 10));
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws InterruptedException {
+        this.service.insert(new Account("1", 0, 0));
+
+        final int threads = 8;
+        final int increments = 500;
+        final AtomicInteger conflicts = new AtomicInteger();
+
+        List<Thread> list = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            list.add(new Thread(() -> {
+                for (int count = 0; count < increments;) {
+                    Account current = this.service.get("1");
+                    try {
+                        this.service.update(new Account("1", current.version, current.balance + 1));
+                        count++;
+                    } catch (DataStoreVersionConflictException e) {
+                        conflicts.incrementAndGet();
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : list) {
+            thread.start();
+        }
+
+        for (Thread thread : list) {
+            thread.join();
+        }
+
+        Account account = this.service.get("1");
+        Assert.assertEquals(threads * increments, account.balance);
+        Assert.assertEquals(threads * increments, account.version);
+    }
+
+    @Test
+    public void testConcurrentUpdatesInPlace() throws Exception {
+        this.service.insert(new Account("1", 0, 0));
+
+        int updates = updateInRounds(() -> this.service.get("1"), current -> {
+            current.balance++;
+            this.service.update(current);
+        });
+
+        // exactly one update per round, none lost
+        Account account = this.service.get("1");
+        Assert.assertEquals(ROUNDS, updates);
+        Assert.assertEquals(ROUNDS, account.balance);
+        Assert.assertEquals(ROUNDS, account.version);
+    }
+
+    @Test
+    public void testLongKeyedConcurrentUpdatesInPlace() throws Exception {
+        LongKeyedInMemoryDataStoreServiceImpl<Entry> entries = new LongKeyedInMemoryDataStoreServiceImpl<Entry>() {};
+        entries.insert(new Entry(1, 0, 0));
+
+        int updates = updateInRounds(() -> entries.get(1), current -> {
+            current.balance++;
+            entries.update(current);
+        });
+
+        Entry entry = entries.get(1);
+        Assert.assertEquals(ROUNDS, updates);
+        Assert.assertEquals(ROUNDS, entry.balance);
+        Assert.assertEquals(ROUNDS, entry.version);
+    }
+
+    @Test
+    public void testOffHeapConcurrentUpdates() throws Exception {
+        OffHeapDataStoreServiceImpl<Account, String> accounts = new OffHeapDataStoreServiceImpl<Account, String>(64L << 20) {};
+        try {
+            accounts.insert(new Account("1", 0, 0));
+
+            int updates = updateInRounds(() -> accounts.get("1"), current -> {
+                current.balance++;
+                accounts.update(current);
+            });
+
+            Account account = accounts.get("1");
+            Assert.assertEquals(ROUNDS, updates);
+            Assert.assertEquals(ROUNDS, account.balance);
+            Assert.assertEquals(ROUNDS, account.version);
+        } finally {
+            accounts.close();
+        }
+    }
+
+    @Test
+    public void testLongKeyedUpdateInPlace() {
+        LongKeyedInMemoryDataStoreServiceImpl<Entry> entries = new LongKeyedInMemoryDataStoreServiceImpl<Entry>() {};
+        entries.insert(new Entry(1, 0, 100));
+
+        Entry read = entries.get(1);
+        Entry other = entries.get(Long.valueOf(1));
+        read.balance = 200;
+        Assert.assertNotNull(entries.update(read));
+        Assert.assertEquals(1, entries.get(1).version);
+
+        other.balance = 300;
+        try {
+            entries.update(other);
+            Assert.fail("Update of a stale version must fail");
+        } catch (DataStoreVersionConflictException e) {
+            // expected
+        }
+
+        Assert.assertEquals(200, entries.get(1).balance);
+    }
+
+    @Test
+    public void testIndexedAndIntVersion() {
+        InMemoryDataStoreServiceImpl<Order, String> orders = new InMemoryDataStoreServiceImpl<Order, String>() {};
+        orders.insert(new Order("1", null, "open"));
+        Assert.assertEquals(Integer.valueOf(0), orders.get("1").version);
+
+        Assert.assertNotNull(orders.update(new Order("1", 0, "closed")));
+        Assert.assertEquals(Integer.valueOf(1), orders.get("1").version);
+        Assert.assertEquals(1, orders.findBy("status", "closed").size());
+        Assert.assertTrue(orders.findBy("status", "open").isEmpty());
+
+        try {
+            orders.update(new Order("1", 0, "open"));
+            Assert.fail("Update of a stale version must fail");
+        } catch (DataStoreVersionConflictException e) {
+            // expected
+        }
+
+        Assert.assertTrue(orders.findBy("status", "open").isEmpty());
+    }
+
+    @Test
+    public void testWriteBehindNotBuffered() {
+        WriteBehindDataStoreService<Account, String> writeBehind = new WriteBehindDataStoreService<>(this.service);
+        try {
+            writeBehind.insert(new Account("1", 0, 100));
+            writeBehind.update(new Account("1", 0, 200));
+            Assert.assertEquals(0, writeBehind.getPendingCount());
+            Assert.assertEquals(1, this.service.get("1").version);
+
+            try {
+                writeBehind.update(new Account("1", 0, 300));
+                Assert.fail("Update of a stale version must fail");
+            } catch (DataStoreVersionConflictException e) {
+                // expected
+            }
+        } finally {
+            writeBehind.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidVersionField() {
+        new InMemoryDataStoreServiceImpl<Invalid, String>() {};
+    }
+
+    /**
+     * Have two threads read the same version of an entity and then update it,
+     * round after round.
+     *
+     * @return the number of updates that did not conflict
+     */
+    private static <E> int updateInRounds(Supplier<E> read, Consumer<E> update) throws InterruptedException {
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final AtomicInteger updates = new AtomicInteger();
+
+        List<Thread> list = new ArrayList<>();
+        for (int thread = 0; thread < 2; thread++) {
+            list.add(new Thread(() -> {
+                for (int round = 0; round < ROUNDS; round++) {
+                    try {
+                        // both threads read the same version, then change what they read
+                        barrier.await();
+                        E current = read.get();
+                        barrier.await();
+
+                        update.accept(current);
+                        updates.incrementAndGet();
+                    } catch (DataStoreVersionConflictException e) {
+                        // the other thread won this round
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : list) {
+            thread.start();
+        }
+
+        for (Thread thread : list) {
+            thread.join();
+        }
+
+        return updates.get();
+    }
+
+    static class Account {
+
+        @Id
+        String id;
+
+        @Version
+        long version;
+
+        int balance;
+
+        Account(String id, long version, int balance) {
+            this.id = id;
+            this.version = version;
+            this.balance = balance;
+        }
+
+    }
+
+    static class Entry {
+
+        @Id
+        long id;
+
+        @Version
+        long version;
+
+        int balance;
+
+        Entry(long id, long version, int balance) {
+            this.id = id;
+            this.version = version;
+            this.balance = balance;
+        }
+
+    }
+
+    static class Order {
+
+        @Id
+        String id;
+
+        @Version
+        Integer version;
+
+        @Indexed
+        String status;
+
+        Order(String id, Integer version, String status) {
+            this.id = id;
+            this.version = version;
+            this.status = status;
+        }
+
+    }
+
+    static class Invalid {
+
+        @Id
+        String id;
+
+        @Version
+        String version;
+
+    }
+
+}
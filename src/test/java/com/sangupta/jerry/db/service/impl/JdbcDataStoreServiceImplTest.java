@@ -0,0 +1,196 @@
+package com.sangupta.jerry.db.service.impl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.annotation.Id;
+
+import com.sangupta.jerry.db.DataStorePatch;
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.DataStoreTracker;
+import com.sangupta.jerry.db.impl.JdbcDataStoreServiceImpl;
+
+public class JdbcDataStoreServiceImplTest extends AbstarctDataStoreServiceImplTest {
+
+    @Override
+    protected DataStoreService<TestObject, String> getService() {
+        JdbcDataStoreServiceImpl<TestObject, String> service = new JdbcDataStoreServiceImpl<TestObject, String>(newDataSource()) {
+
+        };
+
+        service.createTable();
+        return service;
+    }
+
+    @Test
+    public void testGetWithFieldsSkipsColumns() {
+        JdbcDataStoreServiceImpl<Article, String> articles = newArticleService();
+        articles.insert(new Article("1", 10, "title-1", "x".repeat(4000)));
+        articles.insert(new Article("2", 20, "title-2", "y".repeat(4000)));
+
+        Article article = articles.get("1", List.of("title"));
+        Assert.assertEquals("1", article.id);
+        Assert.assertEquals("title-1", article.title);
+        Assert.assertEquals(0, article.views);
+        Assert.assertNull(article.body);
+
+        List<Article> list = articles.getMultiple(List.of("1", "2"), List.of("views"));
+        Assert.assertEquals(2, list.size());
+        for (Article item : list) {
+            Assert.assertNotEquals(0, item.views);
+            Assert.assertNull(item.title);
+            Assert.assertNull(item.body);
+        }
+
+        // all fields are still read by default
+        Assert.assertEquals(4000, articles.get("2").body.length());
+    }
+
+    @Test
+    public void testPatchColumns() {
+        JdbcDataStoreServiceImpl<Article, String> articles = newArticleService();
+        articles.insert(new Article("1", 10, "title-1", "body-1"));
+        articles.insert(new Article("2", 20, "title-2", "body-2"));
+
+        Assert.assertTrue(articles.patch("1", new DataStorePatch().set("title", "hello").inc("views", 5).set("body", null)));
+
+        Article article = articles.get("1");
+        Assert.assertEquals("hello", article.title);
+        Assert.assertEquals(15, article.views);
+        Assert.assertNull(article.body);
+
+        // other rows are not touched
+        article = articles.get("2");
+        Assert.assertEquals("title-2", article.title);
+        Assert.assertEquals(20, article.views);
+        Assert.assertEquals("body-2", article.body);
+
+        Assert.assertFalse(articles.patch("3", new DataStorePatch().inc("views", 1)));
+    }
+
+    @Test
+    public void testTracker() {
+        JdbcDataStoreServiceImpl<Article, String> articles = newArticleService();
+        articles.insert(new Article("1", 10, "title-1", "body-1"));
+
+        DataStoreTracker<Article> tracker = DataStoreTracker.track(articles.get("1"));
+        tracker.getEntity().title = "hello";
+        tracker.getEntity().body = null;
+        Assert.assertEquals(List.of("title", "body"), tracker.getDirtyFields());
+        Assert.assertTrue(articles.patch("1", tracker.getChanges()));
+
+        Article article = articles.get("1");
+        Assert.assertEquals("hello", article.title);
+        Assert.assertEquals(10, article.views);
+        Assert.assertNull(article.body);
+    }
+
+    @Test
+    public void testBatchWithoutUpdateCounts() {
+        JdbcDataStoreServiceImpl<Article, String> articles = new JdbcDataStoreServiceImpl<Article, String>(withoutUpdateCounts(newDataSource())) {};
+        articles.createTable();
+        articles.insert(new Article("1", 10, "title-1", "body-1"));
+
+        // unknown counts are not taken as updated rows
+        List<Article> updated = articles.updateMultiple(List.of(new Article("1", 11, "title-1", "body-1"), new Article("2", 20, "title-2", "body-2")));
+        Assert.assertEquals(1, updated.size());
+        Assert.assertEquals("1", updated.get(0).id);
+        Assert.assertNull(articles.get("2"));
+
+        // nor as rows that exist
+        Assert.assertEquals(2, articles.upsertMultiple(List.of(new Article("1", 12, "title-1", "body-1"), new Article("3", 30, "title-3", "body-3"))).size());
+        Assert.assertEquals(12, articles.get("1").views);
+        Assert.assertEquals(30, articles.get("3").views);
+    }
+
+    /**
+     * Wrap the data source so that batches report
+     * {@link Statement#SUCCESS_NO_INFO} instead of update counts, as some
+     * drivers do.
+     */
+    private static DataSource withoutUpdateCounts(DataSource dataSource) {
+        return proxy(DataSource.class, dataSource, (method, args, result) -> {
+            if (result instanceof Connection) {
+                return proxy(Connection.class, result, (connectionMethod, connectionArgs, statement) -> {
+                    if (!(statement instanceof PreparedStatement)) {
+                        return statement;
+                    }
+
+                    return proxy(PreparedStatement.class, statement, (statementMethod, statementArgs, counts) -> {
+                        if (statementMethod.getName().equals("executeBatch")) {
+                            Arrays.fill((int[]) counts, Statement.SUCCESS_NO_INFO);
+                        }
+
+                        return counts;
+                    });
+                });
+            }
+
+            return result;
+        });
+    }
+
+    /**
+     * Changes the result of a call made through a proxy.
+     */
+    private interface ResultMapper {
+
+        public Object map(Method method, Object[] args, Object result) throws Exception;
+
+    }
+
+    private static <P> P proxy(Class<P> type, Object target, ResultMapper mapper) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            try {
+                return mapper.map(method, args, method.invoke(target, args));
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }));
+    }
+
+    private static JdbcDataSource newDataSource() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID().toString() + ";DB_CLOSE_DELAY=-1");
+        return dataSource;
+    }
+
+    private static JdbcDataStoreServiceImpl<Article, String> newArticleService() {
+        JdbcDataStoreServiceImpl<Article, String> service = new JdbcDataStoreServiceImpl<Article, String>(newDataSource()) {};
+        service.createTable();
+        return service;
+    }
+
+    static class Article {
+
+        @Id
+        String id;
+
+        int views;
+
+        String title;
+
+        String body;
+
+        Article(String id, int views, String title, String body) {
+            this.id = id;
+            this.views = views;
+            this.title = title;
+            this.body = body;
+        }
+
+    }
+
+}
@@ -0,0 +1,224 @@
+package com.sangupta.jerry.db.service.impl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.annotation.Id;
+
+import com.sangupta.jerry.db.DataStorePage;
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.impl.LongKeyedInMemoryDataStoreServiceImpl;
+
+/**
+ * Tests for {@link LongKeyedInMemoryDataStoreServiceImpl}.
+ *
+ * @author sangupta
+ *
+ */
+public class LongKeyedInMemoryDataStoreServiceImplTest {
+
+    private LongKeyedInMemoryDataStoreServiceImpl<LongObject> service;
+
+    @Before
+    public void beforeEachTest() {
+        this.service = new LongKeyedInMemoryDataStoreServiceImpl<LongObject>() {};
+    }
+
+    @Test
+    public void testCrud() {
+        DataStoreService<LongObject, Long> store = this.service;
+        Assert.assertEquals(Long.valueOf(42), store.getPrimaryID(new LongObject(42)));
+
+        Assert.assertNull(store.get(42L));
+        Assert.assertNotNull(store.insert(new LongObject(42)));
+        Assert.assertNull(store.insert(new LongObject(42)));
+        Assert.assertEquals(42, store.get(Long.valueOf(42)).id);
+
+        Assert.assertNull(store.update(new LongObject(43)));
+        LongObject updated = new LongObject(42);
+        Assert.assertNotNull(store.update(updated));
+        Assert.assertSame(updated, store.get(Long.valueOf(42)));
+
+        Assert.assertNotNull(store.upsert(new LongObject(43)));
+        Assert.assertEquals(2, store.count());
+
+        Assert.assertSame(updated, store.deleteForID(Long.valueOf(42)));
+        Assert.assertNull(store.deleteForID(Long.valueOf(42)));
+        Assert.assertNull(store.get(Long.valueOf(42)));
+        Assert.assertEquals(1, store.count());
+
+        // re-insert a removed key
+        Assert.assertNotNull(store.insert(new LongObject(42)));
+        Assert.assertEquals(2, store.count());
+
+        store.deleteAll();
+        Assert.assertEquals(0, store.count());
+        Assert.assertNull(store.get(Long.valueOf(43)));
+    }
+
+    @Test
+    public void testPrimitiveOverloads() {
+        Assert.assertNull(this.service.getMultiple(new long[0]));
+        Assert.assertNull(this.service.deleteMultiple(new long[0]));
+
+        for (long id : new long[] { 0, -1, Long.MIN_VALUE, Long.MAX_VALUE, 7 }) {
+            Assert.assertNotNull(this.service.insert(new LongObject(id)));
+        }
+
+        Assert.assertEquals(0, this.service.get(0L).id);
+        Assert.assertEquals(Long.MIN_VALUE, this.service.get(Long.MIN_VALUE).id);
+        Assert.assertNull(this.service.get(1L));
+
+        Assert.assertEquals(3, this.service.getMultiple(new long[] { -1, Long.MAX_VALUE, 1, 7 }).size());
+
+        Assert.assertEquals(7, this.service.deleteForID(7L).id);
+        Assert.assertNull(this.service.deleteForID(7L));
+
+        List<LongObject> deleted = this.service.deleteMultiple(new long[] { 0, 7 });
+        Assert.assertEquals(2, deleted.size());
+        Assert.assertEquals(0, deleted.get(0).id);
+        Assert.assertNull(deleted.get(1));
+        Assert.assertEquals(3, this.service.count());
+    }
+
+    @Test
+    public void testGrowthAndChurn() {
+        final int count = 20_000;
+        List<LongObject> list = new ArrayList<>();
+        for (long id = 0; id < count; id++) {
+            list.add(new LongObject(id * 31));
+        }
+
+        Assert.assertEquals(count, this.service.insertMultiple(list).size());
+        Assert.assertEquals(count, this.service.count());
+
+        // remove every other entity, and put some back
+        for (long id = 0; id < count; id += 2) {
+            Assert.assertNotNull(this.service.deleteForID(id * 31));
+        }
+
+        for (long id = 0; id < count; id += 4) {
+            Assert.assertNotNull(this.service.insert(new LongObject(id * 31)));
+        }
+
+        int expected = count / 2 + count / 4;
+        Assert.assertEquals(expected, this.service.count());
+        Assert.assertEquals(expected, this.service.getAll().size());
+
+        for (long id = 0; id < count; id++) {
+            boolean present = id % 2 == 1 || id % 4 == 0;
+            Assert.assertEquals(present, this.service.get(id * 31) != null);
+        }
+
+        try (Stream<LongObject> stream = this.service.stream()) {
+            Assert.assertEquals(expected, stream.count());
+        }
+    }
+
+    @Test
+    public void testPaging() {
+        for (long id = 1; id <= 25; id++) {
+            this.service.insert(new LongObject(id));
+        }
+
+        Set<Long> ids = new HashSet<>();
+        for (int page = 0; page < 3; page++) {
+            ids.addAll(this.service.getAll(page, 10).stream().map(obj -> obj.id).collect(Collectors.toList()));
+        }
+
+        Assert.assertEquals(25, ids.size());
+        Assert.assertTrue(this.service.getAll(3, 10).isEmpty());
+
+        DataStorePage<LongObject> first = this.service.getPage(null, 20);
+        Assert.assertEquals(20, first.getEntities().size());
+        Assert.assertNotNull(first.getNextToken());
+        Assert.assertEquals(5, this.service.getPage(first.getNextToken(), 20).getEntities().size());
+    }
+
+    @Test
+    public void testGetPageSingleRead() {
+        final List<Integer> reads = new ArrayList<>();
+        LongKeyedInMemoryDataStoreServiceImpl<LongObject> store = new LongKeyedInMemoryDataStoreServiceImpl<LongObject>() {
+
+            @Override
+            protected List<LongObject> getAllEntities(int page, int pageSize, int start, int end) {
+                Assert.assertEquals(start + pageSize, end);
+                reads.add(start);
+                return super.getAllEntities(page, pageSize, start, end);
+            }
+
+        };
+
+        for (long id = 1; id <= 50; id++) {
+            store.insert(new LongObject(id));
+        }
+
+        Set<Long> ids = new HashSet<>();
+        String token = null;
+        do {
+            DataStorePage<LongObject> page = store.getPage(token, 6);
+            for (LongObject obj : page.getEntities()) {
+                Assert.assertTrue(ids.add(obj.id));
+            }
+
+            token = page.getNextToken();
+        } while (token != null);
+
+        // one read of the page and the next entity per page
+        Assert.assertEquals(50, ids.size());
+        Assert.assertEquals(List.of(0, 6, 12, 18, 24, 30, 36, 42, 48), reads);
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final int threads = 8;
+        final int perThread = 5_000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                final long base = (long) thread * perThread;
+                futures.add(executor.submit(() -> {
+                    for (long id = base; id < base + perThread; id++) {
+                        Assert.assertNotNull(this.service.insert(new LongObject(id)));
+                        Assert.assertNotNull(this.service.get(id));
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(threads * perThread, this.service.count());
+        for (long id = 0; id < threads * perThread; id++) {
+            Assert.assertEquals(id, this.service.get(id).id);
+        }
+    }
+
+    static class LongObject {
+
+        @Id
+        long id;
+
+        LongObject(long id) {
+            this.id = id;
+        }
+
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.sangupta.jerry.db.service.impl;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.annotation.Id;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoCollection;
+import com.sangupta.jerry.db.DataStorePatch;
+import com.sangupta.jerry.db.EntityScanner;
+import com.sangupta.jerry.db.EntityScanner.EntityDetails;
+import com.sangupta.jerry.db.FieldAccessor;
+import com.sangupta.jerry.db.impl.MongoDbDataStoreServiceImpl;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+/**
+ * Tests for {@link MongoDbDataStoreServiceImpl}: the translation of reads and
+ * writes to MongoDB operators, and the behaviour of the store against an
+ * in-process server.
+ *
+ * @author sangupta
+ *
+ */
+public class MongoDbDataStoreServiceImplTest {
+
+    private final Store store = new Store();
+
+    private final EntityDetails details = EntityScanner.getDetails(Article.class);
+
+    private MongoServer server;
+
+    private MongoClient client;
+
+    private MongoDbDataStoreServiceImpl<Article, String> service;
+
+    @Before
+    public void beforeEachTest() {
+        this.server = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = this.server.bind();
+
+        this.client = new MongoClient(new ServerAddress(address));
+        this.service = new MongoDbDataStoreServiceImpl<Article, String>(this.client.getDatabase("test")) {};
+    }
+
+    @After
+    public void afterEachTest() {
+        this.client.close();
+        this.server.shutdownNow();
+    }
+
+    @Test
+    public void testProjection() {
+        Bson projection = this.store.toProjection(List.of(this.details.getFieldAccessor("id"), this.details.getFieldAccessor("title")));
+        Assert.assertEquals(BsonDocument.parse("{ '_id' : 1, 'title' : 1 }"), toBsonDocument(projection));
+    }
+
+    @Test
+    public void testUpdate() {
+        Bson update = this.store.toUpdate(new DataStorePatch().set("title", "hello").inc("views", 2).set("body", null));
+        Assert.assertEquals(BsonDocument.parse("{ '$set' : { 'title' : 'hello' }, '$inc' : { 'views' : 2 }, '$unset' : { 'body' : '' } }"), toBsonDocument(update));
+    }
+
+    @Test
+    public void testInsert() {
+        Assert.assertNotNull(this.service.insert(new Article("1", "one")));
+        Assert.assertNull(this.service.insert(new Article("1", "other")));
+        Assert.assertEquals("one", this.service.get("1").title);
+
+        List<Article> inserted = this.service.insertMultiple(List.of(new Article("1", "other"), new Article("2", "two"), new Article("3", "three")));
+        Assert.assertEquals(2, inserted.size());
+        Assert.assertEquals("2", inserted.get(0).id);
+        Assert.assertEquals("3", inserted.get(1).id);
+        Assert.assertEquals("one", this.service.get("1").title);
+        Assert.assertEquals(3, this.service.count());
+    }
+
+    @Test
+    public void testUpdate() {
+        Assert.assertNull(this.service.update(new Article("1", "one")));
+        Assert.assertNull(this.service.get("1"));
+
+        this.service.insert(new Article("1", "one"));
+        Assert.assertNotNull(this.service.update(new Article("1", "updated")));
+        Assert.assertEquals("updated", this.service.get("1").title);
+
+        List<Article> updated = this.service.updateMultiple(List.of(new Article("1", "again"), new Article("2", "two")));
+        Assert.assertEquals(1, updated.size());
+        Assert.assertEquals("again", this.service.get("1").title);
+        Assert.assertNull(this.service.get("2"));
+    }
+
+    @Test
+    public void testUpsert() {
+        Assert.assertNotNull(this.service.upsert(new Article("1", "one")));
+        Assert.assertNotNull(this.service.upsert(new Article("1", "updated")));
+        Assert.assertEquals("updated", this.service.get("1").title);
+
+        List<Article> upserted = this.service.upsertMultiple(List.of(new Article("1", "again"), new Article("2", "two")));
+        Assert.assertEquals(2, upserted.size());
+        Assert.assertEquals("again", this.service.get("1").title);
+        Assert.assertEquals("two", this.service.get("2").title);
+        Assert.assertEquals(2, this.service.count());
+    }
+
+    @Test
+    public void testObjectIdKeys() {
+        String first = new ObjectId().toHexString();
+        String second = new ObjectId().toHexString();
+        this.service.insertMultiple(List.of(new Article(first, "one"), new Article(second, "two"), new Article("3", "three")));
+
+        Assert.assertEquals("one", this.service.get(first).title);
+        Assert.assertEquals(3, this.service.getMultiple(List.of(first, second, "3")).size());
+        Assert.assertEquals(2, this.service.getMultiple(new String[] { second, "3" }).size());
+
+        Assert.assertEquals("one", this.service.deleteForID(first).title);
+        Assert.assertNull(this.service.get(first));
+        Assert.assertNotNull(this.service.delete(new Article(second, "two")));
+        Assert.assertNull(this.service.get(second));
+
+        List<Article> deleted = this.service.deleteMultiple(List.of(first, "3", "4"));
+        Assert.assertEquals(1, deleted.size());
+        Assert.assertEquals("three", deleted.get(0).title);
+        Assert.assertEquals(0, this.service.count());
+        Assert.assertTrue(this.service.deleteMultiple(new String[] { second }).isEmpty());
+    }
+
+    @Test
+    public void testGetAllPage() {
+        List<Article> articles = new ArrayList<>();
+        for (int index = 1; index <= 5; index++) {
+            articles.add(new Article(String.valueOf(index), "article " + index));
+        }
+
+        this.service.insertMultiple(articles);
+
+        List<Article> page = this.service.getAll(1, 2);
+        Assert.assertEquals(2, page.size());
+        Assert.assertEquals("article 3", page.get(0).title);
+        Assert.assertEquals("article 4", page.get(1).title);
+
+        Assert.assertEquals(1, this.service.getAll(2, 2).size());
+        Assert.assertTrue(this.service.getAll(3, 2).isEmpty());
+    }
+
+    private static BsonDocument toBsonDocument(Bson bson) {
+        return bson.toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry());
+    }
+
+    /**
+     * Store without a collection, exposing the translation methods.
+     */
+    static class Store extends MongoDbDataStoreServiceImpl<Article, String> {
+
+        Store() {
+            super((MongoCollection<Document>) null);
+        }
+
+        @Override
+        protected Bson toProjection(List<FieldAccessor> fields) {
+            return super.toProjection(fields);
+        }
+
+        @Override
+        protected Bson toUpdate(DataStorePatch patch) {
+            return super.toUpdate(patch);
+        }
+
+    }
+
+    static class Article {
+
+        @Id
+        String id;
+
+        int views;
+
+        String title;
+
+        String body;
+
+        Article() {
+            // for deserialization
+        }
+
+        Article(String id, String title) {
+            this.id = id;
+            this.title = title;
+        }
+
+    }
+
+}
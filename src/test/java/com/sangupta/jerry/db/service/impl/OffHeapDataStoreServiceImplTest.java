@@ -0,0 +1,92 @@
+package com.sangupta.jerry.db.service.impl;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.impl.OffHeapDataStoreServiceImpl;
+
+public class OffHeapDataStoreServiceImplTest extends AbstarctDataStoreServiceImplTest {
+
+    @Override
+    protected DataStoreService<TestObject, String> getService() {
+        return new OffHeapDataStoreServiceImpl<TestObject, String>(64L << 20) {};
+    }
+
+    @Test
+    public void testCapacityAndReclaim() {
+        OffHeapDataStoreServiceImpl<TestObject, String> service = new OffHeapDataStoreServiceImpl<TestObject, String>(OffHeapDataStoreServiceImpl.DEFAULT_PAGE_SIZE) {};
+
+        // fill the single page
+        int count = 0;
+        try {
+            while (true) {
+                service.insert(new TestObject("id-" + count));
+                count++;
+            }
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        Assert.assertTrue(count > 0);
+        Assert.assertEquals(count, service.count());
+        Assert.assertEquals(OffHeapDataStoreServiceImpl.DEFAULT_PAGE_SIZE, service.getAllocatedBytes());
+
+        // deleted space is reused
+        for (int index = 0; index < count; index++) {
+            Assert.assertNotNull(service.deleteForID("id-" + index));
+        }
+
+        Assert.assertEquals(0, service.count());
+        Assert.assertEquals(0, service.getUsedBytes());
+
+        for (int index = 0; index < count; index++) {
+            Assert.assertNotNull(service.insert(new TestObject("id-" + index)));
+        }
+
+        Assert.assertEquals(count, service.count());
+
+        service.close();
+        Assert.assertEquals(0, service.count());
+        Assert.assertEquals(0, service.getAllocatedBytes());
+    }
+
+    @Test
+    public void testBatchedReads() {
+        OffHeapDataStoreServiceImpl<TestObject, String> service = new OffHeapDataStoreServiceImpl<TestObject, String>(64L << 20) {};
+        try {
+            Set<String> ids = new HashSet<>();
+            for (int index = 0; index < 1000; index++) {
+                service.insert(new TestObject("id-" + index));
+                ids.add("id-" + index);
+            }
+
+            // batches smaller than a segment
+            try (Stream<TestObject> stream = service.stream(3)) {
+                Assert.assertEquals(ids, stream.map(obj -> obj.id).collect(Collectors.toSet()));
+            }
+
+            // pages starting in the middle of segments
+            Set<String> paged = new HashSet<>();
+            for (int page = 0; page * 7 < 1000; page++) {
+                List<TestObject> list = service.getAll(page, 7);
+                Assert.assertEquals(Math.min(7, 1000 - page * 7), list.size());
+                for (TestObject obj : list) {
+                    Assert.assertTrue(paged.add(obj.id));
+                }
+            }
+
+            Assert.assertEquals(ids, paged);
+            Assert.assertTrue(service.getAll(1000, 7).isEmpty());
+        } finally {
+            service.close();
+        }
+    }
+
+}
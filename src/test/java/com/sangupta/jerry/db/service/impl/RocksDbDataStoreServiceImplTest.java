@@ -0,0 +1,28 @@
+package com.sangupta.jerry.db.service.impl;
+
+import java.io.File;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.impl.RocksDbDataStoreServiceImpl;
+
+public class RocksDbDataStoreServiceImplTest extends AbstarctDataStoreServiceImplTest {
+
+    @Override
+    protected DataStoreService<TestObject, String> getService() {
+        File folder = new File(FileUtils.getTempDirectory(), UUID.randomUUID().toString() + ".rocksdb");
+
+        return new RocksDbDataStoreServiceImpl<TestObject, String>(folder) {
+            
+            @Override
+            public void close() {
+                super.close();
+                FileUtils.deleteQuietly(folder);
+            }
+            
+        };
+    }
+
+}
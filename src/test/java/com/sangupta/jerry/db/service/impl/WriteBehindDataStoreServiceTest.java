@@ -0,0 +1,135 @@
+package com.sangupta.jerry.db.service.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.annotation.Id;
+
+import com.sangupta.jerry.db.DataStorePatch;
+import com.sangupta.jerry.db.DataStoreService;
+import com.sangupta.jerry.db.impl.InMemoryDataStoreServiceImpl;
+import com.sangupta.jerry.db.impl.WriteBehindDataStoreService;
+import com.sangupta.jerry.db.service.impl.AsyncDataStoreServiceImplTest.OwnedObject;
+import com.sangupta.jerry.db.service.impl.AsyncDataStoreServiceImplTest.User;
+import com.sangupta.jerry.security.SecurityContext;
+
+public class WriteBehindDataStoreServiceTest extends AbstarctDataStoreServiceImplTest {
+
+    @Override
+    protected DataStoreService<TestObject, String> getService() {
+        return new WriteBehindDataStoreService<>(new InMemoryDataStoreServiceImpl<TestObject, String>() {}, 10, 50, 100);
+    }
+
+    @Test
+    public void testCoalescing() {
+        DataStoreService<TestObject, String> store = new InMemoryDataStoreServiceImpl<TestObject, String>() {};
+        WriteBehindDataStoreService<TestObject, String> service = new WriteBehindDataStoreService<>(store, 100, 60_000, 1000);
+
+        for (int index = 0; index < 50; index++) {
+            service.upsert(new TestObject("hello"));
+        }
+
+        // pending write is visible through the service only
+        Assert.assertEquals(1, service.getPendingCount());
+        Assert.assertEquals(49, service.getCoalescedCount());
+        Assert.assertNull(store.get("hello"));
+        Assert.assertNotNull(service.get("hello"));
+        Assert.assertNull(service.insert(new TestObject("hello")));
+
+        // scans flush first
+        Assert.assertEquals(1, service.count());
+        Assert.assertEquals(0, service.getPendingCount());
+        Assert.assertEquals(1, service.getFlushedCount());
+        Assert.assertNotNull(store.get("hello"));
+
+        // updates to absent entities are not buffered
+        Assert.assertNull(service.update(new TestObject("world")));
+        Assert.assertNotNull(service.update(new TestObject("hello")));
+        Assert.assertEquals(1, service.getPendingCount());
+
+        // pending upsert of a new entity can be deleted
+        service.upsert(new TestObject("there"));
+        Assert.assertNotNull(service.deleteForID("there"));
+        Assert.assertNull(service.get("there"));
+
+        service.close();
+        Assert.assertEquals(0, service.getPendingCount());
+        Assert.assertEquals(2, service.getFlushedCount());
+    }
+
+    @Test
+    public void testPatchFlushesPendingWrite() {
+        DataStoreService<Counter, String> store = new InMemoryDataStoreServiceImpl<Counter, String>() {};
+        WriteBehindDataStoreService<Counter, String> service = new WriteBehindDataStoreService<>(store, 100, 60_000, 1000);
+
+        service.upsert(new Counter("1", 10));
+        service.upsert(new Counter("2", 20));
+        Assert.assertEquals(2, service.getPendingCount());
+
+        // the pending write is flushed before the patch, and not lost after it
+        Assert.assertTrue(service.patch("1", new DataStorePatch().inc("count", 5)));
+        Assert.assertEquals(15, store.get("1").count);
+        Assert.assertEquals(15, service.get("1").count);
+
+        // other pending writes stay pending
+        Assert.assertEquals(1, service.getPendingCount());
+        Assert.assertNull(store.get("2"));
+
+        service.close();
+        Assert.assertEquals(20, store.get("2").count);
+    }
+
+    @Test
+    public void testUserOwnedEntity() throws InterruptedException {
+        DataStoreService<OwnedObject, String> store = new InMemoryDataStoreServiceImpl<OwnedObject, String>() {};
+        WriteBehindDataStoreService<OwnedObject, String> service = new WriteBehindDataStoreService<>(store, 10, 10, 100);
+
+        try {
+            SecurityContext.setPrincipal(new User("user1"));
+            service.upsert(new OwnedObject("1"));
+            service.upsert(new OwnedObject("2", "user1"));
+
+            // flushed on the flusher thread, as the user that wrote them
+            SecurityContext.clearPrincipal();
+            awaitFlush(service);
+            Assert.assertEquals("user1", store.get("1").getUserID());
+            Assert.assertEquals("user1", store.get("2").getUserID());
+
+            // written by another user, dropped instead of retried
+            SecurityContext.setPrincipal(new User("user2"));
+            service.upsert(new OwnedObject("1", "user1"));
+            service.upsert(new OwnedObject("3"));
+            SecurityContext.clearPrincipal();
+
+            awaitFlush(service);
+            Assert.assertEquals("user1", store.get("1").getUserID());
+            Assert.assertEquals("user2", store.get("3").getUserID());
+        } finally {
+            SecurityContext.clearPrincipal();
+            service.close();
+        }
+    }
+
+    private static void awaitFlush(WriteBehindDataStoreService<?, ?> service) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (service.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        Assert.assertEquals(0, service.getPendingCount());
+    }
+
+    static class Counter {
+
+        @Id
+        String id;
+
+        int count;
+
+        Counter(String id, int count) {
+            this.id = id;
+            this.count = count;
+        }
+
+    }
+
+}